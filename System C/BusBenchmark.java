@@ -0,0 +1,698 @@
+/******************************************************************************************************************
+* File:BusBenchmark.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This program is a set of microbenchmarks of the message bus's hot paths, the baseline to measure changes to the
+* message manager and MessagePackage against. It runs in the manner of JMH: each case runs for a number of warmup
+* iterations, which are thrown away, then for a number of measured iterations of a fixed time. The score is the mean of
+* the measured iterations with a 99.9% confidence interval. The results are printed and written as JSON in the format
+* JMH writes (-rf json), so the tools that read JMH results can read them too.
+*
+* The cases call the message manager and the queues directly, in this JVM, so no transport is measured (see
+* TransportBenchmark for those):
+*
+*	QueueAddMessage			- MessageQueue.AddMessage
+*	QueueGetMessage			- MessageQueue.GetMessage, from a queue of up to RESET messages
+*	QueueGetCopy			- MessageQueue.GetCopy of a queue of {size} messages
+*	SendMessageFanOut		- MessageManager.SendMessage to {queues} registered participants
+*	GetMessageQueueLookup	- MessageManager.GetMessageQueue of one of {registrations} participants
+*	MessageCodecRoundTrip	- encoding a message with MessageCodec and reading it back
+*	MessageSerialization	- a message written to and read from fresh object streams, as RMI does
+*	SendMessageContention	- MessageManager.SendMessage to 10 participants from {senders} threads
+*	AlarmLatency			- the time from posting a fire alarm to a participant taking it off its queue, in
+*							  batches of 64, with {backlog} heartbeats from a heartbeat storm waiting in the queue
+*
+* Contention is measured as throughput (the operations per microsecond of all the threads together), the others as
+* the average time per operation. Where queues fill up, they are emptied every RESET operations, and that time is not
+* counted. Where each operation needs fresh state (in the manner of JMH's Level.Invocation), the state is prepared
+* before each operation and the operations are timed one at a time.
+*
+* Parameters: Results file (on command line). If blank, bus-benchmark.json is used.
+*			  Cases to run, a regular expression found in the case names (on command line, after the results
+*			  file). If blank, all of them.
+*			  BusBenchmark.Warmup - warmup iterations per case (default 3)
+*			  BusBenchmark.Iterations - measured iterations per case (default 5)
+*			  BusBenchmark.IterationMillis - ms per iteration (default 1000)
+*
+* Internal Methods:
+*	void Measure(Case c)
+*	String Json(List<Result> Results)
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+public class BusBenchmark
+{
+	static final int RESET = 4096;				// Operations between resets of the state of a case
+	static final double[] T999 = { 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59 };	// Student's t, 99.9%, by degrees of freedom
+
+	static int Warmup = Integer.getInteger( "BusBenchmark.Warmup", 3 );
+	static int Iterations = Integer.getInteger( "BusBenchmark.Iterations", 5 );
+	static long IterationMillis = Long.getLong( "BusBenchmark.IterationMillis", 1000 );
+	static volatile long Sink = 0;				// Keeps the JIT from discarding the work
+	static PrintStream Console = System.out;
+
+	/***************************************************************************
+	* INNER CLASS:: Case
+	* Purpose: One benchmark with one set of parameters. Op is the operation
+	*		   measured; Reset is called by each thread every RESET operations,
+	*		   and Prepare before every operation if PerInvocation is set, both
+	*		   outside the measured time.
+	*
+	****************************************************************************/
+
+	static abstract class Case
+	{
+		String Name;
+		String Param = null;					// Parameter name and value, if any
+		String Value = null;
+		int Threads = 1;
+		boolean Throughput = false;				// Scored in operations per microsecond rather than time per operation
+		boolean PerInvocation = false;			// Prepare is called before every operation
+
+		Case( String Name )
+		{
+			this.Name = Name;
+
+		} // constructor
+
+		Case( String Name, String Param, Object Value )
+		{
+			this.Name = Name;
+			this.Param = Param;
+			this.Value = String.valueOf( Value );
+
+		} // constructor
+
+		void Setup() throws Exception
+		{
+		} // Setup
+
+		abstract void Op( int Thread ) throws Exception;
+
+		void Prepare( int Thread ) throws Exception
+		{
+		} // Prepare
+
+		void Reset( int Thread ) throws Exception
+		{
+		} // Reset
+
+		void TearDown() throws Exception
+		{
+		} // TearDown
+
+		String Mode()
+		{
+			return Throughput ? "thrpt" : "avgt";
+
+		} // Mode
+
+		String Unit()
+		{
+			return Throughput ? "ops/us" : "ns/op";
+
+		} // Unit
+
+		String Label()
+		{
+			return Name + ( Param == null ? "" : " (" + Param + "=" + Value + ")" );
+
+		} // Label
+
+	} // Case
+
+	/***************************************************************************
+	* INNER CLASS:: Result
+	* Purpose: The scores of the measured iterations of a case.
+	*
+	****************************************************************************/
+
+	static class Result
+	{
+		Case c;
+		double[] Scores;
+		double Mean;
+		double Error;							// Half width of the 99.9% confidence interval
+
+		Result( Case c, double[] Scores )
+		{
+			this.c = c;
+			this.Scores = Scores;
+
+			double Sum = 0, Squares = 0;
+
+			for ( double s : Scores )
+			{
+				Sum += s;
+
+			} // for
+
+			Mean = Sum / Scores.length;
+
+			for ( double s : Scores )
+			{
+				Squares += ( s - Mean ) * ( s - Mean );
+
+			} // for
+
+			if ( Scores.length > 1 )
+			{
+				double t = ( Scores.length - 1 <= T999.length ) ? T999[Scores.length - 2] : 3.29;
+
+				Error = t * Math.sqrt( Squares / ( Scores.length - 1 ) ) / Math.sqrt( Scores.length );
+
+			} else {
+
+				Error = Double.NaN;
+
+			} // if
+
+		} // constructor
+
+	} // Result
+
+	public static void main(String args[]) throws Exception
+	{
+		String Output = ( args.length > 0 ) ? args[0] : "bus-benchmark.json";
+		Pattern Filter = Pattern.compile( ( args.length > 1 ) ? args[1] : "" );
+		ArrayList<Result> Results = new ArrayList<Result>();
+
+		// The message manager prints every registration; the results go to the console
+
+		System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+
+		Console.println( String.format( "%-45s %6s %12s %10s %8s", "Benchmark", "Mode", "Score", "Error", "Units" ) );
+
+		for ( Case c : Cases() )
+		{
+			if ( Filter.matcher( c.Label() ).find() )
+			{
+				Result r = Measure( c );
+
+				Results.add( r );
+				Console.println( String.format( "%-45s %6s %12.3f %10.3f %8s", c.Label(), c.Mode(), r.Mean, r.Error, c.Unit() ) );
+
+			} // if
+
+		} // for
+
+		Writer w = new OutputStreamWriter( new FileOutputStream( Output ), StandardCharsets.UTF_8 );
+
+		try
+		{
+			w.write( Json( Results ) );
+
+		} // try
+
+		finally
+		{
+			w.close();
+
+		} // finally
+
+		Console.println( "Results written to " + Output );
+		System.exit( 0 );
+
+	} // main
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Cases
+	* Purpose: Lists the benchmarks with each of their parameters.
+	*
+	* Arguments: None
+	*
+	* Returns: List<Case>
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static List<Case> Cases()
+	{
+		ArrayList<Case> Cases = new ArrayList<Case>();
+		final Message m = new Message( 1, 72.5f );
+
+		m.SetSenderId( 1 );
+
+		Cases.add( new Case( "QueueAddMessage" )
+		{
+			MessageQueue q = new MessageQueue( 1, 0, MessageQueue.OverflowPolicy.DROP_OLDEST );
+
+			void Op( int Thread ) { q.AddMessage( m ); }
+
+			void Reset( int Thread ) { q.ClearMessageQueue(); }
+
+		} );
+
+		Cases.add( new Case( "QueueGetMessage" )
+		{
+			MessageQueue q = new MessageQueue( 1, 0, MessageQueue.OverflowPolicy.DROP_OLDEST );
+
+			void Setup() { Reset( 0 ); }
+
+			void Op( int Thread ) { Sink += q.GetMessage().GetMessageId(); }
+
+			void Reset( int Thread )
+			{
+				q.ClearMessageQueue();
+
+				for ( int i = 0; i < RESET; i++ )
+				{
+					q.AddMessage( m );
+
+				} // for
+
+			} // Reset
+
+		} );
+
+		for ( final int Size : new int[] { 10, 100, 1000 } )
+		{
+			Cases.add( new Case( "QueueGetCopy", "size", Size )
+			{
+				MessageQueue q = new MessageQueue( 1, 0, MessageQueue.OverflowPolicy.DROP_OLDEST );
+
+				void Setup()
+				{
+					for ( int i = 0; i < Size; i++ )
+					{
+						q.AddMessage( m );
+
+					} // for
+
+				} // Setup
+
+				void Op( int Thread ) { Sink += q.GetCopy().GetSize(); }
+
+			} );
+
+		} // for
+
+		for ( int Queues : new int[] { 1, 10, 100 } )
+		{
+			Cases.add( new ManagerCase( "SendMessageFanOut", "queues", Queues, Queues, 1, false ) );
+
+		} // for
+
+		for ( final int Registrations : new int[] { 10, 1000, 10000 } )
+		{
+			Cases.add( new ManagerCase( "GetMessageQueueLookup", "registrations", Registrations, Registrations, 1, false )
+			{
+				int Next = 0;
+
+				void Op( int Thread ) throws Exception
+				{
+					Sink += em.GetMessageQueue( Ids[Next] ).GetSize();
+					Next = ( Next + 1 ) % Ids.length;
+
+				} // Op
+
+				void Reset( int Thread )
+				{
+				} // Reset
+
+			} );
+
+		} // for
+
+		Cases.add( new Case( "MessageCodecRoundTrip" )
+		{
+			void Op( int Thread ) throws Exception
+			{
+				byte[] b = MessageCodec.Encode( new Message( 1, 72.5f ) );
+
+				Sink += MessageCodec.ReadMessage( new DataInputStream( new ByteArrayInputStream( b ) ) ).GetMessageId();
+
+			} // Op
+
+		} );
+
+		Cases.add( new Case( "MessageSerialization" )
+		{
+			void Op( int Thread ) throws Exception
+			{
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+				ObjectOutputStream out = new ObjectOutputStream( bytes );
+
+				out.writeObject( new Message( 1, 72.5f ) );
+				out.close();
+
+				ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) );
+
+				Sink += ( (Message) in.readObject() ).GetMessageId();
+
+			} // Op
+
+		} );
+
+		for ( int Senders : new int[] { 1, 2, 4, 8 } )
+		{
+			Cases.add( new ManagerCase( "SendMessageContention", "senders", Senders, 10, Senders, true ) );
+
+		} // for
+
+		for ( final int Backlog : new int[] { 0, 1000, 5000 } )
+		{
+			Cases.add( new ManagerCase( "AlarmLatency", "backlog", Backlog, 2, 1, false )
+			{
+				Message Alarm = new Message( 22, true );
+				Message HeartBeat = new Message( -100, "XX" );
+				int Missing = Backlog;					// Heartbeats to add to the queue before the next operation
+
+				{
+					PerInvocation = true;
+
+				}
+
+				void Setup() throws Exception
+				{
+					super.Setup();
+					Alarm.SetSenderId( Ids[0] );
+					HeartBeat.SetSenderId( Ids[0] );
+
+				} // Setup
+
+				// Tops the backlog of heartbeats up again
+
+				void Prepare( int Thread ) throws Exception
+				{
+					if ( Missing > 0 )
+					{
+						Message[] Storm = new Message[Missing];
+
+						Arrays.fill( Storm, HeartBeat );
+						em.SendMessages( Storm );
+						Missing = 0;
+
+					} // if
+
+				} // Prepare
+
+				void Op( int Thread ) throws Exception
+				{
+					em.SendMessage( Alarm );
+
+					while ( true )
+					{
+						Message[] Batch = em.DrainMessages( Ids[1], 64, 0 );
+
+						for ( int i = 0; i < Batch.length; i++ )
+						{
+							if ( Batch[i] == Alarm )
+							{
+								Missing += Batch.length - 1;
+								return;
+
+							} // if
+
+						} // for
+
+						Missing += Batch.length;
+
+					} // while
+
+				} // Op
+
+				void Reset( int Thread )
+				{
+				} // Reset
+
+			} );
+
+		} // for
+
+		return Cases;
+
+	} // Cases
+
+	/***************************************************************************
+	* INNER CLASS:: ManagerCase
+	* Purpose: A case run against a message manager in this JVM with a number
+	*		   of registered participants. By default the operation is
+	*		   SendMessage, and each thread empties the queues every RESET
+	*		   messages.
+	*
+	****************************************************************************/
+
+	static class ManagerCase extends Case
+	{
+		int Participants;
+		MessageManager em;
+		long[] Ids;
+		Message m = new Message( 1, 72.5f );
+
+		ManagerCase( String Name, String Param, int Value, int Participants, int Threads, boolean Throughput )
+		{
+			super( Name, Param, Value );
+			this.Participants = Participants;
+			this.Threads = Threads;
+			this.Throughput = Throughput;
+
+		} // constructor
+
+		void Setup() throws Exception
+		{
+			em = new MessageManager();
+			Ids = new long[Participants];
+
+			for ( int i = 0; i < Participants; i++ )
+			{
+				Ids[i] = em.Register();
+
+			} // for
+
+			m.SetSenderId( Ids[0] );
+
+		} // Setup
+
+		void Op( int Thread ) throws Exception
+		{
+			em.SendMessage( m );
+
+		} // Op
+
+		void Reset( int Thread ) throws Exception
+		{
+			for ( int i = 0; i < Ids.length; i++ )
+			{
+				em.DrainMessages( Ids[i], 0, 0 );
+
+			} // for
+
+		} // Reset
+
+		void TearDown() throws Exception
+		{
+			UnicastRemoteObject.unexportObject( em, true );
+
+		} // TearDown
+
+	} // ManagerCase
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Measure
+	* Purpose: Runs a case's warmup and measured iterations. In each iteration
+	*		   every thread runs the operation RESET times at a stretch, timing
+	*		   each stretch (or each operation, if the case prepares every one),
+	*		   until the iteration's time is up.
+	*
+	* Arguments: Case c - the case
+	*
+	* Returns: Result - the scores of the measured iterations
+	*
+	* Exceptions: Exception
+	*
+	****************************************************************************/
+
+	static Result Measure( final Case c ) throws Exception
+	{
+		double[] Scores = new double[Iterations];
+		ExecutorService Pool = Executors.newFixedThreadPool( c.Threads );
+
+		c.Setup();
+
+		try
+		{
+			for ( int it = -Warmup; it < Iterations; it++ )
+			{
+				final long End = System.nanoTime() + IterationMillis * 1000000;
+				List<Future<long[]>> Done = new ArrayList<Future<long[]>>();
+
+				for ( int t = 0; t < c.Threads; t++ )
+				{
+					final int Thread = t;
+
+					Done.add( Pool.submit( new Callable<long[]>()
+					{
+						public long[] call() throws Exception
+						{
+							long Ops = 0, Nanos = 0;
+
+							while ( System.nanoTime() < End )
+							{
+								if ( c.PerInvocation )
+								{
+									for ( int i = 0; i < RESET; i++ )
+									{
+										c.Prepare( Thread );
+
+										long Start = System.nanoTime();
+
+										c.Op( Thread );
+										Nanos += System.nanoTime() - Start;
+
+									} // for
+
+								} else {
+
+									long Start = System.nanoTime();
+
+									for ( int i = 0; i < RESET; i++ )
+									{
+										c.Op( Thread );
+
+									} // for
+
+									Nanos += System.nanoTime() - Start;
+
+								} // if
+
+								Ops += RESET;
+								c.Reset( Thread );
+
+							} // while
+
+							return new long[] { Ops, Nanos };
+
+						} // call
+
+					} ) );
+
+				} // for
+
+				double Score = 0;
+
+				for ( Future<long[]> f : Done )
+				{
+					long[] r = f.get();
+
+					// Time per operation, or the threads' operations per microsecond added up
+
+					Score += c.Throughput ? r[0] * 1000.0 / r[1] : (double) r[1] / r[0];
+
+				} // for
+
+				if ( it >= 0 )
+				{
+					Scores[it] = Score;
+
+				} // if
+
+			} // for
+
+		} // try
+
+		finally
+		{
+			Pool.shutdown();
+			c.TearDown();
+
+		} // finally
+
+		return new Result( c, Scores );
+
+	} // Measure
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Json
+	* Purpose: Writes the results as JMH does.
+	*
+	* Arguments: List<Result> Results
+	*
+	* Returns: String - the JSON document
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static String Json( List<Result> Results )
+	{
+		StringBuilder sb = new StringBuilder( "[\n" );
+
+		for ( int i = 0; i < Results.size(); i++ )
+		{
+			Result r = Results.get( i );
+			Case c = r.c;
+
+			sb.append( "    {\n" );
+			sb.append( "        \"jmhVersion\" : \"none (BusBenchmark)\",\n" );
+			sb.append( "        \"benchmark\" : \"BusBenchmark." ).append( c.Name ).append( "\",\n" );
+			sb.append( "        \"mode\" : \"" ).append( c.Mode() ).append( "\",\n" );
+			sb.append( "        \"threads\" : " ).append( c.Threads ).append( ",\n" );
+			sb.append( "        \"forks\" : 0,\n" );
+			sb.append( "        \"jvm\" : \"" ).append( Escape( ProcessHandle.current().info().command().orElse( "java" ) ) ).append( "\",\n" );
+			sb.append( "        \"jdkVersion\" : \"" ).append( System.getProperty( "java.version" ) ).append( "\",\n" );
+			sb.append( "        \"vmName\" : \"" ).append( Escape( System.getProperty( "java.vm.name" ) ) ).append( "\",\n" );
+			sb.append( "        \"warmupIterations\" : " ).append( Warmup ).append( ",\n" );
+			sb.append( "        \"warmupTime\" : \"" ).append( IterationMillis ).append( " ms\",\n" );
+			sb.append( "        \"measurementIterations\" : " ).append( Iterations ).append( ",\n" );
+			sb.append( "        \"measurementTime\" : \"" ).append( IterationMillis ).append( " ms\",\n" );
+
+			if ( c.Param != null )
+			{
+				sb.append( "        \"params\" : {\n" );
+				sb.append( "            \"" ).append( c.Param ).append( "\" : \"" ).append( c.Value ).append( "\"\n" );
+				sb.append( "        },\n" );
+
+			} // if
+
+			sb.append( "        \"primaryMetric\" : {\n" );
+			sb.append( "            \"score\" : " ).append( Number( r.Mean ) ).append( ",\n" );
+			sb.append( "            \"scoreError\" : " ).append( Number( r.Error ) ).append( ",\n" );
+			sb.append( "            \"scoreConfidence\" : [ " ).append( Number( r.Mean - r.Error ) ).append( ", " )
+				.append( Number( r.Mean + r.Error ) ).append( " ],\n" );
+			sb.append( "            \"scoreUnit\" : \"" ).append( c.Unit() ).append( "\",\n" );
+			sb.append( "            \"rawData\" : [ [ " );
+
+			for ( int s = 0; s < r.Scores.length; s++ )
+			{
+				sb.append( s > 0 ? ", " : "" ).append( Number( r.Scores[s] ) );
+
+			} // for
+
+			sb.append( " ] ]\n" );
+			sb.append( "        },\n" );
+			sb.append( "        \"secondaryMetrics\" : {\n" );
+			sb.append( "        }\n" );
+			sb.append( "    }" ).append( i < Results.size() - 1 ? "," : "" ).append( "\n" );
+
+		} // for
+
+		return sb.append( "]\n" ).toString();
+
+	} // Json
+
+	static String Number( double d )
+	{
+		return ( Double.isNaN( d ) || Double.isInfinite( d ) ) ? "\"NaN\"" : String.valueOf( d );
+
+	} // Number
+
+	static String Escape( String s )
+	{
+		return s.replace( "\\", "\\\\" ).replace( "\"", "\\\"" );
+
+	} // Escape
+
+} // BusBenchmark
@@ -0,0 +1,128 @@
+/******************************************************************************************************************
+* File:DriftModel.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class is the environment simulation of the temperature and humidity sensors, also used by the
+*			   virtual sensors of LoadGenerator. A reading drifts up or down by a fixed random amount each sample. While
+*			   the device that raises it is on (the heater or humidifier) it goes up by a random amount instead, and
+*			   while the device that lowers it is on (the chiller or dehumidifier) it goes down by a random amount.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+import java.util.*;
+
+class DriftModel
+{
+	float Value;						// The current simulated reading
+	float DriftValue;					// The amount gained or lost each sample while both devices are off
+
+	DriftModel( float Initial )
+	{
+		Value = Initial;
+
+		if ( CoinToss() )
+		{
+			DriftValue = GetRandomNumber() * (float) -1.0;
+
+		} else {
+
+			DriftValue = GetRandomNumber();
+
+		} // if
+
+	} // constructor
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Trend
+	* Purpose: Moves the reading for one sample according to the state of the
+	*		   devices.
+	*
+	* Arguments: boolean Raising - the heater or humidifier is on
+	*			 boolean Lowering - the chiller or dehumidifier is on
+	*
+	* Returns: float - the new reading
+	*
+	* Exceptions: None
+	*
+	***************************************************************************/
+
+	float Trend( boolean Raising, boolean Lowering )
+	{
+		if (Raising)
+		{
+			Value += GetRandomNumber();
+
+		} // if raising device is on
+
+		if (!Raising && !Lowering)
+		{
+			Value += DriftValue;
+
+		} // if both devices are off
+
+		if (Lowering)
+		{
+			Value -= GetRandomNumber();
+
+		} // if lowering device is on
+
+		return Value;
+
+	} // Trend
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetRandomNumber
+	* Purpose: This method provides the simulation with random floating point
+	*		   values between 0.1 and 0.9.
+	*
+	* Arguments: None.
+	*
+	* Returns: float
+	*
+	* Exceptions: None
+	*
+	***************************************************************************/
+
+	static float GetRandomNumber()
+	{
+		Random r = new Random();
+		Float Val;
+
+		Val = Float.valueOf((float)-1.0);
+
+		while( Val < 0.1 )
+		{
+			Val = r.nextFloat();
+	 	}
+
+		return( Val.floatValue() );
+
+	} // GetRandomNumber
+
+	/***************************************************************************
+	* CONCRETE METHOD:: CoinToss
+	* Purpose: This method provides a random true or false value used for
+	* determining the positiveness or negativeness of the drift value.
+	*
+	* Arguments: None.
+	*
+	* Returns: boolean
+	*
+	* Exceptions: None
+	*
+	***************************************************************************/
+
+	static boolean CoinToss()
+	{
+		Random r = new Random();
+
+		return(r.nextBoolean());
+
+	} // CoinToss
+
+} // DriftModel
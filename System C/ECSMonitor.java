@@ -20,6 +20,7 @@
 *	static private void Chiller(MessageManagerInterface ei, boolean ON )
 *	static private void Humidifier(MessageManagerInterface ei, boolean ON )
 *	static private void Dehumidifier(MessageManagerInterface ei, boolean ON )
+*	private void PostMessages()
 *
 ******************************************************************************************************************/
 import InstrumentationPackage.*;
@@ -40,6 +41,7 @@ class ECSMonitor extends Thread
 	Indicator hi;								// Humidity indicator
 	Random random = new Random();
 	private int ID = 0;
+	private Vector<Message> Pending = new Vector<Message>();	// Messages to post at the end of this cycle
 
 	public ECSMonitor()
 	{
@@ -94,7 +96,8 @@ class ECSMonitor extends Thread
 		int MsgId = 0;					// User specified message ID
 		float CurrentTemperature = 0;	// Current temperature as reported by the temperature sensor
 		float CurrentHumidity= 0;		// Current relative humidity as reported by the humidity sensor
-		int	Delay = 1000;				// The loop delay (1 second)
+		int	Delay = 1000;				// The heartbeat interval (1 second)
+		long NextHeartBeat = 0;			// When the next heartbeat is due
 		boolean Done = false;			// Loop termination flag
 		boolean ON = true;				// Used to turn on heaters, chillers, humidifiers, and dehumidifiers
 		boolean OFF = false;			// Used to turn off heaters, chillers, humidifiers, and dehumidifiers
@@ -126,18 +129,40 @@ class ECSMonitor extends Thread
 
 			} // catch
 
+			// Subscribe to the temperature (1) and humidity (2) readings. The halt message (99)
+			// is always delivered.
+
+			try
+			{
+				em.Subscribe( 1 );
+				em.Subscribe( 2 );
+
+				// Only the latest reading from each sensor matters, so have newer
+				// readings replace any that are still waiting in the queue.
+
+				em.Conflate( 1 );
+				em.Conflate( 2 );
+
+			} // try
+
+			catch (Exception e)
+			{
+				mw.WriteMessage("Error subscribing:: " + e);
+
+			} // catch
+
 			/********************************************************************
 			** Here we start the main simulation loop
 			*********************************************************************/
 
 			while ( !Done )
 			{
-				// Here we get our message queue from the message manager
-				HeartBeat.SendHeartBeat(em, "ECSConsole-" + String.valueOf(ID) + "#ECSConsole displays the status of the temperature and humidity.");
+				// Wait for messages until the next heartbeat is due. The message
+				// manager returns as soon as a message arrives.
 
 				try
 				{
-					eq = em.GetMessageQueue();
+					eq = em.GetMessageQueue( NextHeartBeat - System.currentTimeMillis() );
 
 				} // try
 
@@ -145,6 +170,20 @@ class ECSMonitor extends Thread
 				{
 					mw.WriteMessage("Error getting message queue::" + e );
 
+					// Don't spin while the message manager can't be reached
+
+					try
+					{
+						Thread.sleep( Delay );
+
+					} // try
+
+					catch( Exception se )
+					{
+						System.out.println( "Sleep error:: " + se );
+
+					} // catch
+
 				} // catch
 
 				// If there are messages in the queue, we read through them.
@@ -162,36 +201,17 @@ class ECSMonitor extends Thread
 				{
 					Msg = eq.GetMessage();
 
+					// Readings carry their value as a float, so there is no text to parse.
+
 					if ( Msg.GetMessageId() == 1 ) // Temperature reading
 					{
-						try
-						{
-							CurrentTemperature = Float.valueOf(Msg.GetMessage()).floatValue();
-
-						} // try
-
-						catch( Exception e )
-						{
-							mw.WriteMessage("Error reading temperature: " + e);
-
-						} // catch
+						CurrentTemperature = Msg.GetFloat();
 
 					} // if
 
 					if ( Msg.GetMessageId() == 2 ) // Humidity reading
 					{
-						try
-						{
-
-							CurrentHumidity = Float.valueOf(Msg.GetMessage()).floatValue();
-
-						} // try
-
-						catch( Exception e )
-						{
-							mw.WriteMessage("Error reading humidity: " + e);
-
-						} // catch
+						CurrentHumidity = Msg.GetFloat();
 
 					} // if
 
@@ -280,19 +300,19 @@ class ECSMonitor extends Thread
 
 				} // if
 
-				// This delay slows down the sample rate to Delay milliseconds
+				// Send a heartbeat once every Delay milliseconds
 
-				try
+				if ( System.currentTimeMillis() >= NextHeartBeat )
 				{
-					Thread.sleep( Delay );
+					Pending.add( HeartBeat.CreateHeartBeat("ECSConsole-" + String.valueOf(ID) + "#ECSConsole displays the status of the temperature and humidity.") );
+					NextHeartBeat = System.currentTimeMillis() + Delay;
 
-				} // try
+				} // if
 
-				catch( Exception e )
-				{
-					System.out.println( "Sleep error:: " + e );
+				// Post the heartbeat and the heater, chiller, humidifier and
+				// dehumidifier commands in a single call.
 
-				} // catch
+				PostMessages();
 
 			} // while
 
@@ -405,7 +425,7 @@ class ECSMonitor extends Thread
 
 	/***************************************************************************
 	* CONCRETE METHOD:: Heater
-	* Purpose: This method posts messages that will signal the temperature
+	* Purpose: This method queues a message that will signal the temperature
 	*		   controller to turn on/off the heater
 	*
 	* Arguments: boolean ON(true)/OFF(false) - indicates whether to turn the
@@ -413,7 +433,7 @@ class ECSMonitor extends Thread
 	*
 	* Returns: none
 	*
-	* Exceptions: Posting to message manager exception
+	* Exceptions: None
 	*
 	***************************************************************************/
 
@@ -423,35 +443,17 @@ class ECSMonitor extends Thread
 
 		Message msg;
 
-		if ( ON )
-		{
-			msg = new Message( (int) 5, "H1" );
-
-		} else {
-
-			msg = new Message( (int) 5, "H0" );
+		msg = new Message( (int) 5, Command.HEATER, ON );
 
-		} // if
+		// Here we add the message to this cycle's batch (see PostMessages).
 
-		// Here we send the message to the message manager.
-
-		try
-		{
-			em.SendMessage( msg );
-
-		} // try
-
-		catch (Exception e)
-		{
-			System.out.println("Error sending heater control message:: " + e);
-
-		} // catch
+		Pending.add( msg );
 
 	} // Heater
 
 	/***************************************************************************
 	* CONCRETE METHOD:: Chiller
-	* Purpose: This method posts messages that will signal the temperature
+	* Purpose: This method queues a message that will signal the temperature
 	*		   controller to turn on/off the chiller
 	*
 	* Arguments: boolean ON(true)/OFF(false) - indicates whether to turn the
@@ -459,7 +461,7 @@ class ECSMonitor extends Thread
 	*
 	* Returns: none
 	*
-	* Exceptions: Posting to message manager exception
+	* Exceptions: None
 	*
 	***************************************************************************/
 
@@ -469,35 +471,17 @@ class ECSMonitor extends Thread
 
 		Message msg;
 
-		if ( ON )
-		{
-			msg = new Message( (int) 5, "C1" );
-
-		} else {
-
-			msg = new Message( (int) 5, "C0" );
+		msg = new Message( (int) 5, Command.CHILLER, ON );
 
-		} // if
-
-		// Here we send the message to the message manager.
-
-		try
-		{
-			em.SendMessage( msg );
-
-		} // try
-
-		catch (Exception e)
-		{
-			System.out.println("Error sending chiller control message:: " + e);
+		// Here we add the message to this cycle's batch (see PostMessages).
 
-		} // catch
+		Pending.add( msg );
 
 	} // Chiller
 
 	/***************************************************************************
 	* CONCRETE METHOD:: Humidifier
-	* Purpose: This method posts messages that will signal the humidity
+	* Purpose: This method queues a message that will signal the humidity
 	*		   controller to turn on/off the humidifier
 	*
 	* Arguments: boolean ON(true)/OFF(false) - indicates whether to turn the
@@ -505,7 +489,7 @@ class ECSMonitor extends Thread
 	*
 	* Returns: none
 	*
-	* Exceptions: Posting to message manager exception
+	* Exceptions: None
 	*
 	***************************************************************************/
 
@@ -515,35 +499,17 @@ class ECSMonitor extends Thread
 
 		Message msg;
 
-		if ( ON )
-		{
-			msg = new Message( (int) 4, "H1" );
-
-		} else {
-
-			msg = new Message( (int) 4, "H0" );
-
-		} // if
-
-		// Here we send the message to the message manager.
-
-		try
-		{
-			em.SendMessage( msg );
-
-		} // try
+		msg = new Message( (int) 4, Command.HUMIDIFIER, ON );
 
-		catch (Exception e)
-		{
-			System.out.println("Error sending humidifier control message::  " + e);
+		// Here we add the message to this cycle's batch (see PostMessages).
 
-		} // catch
+		Pending.add( msg );
 
 	} // Humidifier
 
 	/***************************************************************************
 	* CONCRETE METHOD:: Deumidifier
-	* Purpose: This method posts messages that will signal the humidity
+	* Purpose: This method queues a message that will signal the humidity
 	*		   controller to turn on/off the dehumidifier
 	*
 	* Arguments: boolean ON(true)/OFF(false) - indicates whether to turn the
@@ -551,7 +517,7 @@ class ECSMonitor extends Thread
 	*
 	* Returns: none
 	*
-	* Exceptions: Posting to message manager exception
+	* Exceptions: None
 	*
 	***************************************************************************/
 
@@ -561,30 +527,47 @@ class ECSMonitor extends Thread
 
 		Message msg;
 
-		if ( ON )
-		{
-			msg = new Message( (int) 4, "D1" );
+		msg = new Message( (int) 4, Command.DEHUMIDIFIER, ON );
 
-		} else {
+		// Here we add the message to this cycle's batch (see PostMessages).
 
-			msg = new Message( (int) 4, "D0" );
+		Pending.add( msg );
 
-		} // if
+	} // Dehumidifier
 
-		// Here we send the message to the message manager.
+	/***************************************************************************
+	* CONCRETE METHOD:: PostMessages
+	* Purpose: This method posts the messages queued during this cycle to the
+	*		   message manager in a single call and empties the batch.
+	*
+	* Arguments: none
+	*
+	* Returns: none
+	*
+	* Exceptions: Posting to message manager exception
+	*
+	***************************************************************************/
 
-		try
+	private void PostMessages()
+	{
+		if ( Pending.size() > 0 )
 		{
-			em.SendMessage( msg );
+			try
+			{
+				em.SendMessages( Pending.toArray( new Message[Pending.size()] ) );
 
-		} // try
+			} // try
 
-		catch (Exception e)
-		{
-			System.out.println("Error sending dehumidifier control message::  " + e);
+			catch (Exception e)
+			{
+				System.out.println("Error sending control messages:: " + e);
 
-		} // catch
+			} // catch
 
-	} // Dehumidifier
+			Pending.clear();
+
+		} // if
+
+	} // PostMessages
 
 } // ECSMonitor
\ No newline at end of file
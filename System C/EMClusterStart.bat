@@ -0,0 +1,9 @@
+%ECHO OFF
+%ECHO Starting a message manager federated over three nodes on this machine
+START "EVENT MANAGER REGISTRY 0" /MIN /NORMAL rmiregistry 1099
+START "EVENT MANAGER REGISTRY 1" /MIN /NORMAL rmiregistry 1199
+START "EVENT MANAGER REGISTRY 2" /MIN /NORMAL rmiregistry 1299
+START "EVENT MANAGER 0" /MIN /NORMAL java -DMessageManager.NodeIndex=0 -DMessageManager.Peers=localhost:1199,localhost:1299 -DMessageManager.RegistryPort=1099 -DMessageManager.NioPort=1100 -DMessageManager.MetricsPort=9400 MessageManager
+START "EVENT MANAGER 1" /MIN /NORMAL java -DMessageManager.NodeIndex=1 -DMessageManager.Peers=localhost:1099,localhost:1299 -DMessageManager.RegistryPort=1199 -DMessageManager.NioPort=1200 -DMessageManager.MetricsPort=9401 MessageManager
+START "EVENT MANAGER 2" /MIN /NORMAL java -DMessageManager.NodeIndex=2 -DMessageManager.Peers=localhost:1099,localhost:1199 -DMessageManager.RegistryPort=1299 -DMessageManager.NioPort=1300 -DMessageManager.MetricsPort=9402 MessageManager
+%ECHO Give participants the nodes in place of the message manager IP address: localhost:1099,localhost:1199,localhost:1299
@@ -0,0 +1,5 @@
+%ECHO OFF
+%ECHO Starting the message manager with a hot standby that takes over if it dies
+START "EVENT MANAGER REGISTRY" /MIN /NORMAL rmiregistry
+START "EVENT MANAGER" /MIN /NORMAL java -DMessageManager.Replicate=true MessageManager
+START "EVENT MANAGER STANDBY" /MIN /NORMAL java -DMessageManager.Replicate=true -DMessageManager.StandbyOf=localhost:1099 MessageManager
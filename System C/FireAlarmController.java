@@ -21,7 +21,8 @@ class FireAlarmController
 		int MsgId = 0;						// User specified message ID
 		MessageManagerInterface em = null;	// Interface object to the message manager
 		boolean state = false;
-		int	Delay = 2500;					// The loop delay (2.5 seconds)
+		int	Delay = 2500;					// The heartbeat interval (2.5 seconds)
+		long NextHeartBeat = 0;				// When the next heartbeat is due
 		boolean Done = false;				// Loop termination flag
 		Random random = new Random();
 		int ID = random.nextInt(20)%(20+1);
@@ -112,16 +113,59 @@ class FireAlarmController
 
 			} // catch
 
+			// Subscribe to the fire alarm commands (12) and sprinkler notices (44). The halt message (99)
+			// is always delivered.
+
+			try
+			{
+				em.Subscribe( 12 );
+				em.Subscribe( 44 );
+
+			} // try
+
+			catch (Exception e)
+			{
+				mw.WriteMessage("Error subscribing:: " + e);
+
+			} // catch
+
+			// This participant is on the fire alarm path, so have the message
+			// manager push its messages instead of waiting to be polled. If that
+			// fails, GetMessageQueue keeps polling the message manager.
+
+			try
+			{
+				em.UsePushDelivery();
+
+			} // try
+
+			catch (Exception e)
+			{
+				mw.WriteMessage("Push delivery not available, polling:: " + e);
+
+			} // catch
+
 			/********************************************************************
 			** Here we start the main simulation loop
 			*********************************************************************/
 
 			while ( !Done )
 			{
-				HeartBeat.SendHeartBeat(em, "Fire Alarm Controller-" + String.valueOf(ID) + "#The Fire Alarm Controller control the fire alarm.");
+				// Send a heartbeat once every Delay milliseconds
+
+				if ( System.currentTimeMillis() >= NextHeartBeat )
+				{
+					HeartBeat.SendHeartBeat(em, "Fire Alarm Controller-" + String.valueOf(ID) + "#The Fire Alarm Controller control the fire alarm.");
+					NextHeartBeat = System.currentTimeMillis() + Delay;
+
+				} // if
+
+				// Wait for messages until the next heartbeat is due. The message
+				// manager returns as soon as a message arrives.
+
 				try
 				{
-					eq = em.GetMessageQueue();
+					eq = em.GetMessageQueue( NextHeartBeat - System.currentTimeMillis() );
 
 				} // try
 
@@ -129,6 +173,20 @@ class FireAlarmController
 				{
 					mw.WriteMessage("Error getting message queue::" + e );
 
+					// Don't spin while the message manager can't be reached
+
+					try
+					{
+						Thread.sleep( Delay );
+
+					} // try
+
+					catch( Exception se )
+					{
+						System.out.println( "Sleep error:: " + se );
+
+					} // catch
+
 				} // catch
 
 				// If there are messages in the queue, we read through them.
@@ -148,35 +206,35 @@ class FireAlarmController
 
 					if ( Msg.GetMessageId() == 12 )
 					{
-						if (Msg.GetMessage().equalsIgnoreCase("ON")) // turn on
+						if (Msg.GetCommand() == Command.FIRE_ALARM && Msg.GetBoolean()) // turn on
 						{
 							state = true;
 							mw.WriteMessage("Received fire message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "ON" );
+							ConfirmMessage( em, Command.FIRE_ALARM, true );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("OFF")) // turn off
+						if (Msg.GetCommand() == Command.FIRE_ALARM && !Msg.GetBoolean()) // turn off
 						{
 							state = false;
 							mw.WriteMessage("Received no fire message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "OFF" );
+							ConfirmMessage( em, Command.FIRE_ALARM, false );
 
 						} // if
 
 					} // if
 
-					if(Msg.GetMessageId() == 44 && Msg.GetMessage().equalsIgnoreCase("ON")){
+					if(Msg.GetMessageId() == 44 && Msg.GetCommand() == Command.SPRINKLER && Msg.GetBoolean()){
 						state = false;
 						mw.WriteMessage("Received sprinkler on message" );
 
-						ConfirmMessage( em, "OFF" );
+						ConfirmMessage( em, Command.FIRE_ALARM, false );
 
 					}
 
@@ -225,18 +283,6 @@ class FireAlarmController
 
 				} // if
 
-				try
-				{
-					Thread.sleep( Delay );
-
-				} // try
-
-				catch( Exception e )
-				{
-					System.out.println( "Sleep error:: " + e );
-
-				} // catch
-
 			} // while
 
 		} else {
@@ -256,7 +302,7 @@ class FireAlarmController
 	* Arguments: MessageManagerInterface ei - this is the messagemanger interface
 	*			 where the message will be posted.
 	*
-	*			 string m - this is the received command.
+	*			 Command Cmd, boolean On - this is the received command.
 	*
 	* Returns: none
 	*
@@ -264,11 +310,11 @@ class FireAlarmController
 	*
 	***************************************************************************/
 
-	static private void ConfirmMessage(MessageManagerInterface ei, String m )
+	static private void ConfirmMessage(MessageManagerInterface ei, Command Cmd, boolean On )
 	{
 		// Here we create the message.
 
-		Message msg = new Message( (int) -12, m );
+		Message msg = new Message( (int) -12, Cmd, On );
 
 		// Here we send the message to the message manager.
 
@@ -20,7 +20,8 @@ class FireSensor {
         int MsgId = 0;					// User specified message ID
         MessageManagerInterface em = null;// Interface object to the message manager
         boolean state = false;	// Door state: false == off, true == on
-        int Delay = 2500;				// The loop delay (5 seconds)
+        int Delay = 2500;				// The heartbeat interval (5 seconds)
+        long NextHeartBeat = 0;          // When the next heartbeat is due
         boolean Done = false;			// Loop termination flag
         Random random = new Random();
         int ID = random.nextInt(20)%(20+1);
@@ -87,17 +88,56 @@ class FireSensor {
 
             } // catch
 
+            // Subscribe to the fire alarm confirmations (-12). The halt message (99)
+            // is always delivered.
+            try {
+                em.Subscribe(-12);
+
+            } // try
+            catch (Exception e) {
+                mw.WriteMessage("Error subscribing:: " + e);
+
+            } // catch
+
+            // This participant is on the fire alarm path, so have the message
+            // manager push its messages instead of waiting to be polled. If that
+            // fails, GetMessageQueue keeps polling the message manager.
+            try {
+                em.UsePushDelivery();
+
+            } // try
+            catch (Exception e) {
+                mw.WriteMessage("Push delivery not available, polling:: " + e);
+
+            } // catch
+
             while (!Done) {
-                // Post the current temperature
-                HeartBeat.SendHeartBeat(em, "Fire Sensor-" + String.valueOf(ID) + "#Fire sensor detect whether there is a fire.");
-                // Get the message queue
+                // Send a heartbeat once every Delay milliseconds
+                if (System.currentTimeMillis() >= NextHeartBeat) {
+                    HeartBeat.SendHeartBeat(em, "Fire Sensor-" + String.valueOf(ID) + "#Fire sensor detect whether there is a fire.");
+                    NextHeartBeat = System.currentTimeMillis() + Delay;
+
+                } // if
+
+                // Wait for messages until the next heartbeat is due. The message
+                // manager returns as soon as a message arrives.
                 try {
-                    eq = em.GetMessageQueue();
+                    eq = em.GetMessageQueue(NextHeartBeat - System.currentTimeMillis());
 
                 } // try
                 catch (Exception e) {
                     mw.WriteMessage("Error getting message queue::" + e);
 
+                    // Don't spin while the message manager can't be reached
+                    try {
+                        Thread.sleep(Delay);
+
+                    } // try
+                    catch (Exception se) {
+                        mw.WriteMessage("Sleep error:: " + se);
+
+                    } // catch
+
                 } // catch
 
                 // If there are messages in the queue, we read through them.
@@ -113,13 +153,13 @@ class FireSensor {
                     Msg = eq.GetMessage();
 
                     if (Msg.GetMessageId() == -12) {
-                        if (Msg.GetMessage().equalsIgnoreCase("ON"))
+                        if (Msg.GetCommand() == Command.FIRE_ALARM && Msg.GetBoolean())
                         {
                             state = true;
 
                         } // if
 
-                        if (Msg.GetMessage().equalsIgnoreCase("OFF"))
+                        if (Msg.GetCommand() == Command.FIRE_ALARM && !Msg.GetBoolean())
                         {
                             state = false;
 
@@ -127,7 +167,7 @@ class FireSensor {
 
                     } // if
 
-                    //if(Msg.GetMessageId() == -13 && Msg.GetMessage().equalsIgnoreCase("ON")){
+                    //if(Msg.GetMessageId() == -13 && Msg.GetCommand() == Command.FIRE_ALARM && Msg.GetBoolean()){
                     //    state = false;
                     //}
                     
@@ -152,22 +192,12 @@ class FireSensor {
 
                 } // for
                 if (state) {
-                    PostFire(em, "ON");
+                    PostFire(em, true);
                     mw.WriteMessage("Fire alarm");
                 }else{
-                    //PostFire(em, "OFF");
+                    //PostFire(em, false);
                     mw.WriteMessage("Nn Fire");
                 }
-                    
-                // Here we wait for a 2.5 seconds before we start the next sample
-                try {
-                    Thread.sleep(Delay);
-
-                } // try
-                catch (Exception e) {
-                    mw.WriteMessage("Sleep error:: " + e);
-
-                } // catch
 
             } // while
 
@@ -198,10 +228,10 @@ class FireSensor {
      *
      **************************************************************************
      */
-    static private void PostFire(MessageManagerInterface ei, String context) {
+    static private void PostFire(MessageManagerInterface ei, boolean Fire) {
         // Here we create the message.
 
-        Message msg = new Message((int) 22, context);
+        Message msg = new Message((int) 22, Fire);
 
         // Here we send the message to the message manager.
         try {
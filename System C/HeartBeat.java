@@ -8,7 +8,7 @@ class HeartBeat{
     {
         // Here we create the message.
 
-        Message msg = new Message( (int) -100, m );
+        Message msg = CreateHeartBeat( m );
 
         // Here we send the message to the message manager.
 
@@ -25,4 +25,13 @@ class HeartBeat{
         } // catch
 
     } // PostMessage
+
+    // Creates a heartbeat message without sending it, so it can be posted in
+    // the same SendMessages call as a participant's other messages.
+
+    static public Message CreateHeartBeat( String m )
+    {
+        return new Message( (int) -100, m );
+
+    } // CreateHeartBeat
 }
\ No newline at end of file
@@ -25,7 +25,7 @@
 * on the local machine.
 *
 * Internal Methods:
-*	static private void ConfirmMessage(MessageManagerInterface ei, String m )
+*	static private void ConfirmMessage(MessageManagerInterface ei, Command Cmd, boolean On )
 *
 ******************************************************************************************************************/
 import InstrumentationPackage.*;
@@ -43,7 +43,8 @@ class HumidityController
 		MessageManagerInterface em = null;	// Interface object to the message manager
 		boolean HumidifierState = false;	// Heater state: false == off, true == on
 		boolean DehumidifierState = false;	// Dehumidifier state: false == off, true == on
-		int	Delay = 2500;					// The loop delay (2.5 seconds)
+		int	Delay = 2500;					// The heartbeat interval (2.5 seconds)
+		long NextHeartBeat = 0;				// When the next heartbeat is due
 		boolean Done = false;				// Loop termination flag
 		Random random = new Random();
         int ID = random.nextInt(20)%(20+1);
@@ -135,16 +136,42 @@ class HumidityController
 
 			} // catch
 
+			// Subscribe to the humidifier and dehumidifier commands (4). The halt message (99)
+			// is always delivered.
+
+			try
+			{
+				em.Subscribe( 4 );
+
+			} // try
+
+			catch (Exception e)
+			{
+				mw.WriteMessage("Error subscribing:: " + e);
+
+			} // catch
+
 			/********************************************************************
 			** Here we start the main simulation loop
 			*********************************************************************/
 
 			while ( !Done )
 			{
-				HeartBeat.SendHeartBeat(em, "Humidity Controller" + String.valueOf(ID) + "#The humidity controller is a process that interfaces with, and controls two devices: a humidifier to add moisture to the air, and a dehumidifier to remove moisture from the air.");
+				// Send a heartbeat once every Delay milliseconds
+
+				if ( System.currentTimeMillis() >= NextHeartBeat )
+				{
+					HeartBeat.SendHeartBeat(em, "Humidity Controller" + String.valueOf(ID) + "#The humidity controller is a process that interfaces with, and controls two devices: a humidifier to add moisture to the air, and a dehumidifier to remove moisture from the air.");
+					NextHeartBeat = System.currentTimeMillis() + Delay;
+
+				} // if
+
+				// Wait for messages until the next heartbeat is due. The message
+				// manager returns as soon as a message arrives.
+
 				try
 				{
-					eq = em.GetMessageQueue();
+					eq = em.GetMessageQueue( NextHeartBeat - System.currentTimeMillis() );
 
 				} // try
 
@@ -152,6 +179,20 @@ class HumidityController
 				{
 					mw.WriteMessage("Error getting message queue::" + e );
 
+					// Don't spin while the message manager can't be reached
+
+					try
+					{
+						Thread.sleep( Delay );
+
+					} // try
+
+					catch( Exception se )
+					{
+						System.out.println( "Sleep error:: " + se );
+
+					} // catch
+
 				} // catch
 
 				// If there are messages in the queue, we read through them.
@@ -170,47 +211,47 @@ class HumidityController
 
 					if ( Msg.GetMessageId() == 4 )
 					{
-						if (Msg.GetMessage().equalsIgnoreCase("H1")) // humidifier on
+						if (Msg.GetCommand() == Command.HUMIDIFIER && Msg.GetBoolean()) // humidifier on
 						{
 							HumidifierState = true;
 							mw.WriteMessage("Received humidifier on message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "H1" );
+							ConfirmMessage( em, Command.HUMIDIFIER, true );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("H0")) // humidifier off
+						if (Msg.GetCommand() == Command.HUMIDIFIER && !Msg.GetBoolean()) // humidifier off
 						{
 							HumidifierState = false;
 							mw.WriteMessage("Received humidifier off message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "H0" );
+							ConfirmMessage( em, Command.HUMIDIFIER, false );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("D1")) // dehumidifier on
+						if (Msg.GetCommand() == Command.DEHUMIDIFIER && Msg.GetBoolean()) // dehumidifier on
 						{
 							DehumidifierState = true;
 							mw.WriteMessage("Received dehumidifier on message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "D1" );
+							ConfirmMessage( em, Command.DEHUMIDIFIER, true );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("D0")) // dehumidifier off
+						if (Msg.GetCommand() == Command.DEHUMIDIFIER && !Msg.GetBoolean()) // dehumidifier off
 						{
 							DehumidifierState = false;
 							mw.WriteMessage("Received dehumidifier off message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "D0" );
+							ConfirmMessage( em, Command.DEHUMIDIFIER, false );
 
 						} // if
 
@@ -277,18 +318,6 @@ class HumidityController
 
 				} // if
 
-				try
-				{
-					Thread.sleep( Delay );
-
-				} // try
-
-				catch( Exception e )
-				{
-					System.out.println( "Sleep error:: " + e );
-
-				} // catch
-
 			} // while
 
 		} else {
@@ -308,7 +337,7 @@ class HumidityController
 	* Arguments: MessageManagerInterface ei - this is the messagemanger interface
 	*			 where the message will be posted.
 	*
-	*			 string m - this is the received command.
+	*			 Command Cmd, boolean On - this is the received command.
 	*
 	* Returns: none
 	*
@@ -316,11 +345,11 @@ class HumidityController
 	*
 	***************************************************************************/
 
-	static private void ConfirmMessage(MessageManagerInterface ei, String m )
+	static private void ConfirmMessage(MessageManagerInterface ei, Command Cmd, boolean On )
 	{
 		// Here we create the message.
 
-		Message msg = new Message( (int) -4, m );
+		Message msg = new Message( (int) -4, Cmd, On );
 
 		// Here we send the message to the message manager.
 
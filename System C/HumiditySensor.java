@@ -16,9 +16,7 @@
 * on the local machine.
 *
 * Internal Methods:
-*	float GetRandomNumber()
-*	boolean CoinToss()
-*   void PostHumidity(MessageManagerInterface ei, float humidity )
+*   void PostHumidity(MessageManagerInterface ei, float humidity, Message hb )
 *
 ******************************************************************************************************************/
 import InstrumentationPackage.*;
@@ -27,6 +25,8 @@ import java.util.*;
 
 class HumiditySensor
 {
+	static final long TIMETOLIVE = 10000;	// ms a reading stays of use (four sample intervals)
+
 
 	public static void main(String args[])
 	{
@@ -37,9 +37,9 @@ class HumiditySensor
 		MessageManagerInterface em = null;	// Interface object to the message manager
 		boolean HumidifierState = false;	// Humidifier state: false == off, true == on
 		boolean DehumidifierState = false;	// Dehumidifier state: false == off, true == on
-		float RelativeHumidity;				// Current simulated ambient room humidity
-		float DriftValue;					// The amount of humidity gained or lost
-		int	Delay = 2500;					// The loop delay (2.5 seconds)
+		DriftModel Humidity;			// Current simulated ambient room humidity (see DriftModel)
+		int	Delay = 2500;					// The sample interval (2.5 seconds)
+		long NextSample = 0;			// When the next sample is due
 		boolean Done = false;				// Loop termination flag
 		Random random = new Random();
         int ID = random.nextInt(20)%(20+1);
@@ -125,22 +125,33 @@ class HumiditySensor
 
 			} // catch
 
-			mw.WriteMessage("\nInitializing Humidity Simulation::" );
+			// Subscribe to the humidifier and dehumidifier confirmations (-4). The halt message (99)
+			// is always delivered.
 
-			RelativeHumidity = GetRandomNumber() * (float) 100.00;
+			try
+			{
+				em.Subscribe( -4 );
 
-			if ( CoinToss() )
+			} // try
+
+			catch (Exception e)
 			{
-				DriftValue = GetRandomNumber() * (float) -1.0;
+				mw.WriteMessage("Error subscribing:: " + e);
 
-			} else {
+			} // catch
 
-				DriftValue = GetRandomNumber();
+			// Readings and heartbeats held back while the message manager cannot be
+			// reached are of no use once a newer reading is due, so they are dropped.
 
-			} // if
+			em.DropWhenStale( 2, Delay * 2 );
+			em.DropWhenStale( -100, Delay * 2 );
 
-			mw.WriteMessage("   Initial Humidity Set:: " + RelativeHumidity );
-			// mw.WriteMessage("   Drift Value Set:: " + DriftValue ); // Used to debug the random drift values
+			mw.WriteMessage("\nInitializing Humidity Simulation::" );
+
+			Humidity = new DriftModel( DriftModel.GetRandomNumber() * (float) 100.00 );
+
+			mw.WriteMessage("   Initial Humidity Set:: " + Humidity.Value );
+			// mw.WriteMessage("   Drift Value Set:: " + Humidity.DriftValue ); // Used to debug the random drift values
 
 			/********************************************************************
 			** Here we start the main simulation loop
@@ -152,17 +163,21 @@ class HumiditySensor
 			while ( !Done )
 			{
 				// Post the current relative humidity
-				HeartBeat.SendHeartBeat(em, "Humidity Sensor-" + String.valueOf(ID) + "#This is a process that simulates the action of a humidity sensor.");
+				if ( System.currentTimeMillis() >= NextSample )
+				{
+					PostHumidity( em, Humidity.Value, HeartBeat.CreateHeartBeat("Humidity Sensor-" + String.valueOf(ID) + "#This is a process that simulates the action of a humidity sensor.") );
 
-				PostHumidity( em, RelativeHumidity );
+					mw.WriteMessage("Current Relative Humidity:: " + Humidity.Value + "%");
+					NextSample = System.currentTimeMillis() + Delay;
 
-				mw.WriteMessage("Current Relative Humidity:: " + RelativeHumidity + "%");
+				} // if
 
-				// Get the message queue
+				// Wait for messages until the next sample is due. The message
+				// manager returns as soon as a message arrives.
 
 				try
 				{
-					eq = em.GetMessageQueue();
+					eq = em.GetMessageQueue( NextSample - System.currentTimeMillis() );
 
 				} // try
 
@@ -170,6 +185,20 @@ class HumiditySensor
 				{
 					mw.WriteMessage("Error getting message queue::" + e );
 
+					// Don't spin while the message manager can't be reached
+
+					try
+					{
+						Thread.sleep( Delay );
+
+					} // try
+
+					catch( Exception se )
+					{
+						mw.WriteMessage("Sleep error:: " + se );
+
+					} // catch
+
 				} // catch
 
 				// If there are messages in the queue, we read through them.
@@ -188,25 +217,25 @@ class HumiditySensor
 
 					if ( Msg.GetMessageId() == -4 )
 					{
-						if (Msg.GetMessage().equalsIgnoreCase("H1")) // humidifier on
+						if (Msg.GetCommand() == Command.HUMIDIFIER && Msg.GetBoolean()) // humidifier on
 						{
 							HumidifierState = true;
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("H0")) // humidifier off
+						if (Msg.GetCommand() == Command.HUMIDIFIER && !Msg.GetBoolean()) // humidifier off
 						{
 							HumidifierState = false;
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("D1")) // dehumidifier on
+						if (Msg.GetCommand() == Command.DEHUMIDIFIER && Msg.GetBoolean()) // dehumidifier on
 						{
 							DehumidifierState = true;
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("D0")) // dehumidifier off
+						if (Msg.GetCommand() == Command.DEHUMIDIFIER && !Msg.GetBoolean()) // dehumidifier off
 						{
 							DehumidifierState = false;
 
@@ -242,38 +271,13 @@ class HumiditySensor
 
 				// Now we trend the relative humidity according to the status of the
 				// humidifier/dehumidifier controller.
+				// This is done once per sample, just before the next reading is posted.
 
-				if (HumidifierState)
-				{
-					RelativeHumidity += GetRandomNumber();
-
-				} // if humidifier is on
-
-				if (!HumidifierState && !DehumidifierState)
-				{
-					RelativeHumidity += DriftValue;
-
-				} // if both the humidifier and dehumidifier are off
-
-				if (DehumidifierState)
-				{
-					RelativeHumidity -= GetRandomNumber();
-
-				} // if dehumidifier is on
-
-				// Here we wait for a 2.5 seconds before we start the next sample
-
-				try
-				{
-					Thread.sleep( Delay );
-
-				} // try
-
-				catch( Exception e )
+				if ( System.currentTimeMillis() >= NextSample )
 				{
-					mw.WriteMessage("Sleep error:: " + e );
+					Humidity.Trend( HumidifierState, DehumidifierState );
 
-				} // catch
+				} // if
 
 			} // while
 
@@ -285,83 +289,42 @@ class HumiditySensor
 
 	} // main
 
-	/***************************************************************************
-	* CONCRETE METHOD:: GetRandomNumber
-	* Purpose: This method provides the simulation with random floating point
-	*		   humidity values between 0.1 and 0.9.
-	*
-	* Arguments: None.
-	*
-	* Returns: float
-	*
-	* Exceptions: None
-	*
-	***************************************************************************/
-
-	static private float GetRandomNumber()
-	{
-		Random r = new Random();
-		Float Val;
-
-		Val = Float.valueOf((float)-1.0);
-
-		while( Val < 0.1 )
-		{
-			Val = r.nextFloat();
-	 	}
-
-		return( Val.floatValue() );
-
-	} // GetRandomNumber
-
-	/***************************************************************************
-	* CONCRETE METHOD:: CoinToss
-	* Purpose: This method provides a random true or false value used for
-	* determining the positiveness or negativeness of the drift value.
-	*
-	* Arguments: None.
-	*
-	* Returns: boolean
-	*
-	* Exceptions: None
-	*
-	***************************************************************************/
-
-	static private boolean CoinToss()
-	{
-		Random r = new Random();
-
-		return(r.nextBoolean());
-
-	} // CoinToss
-
 	/***************************************************************************
 	* CONCRETE METHOD:: PostHumidity
 	* Purpose: This method posts the specified relative humidity value to the
 	* specified message manager. This method assumes an message ID of 2.
+	* The heartbeat is posted in the same call so each sample costs one
+	* round trip to the message manager.
 	*
 	* Arguments: MessageManagerInterface ei - this is the messagemanger interface
 	*			 where the message will be posted.
 	*
 	*			 float humidity - this is the humidity value.
 	*
+	*			 Message hb - this is the heartbeat posted with the value.
+	*
 	* Returns: none
 	*
 	* Exceptions: None
 	*
 	***************************************************************************/
 
-	static private void PostHumidity(MessageManagerInterface ei, float humidity )
+	static private void PostHumidity(MessageManagerInterface ei, float humidity, Message hb )
 	{
 		// Here we create the message.
 
-		Message msg = new Message( (int) 2, String.valueOf(humidity) );
+		Message msg = new Message( (int) 2, humidity );
+
+		// A reading that waited in a queue longer than this is stale, so
+		// the message manager drops it rather than hand it out.
+
+		msg.SetTimeToLive( TIMETOLIVE );
 
-		// Here we send the message to the message manager.
+		// Here we send the message and the heartbeat to the message manager.
 
 		try
 		{
-			ei.SendMessage( msg );
+			ei.SendMessages( new Message[] { msg, hb } );
 			//mw.WriteMessage( "Sent Humidity Message" );
 
 		} // try
@@ -0,0 +1,363 @@
+/******************************************************************************************************************
+* File:JournalReplay.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This program re-posts the messages recorded in a message journal (see MessageJournal) to a running message manager,
+* so recorded load can be reproduced against the message manager and the monitors without running the sensors. The
+* messages are posted in their recorded order, either at their recorded timing, at N times that speed, or as fast as
+* possible. The journal may be the one the message manager is writing; only the records in it when the replay starts
+* are replayed.
+*
+* Each sender in the journal is replayed by a participant of its own, so conflation and anything else that depends on
+* the sender behaves as it did when the messages were recorded. The replay senders subscribe only to the halt message,
+* so their own queues stay empty. Halt messages (id 99) in the journal are not replayed unless JournalReplay.Halt is
+* set, since they would stop every participant of the live system.
+*
+* A probe participant drains its queue while the messages are replayed. At the end the program prints the messages
+* replayed and the throughput achieved, how far the replay fell behind the recorded timing, and the drain latency: the
+* time from posting each message to the probe taking it out of its queue.
+*
+* Parameters: Journal directory or segment file (on command line).
+*			  Speed (on command line): 1 for the recorded timing, N for N times faster, max for as fast as possible.
+*			  If blank, 1 is used.
+*			  Message manager IP address (on command line, after the speed). If blank, it is assumed that the message
+*			  manager is on the local machine.
+*			  JournalReplay.Halt - true to replay halt messages too (default false)
+*
+* Internal Methods:
+*	void Probe()
+*	void Report(...)
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class JournalReplay
+{
+	static final int HALT = 99;					// The halt message id
+
+	static String MsgMgrIP = null;				// Message manager IP address (null for the local machine)
+	static Set<Long> Senders = ConcurrentHashMap.newKeySet();	// Participant ids of the replay senders
+	static volatile boolean Replaying = true;	// Cleared once the probe has everything or gave up waiting
+
+	// Written by the probe thread only, read after it finishes
+
+	static long[] ReceivedAt = new long[1024];	// When the probe took each replayed message (ns)
+	static int[] ReceivedIds = new int[1024];
+	static int Received = 0;
+
+	public static void main(String args[]) throws Exception
+	{
+		if ( args.length < 1 )
+		{
+			System.out.println( "Usage: java JournalReplay <journal directory or segment> [1|N|max] [message manager IP]" );
+			return;
+
+		} // if
+
+		File Journal = new File( args[0] );
+		File[] Segments = Journal.isDirectory() ? MessageJournal.Segments( Journal ) : new File[] { Journal };
+		double Speed = 1;						// Times faster than recorded (0 for as fast as possible)
+		boolean Halts = Boolean.getBoolean( "JournalReplay.Halt" );
+
+		if ( args.length > 1 )
+		{
+			Speed = args[1].equalsIgnoreCase( "max" ) ? 0 : Double.parseDouble( args[1] );
+
+		} // if
+
+		if ( args.length > 2 )
+		{
+			MsgMgrIP = args[2];
+
+		} // if
+
+		if ( Segments.length == 0 )
+		{
+			System.out.println( "No journal segments in " + Journal );
+			return;
+
+		} // if
+
+		// The journal may be the one the message manager is writing, which will
+		// record the replayed messages too, so only the records there now are
+		// replayed.
+
+		long LastSequence = 0;
+		MessageJournal.Reader r = new MessageJournal.Reader( Segments );
+		MessageJournal.Record Rec;
+
+		while ( ( Rec = r.Next() ) != null )
+		{
+			LastSequence = Rec.Sequence;
+
+		} // while
+
+		r.close();
+
+		// Start the probe before posting anything
+
+		final MessageManagerInterface ProbeInterface = Connect();
+
+		Thread ProbeThread = new Thread( new Runnable() { public void run() { Probe( ProbeInterface ); } }, "Probe" );
+		ProbeThread.start();
+
+		Map<Long, MessageManagerInterface> Replayers = new HashMap<Long, MessageManagerInterface>();
+		long[] PostedAt = new long[1024];		// When each message was posted (ns)
+		int[] PostedIds = new int[1024];
+		int Posted = 0;
+		int Skipped = 0;
+		long FirstTime = -1, LastTime = -1;		// Recorded times of the first and last messages (ms)
+		long Start = 0;
+		long MaxBehind = 0;						// Furthest behind the recorded timing (ns)
+
+		r = new MessageJournal.Reader( Segments );
+
+		while ( ( Rec = r.Next() ) != null && Rec.Sequence <= LastSequence )
+		{
+			if ( Rec.MessageId == HALT && !Halts )
+			{
+				Skipped++;
+				continue;
+
+			} // if
+
+			MessageManagerInterface ei = Replayers.get( Rec.SenderId );
+
+			if ( ei == null )
+			{
+				ei = Connect();
+				ei.Subscribe( HALT );
+				Senders.add( ei.GetMyId() );
+				Replayers.put( Rec.SenderId, ei );
+
+			} // if
+
+			if ( FirstTime < 0 )
+			{
+				FirstTime = Rec.Time;
+				Start = System.nanoTime();
+
+			} // if
+
+			LastTime = Rec.Time;
+
+			// Wait for the message's time, scaled by the speed
+
+			if ( Speed > 0 )
+			{
+				long Due = Start + (long) ( ( Rec.Time - FirstTime ) * 1e6 / Speed );
+				long Early = Due - System.nanoTime();
+
+				if ( Early > 0 )
+				{
+					TimeUnit.NANOSECONDS.sleep( Early );
+
+				} else {
+
+					MaxBehind = Math.max( MaxBehind, -Early );
+
+				} // if
+
+			} // if
+
+			if ( Posted == PostedAt.length )
+			{
+				PostedAt = Arrays.copyOf( PostedAt, Posted * 2 );
+				PostedIds = Arrays.copyOf( PostedIds, Posted * 2 );
+
+			} // if
+
+			PostedIds[Posted] = Rec.MessageId;
+			PostedAt[Posted++] = System.nanoTime();
+
+			// A replayed message is new, so its time to live (if it has one)
+			// starts now rather than when it was recorded.
+
+			Message m = Rec.GetMessage();
+
+			m.SetCreationTime( System.currentTimeMillis() );
+			ei.SendMessage( m );
+
+		} // while
+
+		long Elapsed = System.nanoTime() - Start;
+
+		r.close();
+
+		// Give the probe a few seconds to take the last messages
+
+		long GiveUp = System.currentTimeMillis() + 5000;
+
+		while ( Received() < Posted && System.currentTimeMillis() < GiveUp )
+		{
+			Thread.sleep( 10 );
+
+		} // while
+
+		Replaying = false;
+		ProbeThread.join();
+
+		for ( MessageManagerInterface ei : Replayers.values() )
+		{
+			ei.UnRegister();
+
+		} // for
+
+		ProbeInterface.UnRegister();
+
+		Report( Segments.length, Posted, Skipped, Replayers.size(), LastTime - FirstTime, Elapsed, Speed, MaxBehind,
+			PostedAt, PostedIds );
+
+		System.exit( 0 );
+
+	} // main
+
+	static MessageManagerInterface Connect() throws Exception
+	{
+		return ( MsgMgrIP == null ) ? new MessageManagerInterface() : new MessageManagerInterface( MsgMgrIP );
+
+	} // Connect
+
+	static synchronized int Received()
+	{
+		return Received;
+
+	} // Received
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Probe
+	* Purpose: Runs on the probe thread. Drains the probe's queue and notes
+	*		   when each replayed message was taken out of it. Messages from
+	*		   other participants of the live system are ignored.
+	*
+	* Arguments: MessageManagerInterface ei - the probe's interface
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static void Probe( MessageManagerInterface ei )
+	{
+		Message[] Batch;
+
+		try
+		{
+			while ( Replaying )
+			{
+				Batch = ei.GetMessages( 1000, 100 );
+
+				long now = System.nanoTime();
+
+				synchronized ( JournalReplay.class )
+				{
+					for ( int i = 0; i < Batch.length; i++ )
+					{
+						if ( Senders.contains( Batch[i].GetSenderId() ) )
+						{
+							if ( Received == ReceivedAt.length )
+							{
+								ReceivedAt = Arrays.copyOf( ReceivedAt, Received * 2 );
+								ReceivedIds = Arrays.copyOf( ReceivedIds, Received * 2 );
+
+							} // if
+
+							ReceivedIds[Received] = Batch[i].GetMessageId();
+							ReceivedAt[Received++] = now;
+
+						} // if
+
+					} // for
+
+				} // synchronized
+
+			} // while
+
+		} // try
+
+		catch (Exception e)
+		{
+			System.out.println( "Probe stopped: " + e );
+
+		} // catch
+
+	} // Probe
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Report
+	* Purpose: Prints the replay's throughput and lag, and the drain latency of
+	*		   the replayed messages. The probe gets the messages in the order
+	*		   they were posted; a posted message the probe never got (its queue
+	*		   overflowed) is skipped when pairing them up.
+	*
+	* Arguments: the replay's counts and times, see main
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static synchronized void Report( int SegmentCount, int Posted, int Skipped, int SenderCount, long RecordedMillis,
+		long Elapsed, double Speed, long MaxBehind, long[] PostedAt, int[] PostedIds )
+	{
+		long[] Latency = new long[Received];
+		int Matched = 0;
+		int p = 0;
+
+		for ( int i = 0; i < Received; i++ )
+		{
+			while ( p < Posted && PostedIds[p] != ReceivedIds[i] )
+			{
+				p++;
+
+			} // while
+
+			if ( p == Posted )
+			{
+				break;
+
+			} // if
+
+			Latency[Matched++] = ReceivedAt[i] - PostedAt[p++];
+
+		} // for
+
+		Arrays.sort( Latency, 0, Matched );
+
+		System.out.println( "Replayed " + Posted + " messages from " + SenderCount + " senders in " + SegmentCount
+			+ " segments" + ( Skipped > 0 ? " (" + Skipped + " halt messages skipped)" : "" ) );
+		System.out.println( String.format( "Recorded over %.2f s, replayed %s in %.2f s: %.0f messages/s",
+			RecordedMillis / 1000.0, Speed > 0 ? "at " + Speed + "x" : "as fast as possible", Elapsed / 1e9,
+			Posted * 1e9 / Math.max( Elapsed, 1 ) ) );
+
+		if ( Speed > 0 )
+		{
+			System.out.println( String.format( "Furthest behind the recorded timing: %.2f ms", MaxBehind / 1e6 ) );
+
+		} // if
+
+		if ( Matched > 0 )
+		{
+			System.out.println( String.format( "Drain latency (%d of %d messages): p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+				Matched, Posted, Latency[Matched / 2] / 1e6, Latency[(int) ( ( Matched - 1 ) * 0.99 )] / 1e6,
+				Latency[Matched - 1] / 1e6 ) );
+
+		} else {
+
+			System.out.println( "Drain latency: the probe received none of the messages" );
+
+		} // if
+
+	} // Report
+
+} // JournalReplay
@@ -0,0 +1,580 @@
+/******************************************************************************************************************
+* File:LoadGenerator.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This program puts the load of many environmental control participants on a message manager, without windows, so
+* the message manager's limits can be found. It runs virtual temperature and humidity sensors, temperature and
+* humidity controllers, and ECS monitors, each registered through its own MessageManagerInterface and exchanging the
+* same messages as the real participant:
+*
+*	sensors		- every SampleMillis, take the heater/chiller (-5) or humidifier/dehumidifier (-4) confirmations
+*				  waiting, post a reading (1 or 2) and a heartbeat together, then trend the reading with DriftModel
+*	controllers	- wait for commands (5 or 4), confirm each one (-5 or -4), and post a heartbeat every 2.5 s
+*	monitors	- wait for readings (conflated, as ECSMonitor does), and command the heaters, chillers, humidifiers
+*				  and dehumidifiers to keep the last readings in range; a command is sent when a device has to change
+*
+* Sensors do not need a thread each: they are run by a small pool of threads, staggered over the sample interval.
+* Controllers and monitors have a thread each and wait for their messages as the real ones do.
+*
+* Every ReportMillis the program prints the rate at which its participants sent and drained messages, the depth of
+* the message manager's queues (read from its metrics endpoint, see MessageManagerMetrics), and the end-to-end latency
+* of the readings: the time from a sensor posting a reading to a monitor taking it out of its queue. A summary is
+* printed at the end. To load a message manager beyond what one JVM can drive, run several load generators.
+*
+* Parameters: Message manager IP address (on command line). If blank, it is assumed that the message manager is on
+*			  the local machine.
+*			  LoadGenerator.Sensors - virtual sensors, half temperature and half humidity (default 1000)
+*			  LoadGenerator.Controllers - virtual controllers, half temperature and half humidity (default 2)
+*			  LoadGenerator.Monitors - virtual monitors (default 1)
+*			  LoadGenerator.SampleMillis - ms between each sensor's readings (default 2500, as the real sensors)
+*			  LoadGenerator.Threads - threads running the sensors (default 8)
+*			  LoadGenerator.Seconds - how long to run (default 60)
+*			  LoadGenerator.ReportMillis - ms between reports (default 5000)
+*			  LoadGenerator.MetricsPort - port of the message manager's metrics endpoint, which it must be started
+*										  with to report queue depths (default 9400)
+*
+* Internal Methods:
+*	MessageManagerInterface Connect()
+*	void Report(String Label, long Millis, long SentCount, long DrainedCount, List<Long> Latency)
+*	String QueueDepth()
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LoadGenerator
+{
+	static final int HALT = 99;				// The halt message id
+	static final int HEARTBEAT = 2500;		// ms between heartbeats of the controllers and monitors
+
+	static String MsgMgrIP = null;			// Message manager IP address (null for the local machine)
+	static volatile boolean Running = true;	// Cleared to stop the participants
+
+	static LongAdder Sent = new LongAdder();		// Messages posted by the participants
+	static LongAdder Drained = new LongAdder();		// Messages taken out of the participants' queues
+	static LongAdder Errors = new LongAdder();		// Calls to the message manager that failed
+	static ConcurrentLinkedQueue<Long> Latency = new ConcurrentLinkedQueue<Long>();	// Reading latencies (ns) since the last report
+	static ConcurrentHashMap<Long, Reading> LastReading = new ConcurrentHashMap<Long, Reading>();	// Sensor id -> last reading posted
+
+	/***************************************************************************
+	* INNER CLASS:: Reading
+	* Purpose: The last reading a sensor posted and when, so a monitor that
+	*		   receives it can tell how long it took.
+	*
+	****************************************************************************/
+
+	static class Reading
+	{
+		final float Value;
+		final long PostedAt = System.nanoTime();
+
+		Reading( float Value )
+		{
+			this.Value = Value;
+
+		} // constructor
+
+	} // Reading
+
+	public static void main(String args[]) throws Exception
+	{
+		int Sensors = Integer.getInteger( "LoadGenerator.Sensors", 1000 );
+		int Controllers = Integer.getInteger( "LoadGenerator.Controllers", 2 );
+		int Monitors = Integer.getInteger( "LoadGenerator.Monitors", 1 );
+		long SampleMillis = Long.getLong( "LoadGenerator.SampleMillis", 2500 );
+		int Threads = Integer.getInteger( "LoadGenerator.Threads", 8 );
+		long Seconds = Long.getLong( "LoadGenerator.Seconds", 60 );
+		long ReportMillis = Long.getLong( "LoadGenerator.ReportMillis", 5000 );
+
+		if ( args.length > 0 )
+		{
+			MsgMgrIP = args[0];
+
+		} // if
+
+		System.out.println( "Registering " + Sensors + " sensors, " + Controllers + " controllers and " + Monitors + " monitors..." );
+
+		// Controllers and monitors first, so no command or reading is missed
+
+		ArrayList<Thread> Waiters = new ArrayList<Thread>();
+		ArrayList<MessageManagerInterface> Participants = new ArrayList<MessageManagerInterface>();
+
+		for ( int i = 0; i < Controllers; i++ )
+		{
+			VirtualController c = new VirtualController( i % 2 == 0 );
+
+			Participants.add( c.ei );
+			Waiters.add( new Thread( c, "Controller-" + i ) );
+
+		} // for
+
+		for ( int i = 0; i < Monitors; i++ )
+		{
+			VirtualMonitor m = new VirtualMonitor();
+
+			Participants.add( m.ei );
+			Waiters.add( new Thread( m, "Monitor-" + i ) );
+
+		} // for
+
+		for ( Thread t : Waiters )
+		{
+			t.setDaemon( true );
+			t.start();
+
+		} // for
+
+		ScheduledThreadPoolExecutor Pool = new ScheduledThreadPoolExecutor( Threads );
+
+		for ( int i = 0; i < Sensors; i++ )
+		{
+			VirtualSensor s = new VirtualSensor( i % 2 == 0 );
+
+			Participants.add( s.ei );
+			Pool.scheduleAtFixedRate( s, i * SampleMillis / Math.max( Sensors, 1 ), SampleMillis, TimeUnit.MILLISECONDS );
+
+		} // for
+
+		System.out.println( String.format( "Running for %d s. Sensors post %.0f messages/s in all.", Seconds,
+			Sensors * 2 * 1000.0 / SampleMillis ) );
+		System.out.println( String.format( "%8s %10s %10s %16s %24s %8s", "Time (s)", "Sent/s", "Drained/s",
+			"Queued (sum/max)", "Latency p50/p99/max (ms)", "Errors" ) );
+
+		long Start = System.currentTimeMillis();
+		long End = Start + Seconds * 1000;
+		long LastSent = Sent.sum(), LastDrained = Drained.sum(), LastReport = Start;
+		ArrayList<Long> All = new ArrayList<Long>();		// Every latency, for the summary
+
+		while ( System.currentTimeMillis() < End )
+		{
+			Thread.sleep( Math.min( ReportMillis, Math.max( End - System.currentTimeMillis(), 1 ) ) );
+
+			long now = System.currentTimeMillis();
+			long s = Sent.sum(), d = Drained.sum();
+			ArrayList<Long> Interval = new ArrayList<Long>();
+			Long l;
+
+			while ( ( l = Latency.poll() ) != null )
+			{
+				Interval.add( l );
+
+			} // while
+
+			All.addAll( Interval );
+			Report( String.format( "%8.0f", ( now - Start ) / 1000.0 ), now - LastReport, s - LastSent, d - LastDrained, Interval );
+
+			LastSent = s;
+			LastDrained = d;
+			LastReport = now;
+
+		} // while
+
+		Running = false;
+		Pool.shutdown();
+		Pool.awaitTermination( 10, TimeUnit.SECONDS );
+
+		System.out.println( "Summary:" );
+		Report( "     all", System.currentTimeMillis() - Start, Sent.sum(), Drained.sum(), All );
+
+		for ( MessageManagerInterface ei : Participants )
+		{
+			try
+			{
+				ei.UnRegister();
+
+			} // try
+
+			catch (Exception e)
+			{
+				// Its lease will run out
+
+			} // catch
+
+		} // for
+
+		System.exit( 0 );
+
+	} // main
+
+	static MessageManagerInterface Connect() throws Exception
+	{
+		return ( MsgMgrIP == null ) ? new MessageManagerInterface() : new MessageManagerInterface( MsgMgrIP );
+
+	} // Connect
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Report
+	* Purpose: Prints one line of the report.
+	*
+	* Arguments: String Label - the first column
+	*			 long Millis - the length of the interval
+	*			 long SentCount, DrainedCount - messages sent and drained in it
+	*			 List<Long> Latency - the reading latencies in it (ns)
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static void Report( String Label, long Millis, long SentCount, long DrainedCount, List<Long> Latency )
+	{
+		String Latencies = "-";
+
+		if ( !Latency.isEmpty() )
+		{
+			Collections.sort( Latency );
+
+			Latencies = String.format( "%.2f/%.2f/%.2f", Latency.get( Latency.size() / 2 ) / 1e6,
+				Latency.get( (int) ( ( Latency.size() - 1 ) * 0.99 ) ) / 1e6, Latency.get( Latency.size() - 1 ) / 1e6 );
+
+		} // if
+
+		System.out.println( String.format( "%8s %10.0f %10.0f %16s %24s %8d", Label, SentCount * 1000.0 / Math.max( Millis, 1 ),
+			DrainedCount * 1000.0 / Math.max( Millis, 1 ), QueueDepth(), Latencies, Errors.sum() ) );
+
+	} // Report
+
+	/***************************************************************************
+	* CONCRETE METHOD:: QueueDepth
+	* Purpose: Reads the depth of the message manager's queues from its metrics
+	*		   endpoint.
+	*
+	* Arguments: None
+	*
+	* Returns: String - the total and the deepest queue, or "-" if the metrics
+	*		   could not be read
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static String QueueDepth()
+	{
+		long Total = 0, Max = 0;
+
+		try
+		{
+			URL u = new URL( "http", MsgMgrIP == null ? "localhost" : MsgMgrIP, Integer.getInteger( "LoadGenerator.MetricsPort", 9400 ), "/metrics" );
+			HttpURLConnection c = (HttpURLConnection) u.openConnection();
+
+			c.setConnectTimeout( 1000 );
+			c.setReadTimeout( 1000 );
+
+			BufferedReader in = new BufferedReader( new InputStreamReader( c.getInputStream(), StandardCharsets.UTF_8 ) );
+			String Line;
+
+			try
+			{
+				while ( ( Line = in.readLine() ) != null )
+				{
+					if ( Line.startsWith( "messagemanager_queue_depth{" ) )
+					{
+						long Depth = Long.parseLong( Line.substring( Line.lastIndexOf( ' ' ) + 1 ) );
+
+						Total += Depth;
+						Max = Math.max( Max, Depth );
+
+					} // if
+
+				} // while
+
+			} // try
+
+			finally
+			{
+				in.close();
+
+			} // finally
+
+		} // try
+
+		catch (Exception e)
+		{
+			return "-";
+
+		} // catch
+
+		return Total + "/" + Max;
+
+	} // QueueDepth
+
+	/***************************************************************************
+	* INNER CLASS:: VirtualSensor
+	* Purpose: A temperature or humidity sensor. Each run is one sample.
+	*
+	****************************************************************************/
+
+	static class VirtualSensor implements Runnable
+	{
+		MessageManagerInterface ei;
+		boolean Temperature;				// Temperature sensor, else humidity
+		DriftModel Model;
+		boolean Raising = false;			// Heater or humidifier on
+		boolean Lowering = false;			// Chiller or dehumidifier on
+		Message HeartBeat;
+
+		VirtualSensor( boolean Temperature ) throws Exception
+		{
+			this.Temperature = Temperature;
+			ei = Connect();
+			ei.Subscribe( Temperature ? -5 : -4 );
+
+			// The same starting points as TemperatureSensor and HumiditySensor
+
+			Model = new DriftModel( Temperature ? (float) 50.00 : DriftModel.GetRandomNumber() * (float) 100.00 );
+			HeartBeat = new Message( -100, ( Temperature ? "Temperature" : "Humidity" ) + " Sensor-" + ei.GetMyId()
+				+ "#Virtual sensor of the load generator." );
+
+		} // constructor
+
+		public void run()
+		{
+			if ( !Running )
+			{
+				return;
+
+			} // if
+
+			try
+			{
+				Message[] In = ei.GetMessages( 0, 0 );
+
+				Drained.add( In.length );
+
+				for ( int i = 0; i < In.length; i++ )
+				{
+					Command Cmd = In[i].GetCommand();
+
+					if ( Cmd == Command.HEATER || Cmd == Command.HUMIDIFIER )
+					{
+						Raising = In[i].GetBoolean();
+
+					} // if
+
+					if ( Cmd == Command.CHILLER || Cmd == Command.DEHUMIDIFIER )
+					{
+						Lowering = In[i].GetBoolean();
+
+					} // if
+
+				} // for
+
+				float Value = Model.Value;
+
+				LastReading.put( ei.GetMyId(), new Reading( Value ) );
+				ei.SendMessages( new Message[] { new Message( Temperature ? 1 : 2, Value ), HeartBeat } );
+				Sent.add( 2 );
+
+				Model.Trend( Raising, Lowering );
+
+			} // try
+
+			catch (Exception e)
+			{
+				Errors.increment();
+
+			} // catch
+
+		} // run
+
+	} // VirtualSensor
+
+	/***************************************************************************
+	* INNER CLASS:: VirtualController
+	* Purpose: A temperature or humidity controller.
+	*
+	****************************************************************************/
+
+	static class VirtualController implements Runnable
+	{
+		MessageManagerInterface ei;
+		boolean Temperature;				// Temperature controller, else humidity
+
+		VirtualController( boolean Temperature ) throws Exception
+		{
+			this.Temperature = Temperature;
+			ei = Connect();
+			ei.Subscribe( Temperature ? 5 : 4 );
+
+		} // constructor
+
+		public void run()
+		{
+			ArrayList<Message> Out = new ArrayList<Message>();
+			long NextHeartBeat = 0;
+
+			while ( Running )
+			{
+				try
+				{
+					if ( System.currentTimeMillis() >= NextHeartBeat )
+					{
+						Out.add( new Message( -100, ( Temperature ? "Temperature" : "Humidity" ) + " Controller-" + ei.GetMyId()
+							+ "#Virtual controller of the load generator." ) );
+						NextHeartBeat = System.currentTimeMillis() + HEARTBEAT;
+
+					} // if
+
+					// Confirm every command, as the real controllers do
+
+					Message[] In = ei.GetMessages( 0, Math.max( NextHeartBeat - System.currentTimeMillis(), 1 ) );
+
+					Drained.add( In.length );
+
+					for ( int i = 0; i < In.length; i++ )
+					{
+						if ( In[i].GetMessageId() != HALT )
+						{
+							Out.add( new Message( Temperature ? -5 : -4, In[i].GetCommand(), In[i].GetBoolean() ) );
+
+						} // if
+
+					} // for
+
+					if ( !Out.isEmpty() )
+					{
+						ei.SendMessages( Out.toArray( new Message[Out.size()] ) );
+						Sent.add( Out.size() );
+						Out.clear();
+
+					} // if
+
+				} // try
+
+				catch (Exception e)
+				{
+					Errors.increment();
+					Out.clear();
+
+				} // catch
+
+			} // while
+
+		} // run
+
+	} // VirtualController
+
+	/***************************************************************************
+	* INNER CLASS:: VirtualMonitor
+	* Purpose: An ECS monitor keeping the readings between 70 and 80 F and 45
+	*		   and 55 % relative humidity.
+	*
+	****************************************************************************/
+
+	static class VirtualMonitor implements Runnable
+	{
+		MessageManagerInterface ei;
+		Boolean[] Devices = new Boolean[4];	// Last state commanded: heater, chiller, humidifier, dehumidifier
+
+		VirtualMonitor() throws Exception
+		{
+			ei = Connect();
+			ei.Subscribe( 1 );
+			ei.Subscribe( 2 );
+			ei.Conflate( 1 );
+			ei.Conflate( 2 );
+
+		} // constructor
+
+		public void run()
+		{
+			ArrayList<Message> Out = new ArrayList<Message>();
+			float CurrentTemperature = 75, CurrentHumidity = 50;
+			long NextHeartBeat = 0;
+
+			while ( Running )
+			{
+				try
+				{
+					Message[] In = ei.GetMessages( 0, Math.max( NextHeartBeat - System.currentTimeMillis(), 1 ) );
+					long now = System.nanoTime();
+
+					Drained.add( In.length );
+
+					for ( int i = 0; i < In.length; i++ )
+					{
+						if ( In[i].GetMessageId() == 1 || In[i].GetMessageId() == 2 )
+						{
+							Reading r = LastReading.get( In[i].GetSenderId() );
+
+							// Readings from sensors of other load generators are not timed
+
+							if ( r != null && r.Value == In[i].GetFloat() )
+							{
+								Latency.add( now - r.PostedAt );
+
+							} // if
+
+							if ( In[i].GetMessageId() == 1 )
+							{
+								CurrentTemperature = In[i].GetFloat();
+
+							} else {
+
+								CurrentHumidity = In[i].GetFloat();
+
+							} // if
+
+						} // if
+
+					} // for
+
+					Switch( Out, 0, 5, Command.HEATER, CurrentTemperature < 70 );
+					Switch( Out, 1, 5, Command.CHILLER, CurrentTemperature > 80 );
+					Switch( Out, 2, 4, Command.HUMIDIFIER, CurrentHumidity < 45 );
+					Switch( Out, 3, 4, Command.DEHUMIDIFIER, CurrentHumidity > 55 );
+
+					if ( System.currentTimeMillis() >= NextHeartBeat )
+					{
+						Out.add( new Message( -100, "ECSConsole-" + ei.GetMyId() + "#Virtual monitor of the load generator." ) );
+						NextHeartBeat = System.currentTimeMillis() + HEARTBEAT;
+
+					} // if
+
+					if ( !Out.isEmpty() )
+					{
+						ei.SendMessages( Out.toArray( new Message[Out.size()] ) );
+						Sent.add( Out.size() );
+						Out.clear();
+
+					} // if
+
+				} // try
+
+				catch (Exception e)
+				{
+					Errors.increment();
+					Out.clear();
+
+				} // catch
+
+			} // while
+
+		} // run
+
+		// Queues a command for a device if it has to change.
+
+		private void Switch( ArrayList<Message> Out, int Device, int MsgId, Command Cmd, boolean On )
+		{
+			if ( Devices[Device] == null || Devices[Device] != On )
+			{
+				Out.add( new Message( MsgId, Cmd, On ) );
+				Devices[Device] = On;
+
+			} // if
+
+		} // Switch
+
+	} // VirtualMonitor
+
+} // LoadGenerator
@@ -106,6 +106,21 @@ class MaintenanceConsole
         {
             System.out.println("Registered with the message manager." );
 
+            // Subscribe to the heartbeats (-100). The halt message (99) is
+            // always delivered.
+
+            try
+            {
+                em.Subscribe( -100 );
+
+            } // try
+
+            catch (Exception e)
+            {
+                System.out.println("Error subscribing:: " + e);
+
+            } // catch
+
             /* Now we create the temperature control status and message panel
             ** We put this panel about 1/3 the way down the terminal, aligned to the left
             ** of the terminal. The status indicators are placed directly under this panel
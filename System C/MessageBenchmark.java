@@ -0,0 +1,265 @@
+/******************************************************************************************************************
+* File:MessageBenchmark.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This program compares the wire format of Message and MessageQueue (the MessageCodec encoding) with the default
+* Java serialization they used before. LegacyMessage and LegacyQueue below have the same fields as the old classes.
+* Each case writes objects to a fresh ObjectOutputStream, which is what RMI does for every call, then reads them back.
+* For each case the program prints the bytes per call and the time per message to write and read.
+*
+* The cases are:
+*	send		- one message, as sent by SendMessage
+*	poll		- a queue of 10 messages, as returned by GetMessageQueue
+*	broadcast	- one message written to 10 recipients; the new format encodes it once and reuses the bytes
+*
+* Parameters: Number of iterations per case (on command line). If blank, 200000 is used.
+*
+* Internal Methods:
+*	void Run(String Name, int Iterations, int MessagesPerCall, boolean Report, Callable<Object> Write)
+*	void RunBroadcast(String Name, int Iterations, boolean Report, Object Msg)
+*	Message NewMessage(int MsgId, String Text, long SenderId)
+*	byte[] Serialize(Object o)
+*	Object Deserialize(byte[] b)
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+public class MessageBenchmark
+{
+	static final int QUEUESIZE = 10;			// Messages per poll in the poll case
+	static final int RECIPIENTS = 10;			// Recipients in the broadcast case
+	static long Sink = 0;						// Keeps the JIT from discarding the work
+
+	public static void main(String args[]) throws Exception
+	{
+		int Iterations = 200000;				// Iterations per case
+
+		if ( args.length > 0 )
+		{
+			Iterations = Integer.parseInt( args[0] );
+
+		} // if
+
+		final long SenderId = System.currentTimeMillis();
+
+		System.out.println( "Iterations per case: " + Iterations );
+		System.out.println( String.format( "%-22s %12s %14s", "Case", "Bytes/call", "ns/message" ) );
+
+		for ( int pass = 0; pass < 2; pass++ )
+		{
+			// The first pass warms up the JIT and is not reported.
+
+			final boolean Report = ( pass == 1 );
+
+			Run( "send (legacy)", Iterations, 1, Report, new Callable<Object>() {
+				public Object call() { return new LegacyMessage( 1, "72.45321", SenderId ); } } );
+
+			Run( "send (codec)", Iterations, 1, Report, new Callable<Object>() {
+				public Object call() { return NewMessage( 1, "72.45321", SenderId ); } } );
+
+			Run( "poll (legacy)", Iterations / QUEUESIZE, QUEUESIZE, Report, new Callable<Object>() {
+				public Object call()
+				{
+					LegacyQueue q = new LegacyQueue( SenderId );
+
+					for ( int i = 0; i < QUEUESIZE; i++ )
+						q.MessageList.add( new LegacyMessage( i % 2 + 1, "72.45321", SenderId + i ) );
+
+					return q;
+				}
+			} );
+
+			Run( "poll (codec)", Iterations / QUEUESIZE, QUEUESIZE, Report, new Callable<Object>() {
+				public Object call()
+				{
+					Message[] msgs = new Message[QUEUESIZE];
+
+					for ( int i = 0; i < QUEUESIZE; i++ )
+						msgs[i] = NewMessage( i % 2 + 1, "72.45321", SenderId + i );
+
+					return new MessageQueue( SenderId, msgs );
+				}
+			} );
+
+			RunBroadcast( "broadcast (legacy)", Iterations / RECIPIENTS, Report, new LegacyMessage( 3, "1", SenderId ) );
+			RunBroadcast( "broadcast (codec)", Iterations / RECIPIENTS, Report, NewMessage( 3, "1", SenderId ) );
+
+		} // for
+
+		if ( Sink == 42 )
+			System.out.println();
+
+	} // main
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Run
+	* Purpose: Times writing and reading the objects made by Write, one fresh
+	*		   stream per object, and prints the bytes per call and the time per
+	*		   message.
+	*
+	* Arguments: String Name - the case name
+	*			 int Iterations - the number of objects to write
+	*			 int MessagesPerCall - the messages in each object
+	*			 boolean Report - print the results
+	*			 Callable<Object> Write - makes the object to write
+	*
+	* Returns: None
+	*
+	* Exceptions: Exception
+	*
+	****************************************************************************/
+
+	static void Run( String Name, int Iterations, int MessagesPerCall, boolean Report, Callable<Object> Write ) throws Exception
+	{
+		long Bytes = 0;
+		long Start = System.nanoTime();
+
+		for ( int i = 0; i < Iterations; i++ )
+		{
+			byte[] b = Serialize( Write.call() );
+
+			Bytes += b.length;
+			Sink += Deserialize( b ).hashCode();
+
+		} // for
+
+		long Elapsed = System.nanoTime() - Start;
+
+		if ( Report )
+		{
+			System.out.println( String.format( "%-22s %12d %14.1f", Name, Bytes / Iterations,
+				(double) Elapsed / ( (long) Iterations * MessagesPerCall ) ) );
+
+		} // if
+
+	} // Run
+
+	/***************************************************************************
+	* CONCRETE METHOD:: RunBroadcast
+	* Purpose: Times writing the same message to RECIPIENTS separate streams (one
+	*		   per recipient's poll) and reading each back.
+	*
+	* Arguments: String Name - the case name
+	*			 int Iterations - the number of broadcasts
+	*			 boolean Report - print the results
+	*			 Object Msg - the message to broadcast
+	*
+	* Returns: None
+	*
+	* Exceptions: Exception
+	*
+	****************************************************************************/
+
+	static void RunBroadcast( String Name, int Iterations, boolean Report, Object Msg ) throws Exception
+	{
+		long Bytes = 0;
+		long Start = System.nanoTime();
+
+		for ( int i = 0; i < Iterations; i++ )
+		{
+			// A new message each time, so the codec encodes once per broadcast
+			// rather than once for the whole run.
+
+			Object m = ( Msg instanceof Message ) ? NewMessage( 3, "1", ((Message) Msg).GetSenderId() ) : Msg;
+
+			for ( int r = 0; r < RECIPIENTS; r++ )
+			{
+				byte[] b = Serialize( m );
+
+				Bytes += b.length;
+				Sink += Deserialize( b ).hashCode();
+
+			} // for
+
+		} // for
+
+		long Elapsed = System.nanoTime() - Start;
+
+		if ( Report )
+		{
+			System.out.println( String.format( "%-22s %12d %14.1f", Name, Bytes / ( (long) Iterations * RECIPIENTS ),
+				(double) Elapsed / ( (long) Iterations * RECIPIENTS ) ) );
+
+		} // if
+
+	} // RunBroadcast
+
+	static Message NewMessage( int MsgId, String Text, long SenderId )
+	{
+		Message m = new Message( MsgId, Text );
+		m.SetSenderId( SenderId );
+
+		return m;
+
+	} // NewMessage
+
+	static byte[] Serialize( Object o ) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( 256 );
+		ObjectOutputStream out = new ObjectOutputStream( bytes );
+
+		out.writeObject( o );
+		out.close();
+
+		return bytes.toByteArray();
+
+	} // Serialize
+
+	static Object Deserialize( byte[] b ) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( b ) );
+
+		return in.readObject();
+
+	} // Deserialize
+
+	/***************************************************************************
+	* INNER CLASS:: LegacyMessage
+	* Purpose: The fields of Message, written with default serialization.
+	*
+	****************************************************************************/
+
+	static class LegacyMessage implements Serializable
+	{
+		private String MessageText;
+		private int MessageId;
+		private long SenderId;
+
+		LegacyMessage( int MsgId, String Text, long Sender )
+		{
+			MessageText = Text;
+			MessageId = MsgId;
+			SenderId = Sender;
+
+		} // constructor
+
+	} // LegacyMessage
+
+	/***************************************************************************
+	* INNER CLASS:: LegacyQueue
+	* Purpose: The fields of MessageQueue, written with default serialization.
+	*
+	****************************************************************************/
+
+	static class LegacyQueue implements Serializable
+	{
+		private Vector<LegacyMessage> MessageList = new Vector<LegacyMessage> (15, 1);
+		private long QueueId;
+		private int ListSize = 0;
+
+		LegacyQueue( long id )
+		{
+			QueueId = id;
+
+		} // constructor
+
+	} // LegacyQueue
+
+} // MessageBenchmark
@@ -0,0 +1,73 @@
+/******************************************************************************************************************
+* File:MessageBridgeInterface.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class is the interface definition of the bridge between the nodes of a federated message manager
+*			   (see MessageFederation). It is used by message manager nodes only, never by participants.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.rmi.*;
+
+public interface MessageBridgeInterface extends Remote
+{
+	/***************************************************************************
+	* INTERFACE:: Deliver
+	* Purpose: This interface is used by a node to hand the messages its own
+	*		   participants posted to another node, which places them in the
+	*		   queues of its participants. The receiving node does not forward
+	*		   them any further. A batch that is sent again because the call
+	*		   failed is not delivered twice.
+	*
+	* Arguments: int FromNode - index of the node the messages were posted to
+	*			 long Epoch - when the sending node started
+	*			 long Sequence - the number of the batch, counted from 1 for
+	*			 each node it is sent to
+	*			 Message[] - the messages, in the order they were posted
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public void Deliver( int FromNode, long Epoch, long Sequence, Message[] Messages ) throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: Subscribe
+	* Purpose: This interface is used by a node to tell another node which
+	*		   message ids its participants accept, whenever they change. The
+	*		   other node then only forwards messages with those ids.
+	*
+	* Arguments: Subscription - the ids the sending node's participants accept
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public void Subscribe( MessageFederation.Subscription s ) throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: GetSubscription
+	* Purpose: This interface is used by a node when it connects to another
+	*		   node, to learn which message ids that node's participants accept.
+	*
+	* Arguments: None
+	*
+	* Returns: Subscription - the ids this node's participants accept
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public MessageFederation.Subscription GetSubscription() throws java.rmi.RemoteException;
+
+} // MessageBridgeInterface
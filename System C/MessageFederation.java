@@ -0,0 +1,625 @@
+/******************************************************************************************************************
+* File:MessageFederation.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This class joins several message managers into one federated message manager. Each node is an ordinary message
+* manager with its own RMI registry, and owns the participants that registered with it (its shard). Participants are
+* given the list of nodes (see MessageManagerInterface) and register with one of them.
+*
+* A message posted to a node is placed in the queues of that node's participants as usual, and handed to the other
+* nodes over a bridge: an RMI object (see MessageBridgeInterface) bound as "MessageBridge" in each node's registry. A node
+* places the messages it gets over a bridge in the queues of its own participants and never forwards them, so every
+* message crosses a bridge at most once, and reaches every participant of the federation exactly once. Since each node
+* only fills the queues of its own participants, adding nodes adds capacity for participants.
+*
+* Each node tells the others which message ids its participants accept (its subscription) when it connects to them and
+* whenever a participant registers, unregisters or subscribes. A message is only handed to the nodes that have a
+* participant accepting its id; the halt message (id 99) is handed to all of them. Until a node's subscription is known,
+* every message is handed to it. A participant that registers is known to the other nodes a moment later, so a message
+* posted to another node at the same time may not reach it.
+*
+* Each bridge has its own thread and a lock-free queue of the messages waiting to cross it, so senders never wait on
+* another node. The thread sends whatever has accumulated as one batch (up to MAXBATCH messages), and messages from one
+* node reach each other node in the order they were posted. A batch whose call fails, and a node that is down or not
+* started yet, are retried after MINBACKOFF, backing off to MAXBACKOFF, while up to MAXPENDING messages wait for the
+* node. Like the participants' outbox, the oldest waiting message is dropped and counted as lost when one more arrives,
+* and the messages whose time to live passes while they wait are dropped before the batch is sent again. Batches are
+* numbered, so a batch that reached the node although the call failed is not delivered twice. A REJECT overflow in
+* another node's queue is not reported to the sender.
+*
+* The nodes issue participant ids that are equal to their node index modulo the number of nodes, so ids stay unique
+* across the federation and remain (within a few ms) the registration time.
+*
+* Parameters: MessageManager.Peers - the other nodes as host:registryport, separated by commas; not federated if
+*									 blank (default)
+*			  MessageManager.NodeIndex - this node's index, from 0 to the number of peers; each node of the federation
+*										 must have a different one (default 0)
+*			  MessageManager.RegistryPort - the port of this node's RMI registry (default 1099)
+*
+* Internal Methods:
+*	void Forward(Message m)
+*	void Forward(Message[] Messages)
+*	void Resubscribe()
+*	int[][] AcceptedIds()
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.Serializable;
+import java.rmi.*;
+import java.rmi.server.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+public class MessageFederation extends UnicastRemoteObject implements MessageBridgeInterface
+{
+	static final int MAXPENDING = 65536;		// Most messages waiting for one bridge
+	static final int MAXBATCH = 1024;			// Most messages sent over a bridge in one call
+	static final long MINBACKOFF = 50;			// First delay before trying a node again (ms)
+	static final long MAXBACKOFF = 1000;		// Longest delay before trying a node again (ms)
+
+	int NodeIndex;								// This node's index
+	int NodeCount;								// Nodes in the federation, this one included
+	long Epoch = System.currentTimeMillis();	// When this node started, to tell its batches from an earlier run's
+	private Peer[] Peers;						// Bridges to the other nodes
+	private AtomicLong Version = new AtomicLong(0);	// Changes to the ids this node's participants accept
+	private AtomicReferenceArray<Subscription> Subscribed;	// Ids each node's participants accept, by node index
+	private long[][] Received;					// {epoch, sequence} of the last batch delivered from each node
+
+	public MessageFederation( int NodeIndex, String[] PeerAddresses ) throws RemoteException
+	{
+		super();										// Required by RMI
+		this.NodeIndex = NodeIndex;
+		NodeCount = PeerAddresses.length + 1;
+		Peers = new Peer[PeerAddresses.length];
+		Subscribed = new AtomicReferenceArray<Subscription>( NodeCount );
+		Received = new long[NodeCount][2];
+
+		for ( int i = 0; i < Peers.length; i++ )
+		{
+			Peers[i] = new Peer( PeerAddresses[i].trim() );
+
+		} // for
+
+	} // constructor
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Start
+	* Purpose: Binds this node's end of the bridges in its registry and starts
+	*		   the bridges to the other nodes.
+	*
+	* Arguments: int RegistryPort - the port of this node's RMI registry
+	*
+	* Returns: String - a description of the federation for the startup message
+	*
+	* Exceptions: Exception - the bridge could not be bound
+	*
+	****************************************************************************/
+
+	String Start( int RegistryPort ) throws Exception
+	{
+		Naming.rebind( "//localhost:" + RegistryPort + "/MessageBridge", this );
+
+		for ( int i = 0; i < Peers.length; i++ )
+		{
+			Peers[i].start();
+
+		} // for
+
+		return "node " + NodeIndex + " of " + NodeCount;
+
+	} // Start
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Forward
+	* Purpose: Queues a message posted to this node for every other node that
+	*		   has a participant accepting it.
+	*
+	* Arguments: Message m - the message
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	void Forward( Message m )
+	{
+		for ( int i = 0; i < Peers.length; i++ )
+		{
+			if ( Peers[i].Accepts( m.GetMessageId() ) )
+			{
+				Peers[i].Offer( m );
+
+			} // if
+
+		} // for
+
+	} // Forward
+
+	void Forward( Message[] Messages )
+	{
+		for ( int i = 0; i < Peers.length; i++ )
+		{
+			for ( int j = 0; j < Messages.length; j++ )
+			{
+				if ( Peers[i].Accepts( Messages[j].GetMessageId() ) )
+				{
+					Peers[i].Offer( Messages[j] );
+
+				} // if
+
+			} // for
+
+		} // for
+
+	} // Forward
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Resubscribe
+	* Purpose: Has the bridges tell the other nodes which ids this node's
+	*		   participants accept. Called whenever they may have changed.
+	*
+	* Arguments: None
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	void Resubscribe()
+	{
+		Version.incrementAndGet();
+
+		for ( int i = 0; i < Peers.length; i++ )
+		{
+			LockSupport.unpark( Peers[i] );
+
+		} // for
+
+	} // Resubscribe
+
+	/***************************************************************************
+	* CONCRETE METHOD:: AcceptedIds
+	* Purpose: Collects the message id ranges this node's participants accept,
+	*		   sorted and with overlapping and adjacent ranges merged.
+	*
+	* Arguments: None
+	*
+	* Returns: int[][] - {low, high} id ranges, or null if a participant accepts
+	*		   every id
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static int[][] AcceptedIds()
+	{
+		ArrayList<int[]> Ranges = new ArrayList<int[]>();
+
+		for ( MessageManager.Participant p : MessageManager.MessageQueueList.values() )
+		{
+			if ( p.Subscriptions.isEmpty() )
+			{
+				return null;
+
+			} // if
+
+			Ranges.addAll( p.Subscriptions );
+
+		} // for
+
+		Ranges.sort( ( a, b ) -> Integer.compare( a[0], b[0] ) );
+
+		ArrayList<int[]> Merged = new ArrayList<int[]>();
+
+		for ( int[] r : Ranges )
+		{
+			int[] Last = Merged.isEmpty() ? null : Merged.get( Merged.size() - 1 );
+
+			if ( Last != null && (long) r[0] <= (long) Last[1] + 1 )
+			{
+				Last[1] = Math.max( Last[1], r[1] );
+
+			} else {
+
+				Merged.add( new int[] { r[0], r[1] } );
+
+			} // if
+
+		} // for
+
+		return Merged.toArray( new int[0][] );
+
+	} // AcceptedIds
+
+	/***************************************************************************
+	* Remote METHOD:: Deliver
+	* Purpose: Places the messages another node forwarded in the queues of this
+	*		   node's participants, unless the batch was delivered already.
+	*
+	* Arguments: int FromNode - index of the node the messages were posted to
+	*			 long Epoch - when that node started
+	*			 long Sequence - the number of the batch
+	*			 Message[] - the messages
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void Deliver( int FromNode, long Epoch, long Sequence, Message[] Messages ) throws RemoteException
+	{
+		long[] Last = Received[Math.floorMod( FromNode, NodeCount )];
+
+		// A batch sent again may still be delivered by the call that failed,
+		// so the check and the delivery are done together
+
+		synchronized ( Last )
+		{
+			if ( Epoch < Last[0] || ( Epoch == Last[0] && Sequence <= Last[1] ) )
+			{
+				return;
+
+			} // if
+
+			MessageManager.Metrics.BridgedIn.add( Messages.length );
+			MessageManager.Deliver( Messages );
+			Last[0] = Epoch;
+			Last[1] = Sequence;
+
+		} // synchronized
+
+	} // Deliver
+
+	/***************************************************************************
+	* Remote METHOD:: Subscribe
+	* Purpose: Records which message ids another node's participants accept,
+	*		   unless a later subscription from that node is known already.
+	*
+	* Arguments: Subscription s - the node's subscription
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void Subscribe( Subscription s ) throws RemoteException
+	{
+		Subscription Known;
+		int Node = Math.floorMod( s.Node, NodeCount );
+
+		do
+		{
+			Known = Subscribed.get( Node );
+
+			if ( Known != null && !s.Newer( Known ) )
+			{
+				return;
+
+			} // if
+
+		} while ( !Subscribed.compareAndSet( Node, Known, s ) );
+
+	} // Subscribe
+
+	/***************************************************************************
+	* Remote METHOD:: GetSubscription
+	* Purpose: Returns the message ids this node's participants accept.
+	*
+	* Arguments: None
+	*
+	* Returns: Subscription
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public Subscription GetSubscription() throws RemoteException
+	{
+		return new Subscription( NodeIndex, Epoch, Version.get(), AcceptedIds() );
+
+	} // GetSubscription
+
+	/***************************************************************************
+	* CONCRETE METHOD:: ParticipantId
+	* Purpose: Moves a candidate participant id up to the next id this node may
+	*		   issue (one equal to its index modulo the number of nodes).
+	*
+	* Arguments: long id - the candidate id
+	*
+	* Returns: long - the id
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	long ParticipantId( long id )
+	{
+		return id + Math.floorMod( NodeIndex - id, (long) NodeCount );
+
+	} // ParticipantId
+
+	/***************************************************************************
+	* INNER CLASS:: Subscription
+	* Purpose: The message ids a node's participants accept, as sent between
+	*		   nodes. Each change on a node gets a higher version, and a node
+	*		   that restarts starts a new epoch, so the latest one is kept.
+	*
+	****************************************************************************/
+
+	public static class Subscription implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		int Node;				// Index of the node
+		long Epoch;				// When the node started
+		long Version;			// The node's change count when the ids were collected
+		int[][] Ranges;			// Sorted {low, high} id ranges accepted, or null for every id
+
+		Subscription( int Node, long Epoch, long Version, int[][] Ranges )
+		{
+			this.Node = Node;
+			this.Epoch = Epoch;
+			this.Version = Version;
+			this.Ranges = Ranges;
+
+		} // constructor
+
+		// Returns true if a message with MsgId should be handed to the node.
+
+		boolean Accepts( int MsgId )
+		{
+			if ( MsgId == 99 || Ranges == null )
+			{
+				return true;
+
+			} // if
+
+			for ( int[] range : Ranges )
+			{
+				if ( MsgId < range[0] )
+				{
+					return false;
+
+				} // if
+
+				if ( MsgId <= range[1] )
+				{
+					return true;
+
+				} // if
+
+			} // for
+
+			return false;
+
+		} // Accepts
+
+		// Returns true if this subscription is later than Other, from the same node.
+
+		boolean Newer( Subscription Other )
+		{
+			return ( Epoch > Other.Epoch || ( Epoch == Other.Epoch && Version > Other.Version ) );
+
+		} // Newer
+
+	} // Subscription
+
+	/***************************************************************************
+	* INNER CLASS:: Peer
+	* Purpose: The bridge to one other node. Messages are queued by Offer and
+	*		   sent in batches by the peer's thread, which is woken when the
+	*		   queue stops being empty or this node's subscription changes.
+	*
+	****************************************************************************/
+
+	private class Peer extends Thread
+	{
+		String Address;								// host:registryport of the node
+		MessageBridgeInterface Bridge = null;		// The node's bridge (null until it is reached)
+		volatile int Node = -1;						// The node's index (-1 until it is reached)
+		long Pushed = -1;							// Version of this node's subscription the node has
+		ConcurrentLinkedQueue<Message> Pending = new ConcurrentLinkedQueue<Message>();	// Messages to send
+		AtomicInteger PendingCount = new AtomicInteger(0);	// Messages in Pending
+
+		Peer( String Address )
+		{
+			super( "Bridge-" + Address );
+			setDaemon( true );
+			this.Address = Address;
+
+		} // constructor
+
+		// Returns true if a message with MsgId should be handed to the node:
+		// it is the halt message, a participant of the node accepts it, or
+		// the node's subscription is not known yet.
+
+		boolean Accepts( int MsgId )
+		{
+			int n = Node;
+			Subscription s = ( n < 0 ? null : Subscribed.get( n ) );
+
+			return ( s == null || s.Accepts( MsgId ) );
+
+		} // Accepts
+
+		// Queues a message for the node. Drops the oldest one waiting if too
+		// many are waiting already.
+
+		void Offer( Message m )
+		{
+			int Count = PendingCount.incrementAndGet();
+
+			if ( Count > MAXPENDING && Pending.poll() != null )
+			{
+				PendingCount.decrementAndGet();
+				MessageManager.Metrics.BridgeLost.increment();
+
+			} // if
+
+			Pending.add( m );
+
+			if ( Count == 1 )
+			{
+				LockSupport.unpark( this );
+
+			} // if
+
+		} // Offer
+
+		public void run()
+		{
+			Message[] Batch = new Message[MAXBATCH];
+			Message[] Sending = null;			// Batch being sent, kept until the node has it
+			long Sequence = 0;					// Number of the batch being sent
+			long Backoff = MINBACKOFF;
+			Message m;
+			int n;
+
+			while ( true )
+			{
+				if ( Sending == null && PendingCount.get() == 0 && Pushed == Version.get() )
+				{
+					LockSupport.parkNanos( this, 100000000L );
+					continue;
+
+				} // if
+
+				try
+				{
+					if ( Bridge == null )
+					{
+						Connect();
+
+					} // if
+
+					if ( Pushed != Version.get() )
+					{
+						long v = Version.get();
+
+						Bridge.Subscribe( new Subscription( NodeIndex, Epoch, v, AcceptedIds() ) );
+						Pushed = v;
+
+					} // if
+
+					if ( Sending == null )
+					{
+						n = 0;
+
+						while ( n < MAXBATCH && ( m = Pending.poll() ) != null )
+						{
+							Batch[n++] = m;
+
+						} // while
+
+						PendingCount.addAndGet( -n );
+
+						if ( n == 0 )
+						{
+							// Counted by Offer but not queued yet
+
+							Thread.yield();
+							continue;
+
+						} // if
+
+						Sending = Arrays.copyOf( Batch, n );
+						Arrays.fill( Batch, 0, n, null );
+						Sequence++;
+
+					} else {
+
+						Sending = Unexpired( Sending );
+
+					} // if
+
+					Bridge.Deliver( NodeIndex, Epoch, Sequence, Sending );
+					MessageManager.Metrics.BridgedOut.add( Sending.length );
+					Sending = null;
+					Backoff = MINBACKOFF;
+
+				} // try
+
+				catch (Exception e)
+				{
+					// The batch is kept and sent again, with the same number, once
+					// the node can be reached
+
+					if ( Bridge != null )
+					{
+						System.out.println( "Bridge to " + Address + " failed, retrying: " + e );
+						Bridge = null;
+
+					} // if
+
+					try
+					{
+						Thread.sleep( Backoff );
+						Backoff = Math.min( Backoff * 2, MAXBACKOFF );
+
+					} // try
+
+					catch (InterruptedException ie)
+					{
+						return;
+
+					} // catch
+
+				} // catch
+
+			} // while
+
+		} // run
+
+		// Looks up the node's bridge and its subscription. This node's own
+		// subscription is sent again, in case the node restarted.
+
+		void Connect() throws Exception
+		{
+			MessageBridgeInterface b = (MessageBridgeInterface) Naming.lookup( "//" + Address + "/MessageBridge" );
+			Subscription s = b.GetSubscription();
+
+			Subscribe( s );
+			Node = Math.floorMod( s.Node, NodeCount );
+			Pushed = -1;
+			Bridge = b;
+			System.out.println( "Bridge to " + Address + " connected." );
+
+		} // Connect
+
+		// Drops the messages whose time to live passed while they waited for
+		// the node, and counts them as lost.
+
+		Message[] Unexpired( Message[] Messages )
+		{
+			long now = System.currentTimeMillis();
+			ArrayList<Message> Left = new ArrayList<Message>( Messages.length );
+
+			for ( int i = 0; i < Messages.length; i++ )
+			{
+				if ( !Messages[i].IsExpired( now ) )
+				{
+					Left.add( Messages[i] );
+
+				} // if
+
+			} // for
+
+			MessageManager.Metrics.BridgeLost.add( Messages.length - Left.size() );
+
+			return ( Left.size() == Messages.length ? Messages : Left.toArray( new Message[0] ) );
+
+		} // Unexpired
+
+	} // Peer
+
+} // MessageFederation
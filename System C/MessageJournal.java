@@ -0,0 +1,842 @@
+/******************************************************************************************************************
+* File:MessageJournal.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This class is the message manager's optional write-ahead journal. Every message posted to the message manager is
+* appended to segment files in a directory, so the messages outlive the message manager and can be reviewed after an
+* incident.
+*
+* A segment is a file written through a memory-mapped buffer. It starts with an 8-byte magic number and holds records
+* back to back:
+*
+*	int length of the rest of the record, int CRC32C of the rest of the record,
+*	long sequence number, long time posted (ms), long sender id, int message id,
+*	then the message in the MessageCodec encoding
+*
+* A length of zero marks the end of the records in a segment (a new segment is all zeros), and a record whose
+* checksum does not match is a write torn by a crash, which also ends the segment. Segments are named after the
+* sequence number of their first record, so they sort in order. Each time the message manager starts, it begins a new
+* segment after the last record it finds in the directory.
+*
+* Senders never write to the files. Append puts the message on a queue and returns; the journal's own thread wakes
+* every JournalSyncMillis, takes everything waiting, copies it into the mapped segment, and forces the segment to disk
+* once for the whole batch (group commit). Messages are journaled in their wire encoding, which is cached in
+* the message, so a message is still encoded at most once. The queue is lock free and the writer is not woken per
+* message, so appending costs a sender little; if the writer falls MAXPENDING messages behind, senders wait for it.
+*
+* By default a crash may lose the messages posted in the last JournalSyncMillis. With JournalWait set, a sender waits
+* until its messages have been forced before they are delivered, so every message a participant sees is on disk.
+* The writer then forces as soon as messages arrive, and the senders that post while a force is under way share the
+* next one. The NIO and shared-memory server threads cannot wait like this, since each serves every connection of its
+* transport; they Submit the messages instead and deliver and answer them when the returned future completes.
+*
+* Parameters: MessageManager.Journal - directory of the segment files; no journal if blank (default)
+*			  MessageManager.JournalSegmentSize - bytes per segment file (default 64 MB)
+*			  MessageManager.JournalSyncMillis - ms between batches written to disk (default 10)
+*			  MessageManager.JournalWait - true for senders to wait until their messages are on disk (default false)
+*
+* Internal Methods:
+*	void Append(Message m)
+*	void Append(Message[] Messages)
+*	CompletableFuture<Void> Submit(Message[] Messages)
+*	boolean SendersWait()
+*	void Close()
+*	static File[] Segments(File Dir)
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+public class MessageJournal extends Thread
+{
+	static final long MAGIC = 0x4d4d4a6f75726e31L;	// "MMJourn1", the first 8 bytes of a segment
+	static final int HEADER = 8;					// Bytes before the first record of a segment
+	static final int RECORD = 36;					// Bytes of a record before the message encoding
+	static final int MAXPENDING = 65536;			// Most messages waiting to be written
+	static final String SUFFIX = ".seg";			// Segment file names are <first sequence number>.seg
+
+	private static final Entry STOP = new Entry( null );	// Queued by Close to stop the writer
+
+	private File Dir;							// Where the segments are
+	private long SegmentSize;					// Bytes per segment file
+	private long SyncMillis;					// ms between batches
+	private boolean Wait;						// Senders wait until their messages are forced
+	private ConcurrentLinkedQueue<Entry> Pending = new ConcurrentLinkedQueue<Entry>();	// Messages to write
+	private AtomicInteger PendingCount = new AtomicInteger(0);	// Messages in Pending
+	private volatile IOException Failure = null;	// Set if the journal could not be written
+	private Object Forced = new Object();		// Waiting senders are notified on this after each force
+
+	// Used by the writer thread only
+
+	private long NextSequence;					// Sequence number of the next record
+	private FileChannel Channel;				// The segment being written
+	private MappedByteBuffer Map;
+	private int ForcedTo;						// Position in Map up to which it has been forced
+	private CRC32C Crc = new CRC32C();
+
+	/***************************************************************************
+	* INNER CLASS:: Entry
+	* Purpose: A message waiting to be journaled.
+	*
+	****************************************************************************/
+
+	private static class Entry
+	{
+		final Message Msg;
+		final long Time = System.currentTimeMillis();	// When it was posted
+		volatile boolean Durable = false;				// Set once the record is forced to disk
+		final CompletableFuture<Void> Done;				// Completed once forced, if submitted (see Submit)
+
+		Entry( Message m )
+		{
+			this( m, null );
+
+		} // constructor
+
+		Entry( Message m, CompletableFuture<Void> d )
+		{
+			Msg = m;
+			Done = d;
+
+		} // constructor
+
+	} // Entry
+
+	/***************************************************************************
+	* INNER CLASS:: Record
+	* Purpose: A record read back from the journal (see Reader).
+	*
+	****************************************************************************/
+
+	public static class Record
+	{
+		public final long Sequence;
+		public final long Time;					// When the message was posted (ms)
+		public final long SenderId;
+		public final int MessageId;
+		public final byte[] Encoding;			// The message in the MessageCodec encoding
+
+		Record( long Sequence, long Time, long SenderId, int MessageId, byte[] Encoding )
+		{
+			this.Sequence = Sequence;
+			this.Time = Time;
+			this.SenderId = SenderId;
+			this.MessageId = MessageId;
+			this.Encoding = Encoding;
+
+		} // constructor
+
+		// The message's age was taken when it was posted, so its creation
+		// time is set back from Time rather than from when it is read.
+
+		public Message GetMessage() throws IOException
+		{
+			return MessageCodec.ReadMessage( new DataInputStream( new ByteArrayInputStream( Encoding ) ), Time );
+
+		} // GetMessage
+
+	} // Record
+
+	public MessageJournal( File Dir ) throws IOException
+	{
+		super( "MessageJournal" );
+		setDaemon( true );
+
+		this.Dir = Dir;
+		SegmentSize = Math.max( Long.getLong( "MessageManager.JournalSegmentSize", 64L << 20 ), 1 << 20 );
+		SyncMillis = Long.getLong( "MessageManager.JournalSyncMillis", 10 );
+		Wait = Boolean.getBoolean( "MessageManager.JournalWait" );
+
+		if ( !Dir.isDirectory() && !Dir.mkdirs() )
+		{
+			throw new IOException( "Cannot create journal directory " + Dir );
+
+		} // if
+
+		// Carry on after the last record of the last segment
+
+		NextSequence = 1;
+
+		File[] Existing = Segments( Dir );
+
+		if ( Existing.length > 0 )
+		{
+			Reader r = new Reader( new File[] { Existing[Existing.length - 1] } );
+			Record Last;
+
+			NextSequence = FirstSequence( Existing[Existing.length - 1] );
+
+			try
+			{
+				while ( ( Last = r.Next() ) != null )
+				{
+					NextSequence = Last.Sequence + 1;
+
+				} // while
+
+			} // try
+
+			finally
+			{
+				r.close();
+
+			} // finally
+
+		} // if
+
+		NewSegment( SegmentSize );
+
+		Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() { public void run() { Close(); } }, "MessageJournal shutdown" ) );
+
+	} // constructor
+
+	public String toString()
+	{
+		return Dir.getPath() + ( Wait ? " (senders wait for disk)" : " (written every " + SyncMillis + " ms)" );
+
+	} // toString
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Append
+	* Purpose: Queues a message to be journaled. With JournalWait set, waits
+	*		   until it is on disk.
+	*
+	* Arguments: Message m - the message posted
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException - if JournalWait is set and the journal could
+	*			  not be written
+	*
+	****************************************************************************/
+
+	public void Append( Message m ) throws RemoteException
+	{
+		Await( Enqueue( m ) );
+
+	} // Append
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Append
+	* Purpose: Queues several messages to be journaled, in order. With
+	*		   JournalWait set, waits until they are on disk.
+	*
+	* Arguments: Message[] Messages - the messages posted
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException - if JournalWait is set and the journal could
+	*			  not be written
+	*
+	****************************************************************************/
+
+	public void Append( Message[] Messages ) throws RemoteException
+	{
+		Entry e = null;
+
+		for ( int i = 0; i < Messages.length; i++ )
+		{
+			e = Enqueue( Messages[i] );
+
+		} // for
+
+		// The records are forced in order, so once the last one is on disk the
+		// others are too.
+
+		if ( e != null )
+		{
+			Await( e );
+
+		} // if
+
+	} // Append
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Submit
+	* Purpose: Queues several messages to be journaled, in order, without
+	*		   waiting for them. The future completes once they are on disk, on
+	*		   the writer thread, so whatever is chained to it must be quick.
+	*		   Only the wait for a writer MAXPENDING messages behind can block.
+	*
+	* Arguments: Message[] Messages - the messages posted
+	*
+	* Returns: CompletableFuture<Void> - completed once the messages are on disk
+	*		   (at once without JournalWait), or exceptionally with a
+	*		   RemoteException if the journal could not be written
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public CompletableFuture<Void> Submit( Message[] Messages )
+	{
+		CompletableFuture<Void> Done = new CompletableFuture<Void>();
+
+		if ( !Wait || Messages.length == 0 )
+		{
+			Done.complete( null );
+			return Done;
+
+		} // if
+
+		for ( int i = 0; i < Messages.length - 1; i++ )
+		{
+			Enqueue( Messages[i], null );
+
+		} // for
+
+		Enqueue( Messages[Messages.length - 1], Done );
+
+		// The writer may have failed before the last entry was queued, or while
+		// it was being queued, so that nothing will complete it
+
+		if ( Failure != null )
+		{
+			Done.completeExceptionally( new RemoteException( "Message not journaled", Failure ) );
+
+		} // if
+
+		return Done;
+
+	} // Submit
+
+	/***************************************************************************
+	* CONCRETE METHOD:: SendersWait
+	* Purpose: Tells whether messages are delivered only once they are on disk
+	*		   (JournalWait).
+	*
+	* Arguments: None
+	*
+	* Returns: boolean
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public boolean SendersWait()
+	{
+		return Wait;
+
+	} // SendersWait
+
+	private Entry Enqueue( Message m )
+	{
+		return Enqueue( m, null );
+
+	} // Enqueue
+
+	private Entry Enqueue( Message m, CompletableFuture<Void> Done )
+	{
+		Entry e = new Entry( m, Done );
+
+		// The queue is lock free. If the writer has fallen this far behind, the
+		// sender waits for it to catch up.
+
+		while ( PendingCount.get() >= MAXPENDING && Failure == null )
+		{
+			LockSupport.parkNanos( 100000 );
+
+		} // while
+
+		if ( Failure == null )
+		{
+			PendingCount.incrementAndGet();
+			Pending.offer( e );
+
+			if ( Wait )
+			{
+				LockSupport.unpark( this );
+
+			} // if
+
+		} // if
+
+		return e;
+
+	} // Enqueue
+
+	private void Await( Entry e ) throws RemoteException
+	{
+		if ( !Wait )
+		{
+			return;
+
+		} // if
+
+		synchronized ( Forced )
+		{
+			while ( !e.Durable && Failure == null )
+			{
+				try
+				{
+					Forced.wait();
+
+				} // try
+
+				catch (InterruptedException ie)
+				{
+					Thread.currentThread().interrupt();
+					throw new RemoteException( "Interrupted waiting for the journal" );
+
+				} // catch
+
+			} // while
+
+		} // synchronized
+
+		if ( !e.Durable )
+		{
+			throw new RemoteException( "Message not journaled", Failure );
+
+		} // if
+
+	} // Await
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Close
+	* Purpose: Writes the messages still queued, forces them to disk and stops
+	*		   the writer. Called when the JVM exits.
+	*
+	* Arguments: None
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void Close()
+	{
+		if ( isAlive() )
+		{
+			Pending.offer( STOP );
+			LockSupport.unpark( this );
+
+			try
+			{
+				join( 5000 );
+
+			} // try
+
+			catch (InterruptedException e)
+			{
+				// Exiting anyway
+
+			} // catch
+
+		} // if
+
+	} // Close
+
+	/***************************************************************************
+	* CONCRETE METHOD:: run
+	* Purpose: The writer thread. Takes every queued message, writes them to
+	*		   the segment and forces it once for the batch. Without JournalWait
+	*		   it sleeps SyncMillis between batches, so senders never have to
+	*		   wake it. With JournalWait it takes messages as they come, and the
+	*		   messages posted while a force is under way make the next batch.
+	*
+	* Arguments: None
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void run()
+	{
+		ArrayList<Entry> Batch = new ArrayList<Entry>();
+		boolean Stopping = false;
+		Entry e;
+
+		try
+		{
+			while ( !Stopping )
+			{
+				if ( Wait || SyncMillis <= 0 )
+				{
+					if ( Pending.isEmpty() )
+					{
+						LockSupport.park( this );
+
+					} // if
+
+				} else {
+
+					Thread.sleep( SyncMillis );
+
+				} // if
+
+				while ( ( e = Pending.poll() ) != null )
+				{
+					Batch.add( e );
+
+				} // while
+
+				if ( Batch.isEmpty() )
+				{
+					continue;
+
+				} // if
+
+				PendingCount.addAndGet( -Batch.size() );
+
+				for ( Entry t : Batch )
+				{
+					if ( t == STOP )
+					{
+						Stopping = true;
+
+					} else {
+
+						Write( t );
+
+					} // if
+
+				} // for
+
+				Force();
+
+				for ( Entry t : Batch )
+				{
+					t.Durable = true;
+
+					if ( t.Done != null )
+					{
+						t.Done.complete( null );
+
+					} // if
+
+				} // for
+
+				Batch.clear();
+
+				if ( Wait )
+				{
+					synchronized ( Forced )
+					{
+						Forced.notifyAll();
+
+					} // synchronized
+
+				} // if
+
+			} // while
+
+			Channel.close();
+
+		} // try
+
+		catch (IOException ex)
+		{
+			Failure = ex;
+			System.out.println( "Journal error, messages are no longer journaled: " + ex );
+
+			// Submitted messages that were not forced are failed
+
+			while ( ( e = Pending.poll() ) != null )
+			{
+				Batch.add( e );
+
+			} // while
+
+			for ( Entry t : Batch )
+			{
+				if ( t.Done != null && !t.Durable )
+				{
+					t.Done.completeExceptionally( new RemoteException( "Message not journaled", ex ) );
+
+				} // if
+
+			} // for
+
+			PendingCount.set( 0 );
+
+			synchronized ( Forced )
+			{
+				Forced.notifyAll();
+
+			} // synchronized
+
+		} // catch
+
+		catch (InterruptedException ex)
+		{
+			// Stopped
+
+		} // catch
+
+	} // run
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Write
+	* Purpose: Copies one record into the mapped segment, starting a new segment
+	*		   if it does not fit.
+	*
+	* Arguments: Entry e - the message to write
+	*
+	* Returns: None
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	private void Write( Entry e ) throws IOException
+	{
+		byte[] Encoding = e.Msg.GetEncoding();
+		int Length = RECORD - 8 + Encoding.length;		// Bytes after the length and checksum
+
+		if ( Map.remaining() < 8 + Length )
+		{
+			Force();
+			Channel.close();
+			NewSegment( Math.max( SegmentSize, HEADER + 8 + Length ) );
+
+		} // if
+
+		int Start = Map.position();
+
+		Map.putInt( Length );
+		Map.putInt( 0 );
+		Map.putLong( NextSequence++ );
+		Map.putLong( e.Time );
+		Map.putLong( e.Msg.GetSenderId() );
+		Map.putInt( e.Msg.GetMessageId() );
+		Map.put( Encoding );
+
+		ByteBuffer Body = Map.duplicate();
+
+		Body.position( Start + 8 ).limit( Start + 8 + Length );
+		Crc.reset();
+		Crc.update( Body );
+		Map.putInt( Start + 4, (int) Crc.getValue() );
+
+	} // Write
+
+	private void Force() throws IOException
+	{
+		if ( Map.position() > ForcedTo )
+		{
+			try
+			{
+				Map.force( ForcedTo, Map.position() - ForcedTo );
+
+			} // try
+
+			catch (UncheckedIOException e)
+			{
+				throw e.getCause();
+
+			} // catch
+
+			ForcedTo = Map.position();
+
+		} // if
+
+	} // Force
+
+	private void NewSegment( long Size ) throws IOException
+	{
+		File f = new File( Dir, String.format( "%020d", NextSequence ) + SUFFIX );
+
+		// A segment of the same name can only be one left without records
+
+		Channel = FileChannel.open( f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING );
+		Map = Channel.map( FileChannel.MapMode.READ_WRITE, 0, Size );
+		Map.putLong( MAGIC );
+		Map.force();
+		Channel.force( true );
+		ForcedTo = Map.position();
+
+	} // NewSegment
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Segments
+	* Purpose: Lists the segment files of a journal directory in order.
+	*
+	* Arguments: File Dir - the journal directory
+	*
+	* Returns: File[] - the segments, oldest first
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public static File[] Segments( File Dir )
+	{
+		File[] Files = Dir.listFiles( new FilenameFilter()
+		{
+			public boolean accept( File d, String Name )
+			{
+				return Name.endsWith( SUFFIX );
+
+			} // accept
+
+		} );
+
+		if ( Files == null )
+		{
+			return new File[0];
+
+		} // if
+
+		Arrays.sort( Files );
+
+		return Files;
+
+	} // Segments
+
+	static long FirstSequence( File Segment )
+	{
+		String Name = Segment.getName();
+
+		return Long.parseLong( Name.substring( 0, Name.length() - SUFFIX.length() ) );
+
+	} // FirstSequence
+
+	/***************************************************************************
+	* INNER CLASS:: Reader
+	* Purpose: Reads the records of a list of segments in order. Each segment
+	*		   is read up to its end marker or its first torn record.
+	*
+	****************************************************************************/
+
+	public static class Reader implements Closeable
+	{
+		private File[] Segments;				// Segments to read
+		private int Next = 0;					// The next segment to open
+		private FileChannel Channel = null;		// The segment being read
+		private ByteBuffer Map = null;
+		private CRC32C Crc = new CRC32C();
+		private int Torn = 0;					// Segments that ended in a torn record
+
+		public Reader( File[] Segments )
+		{
+			this.Segments = Segments;
+
+		} // constructor
+
+		public Record Next() throws IOException
+		{
+			Record r;
+
+			while ( true )
+			{
+				if ( Map != null && ( r = ReadRecord() ) != null )
+				{
+					return r;
+
+				} // if
+
+				close();
+
+				if ( Next == Segments.length )
+				{
+					return null;
+
+				} // if
+
+				Channel = FileChannel.open( Segments[Next++].toPath(), StandardOpenOption.READ );
+				Map = Channel.map( FileChannel.MapMode.READ_ONLY, 0, Channel.size() );
+
+				if ( Map.remaining() < HEADER || Map.getLong() != MAGIC )
+				{
+					throw new StreamCorruptedException( Segments[Next - 1] + " is not a journal segment" );
+
+				} // if
+
+			} // while
+
+		} // Next
+
+		private Record ReadRecord()
+		{
+			if ( Map.remaining() < 8 )
+			{
+				return null;
+
+			} // if
+
+			int Start = Map.position();
+			int Length = Map.getInt( Start );
+
+			if ( Length == 0 )
+			{
+				return null;
+
+			} // if
+
+			if ( Length < RECORD - 8 || Length > Map.remaining() - 8 )
+			{
+				Torn++;
+				return null;
+
+			} // if
+
+			ByteBuffer Body = Map.duplicate();
+
+			Body.position( Start + 8 ).limit( Start + 8 + Length );
+			Crc.reset();
+			Crc.update( Body );
+
+			if ( (int) Crc.getValue() != Map.getInt( Start + 4 ) )
+			{
+				Torn++;
+				return null;
+
+			} // if
+
+			Map.position( Start + 8 );
+
+			long Sequence = Map.getLong();
+			long Time = Map.getLong();
+			long SenderId = Map.getLong();
+			int MessageId = Map.getInt();
+			byte[] Encoding = new byte[Length - ( RECORD - 8 )];
+
+			Map.get( Encoding );
+
+			return new Record( Sequence, Time, SenderId, MessageId, Encoding );
+
+		} // ReadRecord
+
+		// The number of segments that ended in a torn record, such as one
+		// being written when the message manager crashed.
+
+		public int GetTornCount()
+		{
+			return Torn;
+
+		} // GetTornCount
+
+		public void close() throws IOException
+		{
+			Map = null;
+
+			if ( Channel != null )
+			{
+				Channel.close();
+				Channel = null;
+
+			} // if
+
+		} // close
+
+	} // Reader
+
+} // MessageJournal
@@ -10,27 +10,146 @@
 *			   and all associated house keeping chores. Communication with participants is via RMI. There are
 *			   a number of RMI methods that allow participants to register, post messages, get messages,
 *
-* Parameters: None
+*			   Message queues are kept in a concurrent hash map keyed by participant id, so finding a queue is a
+*			   constant time lookup. The remote methods are not synchronized on the manager; each queue guards its
+*			   own contents, so a participant draining its queue does not hold up senders or other participants.
+*
+*			   GetMessageQueue can wait (up to a limit) for messages to arrive, so participants do not have to
+*			   sleep and poll. While a request waits, it only holds the participant's own queue.
+*
+*			   Participants may also register a MessageListener callback. Each listener gets a delivery thread of
+*			   its own that waits on the participant's queue and pushes messages to the listener as they arrive,
+*			   so a slow or unreachable listener never holds up SendMessage.
+*
+*			   Participants may subscribe to the message ids they consume. A message is only placed in the queues
+*			   of participants that subscribed to its id, or that never subscribed to anything. The halt message
+*			   (id 99) is delivered to every participant. Participants may also ask for readings to be
+*			   conflated, so a new reading replaces the one from the same sender still waiting in their queue.
+*
+*			   Messages use the compact encoding in MessageCodec. A message is encoded at most once, the first
+*			   time it is written to a remote participant, and the same bytes go to every participant it is
+*			   delivered to. Participants hosted in the message manager's JVM (see SystemHost) get the message
+*			   object itself.
+*
+*			   Besides RMI, the message manager accepts participants over a non-blocking NIO transport (see
+*			   WireProtocol). One selector thread serves every NIO connection (see NioServer and
+*			   RequestServer). Requests on a connection are answered as they are handled, so a client can
+*			   pipeline them. A GetMessageQueue request that has to wait is parked instead of holding a
+*			   thread, and is answered when a message arrives in the participant's queue or the wait runs
+*			   out.
+*
+*			   Participants on the same machine can also use a shared-memory transport: the same request
+*			   frames travel through rings in memory-mapped files (see ShmRing), one inbound ring read by
+*			   the message manager and one response ring per connection, so no socket or serialization is
+*			   involved (see ShmServer).
+*
+*			   Queues are bounded so that a participant that dies without unregistering cannot exhaust the
+*			   message manager's memory. The capacity and the overflow policy (DROP_OLDEST, DROP_NEWEST or
+*			   REJECT) are set with system properties. With REJECT the sender gets a QueueFullException naming
+*			   the full queues; the message is still delivered to everyone else. Dropped and rejected messages
+*			   are counted and shown with the statistics.
+*
+*			   Registrations are leases. Every call a participant makes renews its lease (sending messages,
+*			   getting its queue, or RenewLease when it has nothing else to do), and a message pushed to its
+*			   listener does too. A reaper thread frees the queues of participants whose lease expired, so
+*			   participants that crash or are killed stop receiving broadcasts and holding memory.
+*
+*			   Queue depths, message rates, call times and bytes per transport are published over JMX and as
+*			   Prometheus text on a local HTTP port (see MessageManagerMetrics).
+*
+*			   Posted messages can be journaled to memory-mapped segment files before they are delivered (see
+*			   MessageJournal), so there is a record of them for incident review that survives a restart.
+*
+*			   Several message managers can be joined into one (see MessageFederation). Each node serves the
+*			   participants that registered with it and hands the messages they post to the other nodes, which
+*			   deliver them to their own participants.
+*
+*			   Critical messages (alarms and halt, see Message.GetPriority) are taken off every queue ahead of
+*			   readings and heartbeats. So that a flood of readings cannot hold up the requests that post an
+*			   alarm, SendPermits can be set to limit how many requests posting only normal messages are
+*			   handled at a time; the others wait their turn. Requests that post a critical message never
+*			   wait, and no request holds a permit while it waits for the journal. The NIO and shared-memory
+*			   threads take no permits; of the requests they read in one pass, they handle the ones posting
+*			   a critical message first (see RequestServer).
+*
+*			   Messages may be given a time to live by their producer (see Message.SetTimeToLive). Queues drop
+*			   expired messages when they are drained, and a sweep every ExpiryMillis drops them from every queue,
+*			   so the queue of a participant that stopped draining holds recent messages only. Expired messages
+*			   are counted and shown with the statistics. A message's age travels with it, so expiry does not
+*			   depend on the producers' clocks being in step with the message manager's.
+*
+*			   A message manager can be kept by a hot standby that replicates its registrations and queues and
+*			   takes over when it dies (see MessageReplication). Participants then re-resolve the message manager
+*			   and carry on under their participant ids.
+*
+* Parameters: MessageManager.QueueCapacity - most messages per queue, zero for no limit (default 10000)
+*			  MessageManager.OverflowPolicy - DROP_OLDEST, DROP_NEWEST or REJECT (default DROP_OLDEST)
+*			  MessageManager.LeaseMillis - registration lease time in ms, zero to never reap (default 60000)
+*			  MessageManager.NioPort - port of the NIO transport, zero to turn it off (default 0; participants
+*									   use 1100 unless told otherwise)
+*			  MessageManager.StatsInterval - ms between statistics summaries, zero for none (default 10000)
+*			  MessageManager.Trace - true to print a line for every request (default false)
+*			  MessageManager.MetricsPort - port of the HTTP metrics endpoint, such as 9400; zero to turn it off
+*										   (default 0)
+*			  MessageManager.Journal - directory to journal posted messages in, blank for none (default none;
+*									   see MessageJournal for its other parameters)
+*			  MessageManager.ShmDir - directory of the shared-memory rings, such as /dev/shm/MessageManager;
+*									  empty to turn them off (default empty)
+*			  MessageManager.RegistryPort - port of the RMI registry to bind in (default 1099)
+*			  MessageManager.SendPermits - most requests posting normal messages handled at a time, zero for no
+*										   limit (default 0)
+*			  MessageManager.CriticalIds - the message ids of critical messages (default 3,6,12,13,22,99)
+*			  MessageManager.ExpiryMillis - ms between sweeps for expired messages, zero for none (default 1000)
+*			  MessageManager.Peers, NodeIndex - the other nodes and this node's index, to federate this message
+*												manager with others (default none; see MessageFederation)
+*			  MessageManager.Replicate - true to offer replication to a standby (default false)
+*			  MessageManager.StandbyOf - host:registryport of the primary, to start as its hot standby
+*										 (default none; see MessageReplication)
 *
 * Internal Methods: None
 *
 ******************************************************************************************************************/
 import MessagePackage.*;
+import java.io.*;
 import java.net.*;
 import java.rmi.*;
 import java.rmi.server.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class MessageManager extends UnicastRemoteObject implements RMIMessageManagerInterface
 {
-	static Vector<MessageQueue> MessageQueueList;	// This is the list of message queues.
+	static ConcurrentHashMap<Long, Participant> MessageQueueList;	// Participants and their queues keyed by id.
+	static AtomicLong LastIssuedId;				// The last participant id handed out by Register()
 	static RequestLogger l;  					// This is a request logger - Logger is a private inner class
+	static final long MAXWAIT = 30000;			// Longest a GetMessageQueue request may wait for messages (ms)
+	static int QueueCapacity;					// Most messages held per queue (zero or less for no limit)
+	static MessageQueue.OverflowPolicy Policy;	// What to do with messages sent to a full queue
+	static long LeaseMillis;					// Registration lease time (zero or less for no leases)
+	static long ExpiryMillis;					// Time between sweeps for expired messages (zero or less for none)
+	static int NioPort;							// Port of the NIO transport (zero or less for none)
+	static MessageManagerMetrics Metrics;		// Counters and histograms published over JMX and HTTP
+	static MessageJournal Journal = null;		// Journal of the messages posted (null for none)
+	static MessageFederation Federation = null;	// Bridges to the other nodes, if federated
+	static MessageReplication Replication = null;	// Changes recorded for a standby, if replicating
+	static Semaphore SendPermits = null;		// Limits the requests posting normal messages (null for no limit)
 
 	public MessageManager() throws RemoteException
 	{
 		super();										// Required by RMI
 		l = new RequestLogger();						// Screen logging object
-		MessageQueueList = new Vector<MessageQueue>(15, 1);	// Queue for storing messages
+		Metrics = new MessageManagerMetrics();
+		MessageQueueList = new ConcurrentHashMap<Long, Participant>();	// Queues for storing messages
+		LastIssuedId = new AtomicLong(0);
+		QueueCapacity = Integer.getInteger( "MessageManager.QueueCapacity", 10000 );
+		Policy = MessageQueue.OverflowPolicy.valueOf( System.getProperty( "MessageManager.OverflowPolicy", "DROP_OLDEST" ).trim().toUpperCase() );
+		LeaseMillis = Long.getLong( "MessageManager.LeaseMillis", 60000 );
+		ExpiryMillis = Long.getLong( "MessageManager.ExpiryMillis", 1000 );
+		NioPort = Integer.getInteger( "MessageManager.NioPort", 0 );
+
+		int Permits = Integer.getInteger( "MessageManager.SendPermits", 0 );
+		SendPermits = ( Permits > 0 ? new Semaphore( Permits ) : null );
 
 	} // Constructor
 
@@ -48,11 +167,176 @@ public class MessageManager extends UnicastRemoteObject implements RMIMessageMan
 			String MessageManagerIpAddress = LocalHostAddress.getHostAddress();
 
 			MessageManager em = new MessageManager();
-	      	Naming.bind("MessageManager", em);
+			int RegistryPort = Integer.getInteger( "MessageManager.RegistryPort", 1099 );
+
+			// A standby replicates the primary until it fails, then starts up in
+			// its place with the participants and messages it replicated. Every
+			// participant gets a fresh lease, since it may have been renewing it
+			// with the primary alone for a while.
+
+			String ReplicationStatus = "off";
+			String Primary = System.getProperty( "MessageManager.StandbyOf", "" ).trim();
+
+			if ( Boolean.getBoolean( "MessageManager.Replicate" ) )
+			{
+				Replication = new MessageReplication();
+				ReplicationStatus = "offered to a standby";
+
+			} // if
+
+			if ( !Primary.isEmpty() )
+			{
+				l.DisplayStatistics( "Standby of the message manager at " + Primary + "." );
+
+				long FollowedSince = System.currentTimeMillis();
+
+				MessageReplication.Follow( Primary );
+
+				for ( Participant p : MessageQueueList.values() )
+				{
+					p.Touch();
+
+				} // for
+
+				ReplicationStatus = "took over from " + Primary + " after " + ( System.currentTimeMillis() - FollowedSince ) / 1000
+					+ " s as standby" + ( Replication != null ? ", offered to a standby" : "" );
+
+			} // if
+
+			// Join the federation, if there is one, before issuing any ids
+
+			String FederationStatus = "off";
+			String Peers = System.getProperty( "MessageManager.Peers", "" ).trim();
+
+			if ( !Peers.isEmpty() )
+			{
+				Federation = new MessageFederation( Integer.getInteger( "MessageManager.NodeIndex", 0 ), Peers.split( "," ) );
+				FederationStatus = Federation.Start( RegistryPort );
+
+			} // if
+
+			// Open the journal before any participant can post
+
+			String JournalStatus = "off";
+			String JournalDir = System.getProperty( "MessageManager.Journal", "" ).trim();
+
+			if ( !JournalDir.isEmpty() )
+			{
+				Journal = new MessageJournal( new File( JournalDir ) );
+				Journal.start();
+				JournalStatus = Journal.toString();
+
+			} // if
+
+			// Participants are served through a proxy that times every call, and
+			// RMI participants through sockets that count their bytes, so the
+			// message manager is exported again with those instead.
+
+			RMIMessageManagerInterface Served = Metrics.Timed( em );
+
+			UnicastRemoteObject.unexportObject( em, true );
+			Remote Stub = UnicastRemoteObject.exportObject( Served, 0, null,
+				new MessageManagerMetrics.CountingSocketFactory( Metrics.BytesIn.get( "rmi" ), Metrics.BytesOut.get( "rmi" ) ) );
+			if ( Primary.isEmpty() )
+			{
+		      	Naming.bind("//localhost:" + RegistryPort + "/MessageManager", Served);
+
+			} else {
+
+				// The failed primary may still be bound. If it was only paused, it
+				// steps down once it sees it is not any more, or is fenced.
+
+				Naming.rebind("//localhost:" + RegistryPort + "/MessageManager", Served);
+				MessageReplication.Fence( Primary, MessageManagerIpAddress + ":" + RegistryPort );
+
+			} // if
+
+			if ( Replication != null )
+			{
+				Replication.Start( RegistryPort, Stub );
+
+			} // if
+
+			// Print statistics from the background from now on
+
+			if ( l.StatsInterval > 0 || l.Tracing )
+			{
+				l.start();
+
+			} // if
+
+			// Participants in this JVM may call the message manager directly
+
+			MessageManagerInterface.SetLocalManager( Served );
+
+			// Start reaping expired registrations
+
+			if ( LeaseMillis > 0 )
+			{
+				new LeaseReaper().start();
+
+			} // if
+
+			// Start sweeping expired messages out of the queues
+
+			if ( ExpiryMillis > 0 )
+			{
+				new ExpirySweeper().start();
+
+			} // if
+
+			// Start accepting participants over the NIO transport
+
+			if ( NioPort > 0 )
+			{
+				new NioServer( Served, NioPort ).start();
+
+			} // if
+
+			// Start reading requests from the shared-memory rings
+
+			String ShmStatus = "off";
+
+			if ( WireProtocol.ShmDirectory() != null )
+			{
+				try
+				{
+					new ShmServer( Served, WireProtocol.ShmDirectory() ).start();
+					ShmStatus = WireProtocol.ShmDirectory().getPath();
+
+				} // try
+
+				catch (IOException e)
+				{
+					ShmStatus = "not started (" + e + ")";
+
+				} // catch
+
+			} // if
+
+			// Publish the metrics
+
+			String MetricsStatus;
+
+			try
+			{
+				MetricsStatus = Metrics.Start();
+
+			} // try
+
+			catch (Exception e)
+			{
+				MetricsStatus = "not published (" + e + ")";
+
+			} // catch
 
 	     	// Finally we notify the user that the server is ready.
 
-			l.DisplayStatistics( "Server IP address::" + MessageManagerIpAddress + ". Message manager ready." );
+			l.DisplayStatistics( "Server IP address::" + MessageManagerIpAddress + ". Message manager ready. Queue capacity: "
+				+ (QueueCapacity > 0 ? String.valueOf(QueueCapacity) : "unlimited") + ", overflow policy: " + Policy + ", send permits: "
+				+ (SendPermits != null ? String.valueOf(SendPermits.availablePermits()) : "unlimited") + ", lease: "
+				+ (LeaseMillis > 0 ? LeaseMillis + " ms" : "none") + ", expiry sweep: " + (ExpiryMillis > 0 ? ExpiryMillis + " ms" : "off") + ", NIO port: " + (NioPort > 0 ? String.valueOf(NioPort) : "off")
+				+ ", shared memory: " + ShmStatus + ", metrics: " + MetricsStatus + ", journal: " + JournalStatus + ", federation: " + FederationStatus + ", replication: " + ReplicationStatus + "." );
 
 		} // try
 
@@ -78,12 +362,33 @@ public class MessageManager extends UnicastRemoteObject implements RMIMessageMan
 	*
 	****************************************************************************/
 
-	synchronized public long Register() throws RemoteException
+	public long Register() throws RemoteException
 	{
+		l.Request();
+
 		// Create a new queue and add it to the list of message queues.
 
-		MessageQueue mq = new MessageQueue();
-		MessageQueueList.add( mq );
+		MessageQueue mq = new MessageQueue( NextParticipantId(), QueueCapacity, Policy );
+
+		// The queue is recorded before it can be found, so nothing is recorded
+		// for it ahead of its registration
+
+		Changing();
+
+		synchronized ( mq )
+		{
+			Record( MessageReplication.REGISTER, mq.GetId(), 0, 0, null );
+			MessageQueueList.put( mq.GetId(), new Participant( mq ) );
+
+		} // synchronized
+
+		Changed();
+
+		if ( Federation != null )
+		{
+			Federation.Resubscribe();
+
+		} // if
 
 		l.DisplayStatistics( "Register message. Issued ID = " + mq.GetId() );
 
@@ -91,6 +396,74 @@ public class MessageManager extends UnicastRemoteObject implements RMIMessageMan
 
 	} // Register
 
+	/***************************************************************************
+	* Remote METHOD:: Reregister
+	* Purpose: This method registers a participant again under the id it was
+	*		   issued, when it failed over to this message manager (a standby
+	*		   or another node) and its registration was not here.
+	*
+	* Arguments: long integer - the participants id
+	*
+	* Returns: boolean - true if the participant was registered now, false if
+	*		   it was registered already
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public boolean Reregister( long id ) throws RemoteException
+	{
+		l.Request();
+
+		if ( Lookup( id ) != null )
+		{
+			return false;
+
+		} // if
+
+		Participant np = new Participant( new MessageQueue( id, QueueCapacity, Policy ) );
+
+		// As in Register, but the queue is only recorded if it was added. Until
+		// it is, nobody else can lock it.
+
+		Changing();
+
+		synchronized ( np.Queue )
+		{
+			if ( MessageQueueList.putIfAbsent( id, np ) == null )
+			{
+				Record( MessageReplication.REGISTER, id, 0, 0, null );
+
+			} else {
+
+				np = null;
+
+			} // if
+
+		} // synchronized
+
+		Changed();
+
+		if ( np == null )
+		{
+			return false;
+
+		} // if
+
+		LastIssuedId.accumulateAndGet( id, Math::max );
+
+		if ( Federation != null )
+		{
+			Federation.Resubscribe();
+
+		} // if
+
+		l.DisplayStatistics( "Reregister message. ID = " + id );
+
+		return true;
+
+	} // Reregister
+
 	/***************************************************************************
 	* Remote METHOD:: UnRegister
 	* Purpose: This method unregisters participants with the message manager.
@@ -103,32 +476,43 @@ public class MessageManager extends UnicastRemoteObject implements RMIMessageMan
 	*
 	****************************************************************************/
 
-	synchronized public void UnRegister(long id) throws RemoteException
+	public void UnRegister(long id) throws RemoteException
 	{
-		MessageQueue mq;
-		boolean found = false;
+		l.Request();
+
+		// Remove the queue for id from the list.
 
-		// Find the queue for id.
+		Changing();
 
-		for ( int i = 0; i < MessageQueueList.size(); i++ )
+		Participant p = MessageQueueList.remove( id );
+
+		if ( p != null )
 		{
-			//Get the queue for id and remove it from the list.
+			Record( MessageReplication.UNREGISTER, id, 0, 0, null );
+
+		} // if
 
-			mq =  MessageQueueList.get(i);
+		Changed();
+
+		if (p != null)
+		{
+			p.SetDelivery( null );
 
-			if (mq.GetId() == id)
+			if ( Federation != null )
 			{
-				mq = MessageQueueList.remove(i);
-				found = true;
+				Federation.Resubscribe();
 
 			} // if
 
-		} // for
+			l.DisplayStatistics( "Unregistered ID::" + id + ". Messages dropped: " + p.Queue.GetDroppedCount() + ", rejected: " + p.Queue.GetRejectedCount()
+				+ ", conflated: " + p.Queue.GetConflatedCount() + "." );
+
+		} else {
 
-		if (found)
-			l.DisplayStatistics( "Unregistered ID::" + id );
-		else
 			l.DisplayStatistics( "Unregister error. ID:"+ id + " not found.");
+
+		} // if
+
 	} // Register
 
 	/***************************************************************************
@@ -140,117 +524,1508 @@ public class MessageManager extends UnicastRemoteObject implements RMIMessageMan
 	*
 	* Returns: None
 	*
-	* Exceptions: None
+	* Exceptions: QueueFullException - if the overflow policy is REJECT and the
+	*			  queue of one or more subscribers was full
 	*
 	****************************************************************************/
 
-	synchronized public void SendMessage(Message m ) throws RemoteException
+	public void SendMessage(Message m ) throws RemoteException
 	{
-		MessageQueue mq;
+		// The journal is written first, so that a request does not hold a
+		// permit while it waits for the disk (with JournalWait)
+
+		if ( Journal != null )
+		{
+			Journal.Append( m );
+
+		} // if
 
-		// For every queue on the list, add the message.
+		boolean Admitted = Admit( m.GetPriority() == Message.Priority.CRITICAL );
 
-		for ( int i = 0; i < MessageQueueList.size(); i++ )
+		try
 		{
-			mq = MessageQueueList.get(i);
-			mq.AddMessage(m);
-			MessageQueueList.set(i, mq);
+			Post( m );
 
-		} // for
+		} // try
+
+		finally
+		{
+			Release( Admitted );
 
-		l.DisplayStatistics( "Incoming message posted from ID: " + m.GetSenderId() );
+		} // finally
 
 	} // SendMessage
 
 	/***************************************************************************
-	* Remote METHOD:: GetMessage
-	* Purpose: Get the message queue for a participant (id).
+	* CONCRETE METHOD:: Post
+	* Purpose: Places a message sent to the message manager in the queues of the
+	*		   participants that subscribed to it, once SendMessage admitted it.
+	*		   The message is already in the journal; the NIO and shared-memory
+	*		   servers call it directly once theirs is (see RequestServer).
 	*
-	* Arguments: long id - participants id
+	* Arguments: Message
 	*
-	* Returns: MessageQueue
+	* Returns: None
 	*
-	* Exceptions: None
+	* Exceptions: QueueFullException - if the overflow policy is REJECT and the
+	*			  queue of one or more subscribers was full
 	*
 	****************************************************************************/
 
-	synchronized public MessageQueue GetMessageQueue( long id ) throws RemoteException
+	static void Post( Message m ) throws RemoteException
 	{
-		MessageQueue mq, temp =  null;
-		boolean found = false;
+		l.Request();
+		Metrics.Posted( m.GetMessageId(), 1 );
 
-		// Find the queue for id.
+		StringBuilder Full = null;		// Ids of the full queues that refused the message
+		int Offered = 0;				// Queues the message was placed in
 
-		for ( int i = 0; i < MessageQueueList.size(); i++ )
+		Lookup( m.GetSenderId() );		// Renews the sender's lease
+
+		if ( Federation != null )
 		{
-			mq =  MessageQueueList.get(i);
+			Federation.Forward( m );
+
+		} // if
+
+		// Every queue gets the same message object, so the message is encoded at
+		// most once, when it is first written to a remote recipient. Recipients
+		// in this JVM are handed the object and nothing is encoded.
+
+		// For every queue on the list that subscribed to this message id, add
+		// the message. Each queue is locked only while the message is appended
+		// (and recorded for a standby).
 
-			// Get each queue off of the list and see if it is id's queue
-			// Once the queue is found, then get a copy of the queue, clear the
-			// queue, and return the queue back to the participant
+		Message[] Posted = { m };
+		boolean Added;
 
-			if (mq.GetId() == id)
+		Changing();
+
+		for ( Participant p : MessageQueueList.values() )
+		{
+			if ( p.Accepts( m.GetMessageId() ) )
 			{
-				mq = MessageQueueList.get(i);
-				temp = mq.GetCopy();
-				mq.ClearMessageQueue();
-				found = true;
+				Offered++;
+
+				synchronized ( p.Queue )
+				{
+					Added = p.Queue.AddMessage(m);
+					Record( MessageReplication.FILL, p.Queue.GetId(), 0, 0, Posted );
+
+				} // synchronized
+
+				if ( !Added )
+				{
+					Full = Overflowed( p, 1, Full );
+
+				} // if
 
 			} // if
 
 		} // for
 
-		if (found)
-				l.DisplayStatistics( "Get message queue request from ID: " + id + ". Message queue returned.");
-		else
-				l.DisplayStatistics( "Get message queue request from ID: " + id + ". ID not found.");
+		Changed();
+		Metrics.MessagesEnqueued.add( Offered );
 
-		return temp;
+		if ( l.Tracing )
+			l.Trace( "Incoming message posted from ID: " + m.GetSenderId() );
 
-	} // GetMessageList
+		if ( Full != null )
+		{
+			throw new QueueFullException( "Message " + m.GetMessageId() + " rejected by full queues of IDs:" + Full );
+
+		} // if
+
+	} // Post
 
 	/***************************************************************************
-	* INNER CLASS:: Logger
-	* Purpose: This class longs requests by displaying them on the server with
-	* 		   general statics after each remote call for services. This method
-	*		   increments the number of service request from participants,
-	*		   counts the number of active queues (registered participants), and
-	*		   displays this information on the terminal.
+	* Remote METHOD:: SendMessages
+	* Purpose: This method allows participants to send several messages to the
+	*		   message manager in one call.
 	*
-	* Arguments: None.
+	* Arguments: Message[]
+	*
+	* Returns: None
+	*
+	* Exceptions: QueueFullException - if the overflow policy is REJECT and the
+	*			  queue of one or more subscribers was full
+	*
+	****************************************************************************/
+
+	public void SendMessages(Message[] Messages ) throws RemoteException
+	{
+		boolean Critical = false;
+
+		for ( int i = 0; i < Messages.length && !Critical; i++ )
+		{
+			Critical = ( Messages[i].GetPriority() == Message.Priority.CRITICAL );
+
+		} // for
+
+		if ( Journal != null )
+		{
+			Journal.Append( Messages );
+
+		} // if
+
+		boolean Admitted = Admit( Critical );
+
+		try
+		{
+			Post( Messages );
+
+		} // try
+
+		finally
+		{
+			Release( Admitted );
+
+		} // finally
+
+	} // SendMessages
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Post
+	* Purpose: Places a batch of messages sent to the message manager in the
+	*		   queues of the participants, once SendMessages admitted it. As
+	*		   above, the messages are already in the journal.
+	*
+	* Arguments: Message[]
 	*
 	* Returns: None
 	*
+	* Exceptions: QueueFullException - if the overflow policy is REJECT and the
+	*			  queue of one or more subscribers was full
+	*
+	****************************************************************************/
+
+	static void Post( Message[] Messages ) throws RemoteException
+	{
+		l.Request();
+
+		StringBuilder Full;				// Ids of the full queues that refused messages
+
+		for ( int i = 0; i < Messages.length; i++ )
+		{
+			Metrics.Posted( Messages[i].GetMessageId(), 1 );
+
+		} // for
+
+		// As in SendMessage, each message is encoded at most once, and only if a
+		// remote recipient is sent it.
+
+		if ( Messages.length > 0 )
+		{
+			Lookup( Messages[0].GetSenderId() );		// Renews the sender's lease
+
+		} // if
+
+		if ( Federation != null )
+		{
+			Federation.Forward( Messages );
+
+		} // if
+
+		Full = Deliver( Messages );
+
+		if ( l.Tracing && Messages.length > 0 )
+			l.Trace( "Incoming batch of " + Messages.length + " messages posted from ID: " + Messages[0].GetSenderId() );
+
+		if ( Full != null )
+		{
+			throw new QueueFullException( "Messages rejected by full queues of IDs:" + Full );
+
+		} // if
+
+	} // Post
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Admit, Release
+	* Purpose: Admit waits for one of the SendPermits before a request posting
+	*		   normal messages is handled, and Release gives it back when the
+	*		   request is done. Requests posting a critical message, and those
+	*		   handled by the NIO and shared-memory threads, go ahead at once
+	*		   without a permit.
+	*
+	* Arguments: boolean Critical - the request posts a critical message
+	*			 boolean Admitted - the request took a permit
+	*
+	* Returns: boolean - true if a permit was taken
+	*
 	* Exceptions: None
 	*
 	****************************************************************************/
 
-	private class RequestLogger
+	private static boolean Admit( boolean Critical )
 	{
-		int RequestsServiced = 0;	// This is the number of requests seviced
+		if ( Critical || SendPermits == null || Thread.currentThread() instanceof RequestServer )
+		{
+			return false;
 
-		void DisplayStatistics( String message )
+		} // if
+
+		if ( !SendPermits.tryAcquire() )
 		{
-			RequestsServiced++;
+			Metrics.AdmissionWaits.increment();
+			SendPermits.acquireUninterruptibly();
 
-			if ( message.length() == 0 )
-			{
-				System.out.println( "-------------------------------------------------------------------------------");
-				System.out.println( "Number of requests: " + RequestsServiced );
-				System.out.println( "Number of registered participants: " + MessageQueueList.size() );
-				System.out.println( "-------------------------------------------------------------------------------");
+		} // if
 
-			} else {
+		return true;
 
-				System.out.println( "-------------------------------------------------------------------------------");
-				System.out.println( "Message:: " + message );
-				System.out.println( "Number of requests: " + RequestsServiced );
-				System.out.println( "Number of registered participants: " + MessageQueueList.size() );
-				System.out.println( "-------------------------------------------------------------------------------");
+	} // Admit
 
-			} // if
+	private static void Release( boolean Admitted )
+	{
+		if ( Admitted )
+		{
+			SendPermits.release();
+
+		} // if
+
+	} // Release
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Deliver
+	* Purpose: Places messages in the queues of the participants that subscribed
+	*		   to them. For every queue on the list, the messages it subscribed
+	*		   to are picked out and appended all at once, so each queue is
+	*		   locked once per batch. Used for batches posted to this message
+	*		   manager and for those forwarded by other nodes of a federation.
+	*
+	* Arguments: Message[] - the messages
+	*
+	* Returns: StringBuilder - ids of the full queues that rejected messages,
+	*		   null if none did
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static StringBuilder Deliver( Message[] Messages )
+	{
+		ArrayList<Message> Accepted = new ArrayList<Message>( Messages.length );
+		StringBuilder Full = null;		// Ids of the full queues that refused messages
+		int Lost;
+
+		Changing();
+
+		for ( Participant p : MessageQueueList.values() )
+		{
+			Accepted.clear();
+
+			for ( int i = 0; i < Messages.length; i++ )
+			{
+				if ( p.Accepts( Messages[i].GetMessageId() ) )
+				{
+					Accepted.add( Messages[i] );
+
+				} // if
+
+			} // for
+
+			if ( !Accepted.isEmpty() )
+			{
+				Metrics.MessagesEnqueued.add( Accepted.size() );
+
+				synchronized ( p.Queue )
+				{
+					Lost = p.Queue.AddMessages( Accepted );
+					Record( MessageReplication.FILL, p.Queue.GetId(), 0, 0, Accepted.size() == Messages.length ? Messages : Accepted.toArray( new Message[0] ) );
+
+				} // synchronized
+
+				if ( Lost > 0 )
+				{
+					Full = Overflowed( p, Lost, Full );
+
+				} // if
+
+			} // if
+
+		} // for
+
+		Changed();
+
+		return Full;
+
+	} // Deliver
+
+	/***************************************************************************
+	* Remote METHOD:: GetMessage
+	* Purpose: Get the message queue for a participant (id).
+	*
+	* Arguments: long id - participants id
+	*
+	* Returns: MessageQueue
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public MessageQueue GetMessageQueue( long id ) throws RemoteException
+	{
+		Message[] Messages = DrainMessages( id, 0, 0 );
+
+		if ( Messages == null )
+		{
+			return null;
+
+		} // if
+
+		return new MessageQueue( id, Messages );
+
+	} // GetMessageList
+
+	/***************************************************************************
+	* Remote METHOD:: GetMessageQueue
+	* Purpose: Get the message queue for a participant (id), waiting for up to
+	*		   MaxWaitMillis (no longer than MAXWAIT) for a message to arrive if
+	*		   the queue is empty. The wait is on the participant's own queue, so
+	*		   other participants are not held up.
+	*
+	* Arguments: long id - participants id
+	*			 long MaxWaitMillis - the longest to wait for a message
+	*
+	* Returns: MessageQueue
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public MessageQueue GetMessageQueue( long id, long MaxWaitMillis ) throws RemoteException
+	{
+		Message[] Messages = DrainMessages( id, 0, MaxWaitMillis );
+
+		if ( Messages == null )
+		{
+			return null;
+
+		} // if
+
+		return new MessageQueue( id, Messages );
+
+	} // GetMessageQueue
+
+	/***************************************************************************
+	* Remote METHOD:: DrainMessages
+	* Purpose: Takes up to MaxBatch messages out of a participant's (id) queue
+	*		   and returns them as an array, oldest first. The messages are
+	*		   swapped out of the queue in one step, so no message can arrive
+	*		   between a copy and a clear and be lost. If the queue is empty,
+	*		   waits up to MaxWaitMillis (no longer than MAXWAIT) for a message.
+	*
+	* Arguments: long id - participants id
+	*			 int MaxBatch - the most messages to return (zero or less for all)
+	*			 long MaxWaitMillis - the longest to wait for a message
+	*
+	* Returns: Message[] - null if id is not registered
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public Message[] DrainMessages( long id, int MaxBatch, long MaxWaitMillis ) throws RemoteException
+	{
+		l.Request();
+
+		Message[] Messages = null;
+		Participant p = Lookup( id );
+
+		if (p != null)
+		{
+			if ( MaxWaitMillis > 0 )
+			{
+				// The reaper leaves participants alone while they wait here
+
+				p.Waiting.incrementAndGet();
+
+				try
+				{
+					p.Queue.WaitForMessage( Math.min( MaxWaitMillis, MAXWAIT ) );
+
+				} // try
+
+				finally
+				{
+					p.Waiting.decrementAndGet();
+					p.Touch();
+
+				} // finally
+
+			} // if
+
+			Messages = Take( p, MaxBatch );
+			p.Overflowing = false;
+			p.LastDrained = System.currentTimeMillis();
+			Metrics.MessagesDelivered.add( Messages.length );
+			if ( l.Tracing )
+				l.Trace( "Get message queue request from ID: " + id + ". " + Messages.length + " messages returned.");
+
+		} else {
+
+			if ( l.Tracing )
+				l.Trace( "Get message queue request from ID: " + id + ". ID not found.");
+
+		} // if
+
+		return Messages;
+
+	} // DrainMessages
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Take
+	* Purpose: Takes up to MaxBatch messages out of a participant's queue, after
+	*		   dropping the expired ones. The change is recorded for a standby
+	*		   with the time the messages expired at, so the standby drops the
+	*		   same ones.
+	*
+	* Arguments: Participant p - the participant
+	*			 int MaxBatch - the most messages to take (zero or less for all)
+	*
+	* Returns: Message[] - the messages (may be empty)
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private static Message[] Take( Participant p, int MaxBatch )
+	{
+		long Now = System.currentTimeMillis();
+		int Stale;
+		Message[] Messages;
+
+		Changing();
+
+		synchronized ( p.Queue )
+		{
+			Stale = p.Queue.Expire( Now );
+			Messages = p.Queue.Drain( MaxBatch, Now );
+
+			if ( Messages.length > 0 || Stale > 0 )
+			{
+				Record( MessageReplication.DRAIN, p.Queue.GetId(), Messages.length, 0, null, Now );
+
+			} // if
+
+		} // synchronized
+
+		Changed();
+
+		Metrics.MessagesExpired.add( Stale );
+
+		return Messages;
+
+	} // Take
+
+	/***************************************************************************
+	* Remote METHOD:: Subscribe
+	* Purpose: Adds a range of message ids to the set of ids a participant (id)
+	*		   consumes. From then on only those messages (and the halt message)
+	*		   are placed in the participant's queue.
+	*
+	* Arguments: long id - participants id
+	*			 int LowMsgId, HighMsgId - the range of message ids (inclusive)
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void Subscribe( long id, int LowMsgId, int HighMsgId ) throws RemoteException
+	{
+		l.Request();
+
+		Participant p = Lookup( id );
+
+		if (p != null)
+		{
+			Changing();
+			p.Subscriptions.add( new int[] { Math.min(LowMsgId, HighMsgId), Math.max(LowMsgId, HighMsgId) } );
+			Record( MessageReplication.SUBSCRIBE, id, Math.min(LowMsgId, HighMsgId), Math.max(LowMsgId, HighMsgId), null );
+			Changed();
+
+			if ( Federation != null )
+			{
+				Federation.Resubscribe();
+
+			} // if
+
+			if ( l.Tracing )
+				l.Trace( "Subscribe request from ID: " + id + ". Message ids " + LowMsgId + " to " + HighMsgId + "." );
+
+		} else {
+
+			if ( l.Tracing )
+				l.Trace( "Subscribe request from ID: " + id + ". ID not found." );
+
+		} // if
+
+	} // Subscribe
+
+	/***************************************************************************
+	* Remote METHOD:: Conflate
+	* Purpose: Marks a message id as conflated in a participant's (id) queue. A
+	*		   new message with that id replaces the pending message from the
+	*		   same sender instead of being appended. Used for readings where
+	*		   only the newest value matters.
+	*
+	* Arguments: long id - participants id
+	*			 int MsgId - the message id
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void Conflate( long id, int MsgId ) throws RemoteException
+	{
+		l.Request();
+
+		Participant p = Lookup( id );
+
+		if (p != null)
+		{
+			Changing();
+
+			synchronized ( p.Queue )
+			{
+				p.Queue.Conflate( MsgId );
+				Record( MessageReplication.CONFLATE, id, MsgId, 0, null );
+
+			} // synchronized
+
+			Changed();
+
+			if ( l.Tracing )
+				l.Trace( "Conflate request from ID: " + id + ". Message id " + MsgId + "." );
+
+		} else {
+
+			if ( l.Tracing )
+				l.Trace( "Conflate request from ID: " + id + ". ID not found." );
+
+		} // if
+
+	} // Conflate
+
+	/***************************************************************************
+	* Remote METHOD:: AddListener
+	* Purpose: Registers a remote callback for a participant (id). A delivery
+	*		   thread is started that pushes the participant's messages to the
+	*		   listener as they are posted. Any previous listener is replaced.
+	*
+	* Arguments: long id - participants id
+	*			 MessageListener Listener - the participant's callback object
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void AddListener( long id, MessageListener Listener ) throws RemoteException
+	{
+		l.Request();
+
+		Participant p = Lookup( id );
+
+		if (p != null)
+		{
+			p.SetDelivery( new ListenerDelivery( p, Listener ) );
+			if ( l.Tracing )
+				l.Trace( "Add listener request from ID: " + id + ". Push delivery started." );
+
+		} else {
+
+			if ( l.Tracing )
+				l.Trace( "Add listener request from ID: " + id + ". ID not found." );
+
+		} // if
+
+	} // AddListener
+
+	/***************************************************************************
+	* Remote METHOD:: RemoveListener
+	* Purpose: Stops push delivery for a participant (id). Messages stay in the
+	*		   participant's queue until it asks for them.
+	*
+	* Arguments: long id - participants id
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void RemoveListener( long id ) throws RemoteException
+	{
+		l.Request();
+
+		Participant p = Lookup( id );
+
+		if (p != null)
+		{
+			p.SetDelivery( null );
+			if ( l.Tracing )
+				l.Trace( "Remove listener request from ID: " + id + ". Push delivery stopped." );
+
+		} else {
+
+			if ( l.Tracing )
+				l.Trace( "Remove listener request from ID: " + id + ". ID not found." );
+
+		} // if
+
+	} // RemoveListener
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Overflowed
+	* Purpose: Records that messages sent to a participant's full queue were
+	*		   dropped or rejected. The totals shown with the statistics are
+	*		   updated, and the first overflow since the participant last took
+	*		   its messages is logged, since a queue that stays full usually
+	*		   belongs to a participant that died without unregistering.
+	*
+	* Arguments: Participant p - the participant whose queue was full
+	*			 int Lost - the number of messages dropped or rejected
+	*			 StringBuilder Full - ids of queues that rejected messages so far
+	*
+	* Returns: StringBuilder - Full, with p's id added if its queue rejected the
+	*		   messages (REJECT policy)
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private static StringBuilder Overflowed( Participant p, int Lost, StringBuilder Full )
+	{
+		if ( p.Queue.GetPolicy() == MessageQueue.OverflowPolicy.REJECT )
+		{
+			Metrics.MessagesRejected.add( Lost );
+
+			if ( Full == null )
+			{
+				Full = new StringBuilder();
+
+			} // if
+
+			Full.append( " " + p.Queue.GetId() );
+
+		} else {
+
+			Metrics.MessagesDropped.add( Lost );
+
+		} // if
+
+		if ( !p.Overflowing )
+		{
+			p.Overflowing = true;
+			l.DisplayStatistics( "Queue for ID: " + p.Queue.GetId() + " is full (" + p.Queue.GetCapacity() + " messages). Policy: " + p.Queue.GetPolicy() + "." );
+
+		} // if
+
+		return Full;
+
+	} // Overflowed
+
+	/***************************************************************************
+	* Remote METHOD:: RenewLease
+	* Purpose: Renews a participant's (id) registration lease. Participants call
+	*		   this when they have not made any other call for a while.
+	*
+	* Arguments: long id - participants id
+	*
+	* Returns: long - the lease time in milliseconds, zero if leases are not
+	*		   used, or -1 if id is not registered (for example its lease expired)
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public long RenewLease( long id ) throws RemoteException
+	{
+		l.Request();
+
+		if ( Lookup( id ) == null )
+		{
+			if ( l.Tracing )
+				l.Trace( "Renew lease request from ID: " + id + ". ID not found." );
+
+			return -1;
+
+		} // if
+
+		return Math.max( LeaseMillis, 0 );
+
+	} // RenewLease
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Lookup
+	* Purpose: Finds a participant (id) in the registry and renews its lease.
+	*		   Every remote method that acts for a participant goes through here.
+	*
+	* Arguments: long id - participants id
+	*
+	* Returns: Participant - null if id is not registered
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private static Participant Lookup( long id )
+	{
+		Participant p = MessageQueueList.get( id );
+
+		if (p != null)
+		{
+			p.Touch();
+
+		} // if
+
+		return p;
+
+	} // Lookup
+
+	/***************************************************************************
+	* CONCRETE METHOD:: QueueStatistics
+	* Purpose: Takes a snapshot of every participant's queue for the metrics
+	*		   (see MessageManagerMetrics).
+	*
+	* Arguments: None.
+	*
+	* Returns: List<QueueStat> - the depth, capacity and last drain time of
+	*		   each queue
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static List<MessageManagerMetrics.QueueStat> QueueStatistics()
+	{
+		ArrayList<MessageManagerMetrics.QueueStat> Stats = new ArrayList<MessageManagerMetrics.QueueStat>();
+
+		for ( Map.Entry<Long, Participant> e : MessageQueueList.entrySet() )
+		{
+			Participant p = e.getValue();
+
+			Stats.add( new MessageManagerMetrics.QueueStat( e.getKey(), p.Queue.GetSize(), p.Queue.GetCapacity(), p.LastDrained ) );
+
+		} // for
+
+		return Stats;
+
+	} // QueueStatistics
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Changing, Record, Changed
+	* Purpose: Every change to the participants or their queues is made between
+	*		   Changing and Changed and recorded with Record, so it can be
+	*		   replicated to a standby (see MessageReplication). A change to a
+	*		   queue is made and recorded in one synchronized block on the queue,
+	*		   so the changes to each queue are recorded in the order they were
+	*		   made; Changing is called before the block, never inside it. They
+	*		   do nothing unless replication is on.
+	*
+	* Arguments: the change (see MessageReplication.Op)
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private static void Changing()
+	{
+		if ( Replication != null )
+		{
+			Replication.Changing();
+
+		} // if
+
+	} // Changing
+
+	private static void Record( byte Code, long id, int Low, int High, Message[] Messages )
+	{
+		Record( Code, id, Low, High, Messages, 0 );
+
+	} // Record
+
+	private static void Record( byte Code, long id, int Low, int High, Message[] Messages, long Time )
+	{
+		if ( Replication != null )
+		{
+			Replication.Record( new MessageReplication.Op( Code, id, Low, High, Messages, Time ) );
+
+		} // if
+
+	} // Record
+
+	private static void Changed()
+	{
+		if ( Replication != null )
+		{
+			Replication.Changed();
+
+		} // if
+
+	} // Changed
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Snapshot
+	* Purpose: Describes every participant and its queue as the operations that
+	*		   rebuild them, for a standby. Called while no change can be made.
+	*
+	* Arguments: None.
+	*
+	* Returns: List<Op> - the operations
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static List<MessageReplication.Op> Snapshot()
+	{
+		ArrayList<MessageReplication.Op> Ops = new ArrayList<MessageReplication.Op>();
+
+		for ( Map.Entry<Long, Participant> e : MessageQueueList.entrySet() )
+		{
+			long id = e.getKey();
+			Participant p = e.getValue();
+
+			Ops.add( new MessageReplication.Op( MessageReplication.REGISTER, id, 0, 0, null ) );
+
+			for ( int[] range : p.Subscriptions )
+			{
+				Ops.add( new MessageReplication.Op( MessageReplication.SUBSCRIBE, id, range[0], range[1], null ) );
+
+			} // for
+
+			for ( int MsgId : p.Queue.GetConflatedIds() )
+			{
+				Ops.add( new MessageReplication.Op( MessageReplication.CONFLATE, id, MsgId, 0, null ) );
+
+			} // for
+
+			Ops.add( new MessageReplication.Op( MessageReplication.FILL, id, 0, 0, p.Queue.GetCopy().Drain( 0 ) ) );
+
+		} // for
+
+		return Ops;
+
+	} // Snapshot
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Restore
+	* Purpose: Replaces every participant with those of a snapshot from the
+	*		   primary. Used by a standby.
+	*
+	* Arguments: Op[] - the snapshot
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static void Restore( MessageReplication.Op[] Ops )
+	{
+		MessageQueueList.clear();
+
+		for ( int i = 0; i < Ops.length; i++ )
+		{
+			Apply( Ops[i] );
+
+		} // for
+
+	} // Restore
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Apply
+	* Purpose: Makes a change replicated from the primary. Used by a standby.
+	*
+	* Arguments: Op - the change
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static void Apply( MessageReplication.Op op )
+	{
+		if ( op.Code == MessageReplication.REGISTER )
+		{
+			MessageQueueList.putIfAbsent( op.Id, new Participant( new MessageQueue( op.Id, QueueCapacity, Policy ) ) );
+			LastIssuedId.accumulateAndGet( op.Id, Math::max );
+			return;
+
+		} // if
+
+		Participant p = MessageQueueList.get( op.Id );
+
+		if ( p == null )
+		{
+			return;
+
+		} // if
+
+		switch ( op.Code )
+		{
+			case MessageReplication.UNREGISTER:
+				MessageQueueList.remove( op.Id );
+				break;
+
+			case MessageReplication.DRAIN:
+				p.Queue.Drain( op.Low, op.Time );
+				break;
+
+			case MessageReplication.EXPIRE:
+				p.Queue.Expire( op.Time );
+				break;
+
+			case MessageReplication.REQUEUE:
+				p.Queue.Requeue( op.Messages() );
+				break;
+
+			case MessageReplication.SUBSCRIBE:
+				p.Subscriptions.add( new int[] { op.Low, op.High } );
+				break;
+
+			case MessageReplication.CONFLATE:
+				p.Queue.Conflate( op.Low );
+				break;
+
+			case MessageReplication.FILL:
+				p.Queue.AddMessages( Arrays.asList( op.Messages() ) );
+				break;
+
+		} // switch
+
+	} // Apply
+
+	/***************************************************************************
+	* CONCRETE METHOD:: NextParticipantId
+	* Purpose: Issues a new participant id. Ids are the registration time in
+	*		   milliseconds (participants rely on this, see GetRegistrationTime in
+	*		   MessageManagerInterface), but two participants registering in the
+	*		   same millisecond must not share an id, so the id is bumped past the
+	*		   last one issued when needed. The nodes of a federation each issue
+	*		   their own share of the ids (see MessageFederation).
+	*
+	* Arguments: None.
+	*
+	* Returns: long integer - a unique participant id
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private long NextParticipantId()
+	{
+		long now, last, id;
+
+		do
+		{
+			now = System.currentTimeMillis();
+			last = LastIssuedId.get();
+			id = Math.max( now, last + 1 );
+
+			if ( Federation != null )
+			{
+				id = Federation.ParticipantId( id );
+
+			} // if
+
+		} while ( !LastIssuedId.compareAndSet( last, id ) );
+
+		return id;
+
+	} // NextParticipantId
+
+	/***************************************************************************
+	* INNER CLASS:: Participant
+	* Purpose: This class is an entry in the participant registry. It holds the
+	*		   participant's message queue and the message id ranges the
+	*		   participant subscribed to.
+	*
+	****************************************************************************/
+
+	static class Participant
+	{
+		MessageQueue Queue;					// The participant's message queue
+		CopyOnWriteArrayList<int[]> Subscriptions = new CopyOnWriteArrayList<int[]>();	// Subscribed {low, high} id ranges
+		ListenerDelivery Delivery = null;	// Push delivery thread, if the participant registered a listener
+		volatile boolean Overflowing = false;	// Set when the queue overflows, cleared when it is drained
+		volatile long LastSeen = System.currentTimeMillis();	// When the participant's lease was last renewed
+		volatile long LastDrained = System.currentTimeMillis();	// When messages were last taken from the queue
+		AtomicInteger Waiting = new AtomicInteger(0);	// GetMessageQueue requests waiting on the queue
+		volatile RequestServer.PendingPoll Poll = null;	// NIO GetMessageQueue request waiting for messages, if any
+
+		Participant( MessageQueue mq )
+		{
+			Queue = mq;
+
+		} // constructor
+
+		// Renews the participant's lease.
+
+		void Touch()
+		{
+			LastSeen = System.currentTimeMillis();
+
+		} // Touch
+
+		// Returns true if the lease has run out and no request is waiting on the queue.
+
+		boolean Expired( long now )
+		{
+			return ( Waiting.get() == 0 && now - LastSeen > LeaseMillis );
+
+		} // Expired
+
+		// Returns true if a message with MsgId should be placed in this queue.
+
+		boolean Accepts( int MsgId )
+		{
+			if ( MsgId == 99 || Subscriptions.isEmpty() )
+			{
+				return true;
+
+			} // if
+
+			for ( int[] range : Subscriptions )
+			{
+				if ( MsgId >= range[0] && MsgId <= range[1] )
+				{
+					return true;
+
+				} // if
+
+			} // for
+
+			return false;
+
+		} // Accepts
+
+		// Replaces the push delivery thread (null stops push delivery).
+
+		synchronized void SetDelivery( ListenerDelivery d )
+		{
+			if ( Delivery != null )
+			{
+				Delivery.Shutdown();
+
+			} // if
+
+			Delivery = d;
+
+			if ( Delivery != null )
+			{
+				Delivery.start();
+
+			} // if
+
+		} // SetDelivery
+
+	} // Participant
+
+	/***************************************************************************
+	* INNER CLASS:: ListenerDelivery
+	* Purpose: This thread pushes a participant's messages to its listener. It
+	*		   waits on the participant's queue, drains it when messages arrive
+	*		   and calls the listener. Each listener has its own thread, so a slow
+	*		   listener only delays its own messages. If the listener cannot be
+	*		   reached the thread stops and the participant's messages are left in
+	*		   its queue for GetMessageQueue.
+	*
+	****************************************************************************/
+
+	private static class ListenerDelivery extends Thread
+	{
+		Participant Owner;					// The participant the messages belong to
+		MessageListener Listener;			// The participant's remote callback
+		volatile boolean Running = true;	// Cleared to stop the thread
+
+		ListenerDelivery( Participant p, MessageListener ml )
+		{
+			super( "ListenerDelivery-" + p.Queue.GetId() );
+			setDaemon( true );
+			Owner = p;
+			Listener = ml;
+
+		} // constructor
+
+		public void run()
+		{
+			Message[] batch;
+
+			while ( Running )
+			{
+				if ( Owner.Queue.WaitForMessage( MAXWAIT ) && Running )
+				{
+					batch = Take( Owner, 0 );
+					Owner.Overflowing = false;
+
+					if ( batch.length == 0 )
+					{
+						// They had all expired
+
+						continue;
+
+					} // if
+
+					try
+					{
+						Listener.MessagesReceived( batch );
+						Owner.Touch();
+						Owner.LastDrained = System.currentTimeMillis();
+						Metrics.MessagesDelivered.add( batch.length );
+
+					} // try
+
+					catch (RemoteException e)
+					{
+						// Put the messages back so they are not lost and stop pushing.
+
+						Changing();
+
+						synchronized ( Owner.Queue )
+						{
+							Owner.Queue.Requeue( batch );
+							Record( MessageReplication.REQUEUE, Owner.Queue.GetId(), 0, 0, batch );
+
+						} // synchronized
+
+						Changed();
+
+						Running = false;
+						l.DisplayStatistics( "Listener for ID: " + Owner.Queue.GetId() + " unreachable. Push delivery stopped: " + e );
+
+					} // catch
+
+				} // if
+
+			} // while
+
+		} // run
+
+		void Shutdown()
+		{
+			Running = false;
+			interrupt();
+
+		} // Shutdown
+
+	} // ListenerDelivery
+
+	/***************************************************************************
+	* INNER CLASS:: LeaseReaper
+	* Purpose: This thread frees the queues of participants whose registration
+	*		   lease has expired. It checks the registry a few times per lease
+	*		   period and logs each participant it removes, along with the
+	*		   number of messages that were waiting in its queue.
+	*
+	****************************************************************************/
+
+	private static class LeaseReaper extends Thread
+	{
+		LeaseReaper()
+		{
+			super( "LeaseReaper" );
+			setDaemon( true );
+
+		} // constructor
+
+		public void run()
+		{
+			long now;
+
+			while ( true )
+			{
+				try
+				{
+					Thread.sleep( Math.max( LeaseMillis / 4, 250 ) );
+
+				} // try
+
+				catch (InterruptedException e)
+				{
+					return;
+
+				} // catch
+
+				now = System.currentTimeMillis();
+
+				for ( Map.Entry<Long, Participant> entry : MessageQueueList.entrySet() )
+				{
+					Participant p = entry.getValue();
+
+					// The participant may have unregistered since we looked at it
+
+					if ( !p.Expired( now ) )
+					{
+						continue;
+
+					} // if
+
+					Changing();
+
+					if ( MessageQueueList.remove( entry.getKey(), p ) )
+					{
+						Record( MessageReplication.UNREGISTER, entry.getKey(), 0, 0, null );
+						Changed();
+						p.SetDelivery( null );
+
+						if ( Federation != null )
+						{
+							Federation.Resubscribe();
+
+						} // if
+
+						l.DisplayStatistics( "Lease expired for ID: " + entry.getKey() + ". Queue freed with "
+							+ p.Queue.GetSize() + " messages pending." );
+
+					} else {
+
+						Changed();
+
+					} // if
+
+				} // for
+
+			} // while
+
+		} // run
+
+	} // LeaseReaper
+
+	/***************************************************************************
+	* INNER CLASS:: ExpirySweeper
+	* Purpose: This thread drops expired messages from every queue every
+	*		   ExpiryMillis, so messages with a time to live do not pile up in
+	*		   the queues of participants that stopped taking them. Queues that
+	*		   hold no message that can have expired are passed over quickly.
+	*
+	****************************************************************************/
+
+	private static class ExpirySweeper extends Thread
+	{
+		ExpirySweeper()
+		{
+			super( "ExpirySweeper" );
+			setDaemon( true );
+
+		} // constructor
+
+		public void run()
+		{
+			long now;
+			int Stale;
+
+			while ( true )
+			{
+				try
+				{
+					Thread.sleep( ExpiryMillis );
+
+				} // try
+
+				catch (InterruptedException e)
+				{
+					return;
+
+				} // catch
+
+				now = System.currentTimeMillis();
+
+				for ( Map.Entry<Long, Participant> entry : MessageQueueList.entrySet() )
+				{
+					MessageQueue q = entry.getValue().Queue;
+
+					Changing();
+
+					synchronized ( q )
+					{
+						Stale = q.Expire( now );
+
+						if ( Stale > 0 )
+						{
+							Record( MessageReplication.EXPIRE, entry.getKey(), 0, 0, null, now );
+
+						} // if
+
+					} // synchronized
+
+					Changed();
+					Metrics.MessagesExpired.add( Stale );
+
+				} // for
+
+			} // while
+
+		} // run
+
+	} // ExpirySweeper
+
+	/***************************************************************************
+	* INNER CLASS:: Logger
+	* Purpose: This class keeps the message manager's statistics and writes
+	*		   them to the terminal. Requests are only counted as they are
+	*		   serviced, with counters that threads add to without locking, and
+	*		   a daemon thread prints a summary every StatsInterval ms (if there
+	*		   were requests since the last one). Events that need attention
+	*		   (startup, full queues, expired leases, errors) are printed at once
+	*		   with DisplayStatistics. Per-request tracing is off unless the
+	*		   system property MessageManager.Trace is true; traced lines are
+	*		   handed to the same daemon thread, so a request never waits on the
+	*		   terminal, and are dropped (and counted) if it falls behind.
+	*
+	* Arguments: None.
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	class RequestLogger extends Thread
+	{
+		LongAdder TracesLost = new LongAdder();			// Traced lines dropped because printing fell behind
+
+		final boolean Tracing = Boolean.getBoolean( "MessageManager.Trace" );	// Print a line per request
+		long StatsInterval = Long.getLong( "MessageManager.StatsInterval", 10000 );	// ms between summaries
+		ArrayBlockingQueue<String> Traces = new ArrayBlockingQueue<String>( 10000 );	// Lines waiting to be printed
+
+		RequestLogger()
+		{
+			super( "RequestLogger" );
+			setDaemon( true );
+
+		} // constructor
+
+		// Counts a serviced request.
+
+		void Request()
+		{
+			Metrics.RequestsServiced.increment();
+
+		} // Request
+
+		// Queues a line of request tracing. Callers check Tracing first, so the
+		// line is not even built when tracing is off.
+
+		void Trace( String message )
+		{
+			if ( !Traces.offer( message ) )
+			{
+				TracesLost.increment();
+
+			} // if
+
+		} // Trace
+
+		// Prints an event right away, followed by the statistics.
+
+		void DisplayStatistics( String message )
+		{
+			System.out.println( Summary( "Message:: " + message + "\n" ) );
+
+		} // DisplayStatistics
+
+		// Builds the statistics block, so it is written with a single println and
+		// the lines of concurrent writers do not interleave.
+
+		String Summary( String Heading )
+		{
+			StringBuilder sb = new StringBuilder();
+
+			sb.append( "-------------------------------------------------------------------------------\n" );
+			sb.append( Heading );
+			sb.append( "Number of requests: " + Metrics.RequestsServiced.sum() + "\n" );
+			sb.append( "Number of registered participants: " + MessageQueueList.size() + "\n" );
+			sb.append( "Messages posted: " + Metrics.MessagesPosted.sum() + ", delivered: " + Metrics.MessagesDelivered.sum() + "\n" );
+			sb.append( "Messages lost to full queues: " + Metrics.MessagesDropped.sum() + " dropped, " + Metrics.MessagesRejected.sum() + " rejected\n" );
+			sb.append( "Messages expired: " + Metrics.MessagesExpired.sum() + "\n" );
+
+			if ( Federation != null )
+			{
+				sb.append( "Messages bridged to other nodes: " + Metrics.BridgedOut.sum() + ", from other nodes: " + Metrics.BridgedIn.sum()
+					+ ", lost: " + Metrics.BridgeLost.sum() + "\n" );
+
+			} // if
+
+			if ( TracesLost.sum() > 0 )
+			{
+				sb.append( "Trace lines not printed: " + TracesLost.sum() + "\n" );
+
+			} // if
+
+			sb.append( "-------------------------------------------------------------------------------" );
+
+			return sb.toString();
+
+		} // Summary
+
+		// Prints traced lines as they come and a summary every StatsInterval ms.
+
+		public void run()
+		{
+			long LastRequests = 0;
+			long NextSummary = ( StatsInterval > 0 ) ? System.currentTimeMillis() + StatsInterval : Long.MAX_VALUE;
+			ArrayList<String> Lines = new ArrayList<String>();
+			String Line;
+
+			while ( true )
+			{
+				try
+				{
+					Line = Traces.poll( Math.max( NextSummary - System.currentTimeMillis(), 1 ), TimeUnit.MILLISECONDS );
+
+					if ( Line != null )
+					{
+						Lines.add( Line );
+						Traces.drainTo( Lines );
+
+						for ( String t : Lines )
+						{
+							System.out.println( t );
+
+						} // for
+
+						Lines.clear();
+
+					} // if
+
+					if ( System.currentTimeMillis() >= NextSummary )
+					{
+						long Requests = Metrics.RequestsServiced.sum();
+
+						if ( Requests != LastRequests )
+						{
+							System.out.println( Summary( "Summary:: " + ( Requests - LastRequests ) + " requests in the last "
+								+ StatsInterval / 1000.0 + " s\n" ) );
+							LastRequests = Requests;
+
+						} // if
+
+						NextSummary = System.currentTimeMillis() + StatsInterval;
+
+					} // if
+
+				} // try
+
+				catch (InterruptedException e)
+				{
+					return;
+
+				} // catch
+
+			} // while
 
-		} // Register
+		} // run
 
 	} // logger
 
@@ -0,0 +1,775 @@
+/******************************************************************************************************************
+* File:MessageManagerMetrics.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This class keeps the message manager's metrics and publishes them two ways: as a JMX MXBean
+* (MessageManager:type=Metrics, see MessageManagerMetricsMXBean) and as Prometheus text served by the JDK HttpServer
+* at http://localhost:<MessageManager.MetricsPort>/metrics. The metrics are:
+*
+*	messagemanager_requests_total					requests serviced
+*	messagemanager_participants						registered participants
+*	messagemanager_messages_posted_total{message_id}	messages sent to the message manager, by message id
+*	messagemanager_messages_enqueued_total			copies placed in queues (one per recipient)
+*	messagemanager_messages_delivered_total			messages taken out of queues by participants
+*	messagemanager_messages_lost_total{reason}		messages dropped or rejected by full queues, or expired
+*	messagemanager_bridge_messages_total{direction}	messages sent to, received from and lost to other nodes
+*													of a federation (see MessageFederation)
+*	messagemanager_send_admission_waits_total		requests posting normal messages that waited for a send
+*													permit (see MessageManager.SendPermits)
+*	messagemanager_queue_depth{participant}			messages waiting in each queue
+*	messagemanager_queue_capacity{participant}		most messages each queue holds
+*	messagemanager_queue_drain_age_seconds{participant}	time since each queue was last drained
+*	messagemanager_call_seconds{method}				histogram of the time to service each remote method
+*	messagemanager_bytes_received_total{transport}	bytes read from participants (rmi, nio, shm)
+*	messagemanager_bytes_sent_total{transport}		bytes written to participants
+*
+* A consumer that has fallen behind shows as a queue whose depth keeps growing while its drain age goes up. The
+* call times are measured around every remote method, whatever the transport, by serving the message manager
+* through a proxy (see Timed). RMI bytes are counted by the sockets of a server socket factory (see
+* CountingSocketFactory); NIO and shared-memory bytes are counted by their servers.
+*
+* Parameters: MessageManager.MetricsPort - port of the HTTP endpoint (on the loopback address), such as 9400; zero
+*										   to turn it off (default 0)
+*
+* Internal Methods:
+*	void Start()
+*	RMIMessageManagerInterface Timed(RMIMessageManagerInterface Manager)
+*	String Prometheus()
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+public class MessageManagerMetrics implements MessageManagerMetricsMXBean
+{
+	static final String[] TRANSPORTS = { "rmi", "nio", "shm" };
+
+	LongAdder RequestsServiced = new LongAdder();	// This is the number of requests seviced
+	LongAdder MessagesPosted = new LongAdder();		// Messages sent to the message manager
+	LongAdder MessagesEnqueued = new LongAdder();	// Copies placed in queues
+	LongAdder MessagesDelivered = new LongAdder();	// Messages taken out of queues by participants
+	LongAdder MessagesDropped = new LongAdder();	// Messages discarded by full queues
+	LongAdder MessagesRejected = new LongAdder();	// Messages refused by full queues
+	LongAdder MessagesExpired = new LongAdder();	// Messages dropped because their time to live passed
+	LongAdder BridgedOut = new LongAdder();			// Messages sent to other nodes of a federation
+	LongAdder BridgedIn = new LongAdder();			// Messages received from other nodes
+	LongAdder BridgeLost = new LongAdder();			// Messages that could not be sent to another node
+	LongAdder AdmissionWaits = new LongAdder();		// Requests that waited for a send permit
+	ConcurrentHashMap<Integer, LongAdder> PostedById = new ConcurrentHashMap<Integer, LongAdder>();
+	ConcurrentHashMap<String, Histogram> CallTimes = new ConcurrentHashMap<String, Histogram>();
+	ConcurrentHashMap<String, LongAdder> BytesIn = new ConcurrentHashMap<String, LongAdder>();
+	ConcurrentHashMap<String, LongAdder> BytesOut = new ConcurrentHashMap<String, LongAdder>();
+
+	volatile double EnqueueRate = 0;				// Messages per second over the last second
+	volatile double DrainRate = 0;
+
+	MessageManagerMetrics()
+	{
+		for ( String t : TRANSPORTS )
+		{
+			BytesIn.put( t, new LongAdder() );
+			BytesOut.put( t, new LongAdder() );
+
+		} // for
+
+	} // constructor
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Start
+	* Purpose: Registers the MXBean, starts sampling the rates and starts the
+	*		   HTTP endpoint (if MessageManager.MetricsPort is set).
+	*
+	* Arguments: None
+	*
+	* Returns: String - where the metrics are published, for the startup message
+	*
+	* Exceptions: Exception - the MXBean or the endpoint could not be started
+	*
+	****************************************************************************/
+
+	String Start() throws Exception
+	{
+		int Port = Integer.getInteger( "MessageManager.MetricsPort", 0 );
+		String Where = "JMX MessageManager:type=Metrics";
+
+		ManagementFactory.getPlatformMBeanServer().registerMBean( this, new ObjectName( "MessageManager:type=Metrics" ) );
+
+		Timer Sampler = new Timer( "MetricsSampler", true );
+
+		Sampler.scheduleAtFixedRate( new TimerTask()
+		{
+			long LastEnqueued = 0;
+			long LastDelivered = 0;
+
+			public void run()
+			{
+				long Enqueued = MessagesEnqueued.sum();
+				long Delivered = MessagesDelivered.sum();
+
+				EnqueueRate = Enqueued - LastEnqueued;
+				DrainRate = Delivered - LastDelivered;
+				LastEnqueued = Enqueued;
+				LastDelivered = Delivered;
+
+			} // run
+
+		}, 1000, 1000 );
+
+		if ( Port > 0 )
+		{
+			HttpServer Server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), Port ), 0 );
+
+			Server.createContext( "/metrics", new HttpHandler()
+			{
+				public void handle( HttpExchange Exchange ) throws IOException
+				{
+					byte[] Body = Prometheus().getBytes( StandardCharsets.UTF_8 );
+
+					Exchange.getResponseHeaders().set( "Content-Type", "text/plain; version=0.0.4; charset=utf-8" );
+					Exchange.sendResponseHeaders( 200, Body.length );
+
+					try ( OutputStream out = Exchange.getResponseBody() )
+					{
+						out.write( Body );
+
+					} // try
+
+				} // handle
+
+			} );
+
+			Server.setExecutor( Executors.newSingleThreadExecutor( new ThreadFactory()
+			{
+				public Thread newThread( Runnable r )
+				{
+					Thread t = new Thread( r, "MetricsHttp" );
+					t.setDaemon( true );
+					return t;
+
+				} // newThread
+
+			} ) );
+
+			Server.start();
+			Where += " and http://localhost:" + Port + "/metrics";
+
+		} // if
+
+		return Where;
+
+	} // Start
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Timed
+	* Purpose: Wraps the message manager in a proxy that times every call to a
+	*		   remote method into that method's histogram. The proxy is what the
+	*		   transports serve.
+	*
+	* Arguments: RMIMessageManagerInterface Manager - the message manager
+	*
+	* Returns: RMIMessageManagerInterface - the timing proxy
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	RMIMessageManagerInterface Timed( final RMIMessageManagerInterface Manager )
+	{
+		InvocationHandler Timer = new InvocationHandler()
+		{
+			public Object invoke( Object Proxy, Method m, Object[] args ) throws Throwable
+			{
+				if ( m.getDeclaringClass() == Object.class )
+				{
+					return m.invoke( Manager, args );
+
+				} // if
+
+				long Start = System.nanoTime();
+
+				try
+				{
+					return m.invoke( Manager, args );
+
+				} // try
+
+				catch (InvocationTargetException e)
+				{
+					throw e.getCause();
+
+				} // catch
+
+				finally
+				{
+					CallTime( m.getName() ).Observe( System.nanoTime() - Start );
+
+				} // finally
+
+			} // invoke
+
+		};
+
+		return (RMIMessageManagerInterface) Proxy.newProxyInstance( RMIMessageManagerInterface.class.getClassLoader(),
+			new Class<?>[] { RMIMessageManagerInterface.class }, Timer );
+
+	} // Timed
+
+	// Counts a message posted with MsgId.
+
+	void Posted( int MsgId, long n )
+	{
+		MessagesPosted.add( n );
+		PostedById.computeIfAbsent( MsgId, k -> new LongAdder() ).add( n );
+
+	} // Posted
+
+	Histogram CallTime( String Method )
+	{
+		return CallTimes.computeIfAbsent( Method, k -> new Histogram() );
+
+	} // CallTime
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Prometheus
+	* Purpose: Writes every metric in the Prometheus text exposition format.
+	*
+	* Arguments: None
+	*
+	* Returns: String
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	String Prometheus()
+	{
+		StringBuilder sb = new StringBuilder( 4096 );
+		List<QueueStat> Queues = MessageManager.QueueStatistics();
+		long now = System.currentTimeMillis();
+
+		Metric( sb, "messagemanager_requests_total", "counter", "Requests serviced." );
+		sb.append( "messagemanager_requests_total " ).append( RequestsServiced.sum() ).append( '\n' );
+
+		Metric( sb, "messagemanager_participants", "gauge", "Registered participants." );
+		sb.append( "messagemanager_participants " ).append( Queues.size() ).append( '\n' );
+
+		Metric( sb, "messagemanager_messages_posted_total", "counter", "Messages sent to the message manager, by message id." );
+
+		for ( Map.Entry<Integer, LongAdder> e : new TreeMap<Integer, LongAdder>( PostedById ).entrySet() )
+		{
+			sb.append( "messagemanager_messages_posted_total{message_id=\"" ).append( e.getKey() ).append( "\"} " ).append( e.getValue().sum() ).append( '\n' );
+
+		} // for
+
+		Metric( sb, "messagemanager_messages_enqueued_total", "counter", "Message copies placed in queues." );
+		sb.append( "messagemanager_messages_enqueued_total " ).append( MessagesEnqueued.sum() ).append( '\n' );
+
+		Metric( sb, "messagemanager_messages_delivered_total", "counter", "Messages taken out of queues by participants." );
+		sb.append( "messagemanager_messages_delivered_total " ).append( MessagesDelivered.sum() ).append( '\n' );
+
+		Metric( sb, "messagemanager_messages_lost_total", "counter", "Messages lost to full queues or expired." );
+		sb.append( "messagemanager_messages_lost_total{reason=\"dropped\"} " ).append( MessagesDropped.sum() ).append( '\n' );
+		sb.append( "messagemanager_messages_lost_total{reason=\"rejected\"} " ).append( MessagesRejected.sum() ).append( '\n' );
+		sb.append( "messagemanager_messages_lost_total{reason=\"expired\"} " ).append( MessagesExpired.sum() ).append( '\n' );
+
+		Metric( sb, "messagemanager_bridge_messages_total", "counter", "Messages bridged between the nodes of a federation." );
+		sb.append( "messagemanager_bridge_messages_total{direction=\"out\"} " ).append( BridgedOut.sum() ).append( '\n' );
+		sb.append( "messagemanager_bridge_messages_total{direction=\"in\"} " ).append( BridgedIn.sum() ).append( '\n' );
+		sb.append( "messagemanager_bridge_messages_total{direction=\"lost\"} " ).append( BridgeLost.sum() ).append( '\n' );
+
+		Metric( sb, "messagemanager_send_admission_waits_total", "counter", "Requests posting normal messages that waited for a send permit." );
+		sb.append( "messagemanager_send_admission_waits_total " ).append( AdmissionWaits.sum() ).append( '\n' );
+
+		Metric( sb, "messagemanager_queue_depth", "gauge", "Messages waiting in each participant's queue." );
+
+		for ( QueueStat q : Queues )
+		{
+			sb.append( "messagemanager_queue_depth{participant=\"" ).append( q.Id ).append( "\"} " ).append( q.Depth ).append( '\n' );
+
+		} // for
+
+		Metric( sb, "messagemanager_queue_capacity", "gauge", "Most messages each participant's queue holds (0 for no limit)." );
+
+		for ( QueueStat q : Queues )
+		{
+			sb.append( "messagemanager_queue_capacity{participant=\"" ).append( q.Id ).append( "\"} " ).append( q.Capacity ).append( '\n' );
+
+		} // for
+
+		Metric( sb, "messagemanager_queue_drain_age_seconds", "gauge", "Time since each participant's queue was last drained." );
+
+		for ( QueueStat q : Queues )
+		{
+			sb.append( "messagemanager_queue_drain_age_seconds{participant=\"" ).append( q.Id ).append( "\"} " )
+				.append( ( now - q.LastDrained ) / 1000.0 ).append( '\n' );
+
+		} // for
+
+		Metric( sb, "messagemanager_call_seconds", "histogram", "Time to service each remote method." );
+
+		for ( Map.Entry<String, Histogram> e : new TreeMap<String, Histogram>( CallTimes ).entrySet() )
+		{
+			e.getValue().Write( sb, "messagemanager_call_seconds", "method=\"" + e.getKey() + "\"" );
+
+		} // for
+
+		Metric( sb, "messagemanager_bytes_received_total", "counter", "Bytes read from participants, by transport." );
+
+		for ( String t : TRANSPORTS )
+		{
+			sb.append( "messagemanager_bytes_received_total{transport=\"" ).append( t ).append( "\"} " ).append( BytesIn.get( t ).sum() ).append( '\n' );
+
+		} // for
+
+		Metric( sb, "messagemanager_bytes_sent_total", "counter", "Bytes written to participants, by transport." );
+
+		for ( String t : TRANSPORTS )
+		{
+			sb.append( "messagemanager_bytes_sent_total{transport=\"" ).append( t ).append( "\"} " ).append( BytesOut.get( t ).sum() ).append( '\n' );
+
+		} // for
+
+		return sb.toString();
+
+	} // Prometheus
+
+	private static void Metric( StringBuilder sb, String Name, String Type, String Help )
+	{
+		sb.append( "# HELP " ).append( Name ).append( ' ' ).append( Help ).append( '\n' );
+		sb.append( "# TYPE " ).append( Name ).append( ' ' ).append( Type ).append( '\n' );
+
+	} // Metric
+
+	/***************************************************************************
+	* MXBean attributes (see MessageManagerMetricsMXBean)
+	****************************************************************************/
+
+	public long getRequestsServiced()
+	{
+		return RequestsServiced.sum();
+
+	} // getRequestsServiced
+
+	public int getRegisteredParticipants()
+	{
+		return MessageManager.QueueStatistics().size();
+
+	} // getRegisteredParticipants
+
+	public long getMessagesPosted()
+	{
+		return MessagesPosted.sum();
+
+	} // getMessagesPosted
+
+	public long getMessagesEnqueued()
+	{
+		return MessagesEnqueued.sum();
+
+	} // getMessagesEnqueued
+
+	public long getMessagesDelivered()
+	{
+		return MessagesDelivered.sum();
+
+	} // getMessagesDelivered
+
+	public long getMessagesDropped()
+	{
+		return MessagesDropped.sum();
+
+	} // getMessagesDropped
+
+	public long getMessagesRejected()
+	{
+		return MessagesRejected.sum();
+
+	} // getMessagesRejected
+
+	public long getMessagesExpired()
+	{
+		return MessagesExpired.sum();
+
+	} // getMessagesExpired
+
+	public double getEnqueueRate()
+	{
+		return EnqueueRate;
+
+	} // getEnqueueRate
+
+	public double getDrainRate()
+	{
+		return DrainRate;
+
+	} // getDrainRate
+
+	public Map<Integer, Long> getMessagesPostedById()
+	{
+		TreeMap<Integer, Long> m = new TreeMap<Integer, Long>();
+
+		for ( Map.Entry<Integer, LongAdder> e : PostedById.entrySet() )
+		{
+			m.put( e.getKey(), e.getValue().sum() );
+
+		} // for
+
+		return m;
+
+	} // getMessagesPostedById
+
+	public Map<Long, Integer> getQueueDepths()
+	{
+		TreeMap<Long, Integer> m = new TreeMap<Long, Integer>();
+
+		for ( QueueStat q : MessageManager.QueueStatistics() )
+		{
+			m.put( q.Id, q.Depth );
+
+		} // for
+
+		return m;
+
+	} // getQueueDepths
+
+	public Map<Long, Long> getMillisSinceLastDrain()
+	{
+		TreeMap<Long, Long> m = new TreeMap<Long, Long>();
+		long now = System.currentTimeMillis();
+
+		for ( QueueStat q : MessageManager.QueueStatistics() )
+		{
+			m.put( q.Id, now - q.LastDrained );
+
+		} // for
+
+		return m;
+
+	} // getMillisSinceLastDrain
+
+	public Map<String, Long> getCallCounts()
+	{
+		TreeMap<String, Long> m = new TreeMap<String, Long>();
+
+		for ( Map.Entry<String, Histogram> e : CallTimes.entrySet() )
+		{
+			m.put( e.getKey(), e.getValue().Count.sum() );
+
+		} // for
+
+		return m;
+
+	} // getCallCounts
+
+	public Map<String, Double> getCallMeanMicros()
+	{
+		TreeMap<String, Double> m = new TreeMap<String, Double>();
+
+		for ( Map.Entry<String, Histogram> e : CallTimes.entrySet() )
+		{
+			m.put( e.getKey(), e.getValue().MeanMicros() );
+
+		} // for
+
+		return m;
+
+	} // getCallMeanMicros
+
+	public Map<String, Double> getCallP99Micros()
+	{
+		TreeMap<String, Double> m = new TreeMap<String, Double>();
+
+		for ( Map.Entry<String, Histogram> e : CallTimes.entrySet() )
+		{
+			m.put( e.getKey(), e.getValue().PercentileMicros( 0.99 ) );
+
+		} // for
+
+		return m;
+
+	} // getCallP99Micros
+
+	public Map<String, Long> getBytesIn() { return Sums( BytesIn ); }
+
+	public Map<String, Long> getBytesOut() { return Sums( BytesOut ); }
+
+	private static Map<String, Long> Sums( Map<String, LongAdder> Counters )
+	{
+		TreeMap<String, Long> m = new TreeMap<String, Long>();
+
+		for ( Map.Entry<String, LongAdder> e : Counters.entrySet() )
+		{
+			m.put( e.getKey(), e.getValue().sum() );
+
+		} // for
+
+		return m;
+
+	} // Sums
+
+	/***************************************************************************
+	* INNER CLASS:: QueueStat
+	* Purpose: A snapshot of one participant's queue (see
+	*		   MessageManager.QueueStatistics).
+	*
+	****************************************************************************/
+
+	static class QueueStat
+	{
+		long Id;							// The participant
+		int Depth;							// Messages waiting
+		int Capacity;						// Most messages held (0 for no limit)
+		long LastDrained;					// When the queue was last drained (ms)
+
+		QueueStat( long id, int depth, int capacity, long drained )
+		{
+			Id = id;
+			Depth = depth;
+			Capacity = capacity;
+			LastDrained = drained;
+
+		} // constructor
+
+	} // QueueStat
+
+	/***************************************************************************
+	* INNER CLASS:: Histogram
+	* Purpose: A latency histogram with fixed buckets, from 10 us to 30 s, as
+	*		   Prometheus expects: every bucket counts the observations at or
+	*		   under its bound. Threads add to it without locking.
+	*
+	****************************************************************************/
+
+	static class Histogram
+	{
+		static final double[] BOUNDS = { 0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01,
+										 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30 };	// Upper bounds in seconds
+
+		LongAdder[] Buckets = new LongAdder[BOUNDS.length + 1];	// Observations per bucket (the last is +Inf)
+		LongAdder Count = new LongAdder();
+		LongAdder SumNanos = new LongAdder();
+
+		Histogram()
+		{
+			for ( int i = 0; i < Buckets.length; i++ )
+			{
+				Buckets[i] = new LongAdder();
+
+			} // for
+
+		} // constructor
+
+		void Observe( long Nanos )
+		{
+			double Seconds = Nanos / 1e9;
+			int i = 0;
+
+			while ( i < BOUNDS.length && Seconds > BOUNDS[i] )
+				i++;
+
+			Buckets[i].increment();
+			Count.increment();
+			SumNanos.add( Nanos );
+
+		} // Observe
+
+		double MeanMicros()
+		{
+			long n = Count.sum();
+
+			return ( n == 0 ) ? 0 : SumNanos.sum() / 1000.0 / n;
+
+		} // MeanMicros
+
+		// The bound of the bucket holding the given fraction of observations.
+
+		double PercentileMicros( double Fraction )
+		{
+			long n = Count.sum();
+			long Seen = 0;
+
+			for ( int i = 0; i < BOUNDS.length; i++ )
+			{
+				Seen += Buckets[i].sum();
+
+				if ( n > 0 && Seen >= Fraction * n )
+				{
+					return BOUNDS[i] * 1e6;
+
+				} // if
+
+			} // for
+
+			return ( n == 0 ) ? 0 : Double.POSITIVE_INFINITY;
+
+		} // PercentileMicros
+
+		void Write( StringBuilder sb, String Name, String Labels )
+		{
+			long Cumulative = 0;
+
+			for ( int i = 0; i < BOUNDS.length; i++ )
+			{
+				Cumulative += Buckets[i].sum();
+				sb.append( Name ).append( "_bucket{" ).append( Labels ).append( ",le=\"" ).append( BOUNDS[i] ).append( "\"} " ).append( Cumulative ).append( '\n' );
+
+			} // for
+
+			Cumulative += Buckets[BOUNDS.length].sum();
+			sb.append( Name ).append( "_bucket{" ).append( Labels ).append( ",le=\"+Inf\"} " ).append( Cumulative ).append( '\n' );
+			sb.append( Name ).append( "_sum{" ).append( Labels ).append( "} " ).append( SumNanos.sum() / 1e9 ).append( '\n' );
+			sb.append( Name ).append( "_count{" ).append( Labels ).append( "} " ).append( Cumulative ).append( '\n' );
+
+		} // Write
+
+	} // Histogram
+
+	/***************************************************************************
+	* INNER CLASS:: CountingSocketFactory
+	* Purpose: Makes the server sockets RMI accepts participants on. Every
+	*		   accepted socket counts the bytes read from and written to it.
+	*
+	****************************************************************************/
+
+	static class CountingSocketFactory implements RMIServerSocketFactory
+	{
+		LongAdder In;
+		LongAdder Out;
+
+		CountingSocketFactory( LongAdder in, LongAdder out )
+		{
+			In = in;
+			Out = out;
+
+		} // constructor
+
+		public ServerSocket createServerSocket( int Port ) throws IOException
+		{
+			return new ServerSocket( Port )
+			{
+				public Socket accept() throws IOException
+				{
+					Socket s = new CountingSocket( In, Out );
+
+					implAccept( s );
+
+					return s;
+
+				} // accept
+
+			};
+
+		} // createServerSocket
+
+		public boolean equals( Object o )
+		{
+			return ( o instanceof CountingSocketFactory ) && ( (CountingSocketFactory) o ).In == In;
+
+		} // equals
+
+		public int hashCode()
+		{
+			return In.hashCode();
+
+		} // hashCode
+
+	} // CountingSocketFactory
+
+	static class CountingSocket extends Socket
+	{
+		LongAdder In;
+		LongAdder Out;
+		InputStream CountedIn = null;
+		OutputStream CountedOut = null;
+
+		CountingSocket( LongAdder in, LongAdder out )
+		{
+			In = in;
+			Out = out;
+
+		} // constructor
+
+		public synchronized InputStream getInputStream() throws IOException
+		{
+			if ( CountedIn == null )
+			{
+				CountedIn = new FilterInputStream( super.getInputStream() )
+				{
+					public int read() throws IOException
+					{
+						int b = in.read();
+
+						if ( b >= 0 )
+							In.increment();
+
+						return b;
+
+					} // read
+
+					public int read( byte[] b, int off, int len ) throws IOException
+					{
+						int n = in.read( b, off, len );
+
+						if ( n > 0 )
+							In.add( n );
+
+						return n;
+
+					} // read
+
+				};
+
+			} // if
+
+			return CountedIn;
+
+		} // getInputStream
+
+		public synchronized OutputStream getOutputStream() throws IOException
+		{
+			if ( CountedOut == null )
+			{
+				CountedOut = new FilterOutputStream( super.getOutputStream() )
+				{
+					public void write( int b ) throws IOException
+					{
+						out.write( b );
+						Out.increment();
+
+					} // write
+
+					public void write( byte[] b, int off, int len ) throws IOException
+					{
+						out.write( b, off, len );
+						Out.add( len );
+
+					} // write
+
+				};
+
+			} // if
+
+			return CountedOut;
+
+		} // getOutputStream
+
+	} // CountingSocket
+
+} // MessageManagerMetrics
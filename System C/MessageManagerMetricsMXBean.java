@@ -0,0 +1,57 @@
+/******************************************************************************************************************
+* File:MessageManagerMetricsMXBean.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This interface lists the message manager's metrics published over JMX, under the object name
+*			   MessageManager:type=Metrics. The same metrics are served in Prometheus text format over HTTP (see
+*			   MessageManagerMetrics). Counters count from when the message manager started; rates are per second,
+*			   measured over the last second.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+import java.util.Map;
+
+public interface MessageManagerMetricsMXBean
+{
+	long getRequestsServiced();
+
+	int getRegisteredParticipants();
+
+	long getMessagesPosted();					// Messages sent to the message manager
+
+	long getMessagesEnqueued();					// Copies placed in queues (one per recipient)
+
+	long getMessagesDelivered();				// Messages taken out of queues by participants
+
+	long getMessagesDropped();
+
+	long getMessagesRejected();
+
+	long getMessagesExpired();
+
+	double getEnqueueRate();
+
+	double getDrainRate();
+
+	Map<Integer, Long> getMessagesPostedById();	// Message id -> messages posted
+
+	Map<Long, Integer> getQueueDepths();		// Participant id -> messages waiting
+
+	Map<Long, Long> getMillisSinceLastDrain();	// Participant id -> ms since its queue was last drained
+
+	Map<String, Long> getCallCounts();			// Remote method -> calls
+
+	Map<String, Double> getCallMeanMicros();	// Remote method -> mean time to service a call
+
+	Map<String, Double> getCallP99Micros();		// Remote method -> 99th percentile (from the histogram buckets)
+
+	Map<String, Long> getBytesIn();				// Transport -> bytes received
+
+	Map<String, Long> getBytesOut();			// Transport -> bytes sent
+
+} // MessageManagerMetricsMXBean
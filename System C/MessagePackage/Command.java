@@ -0,0 +1,64 @@
+/******************************************************************************************************************
+* File:Command.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This enumeration lists the devices that control messages act on. A control message carries one of
+*			   these codes and a boolean (on or off) instead of text such as "H1" or "OFF", so receivers switch on
+*			   the code instead of comparing strings. Confirmations echo the code and boolean back. Each code also
+*			   knows the text that was used for it before, which Message.GetMessage returns for display.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+package MessagePackage;
+
+public enum Command
+{
+	NONE( null ),				// Not a control message
+	HEATER( "H" ),				// Temperature control (5, -5)
+	CHILLER( "C" ),
+	HUMIDIFIER( "H" ),			// Humidity control (4, -4)
+	DEHUMIDIFIER( "D" ),
+	DOOR( "D" ),				// Security control (6, -6)
+	WINDOW( "W" ),
+	MOTION( "M" ),
+	FIRE_ALARM( null ),			// Fire alarm (12, -12)
+	SPRINKLER( null );			// Sprinkler (13, -13, 44)
+
+	private final String Letter;	// Prefix of the old text form ("H1"), null for "ON"/"OFF"
+
+	Command( String Prefix )
+	{
+		Letter = Prefix;
+
+	} // constructor
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetText
+	* Purpose: This method returns the text the command used to be sent as.
+	*
+	* Arguments: boolean On - whether the device is turned on or off
+	*
+	* Returns: String - for example "H1", "C0", "ON" or "OFF"
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public String GetText( boolean On )
+	{
+		if ( Letter == null )
+		{
+			return ( On ? "ON" : "OFF" );
+
+		} // if
+
+		return ( On ? Letter + "1" : Letter + "0" );
+
+	} // GetText
+
+} // Command
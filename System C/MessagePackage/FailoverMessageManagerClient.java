@@ -0,0 +1,517 @@
+/******************************************************************************************************************
+* File:FailoverMessageManagerClient.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class keeps a participant going when its message manager dies. It stands in front of the
+*			   participant's connection (RMI stub, NIO or shared-memory client) and passes every call through.
+*			   When a call fails because the message manager cannot be reached, it finds the message manager again
+*			   the way MessageManagerInterface first found it (the same address, or the seed list), so a hot
+*			   standby that took over (see MessageReplication) or another node of a federation is found. The
+*			   participant is registered there under the id it was issued, unless the standby replicated its
+*			   registration, and its subscriptions, conflated ids and listener are set up again. Then the call is
+*			   made again on the new connection.
+*
+*			   The message manager is looked for every RETRYMILLIS until MessageManager.FailoverMillis has passed,
+*			   then the call fails as it would have without failover. Calls from other threads that fail while
+*			   one thread is failing over wait for it and use the new connection.
+*
+*			   A call whose reply was lost is made again, so a message posted just as the message manager died
+*			   may be delivered twice. Errors reported by the message manager (a full queue, for example) are
+*			   passed on as they are.
+*
+* Parameters: MessageManager.FailoverMillis - the longest to look for the message manager, zero for no failover
+*											  (default 3000)
+*
+* Internal Methods:
+*	RMIMessageManagerInterface Failover(RMIMessageManagerInterface Failed, RemoteException e)
+*	void Reattach(RMIMessageManagerInterface Manager)
+*
+******************************************************************************************************************/
+package MessagePackage;
+
+import java.io.IOException;
+import java.rmi.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class FailoverMessageManagerClient implements RMIMessageManagerInterface
+{
+	static final long RETRYMILLIS = 20;				// ms between attempts to find the message manager
+
+	private volatile RMIMessageManagerInterface Manager;	// The current connection
+	private String Host;							// How the message manager was found (see Locate)
+	private String EMServer;
+	private String Seeds;							// The seed list, or null
+	private long FailoverMillis;					// The longest to look for the message manager
+
+	// What the participant set up, to set it up again after failing over
+
+	private volatile long ParticipantId = -1;
+	private CopyOnWriteArrayList<int[]> Subscriptions = new CopyOnWriteArrayList<int[]>();
+	private CopyOnWriteArrayList<Integer> ConflatedIds = new CopyOnWriteArrayList<Integer>();
+	private volatile MessageListener Listener = null;
+
+	private FailoverMessageManagerClient( RMIMessageManagerInterface Manager, String Host, String EMServer, String Seeds, long FailoverMillis )
+	{
+		this.Manager = Manager;
+		this.Host = Host;
+		this.EMServer = EMServer;
+		this.Seeds = Seeds;
+		this.FailoverMillis = FailoverMillis;
+
+	} // constructor
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Wrap
+	* Purpose: Puts failover in front of a connection to the message manager,
+	*		   unless failover is turned off or the message manager is in this
+	*		   JVM (the local transport).
+	*
+	* Arguments: RMIMessageManagerInterface Manager - the connection
+	*			 String Host, EMServer - as given to MessageManagerInterface.Locate
+	*			 String Seeds - the seed list, or null if there is none
+	*
+	* Returns: RMIMessageManagerInterface - the connection to use
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static RMIMessageManagerInterface Wrap( RMIMessageManagerInterface Manager, String Host, String EMServer, String Seeds )
+	{
+		long FailoverMillis = Long.getLong( "MessageManager.FailoverMillis", 3000 );
+
+		if ( FailoverMillis <= 0 || System.getProperty( "MessageManager.Transport", "rmi" ).equalsIgnoreCase( "local" ) )
+		{
+			return Manager;
+
+		} // if
+
+		return new FailoverMessageManagerClient( Manager, Host, EMServer, Seeds, FailoverMillis );
+
+	} // Wrap
+
+	/***************************************************************************
+	* Remote methods (see RMIMessageManagerInterface)
+	****************************************************************************/
+
+	public long Register() throws RemoteException
+	{
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			ParticipantId = em.Register();
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			ParticipantId = Failover( em, e ).Register();
+
+		} // catch
+
+		return ParticipantId;
+
+	} // Register
+
+	public boolean Reregister( long id ) throws RemoteException
+	{
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			return em.Reregister( id );
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			return Failover( em, e ).Reregister( id );
+
+		} // catch
+
+	} // Reregister
+
+	public void UnRegister( long id ) throws RemoteException
+	{
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			em.UnRegister( id );
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			Failover( em, e ).UnRegister( id );
+
+		} // catch
+
+		ParticipantId = -1;
+
+	} // UnRegister
+
+	public void SendMessage( Message m ) throws RemoteException
+	{
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			em.SendMessage( m );
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			Failover( em, e ).SendMessage( m );
+
+		} // catch
+
+	} // SendMessage
+
+	public void SendMessages( Message[] Messages ) throws RemoteException
+	{
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			em.SendMessages( Messages );
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			Failover( em, e ).SendMessages( Messages );
+
+		} // catch
+
+	} // SendMessages
+
+	public MessageQueue GetMessageQueue( long id ) throws RemoteException
+	{
+		return GetMessageQueue( id, 0 );
+
+	} // GetMessageQueue
+
+	public MessageQueue GetMessageQueue( long id, long MaxWaitMillis ) throws RemoteException
+	{
+		Message[] Messages = DrainMessages( id, 0, MaxWaitMillis );
+
+		return ( Messages == null ) ? null : new MessageQueue( id, Messages );
+
+	} // GetMessageQueue
+
+	public Message[] DrainMessages( long id, int MaxBatch, long MaxWaitMillis ) throws RemoteException
+	{
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			return em.DrainMessages( id, MaxBatch, MaxWaitMillis );
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			return Failover( em, e ).DrainMessages( id, MaxBatch, MaxWaitMillis );
+
+		} // catch
+
+	} // DrainMessages
+
+	public void Subscribe( long id, int LowMsgId, int HighMsgId ) throws RemoteException
+	{
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			em.Subscribe( id, LowMsgId, HighMsgId );
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			Failover( em, e ).Subscribe( id, LowMsgId, HighMsgId );
+
+		} // catch
+
+		Subscriptions.add( new int[] { LowMsgId, HighMsgId } );
+
+	} // Subscribe
+
+	public void Conflate( long id, int MsgId ) throws RemoteException
+	{
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			em.Conflate( id, MsgId );
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			Failover( em, e ).Conflate( id, MsgId );
+
+		} // catch
+
+		ConflatedIds.add( MsgId );
+
+	} // Conflate
+
+	public void AddListener( long id, MessageListener ml ) throws RemoteException
+	{
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			em.AddListener( id, ml );
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			Failover( em, e ).AddListener( id, ml );
+
+		} // catch
+
+		Listener = ml;
+
+	} // AddListener
+
+	public void RemoveListener( long id ) throws RemoteException
+	{
+		Listener = null;
+
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			em.RemoveListener( id );
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			Failover( em, e ).RemoveListener( id );
+
+		} // catch
+
+	} // RemoveListener
+
+	public long RenewLease( long id ) throws RemoteException
+	{
+		RMIMessageManagerInterface em = Manager;
+
+		try
+		{
+			return em.RenewLease( id );
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			return Failover( em, e ).RenewLease( id );
+
+		} // catch
+
+	} // RenewLease
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Current
+	* Purpose: Returns the current connection, for a call that must not wait
+	*		   while the message manager is looked for (see the outbox in
+	*		   MessageManagerInterface).
+	*
+	* Arguments: None
+	*
+	* Returns: RMIMessageManagerInterface - the connection
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	RMIMessageManagerInterface Current()
+	{
+		return Manager;
+
+	} // Current
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Close
+	* Purpose: Closes the current connection, if it has to be closed.
+	*
+	* Arguments: None
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	void Close()
+	{
+		if ( Manager instanceof PipelinedMessageManagerClient )
+		{
+			((PipelinedMessageManagerClient) Manager).Close();
+
+		} // if
+
+	} // Close
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Failover
+	* Purpose: Called when a call on a connection failed. If the message
+	*		   manager could not be reached, finds it again and sets the
+	*		   participant up there. If another thread did that already, its
+	*		   connection is used.
+	*
+	* Arguments: RMIMessageManagerInterface Failed - the connection the call
+	*			 failed on
+	*			 RemoteException e - why it failed
+	*
+	* Returns: RMIMessageManagerInterface - the connection to make the call again
+	*		   on
+	*
+	* Exceptions: RemoteException - e, if the message manager was reached and
+	*			  reported an error, or could not be found again in time
+	*
+	****************************************************************************/
+
+	private synchronized RMIMessageManagerInterface Failover( RMIMessageManagerInterface Failed, RemoteException e ) throws RemoteException
+	{
+		if ( !Lost( e ) )
+		{
+			throw e;
+
+		} // if
+
+		if ( Manager != Failed )
+		{
+			return Manager;
+
+		} // if
+
+		long Deadline = System.currentTimeMillis() + FailoverMillis;
+		RMIMessageManagerInterface em = null;
+
+		while ( true )
+		{
+			try
+			{
+				em = ( Seeds != null ) ? MessageManagerInterface.LocateSeed( Seeds ) : MessageManagerInterface.Locate( Host, EMServer );
+				Reattach( em );
+				Close();
+				Manager = em;
+
+				return em;
+
+			} // try
+
+			catch (Exception x)
+			{
+				if ( em instanceof PipelinedMessageManagerClient )
+				{
+					((PipelinedMessageManagerClient) em).Close();
+
+				} // if
+
+				em = null;
+
+				if ( System.currentTimeMillis() >= Deadline )
+				{
+					throw e;
+
+				} // if
+
+			} // catch
+
+			try
+			{
+				Thread.sleep( RETRYMILLIS );
+
+			} // try
+
+			catch (InterruptedException x)
+			{
+				throw e;
+
+			} // catch
+
+		} // while
+
+	} // Failover
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Reattach
+	* Purpose: Sets the participant up on the message manager it failed over
+	*		   to: registers it under its id if the message manager does not
+	*		   know it, with its subscriptions and conflated ids, and adds its
+	*		   listener again.
+	*
+	* Arguments: RMIMessageManagerInterface em - the new connection
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException - the message manager could not be reached
+	*
+	****************************************************************************/
+
+	private void Reattach( RMIMessageManagerInterface em ) throws RemoteException
+	{
+		long id = ParticipantId;
+
+		if ( id == -1 )
+		{
+			return;
+
+		} // if
+
+		if ( em.Reregister( id ) )
+		{
+			for ( int[] range : Subscriptions )
+			{
+				em.Subscribe( id, range[0], range[1] );
+
+			} // for
+
+			for ( int MsgId : ConflatedIds )
+			{
+				em.Conflate( id, MsgId );
+
+			} // for
+
+		} // if
+
+		if ( Listener != null )
+		{
+			em.AddListener( id, Listener );
+
+		} // if
+
+	} // Reattach
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Lost
+	* Purpose: Tells a call that failed because the message manager could not
+	*		   be reached from one the message manager refused.
+	*
+	* Arguments: RemoteException e - why the call failed
+	*
+	* Returns: boolean - true if the message manager could not be reached
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static boolean Lost( RemoteException e )
+	{
+		return e instanceof java.rmi.ConnectException || e instanceof ConnectIOException || e instanceof NoSuchObjectException
+			|| ( ( e instanceof UnmarshalException || e instanceof MarshalException ) && e.getCause() instanceof IOException );
+
+	} // Lost
+
+} // FailoverMessageManagerClient
@@ -23,20 +23,77 @@
 *				MessageText - This is a string of text that is passed along with the message. Again, there is no
 *							  particular semantic associated with the text.
 *
+*				Payload - Instead of text, a message may carry one typed value: a float (temperature and
+*						  humidity readings), an int (security readings), a boolean (fire readings), or a
+*						  Command code with a boolean (control messages and their confirmations). Sensors and
+*						  controllers use these so readings and commands are not formatted and parsed as text.
+*						  GetMessage returns the text form of the payload for messages sent without text.
+*
+*				Priority - Messages are either CRITICAL or NORMAL, by message id. Fire alarms (22, 12), security
+*						   alarms (3, 6), sprinkler messages (13) and the halt message (99) are critical; the ids can be
+*						   changed with the MessageManager.CriticalIds system property (a comma separated list). Queues
+*						   hand out critical messages ahead of normal ones (see MessageQueue), and the message manager
+*						   does not hold critical messages up behind floods of readings and heartbeats. The priority
+*						   follows from the id, so it is not sent.
+*
+*				CreationTime - When the message was created, in ms since the epoch, by the clock of the process
+*							   holding the message (see TimeToLive).
+*
+*				TimeToLive - A producer may give a message a time to live, in ms from its creation time. Once it
+*							 has passed, the message has expired: queues drop it instead of handing it out (see
+*							 MessageQueue), so a consumer that was gone for a while is not given stale readings.
+*							 Messages have no time to live unless one is set, and then never expire. A message
+*							 with one is sent with its age, measured by the sender's clock when it is written, and
+*							 the reader sets its creation time that far back by its own clock. The producer, the
+*							 message manager and the consumer need not keep their clocks in step: the message
+*							 expires after the same time wherever it is, give or take the time spent in transit,
+*							 which is not counted. A message read without a time to live was created when it was
+*							 read.
+*
+*				Messages are written in the compact encoding defined by MessageCodec rather than with default
+*				Java serialization. The encoding is cached, so a message that is broadcast to several
+*				participants is encoded once and the same bytes are sent to each of them.
+*
 * Internal Methods: None
 *
 ******************************************************************************************************************/
 package MessagePackage;
 
-import java.io.Serializable;
+import java.io.*;
+import java.util.*;
 
-public class Message implements Serializable
+public class Message implements Externalizable
 {
 
 	private String MessageText;	// Any string message.
 	private int MessageId;		// Message Id is defined by the participant.
 	private long SenderId;		// Id assigned at registration time by the message manager. The ID for every message is
 								// set by the MessageManagerInterface before the message is sent to the message manager.
+	private byte Kind = NONE;		// Which typed payload the message carries (see below)
+	private float FloatValue;		// Float payload
+	private int IntValue;			// Int payload
+	private boolean BooleanValue;	// Boolean payload (also the on/off of a command)
+	private Command Code = Command.NONE;	// Command payload
+	private long CreationTime = System.currentTimeMillis();	// When the message was created (ms)
+	private long TimeToLive = 0;	// How long after CreationTime the message expires (ms, zero for never)
+	private transient volatile byte[] Encoded = null;	// Cached MessageCodec encoding (null until needed)
+
+	static final byte NONE = 0;			// Payload kinds, as written by MessageCodec
+	static final byte FLOAT = 1;
+	static final byte INT = 2;
+	static final byte BOOLEAN = 3;
+	static final byte COMMAND = 4;
+	static final byte EXPIRES = 0x40;			// Set on the payload kind of messages with a time to live
+
+	public enum Priority { CRITICAL, NORMAL }
+
+	private static final Set<Integer> CriticalIds = ParseIds( "MessageManager.CriticalIds", "3,6,12,13,22,99" );
+
+	public Message()
+	{
+		// Used when a message is read from the wire (see readExternal)
+
+	} // constructor
 
 	public Message(int MsgId, String Text )
 	{
@@ -52,6 +109,39 @@ public class Message implements Serializable
 
 	} // constructor
 
+	public Message(int MsgId, float Value )
+	{
+		MessageId = MsgId;
+		Kind = FLOAT;
+		FloatValue = Value;
+
+	} // constructor
+
+	public Message(int MsgId, int Value )
+	{
+		MessageId = MsgId;
+		Kind = INT;
+		IntValue = Value;
+
+	} // constructor
+
+	public Message(int MsgId, boolean Value )
+	{
+		MessageId = MsgId;
+		Kind = BOOLEAN;
+		BooleanValue = Value;
+
+	} // constructor
+
+	public Message(int MsgId, Command Cmd, boolean On )
+	{
+		MessageId = MsgId;
+		Kind = COMMAND;
+		Code = Cmd;
+		BooleanValue = On;
+
+	} // constructor
+
 	/***************************************************************************
 	* CONCRETE METHOD:: GetSenderID
 	* Purpose: This method returns the ID of the participant that posted this
@@ -86,6 +176,7 @@ public class Message implements Serializable
 	public void SetSenderId( long id )
 	{
 		SenderId = id;
+		Encoded = null;
 
 	} // GetSenderId
 
@@ -108,10 +199,184 @@ public class Message implements Serializable
 
 	} // GetMessageId
 
+	/***************************************************************************
+	* CONCRETE METHOD:: GetCreationTime
+	* Purpose: This method returns when the message was created.
+	*
+	* Arguments: None
+	*
+	* Returns: long - ms since the epoch
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public long GetCreationTime()
+	{
+		return CreationTime;
+
+	} // GetCreationTime
+
+	/***************************************************************************
+	* CONCRETE METHOD:: SetCreationTime
+	* Purpose: This method sets when the message was created, which is when its
+	*		   time to live starts. A message that is posted again later (a
+	*		   replay, for example) can be given the time it is posted.
+	*
+	* Arguments: long - ms since the epoch
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void SetCreationTime( long Time )
+	{
+		CreationTime = Time;
+		Encoded = null;
+
+	} // SetCreationTime
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetTimeToLive
+	* Purpose: This method returns the message's time to live.
+	*
+	* Arguments: None
+	*
+	* Returns: long - ms after the creation time, zero if it never expires
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public long GetTimeToLive()
+	{
+		return TimeToLive;
+
+	} // GetTimeToLive
+
+	/***************************************************************************
+	* CONCRETE METHOD:: SetTimeToLive
+	* Purpose: This method sets how long after its creation time the message is
+	*		   of use. Queues drop it once that time has passed.
+	*
+	* Arguments: long - ms after the creation time, zero or less for never
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void SetTimeToLive( long Millis )
+	{
+		TimeToLive = Math.max( Millis, 0 );
+		Encoded = null;
+
+	} // SetTimeToLive
+
+	/***************************************************************************
+	* CONCRETE METHOD:: IsExpired
+	* Purpose: This method tells whether the message's time to live has passed.
+	*
+	* Arguments: long - the time now (ms since the epoch)
+	*
+	* Returns: boolean - true if the message has expired
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public boolean IsExpired( long Now )
+	{
+		return ( TimeToLive > 0 && Now - CreationTime >= TimeToLive );
+
+	} // IsExpired
+
+	// When the message expires (ms since the epoch), Long.MAX_VALUE if never.
+
+	long ExpiresAt()
+	{
+		return ( TimeToLive > 0 ? CreationTime + TimeToLive : Long.MAX_VALUE );
+
+	} // ExpiresAt
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetPriority
+	* Purpose: This method returns the priority of the message, which depends on
+	*		   its message id only.
+	*
+	* Arguments: None
+	*
+	* Returns: Priority
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public Priority GetPriority()
+	{
+		return PriorityOf( MessageId );
+
+	} // GetPriority
+
+	/***************************************************************************
+	* CONCRETE METHOD:: PriorityOf
+	* Purpose: This method returns the priority of messages with a message id.
+	*
+	* Arguments: int - the message id
+	*
+	* Returns: Priority
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public static Priority PriorityOf( int MsgId )
+	{
+		return ( CriticalIds.contains( MsgId ) ? Priority.CRITICAL : Priority.NORMAL );
+
+	} // PriorityOf
+
+	// Reads a comma separated list of message ids from a system property. The
+	// default is used where properties cannot be read (the RMI registry loads
+	// this class under a security manager).
+
+	private static Set<Integer> ParseIds( String Property, String Default )
+	{
+		HashSet<Integer> Set = new HashSet<Integer>();
+		String Ids = Default;
+
+		try
+		{
+			Ids = System.getProperty( Property, Default );
+
+		} // try
+
+		catch (SecurityException e)
+		{
+		} // catch
+
+		for ( String Id : Ids.split( "," ) )
+		{
+			if ( Id.trim().length() > 0 )
+			{
+				Set.add( Integer.parseInt( Id.trim() ) );
+
+			} // if
+
+		} // for
+
+		return Set;
+
+	} // ParseIds
+
 	/***************************************************************************
 	* CONCRETE METHOD:: GetMessage
 	* Purpose: This method returns the message (if there is one) of the posted message. There is not
-	*		   semantic imposed on IDs.
+	*		   semantic imposed on IDs. If the message was sent with a typed payload
+	*		   and no text, the payload is returned as text (for display only).
 	*
 	* Arguments: None
 	*
@@ -123,8 +388,307 @@ public class Message implements Serializable
 
 	public String GetMessage()
 	{
-		return MessageText;
+		if ( MessageText != null )
+		{
+			return MessageText;
+
+		} // if
+
+		switch ( Kind )
+		{
+			case FLOAT:
+				return String.valueOf( FloatValue );
+
+			case INT:
+				return String.valueOf( IntValue );
+
+			case BOOLEAN:
+				return ( BooleanValue ? "ON" : "OFF" );
+
+			case COMMAND:
+				return Code.GetText( BooleanValue );
+
+		} // switch
+
+		return null;
 
 	} // GetMessage
 
+	/***************************************************************************
+	* CONCRETE METHOD:: GetFloat
+	* Purpose: This method returns the float payload (a reading).
+	*
+	* Arguments: None
+	*
+	* Returns: float - zero if the message has no float payload
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public float GetFloat()
+	{
+		return FloatValue;
+
+	} // GetFloat
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetInt
+	* Purpose: This method returns the int payload (a reading).
+	*
+	* Arguments: None
+	*
+	* Returns: int - zero if the message has no int payload
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public int GetInt()
+	{
+		return IntValue;
+
+	} // GetInt
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetBoolean
+	* Purpose: This method returns the boolean payload. For a command this is
+	*		   whether the device is to be turned on (true) or off (false).
+	*
+	* Arguments: None
+	*
+	* Returns: boolean - false if the message has no boolean payload
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public boolean GetBoolean()
+	{
+		return BooleanValue;
+
+	} // GetBoolean
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetCommand
+	* Purpose: This method returns the command code of a control message or of
+	*		   its confirmation.
+	*
+	* Arguments: None
+	*
+	* Returns: Command - Command.NONE if the message is not a command
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public Command GetCommand()
+	{
+		return Code;
+
+	} // GetCommand
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetEncoding
+	* Purpose: This method returns the message in the MessageCodec encoding. The
+	*		   bytes are computed the first time they are needed and reused after
+	*		   that. The array is shared and must not be modified. The age of a
+	*		   message with a time to live, at the end of the encoding, changes as
+	*		   the message waits, so such a message returns a copy with its age
+	*		   brought up to date.
+	*
+	* Arguments: None
+	*
+	* Returns: byte[]
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public byte[] GetEncoding()
+	{
+		byte[] e = Encoded;
+
+		if ( e == null )
+		{
+			e = MessageCodec.Encode( this );
+			Encoded = e;
+
+		} // if
+
+		if ( TimeToLive > 0 )
+		{
+			e = e.clone();
+			PutAge( e, System.currentTimeMillis() );
+
+		} // if
+
+		return e;
+
+	} // GetEncoding
+
+	// The message's age at Now, in ms, as written at the end of its encoding.
+
+	private int Age( long Now )
+	{
+		return (int) Math.max( Integer.MIN_VALUE, Math.min( Now - CreationTime, Integer.MAX_VALUE ) );
+
+	} // Age
+
+	private void PutAge( byte[] e, long Now )
+	{
+		int Age = Age( Now );
+
+		for ( int i = 1; i <= 4; i++ )
+		{
+			e[e.length - i] = (byte) Age;
+			Age >>>= 8;
+
+		} // for
+
+	} // PutAge
+
+	/***************************************************************************
+	* CONCRETE METHOD:: writeExternal
+	* Purpose: This method writes the message's encoding for serialization.
+	*
+	* Arguments: ObjectOutput
+	*
+	* Returns: None
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	public void writeExternal( ObjectOutput out ) throws IOException
+	{
+		out.write( GetEncoding() );
+
+	} // writeExternal
+
+	/***************************************************************************
+	* CONCRETE METHOD:: readExternal
+	* Purpose: This method reads a message written by writeExternal.
+	*
+	* Arguments: ObjectInput
+	*
+	* Returns: None
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	public void readExternal( ObjectInput in ) throws IOException
+	{
+		ReadFields( in, System.currentTimeMillis() );
+
+	} // readExternal
+
+	// Reads the fields of an encoded message (see MessageCodec). A message's
+	// age is taken back from Now, the time it was written by this process's
+	// clock (when it is read, unless it was kept, as in a journal).
+
+	void ReadFields( DataInput in, long Now ) throws IOException
+	{
+		boolean Expires;
+
+		MessageId = (int) MessageCodec.ReadVarLong( in );
+		SenderId = MessageCodec.ReadVarLong( in );
+		MessageText = MessageCodec.ReadString( in );
+		Kind = in.readByte();
+		TimeToLive = 0;
+		Expires = ( Kind & EXPIRES ) != 0;
+
+		if ( Expires )
+		{
+			Kind &= ~EXPIRES;
+			TimeToLive = MessageCodec.ReadVarLong( in );
+
+		} // if
+
+		switch ( Kind )
+		{
+			case FLOAT:
+				FloatValue = in.readFloat();
+				break;
+
+			case INT:
+				IntValue = (int) MessageCodec.ReadVarLong( in );
+				break;
+
+			case BOOLEAN:
+				BooleanValue = in.readBoolean();
+				break;
+
+			case COMMAND:
+				Code = MessageCodec.ReadCommand( in );
+				BooleanValue = in.readBoolean();
+				break;
+
+			case NONE:
+				break;
+
+			default:
+				throw new StreamCorruptedException( "Unknown payload kind " + Kind );
+
+		} // switch
+
+		if ( Expires )
+		{
+			CreationTime = Now - in.readInt();
+
+		} // if
+
+		Encoded = null;
+
+	} // ReadFields
+
+	// Writes the fields of the message (see MessageCodec).
+
+	void WriteFields( DataOutput out ) throws IOException
+	{
+		MessageCodec.WriteVarLong( out, MessageId );
+		MessageCodec.WriteVarLong( out, SenderId );
+		MessageCodec.WriteString( out, MessageText );
+
+		if ( TimeToLive > 0 )
+		{
+			out.writeByte( Kind | EXPIRES );
+			MessageCodec.WriteVarLong( out, TimeToLive );
+
+		} else {
+
+			out.writeByte( Kind );
+
+		} // if
+
+		switch ( Kind )
+		{
+			case FLOAT:
+				out.writeFloat( FloatValue );
+				break;
+
+			case INT:
+				MessageCodec.WriteVarLong( out, IntValue );
+				break;
+
+			case BOOLEAN:
+				out.writeBoolean( BooleanValue );
+				break;
+
+			case COMMAND:
+				MessageCodec.WriteVarLong( out, Code.ordinal() );
+				out.writeBoolean( BooleanValue );
+				break;
+
+		} // switch
+
+		if ( TimeToLive > 0 )
+		{
+			out.writeInt( Age( System.currentTimeMillis() ) );
+
+		} // if
+
+	} // WriteFields
+
 } // Message class
\ No newline at end of file
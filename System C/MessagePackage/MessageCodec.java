@@ -0,0 +1,289 @@
+/******************************************************************************************************************
+* File:MessageCodec.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class holds the compact wire encoding used by Message and MessageQueue. Integers are written
+*			   as zig-zag varints (small positive and negative values take a single byte) and text is written as
+*			   a varint length followed by its UTF-8 bytes. A message is encoded as:
+*
+*					varint MessageId, varint SenderId, varint text length (-1 for no text), UTF-8 text,
+*					byte payload kind, with bit 0x40 set if the message has a time to live, then
+*					varint time to live if it has one, then the payload if there is one:
+*						float - 4 bytes, int - varint, boolean - 1 byte, command - varint code and 1 byte
+*					then, if the message has a time to live, its age in ms as a 4 byte int
+*
+*			   The age is written rather than the creation time, so the reader needs no clock in step with the
+*			   writer's (see Message). It comes last so a cached encoding can be brought up to date in place.
+*			   Messages without a time to live are encoded as they were before it was added, so older journals
+*			   can still be read.
+*
+*			   The encoding carries no type information, so both ends must agree on what is being read.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+package MessagePackage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+public final class MessageCodec
+{
+	private MessageCodec()
+	{
+	} // constructor
+
+	/***************************************************************************
+	* CONCRETE METHOD:: WriteVarLong
+	* Purpose: Writes a long as a zig-zag varint: seven bits per byte, low bits
+	*		   first, with the high bit set on every byte but the last.
+	*
+	* Arguments: DataOutput - where to write
+	*			 long - the value
+	*
+	* Returns: None
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	public static void WriteVarLong( DataOutput out, long v ) throws IOException
+	{
+		long zz = ( v << 1 ) ^ ( v >> 63 );
+
+		while ( ( zz & ~0x7FL ) != 0 )
+		{
+			out.writeByte( (int) ( ( zz & 0x7F ) | 0x80 ) );
+			zz >>>= 7;
+
+		} // while
+
+		out.writeByte( (int) zz );
+
+	} // WriteVarLong
+
+	/***************************************************************************
+	* CONCRETE METHOD:: ReadVarLong
+	* Purpose: Reads a long written by WriteVarLong.
+	*
+	* Arguments: DataInput - where to read from
+	*
+	* Returns: long
+	*
+	* Exceptions: IOException - also thrown if the varint is malformed
+	*
+	****************************************************************************/
+
+	public static long ReadVarLong( DataInput in ) throws IOException
+	{
+		long zz = 0;
+		int b;
+
+		for ( int shift = 0; shift < 64; shift += 7 )
+		{
+			b = in.readUnsignedByte();
+			zz |= (long) ( b & 0x7F ) << shift;
+
+			if ( ( b & 0x80 ) == 0 )
+			{
+				return ( zz >>> 1 ) ^ -( zz & 1 );
+
+			} // if
+
+		} // for
+
+		throw new StreamCorruptedException( "Malformed varint" );
+
+	} // ReadVarLong
+
+	/***************************************************************************
+	* CONCRETE METHOD:: WriteString
+	* Purpose: Writes text as a varint byte count followed by its UTF-8 bytes.
+	*		   A null string is written as a count of -1.
+	*
+	* Arguments: DataOutput - where to write
+	*			 String - the text (may be null)
+	*
+	* Returns: None
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	public static void WriteString( DataOutput out, String s ) throws IOException
+	{
+		if ( s == null )
+		{
+			WriteVarLong( out, -1 );
+
+		} else {
+
+			byte[] utf8 = s.getBytes( StandardCharsets.UTF_8 );
+
+			WriteVarLong( out, utf8.length );
+			out.write( utf8 );
+
+		} // if
+
+	} // WriteString
+
+	/***************************************************************************
+	* CONCRETE METHOD:: ReadString
+	* Purpose: Reads text written by WriteString.
+	*
+	* Arguments: DataInput - where to read from
+	*
+	* Returns: String - null if null was written
+	*
+	* Exceptions: IOException - also thrown if the length is more than the
+	*			  bytes left (see CheckLength)
+	*
+	****************************************************************************/
+
+	public static String ReadString( DataInput in ) throws IOException
+	{
+		long len = ReadVarLong( in );
+
+		if ( len < 0 )
+		{
+			return null;
+
+		} // if
+
+		CheckLength( in, len, "string length" );
+
+		byte[] utf8 = new byte[(int) len];
+		in.readFully( utf8 );
+
+		return new String( utf8, StandardCharsets.UTF_8 );
+
+	} // ReadString
+
+	/***************************************************************************
+	* CONCRETE METHOD:: CheckLength
+	* Purpose: Checks a length or count read from the input before anything is
+	*		   allocated for it. Frames and journal records are read from a
+	*		   DataInputStream over the bytes in memory, so the length may not be
+	*		   more than the bytes left; a corrupt or hostile frame then cannot
+	*		   make the reader allocate more than the frame holds. Other inputs
+	*		   (RMI streams) are only held to what an array can hold.
+	*
+	* Arguments: DataInput - the input the length was read from
+	*			 long - the length (at least one byte is read for each)
+	*			 String - what the length is, for the error message
+	*
+	* Returns: None
+	*
+	* Exceptions: StreamCorruptedException - the length cannot be right
+	*
+	****************************************************************************/
+
+	static void CheckLength( DataInput in, long n, String What ) throws IOException
+	{
+		if ( n > Integer.MAX_VALUE || ( in instanceof DataInputStream && n > ( (DataInputStream) in ).available() ) )
+		{
+			throw new StreamCorruptedException( "Bad " + What + " " + n );
+
+		} // if
+
+	} // CheckLength
+
+	/***************************************************************************
+	* CONCRETE METHOD:: ReadCommand
+	* Purpose: Reads a command code written as a varint.
+	*
+	* Arguments: DataInput - where to read from
+	*
+	* Returns: Command
+	*
+	* Exceptions: IOException - also thrown if the code is unknown
+	*
+	****************************************************************************/
+
+	public static Command ReadCommand( DataInput in ) throws IOException
+	{
+		Command[] Codes = Command.values();
+		long code = ReadVarLong( in );
+
+		if ( code < 0 || code >= Codes.length )
+		{
+			throw new StreamCorruptedException( "Unknown command code " + code );
+
+		} // if
+
+		return Codes[(int) code];
+
+	} // ReadCommand
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Encode
+	* Purpose: Encodes a message into a new byte array.
+	*
+	* Arguments: Message - the message
+	*
+	* Returns: byte[] - the encoded message
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public static byte[] Encode( Message m )
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( 16 );
+		DataOutputStream out = new DataOutputStream( bytes );
+
+		try
+		{
+			m.WriteFields( out );
+
+		} // try
+
+		catch (IOException e)
+		{
+			// Not thrown by a ByteArrayOutputStream
+
+			throw new UncheckedIOException( e );
+
+		} // catch
+
+		return bytes.toByteArray();
+
+	} // Encode
+
+	/***************************************************************************
+	* CONCRETE METHOD:: ReadMessage
+	* Purpose: Reads one encoded message, written now or (for a message kept
+	*		   in a journal) at a given time. A message's creation time is set
+	*		   from its age, back from that time.
+	*
+	* Arguments: DataInput - where to read from
+	*			 long - when the message was written (ms since the epoch, by
+	*			 this process's clock); the time now if not given
+	*
+	* Returns: Message
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	public static Message ReadMessage( DataInput in ) throws IOException
+	{
+		return ReadMessage( in, System.currentTimeMillis() );
+
+	} // ReadMessage
+
+	public static Message ReadMessage( DataInput in, long Written ) throws IOException
+	{
+		Message m = new Message();
+
+		m.ReadFields( in, Written );
+
+		return m;
+
+	} // ReadMessage
+
+} // MessageCodec
@@ -0,0 +1,41 @@
+/******************************************************************************************************************
+* File:MessageListener.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This interface defines the remote callback a participant can register with the message manager
+*			   to have messages pushed to it instead of polling for its message queue. The message manager
+*			   delivers to each listener from a thread of its own, so a slow listener only delays its own
+*			   messages and never holds up the participants sending them.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+package MessagePackage;
+
+import java.rmi.*;
+
+public interface MessageListener extends Remote
+{
+
+	/***************************************************************************
+	* INTERFACE:: MessagesReceived
+	* Purpose: This interface is called by the message manager with the messages
+	*		   that have been posted to the participant's queue since the last
+	*		   delivery. The messages are removed from the participant's queue on
+	*		   the message manager before this is called.
+	*
+	* Arguments: Message[] - the messages, oldest first
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public void MessagesReceived(Message[] Messages) throws java.rmi.RemoteException;
+
+} // class
@@ -14,15 +14,62 @@
 * Parameters: None
 *
 * Internal Methods: SendMessage - Sends an message to the message manager
-*					GetMessageQueue - Gets a participants message queue from the message manager.
+*					SendMessages - Sends several messages to the message manager in one call
+*					GetMessageQueue - Gets a participants message queue from the message manager, optionally
+*									  waiting for messages to arrive.
+*					GetMessages - Takes the messages in a participants queue as an array
 *					GetMyId - Gets a participants registration ID
 *				    GetRegistrationTime - Gets the point in time when a participant registered with the
 *										  message manager
+*					Subscribe - Limits the messages placed in a participants queue to the ids it consumes
+*					Conflate - Has a new reading replace the pending one from the same sender
+*					AddMessageListener - Has the message manager push messages to a callback object
+*					UsePushDelivery - Has GetMessageQueue read messages the message manager pushed to this
+*									  participant, instead of asking the message manager for them
+*					DropWhenStale - Drops messages with an id that waited too long in the outbox
+*					GetOutboxLost - Gets the number of messages the outbox lost
+*
+*			   Registrations with the message manager are leases that every call renews. A daemon thread renews
+*			   the lease for participants that go quiet (a console waiting for input, for example), so only
+*			   participants that crash or are killed without unregistering have their queues reaped.
+*
+*			   The message manager is reached over RMI unless the system property MessageManager.Transport is
+*			   set to nio, in which case requests are pipelined over one TCP connection to the message manager's
+*			   NIO port (MessageManager.NioPort, default 1100), which the message manager only listens on when
+*			   it is started with MessageManager.NioPort set. When it is set to shm, requests go through
+*			   rings in shared memory (MessageManager.ShmDir, see WireProtocol), which only works on the message
+*			   manager's machine. Participants do not change either way. When the
+*			   property is set to local, the participant calls the message manager running in its own JVM (see
+*			   SystemHost) directly: messages are passed by reference and never serialized.
+*
+*			   A federated message manager (several nodes, see MessageFederation) is given as a list of seeds,
+*			   host:port separated by commas, either in place of the IP address or in the system property
+*			   MessageManager.Seeds. A single host:port may be given the same way, for a message manager whose
+*			   registry is not on the default port. The participant registers with one of the nodes, picked at random so the
+*			   participants are spread over the nodes, and tries the others in turn if it cannot be reached. The
+*			   port of a seed is the node's RMI registry port (default 1099), or its NIO port with the nio
+*			   transport.
+*
+*			   If the message manager dies, the participant's calls look for it again (see
+*			   FailoverMessageManagerClient), so a hot standby that takes over, or another node of a federation,
+*			   serves the participant from then on under the same participant id.
+*
+*			   Messages a participant posts while the message manager cannot be reached are kept in a bounded
+*			   outbox (MessageManager.OutboxSize messages, the oldest dropped when it is full) instead of being
+*			   lost, and SendMessage returns at once. A background thread sends them, in order, once the message
+*			   manager can be reached again, retrying with a growing delay (from MINBACKOFF to MAXBACKOFF ms); while
+*			   messages wait, new ones join them. Telemetry that is no use once it is old can be dropped from the
+*			   outbox instead (see DropWhenStale). Errors reported by the message manager (a full queue) are not
+*			   retried and are still thrown. UnRegister waits up to MessageManager.FlushMillis (default 3000 ms)
+*			   for the outbox to be sent before it unregisters. GetOutboxLost then gives the number of messages
+*			   the outbox lost: those still unsent, and those dropped because the outbox was full or they were
+*			   stale.
 *
 ******************************************************************************************************************/
 package MessagePackage;
 
 import java.rmi.*;
+import java.rmi.server.*;
 import java.net.*;
 import java.util.*;
 import java.text.SimpleDateFormat;
@@ -32,6 +79,16 @@ public class MessageManagerInterface
 	private long ParticipantId = -1;				// This processes ID
 	private RMIMessageManagerInterface em = null;	// Message manager interface object
 	private String DEFAULTPORT = "1099";			// Default message manager port
+	private MessageListener Listener = null;		// Callback registered for push delivery (if any)
+	private Inbox PushInbox = null;					// Local queue of pushed messages (see UsePushDelivery)
+	private volatile long LastCall = 0;				// When this participant last called the message manager
+	private LeaseKeeper Keeper = null;				// Renews the registration lease while idle
+	private Vector<Integer> ConflatedIds = new Vector<Integer>();	// Message ids this participant conflates
+	private static volatile RMIMessageManagerInterface LocalManager = null;	// Message manager in this JVM (if any)
+	private int OutboxSize = Integer.getInteger( "MessageManager.OutboxSize", 1000 );	// Most messages held (zero for no outbox)
+	private Outbox PendingOutbox = null;			// Messages waiting for the message manager (created when needed)
+	private long FlushMillis = Long.getLong( "MessageManager.FlushMillis", 3000 );	// Longest UnRegister waits for the outbox
+	private Map<Integer, Long> StaleAfter = new java.util.concurrent.ConcurrentHashMap<Integer, Long>();	// Outbox age limits by message id
 
 	/***************************************************************************
 	* Exceptions::
@@ -130,21 +187,28 @@ public class MessageManagerInterface
 
 		if (ParticipantId == -1)
 		{
+			String Seeds = System.getProperty( "MessageManager.Seeds", "" ).trim();
+
 			try
 			{
-				em = (RMIMessageManagerInterface) Naming.lookup( "MessageManager" );
+				em = Seeds.isEmpty() ? Locate( "localhost", "MessageManager" ) : LocateSeed( Seeds );
+				em = FailoverMessageManagerClient.Wrap( em, "localhost", "MessageManager", Seeds.isEmpty() ? null : Seeds );
 
 			} // try
 
 	    	catch (Exception e)
 	    	{
-				throw new LocatingMessageManagerException( "Message manager not found on local machine at default port (1099)" );
+				throw new LocatingMessageManagerException( Seeds.isEmpty() ? "Message manager not found on local machine at default port (1099)"
+					: "Message manager not found at any of:" + Seeds + "::" + e );
 
 	    	} // catch
 
 		   	try
 		   	{
 				ParticipantId = em.Register();
+				LastCall = System.currentTimeMillis();
+				Keeper = new LeaseKeeper();
+				Keeper.start();
 
 			} // try
 
@@ -189,7 +253,10 @@ public class MessageManagerInterface
 		{
 			try
 			{
-				em = (RMIMessageManagerInterface) Naming.lookup( EMServer );
+				String Seeds = ( ServerIpAddress.indexOf( ',' ) >= 0 || ServerIpAddress.indexOf( ':' ) >= 0 ) ? ServerIpAddress : null;
+
+				em = ( Seeds != null ) ? LocateSeed( Seeds ) : Locate( ServerIpAddress, EMServer );
+				em = FailoverMessageManagerClient.Wrap( em, ServerIpAddress, EMServer, Seeds );
 
 			} // try
 
@@ -202,6 +269,9 @@ public class MessageManagerInterface
 		   	try
 		   	{
 				ParticipantId = em.Register();
+				LastCall = System.currentTimeMillis();
+				Keeper = new LeaseKeeper();
+				Keeper.start();
 
 			} // try
 
@@ -219,6 +289,132 @@ public class MessageManagerInterface
 
 	} // MessageManagerInterface
 
+	/***************************************************************************
+	* CONCRETE METHOD:: Locate
+	* Purpose: Connects to the message manager over the configured transport.
+	*
+	* Arguments: String Host - the message manager's host
+	*			 String EMServer - the message manager's RMI name
+	*
+	* Returns: RMIMessageManagerInterface - the RMI stub, an NIO or shared-memory
+	*		   client, or the message manager itself
+	*
+	* Exceptions: Exception - the message manager could not be reached
+	*
+	****************************************************************************/
+
+	static RMIMessageManagerInterface Locate( String Host, String EMServer ) throws Exception
+	{
+		if ( System.getProperty( "MessageManager.Transport", "rmi" ).equalsIgnoreCase( "local" ) )
+		{
+			if ( LocalManager == null )
+			{
+				throw new Exception( "No message manager is running in this JVM" );
+
+			} // if
+
+			return LocalManager;
+
+		} // if
+
+		if ( System.getProperty( "MessageManager.Transport", "rmi" ).equalsIgnoreCase( "nio" ) )
+		{
+			return new NioMessageManagerClient( Host, Integer.getInteger( "MessageManager.NioPort", WireProtocol.DEFAULTPORT ) );
+
+		} // if
+
+		if ( System.getProperty( "MessageManager.Transport", "rmi" ).equalsIgnoreCase( "shm" ) )
+		{
+			if ( WireProtocol.ShmDirectory() == null )
+			{
+				throw new Exception( "Shared memory is not configured (MessageManager.ShmDir)" );
+
+			} // if
+
+			return new ShmMessageManagerClient( WireProtocol.ShmDirectory() );
+
+		} // if
+
+		return (RMIMessageManagerInterface) Naming.lookup( EMServer );
+
+	} // Locate
+
+	/***************************************************************************
+	* CONCRETE METHOD:: LocateSeed
+	* Purpose: Connects to one node of a federated message manager. The nodes
+	*		   are tried in turn from a random one, so participants are spread
+	*		   over them.
+	*
+	* Arguments: String Seeds - the nodes, host:port separated by commas
+	*
+	* Returns: RMIMessageManagerInterface - as Locate
+	*
+	* Exceptions: Exception - none of the nodes could be reached
+	*
+	****************************************************************************/
+
+	static RMIMessageManagerInterface LocateSeed( String Seeds ) throws Exception
+	{
+		String[] Nodes = Seeds.split( "," );
+		int First = new Random().nextInt( Nodes.length );
+		Exception Failure = null;
+
+		for ( int i = 0; i < Nodes.length; i++ )
+		{
+			String Host = Nodes[(First + i) % Nodes.length].trim();
+			String Port = null;
+			int Colon = Host.lastIndexOf( ':' );
+
+			if ( Colon > 0 )
+			{
+				Port = Host.substring( Colon + 1 );
+				Host = Host.substring( 0, Colon );
+
+			} // if
+
+			try
+			{
+				if ( Port != null && System.getProperty( "MessageManager.Transport", "rmi" ).equalsIgnoreCase( "nio" ) )
+				{
+					return new NioMessageManagerClient( Host, Integer.parseInt( Port ) );
+
+				} // if
+
+				return Locate( Host, "//" + Host + ":" + ( Port == null ? "1099" : Port ) + "/MessageManager" );
+
+			} // try
+
+			catch (Exception e)
+			{
+				Failure = e;
+
+			} // catch
+
+		} // for
+
+		throw Failure;
+
+	} // LocateSeed
+
+	/***************************************************************************
+	* CONCRETE METHOD:: SetLocalManager
+	* Purpose: Called by a message manager to make itself available to the
+	*		   participants in the same JVM (the local transport).
+	*
+	* Arguments: RMIMessageManagerInterface - the message manager
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public static void SetLocalManager( RMIMessageManagerInterface Manager )
+	{
+		LocalManager = Manager;
+
+	} // SetLocalManager
+
 	/***************************************************************************
 	* CONCRETE METHOD:: GetMyId
 	* Purpose: This method allows participants to get their participant Id.
@@ -301,7 +497,8 @@ public class MessageManagerInterface
 		   	try
 	    	{
 				evt.SetSenderId( ParticipantId );
-				em.SendMessage( evt );
+				Post( new Message[] { evt } );
+				LastCall = System.currentTimeMillis();
 
 	    	} // try
 
@@ -319,6 +516,171 @@ public class MessageManagerInterface
 
 	} // SendMessage
 
+	/***************************************************************************
+	* CONCRETE METHOD:: SendMessages
+	* Purpose: This method sends several messages to the message manager in a
+	*		   single call. Participants that post more than one message per cycle
+	*		   use this to save a round trip per message.
+	*
+	* Arguments: Message[] - the messages, in the order they are to be delivered.
+	*
+	* Returns: None.
+	*
+	* Exceptions: ParticipantNotRegisteredException, SendMessageException
+	*
+	****************************************************************************/
+
+	public void SendMessages( Message[] evts ) throws ParticipantNotRegisteredException, SendMessageException
+	{
+		if (ParticipantId != -1)
+		{
+		   	try
+	    	{
+				for ( int i = 0; i < evts.length; i++ )
+					evts[i].SetSenderId( ParticipantId );
+
+				Post( evts );
+				LastCall = System.currentTimeMillis();
+
+	    	} // try
+
+			catch (Exception e)
+			{
+				 throw new SendMessageException( "Error sending messages" + e );
+
+			} // catch
+
+		} else {
+
+			throw new ParticipantNotRegisteredException( "Participant not registered" );
+
+		} // if
+
+	} // SendMessages
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Post
+	* Purpose: Sends messages to the message manager, or adds them to the
+	*		   outbox if messages are waiting there already or the message
+	*		   manager cannot be reached. The call does not wait for the message
+	*		   manager to be found again (see FailoverMessageManagerClient); the
+	*		   outbox's thread does that.
+	*
+	* Arguments: Message[] - the messages (one is sent with SendMessage)
+	*
+	* Returns: None.
+	*
+	* Exceptions: RemoteException - the message manager reported an error, or
+	*			  could not be reached and there is no outbox
+	*
+	****************************************************************************/
+
+	private void Post( Message[] evts ) throws RemoteException
+	{
+		Outbox out = PendingOutbox;
+
+		if ( out != null && out.Add( evts, false ) )
+		{
+			return;
+
+		} // if
+
+		RMIMessageManagerInterface Direct = em;
+
+		if ( OutboxSize > 0 && em instanceof FailoverMessageManagerClient )
+		{
+			Direct = ((FailoverMessageManagerClient) em).Current();
+
+		} // if
+
+		try
+		{
+			if ( evts.length == 1 )
+			{
+				Direct.SendMessage( evts[0] );
+
+			} else {
+
+				Direct.SendMessages( evts );
+
+			} // if
+
+		} // try
+
+		catch (RemoteException e)
+		{
+			if ( OutboxSize <= 0 || !FailoverMessageManagerClient.Lost( e ) )
+			{
+				throw e;
+
+			} // if
+
+			GetOutbox().Add( evts, true );
+
+		} // catch
+
+	} // Post
+
+	private synchronized Outbox GetOutbox()
+	{
+		if ( PendingOutbox == null )
+		{
+			PendingOutbox = new Outbox();
+			PendingOutbox.start();
+
+		} // if
+
+		return PendingOutbox;
+
+	} // GetOutbox
+
+	/***************************************************************************
+	* CONCRETE METHOD:: DropWhenStale
+	* Purpose: This method has messages with the given id dropped from the
+	*		   outbox once they have waited there longer than MaxAgeMillis, for
+	*		   readings and heartbeats that are of no use when they are late.
+	*		   Messages with other ids wait until they can be sent (or the
+	*		   outbox overflows).
+	*
+	* Arguments: int - the message id
+	*			 long - the longest a message may wait in the outbox in
+	*					milliseconds
+	*
+	* Returns: None.
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void DropWhenStale( int MsgId, long MaxAgeMillis )
+	{
+		StaleAfter.put( MsgId, MaxAgeMillis );
+
+	} // DropWhenStale
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetOutboxLost
+	* Purpose: This method returns the number of messages the outbox lost: those
+	*		   dropped when it was full or they were stale, and, once the
+	*		   participant unregistered, those it could not send in time.
+	*
+	* Arguments: None.
+	*
+	* Returns: long - the messages lost; zero if nothing had to wait in the
+	*		   outbox
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public long GetOutboxLost()
+	{
+		Outbox out = PendingOutbox;
+
+		return ( out == null ? 0 : out.Lost() );
+
+	} // GetOutboxLost
+
 	/***************************************************************************
 	* CONCRETE METHOD:: GetMessage
 	* Purpose: This method sends an message to the message manager.
@@ -333,13 +695,66 @@ public class MessageManagerInterface
 
 	public MessageQueue GetMessageQueue() throws ParticipantNotRegisteredException, GetMessageException
 	{
-		MessageQueue eq = null;
+		return GetMessageQueue( 0 );
+
+	} // GetMessageQueue
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetMessageQueue
+	* Purpose: This method gets the participant's message queue from the message
+	*		   manager. If the queue is empty, the message manager holds the
+	*		   request for up to MaxWaitMillis milliseconds and returns as soon as
+	*		   a message arrives. Participants use this instead of sleeping between
+	*		   polls so they react to messages immediately, and make no calls
+	*		   while nothing is happening.
+	*
+	* Arguments: long - the maximum time to wait for a message in milliseconds
+	*
+	* Returns: MessageQueue object (empty if no message arrived in time).
+	*
+	* Exceptions: ParticipantNotRegisteredException, GetMessageException
+	*
+	****************************************************************************/
+
+	public MessageQueue GetMessageQueue( long MaxWaitMillis ) throws ParticipantNotRegisteredException, GetMessageException
+	{
+		return new MessageQueue( ParticipantId, GetMessages( 0, MaxWaitMillis ) );
+
+	} // GetMessageQueue
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetMessages
+	* Purpose: This method takes up to MaxBatch messages out of the participant's
+	*		   queue on the message manager, waiting up to MaxWaitMillis for a
+	*		   message if the queue is empty. Only the messages are sent back by
+	*		   the message manager. If push delivery is on, the messages come from
+	*		   the local inbox instead and the message manager is not called.
+	*
+	* Arguments: int - the most messages to take (zero or less for all of them)
+	*			 long - the maximum time to wait for a message in milliseconds
+	*
+	* Returns: Message[] - the messages, oldest first (empty if none arrived).
+	*
+	* Exceptions: ParticipantNotRegisteredException, GetMessageException
+	*
+	****************************************************************************/
+
+	public Message[] GetMessages( int MaxBatch, long MaxWaitMillis ) throws ParticipantNotRegisteredException, GetMessageException
+	{
+		Message[] Messages = null;
+
+		if (PushInbox != null)
+		{
+			return PushInbox.Take( MaxBatch, MaxWaitMillis );
+
+		} // if
 
 		if (ParticipantId != -1)
 		{
 	    	try
 	    	{
-				eq = em.GetMessageQueue(ParticipantId);
+				Messages = em.DrainMessages( ParticipantId, MaxBatch, MaxWaitMillis );
+				LastCall = System.currentTimeMillis();
 
 	    	} // try
 
@@ -349,48 +764,701 @@ public class MessageManagerInterface
 
 	    	} // catch
 
+			if (Messages == null)
+			{
+				throw new GetMessageException( "Participant " + ParticipantId + " not registered with the message manager" );
+
+			} // if
+
 	    } else {
 
 			throw new ParticipantNotRegisteredException( "Participant not registered" );
 
 		} // if
 
-		return eq;
+		return Messages;
 
-	} // GetMessageQueue
+	} // GetMessages
 
 	/***************************************************************************
-	* CONCRETE METHOD:: UnRegister
-	* Purpose: This method is called when the object is no longer used. Essentially
-	* this method unregisters participants from the message manager. It is important
-	* that participants actively unregister with the message manager. Failure to do
-	* so will cause unconnected queues to fill up with messages over time. This
-	* will result in a memory leak and eventual failure of the message manager.
+	* CONCRETE METHOD:: Subscribe
+	* Purpose: This method tells the message manager that this participant
+	*		   consumes messages with the given id. Once a participant subscribes,
+	*		   the message manager only places the ids it subscribed to in its
+	*		   queue. The halt message (id 99) is always delivered. Participants
+	*		   that never subscribe receive every message.
 	*
-	* Arguments: None.
+	* Arguments: int - the message id
 	*
 	* Returns: None.
 	*
-	* Exceptions: None
+	* Exceptions: ParticipantNotRegisteredException, RegistrationException
 	*
 	****************************************************************************/
 
-	public void UnRegister() throws ParticipantNotRegisteredException, RegistrationException
+	public void Subscribe( int MsgId ) throws ParticipantNotRegisteredException, RegistrationException
+	{
+		Subscribe( MsgId, MsgId );
+
+	} // Subscribe
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Subscribe
+	* Purpose: This method subscribes this participant to a range of message
+	*		   ids (inclusive on both ends). See Subscribe( int MsgId ).
+	*
+	* Arguments: int - the low message id of the range
+	*			 int - the high message id of the range
+	*
+	* Returns: None.
+	*
+	* Exceptions: ParticipantNotRegisteredException, RegistrationException
+	*
+	****************************************************************************/
+
+	public void Subscribe( int LowMsgId, int HighMsgId ) throws ParticipantNotRegisteredException, RegistrationException
 	{
 		if (ParticipantId != -1)
 		{
 		   	try
 		   	{
-				em.UnRegister(ParticipantId);
+				em.Subscribe( ParticipantId, LowMsgId, HighMsgId );
+
+		   	} // try
+
+		   	catch (Exception e)
+		   	{
+				throw new RegistrationException( "Error subscribing" + e );
+
+		    } // catch
+
+	    } else {
+
+			throw new ParticipantNotRegisteredException( "Participant not registered" );
+
+		} // if
+
+	} // Subscribe
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Conflate
+	* Purpose: This method tells the message manager that only the newest
+	*		   message with the given id from each sender matters to this
+	*		   participant. A new message replaces the pending one from the same
+	*		   sender in the participant's queue instead of being appended, so a
+	*		   participant that falls behind only reads fresh values. Use this for
+	*		   readings, never for commands or alarms. If push delivery is on, the
+	*		   local inbox conflates the id too.
+	*
+	* Arguments: int - the message id
+	*
+	* Returns: None.
+	*
+	* Exceptions: ParticipantNotRegisteredException, RegistrationException
+	*
+	****************************************************************************/
+
+	public void Conflate( int MsgId ) throws ParticipantNotRegisteredException, RegistrationException
+	{
+		if (ParticipantId != -1)
+		{
+		   	try
+		   	{
+				em.Conflate( ParticipantId, MsgId );
 
 		   	} // try
 
 		   	catch (Exception e)
 		   	{
-				throw new RegistrationException( "Error unregistering" + e );
+				throw new RegistrationException( "Error setting conflation" + e );
 
 		    } // catch
 
+			ConflatedIds.add( MsgId );
+
+			if (PushInbox != null)
+			{
+				PushInbox.Queue.Conflate( MsgId );
+
+			} // if
+
+	    } else {
+
+			throw new ParticipantNotRegisteredException( "Participant not registered" );
+
+		} // if
+
+	} // Conflate
+
+	/***************************************************************************
+	* CONCRETE METHOD:: AddMessageListener
+	* Purpose: This method has the message manager push this participant's
+	*		   messages to a callback object as they are posted. The listener is
+	*		   exported for RMI here if it is not already a remote object. A
+	*		   participant has one listener at a time.
+	*
+	* Arguments: MessageListener - the callback object
+	*
+	* Returns: None.
+	*
+	* Exceptions: ParticipantNotRegisteredException, RegistrationException
+	*
+	****************************************************************************/
+
+	public void AddMessageListener( MessageListener ml ) throws ParticipantNotRegisteredException, RegistrationException
+	{
+		if (ParticipantId != -1)
+		{
+		   	try
+		   	{
+				try
+				{
+					UnicastRemoteObject.exportObject( ml, 0 );
+
+				} // try
+
+				catch (java.rmi.server.ExportException e)
+				{
+					// Already exported (for example a UnicastRemoteObject)
+
+				} // catch
+
+				em.AddListener( ParticipantId, ml );
+				UnexportListener();
+				Listener = ml;
+
+		   	} // try
+
+		   	catch (Exception e)
+		   	{
+				throw new RegistrationException( "Error adding message listener" + e );
+
+		    } // catch
+
+	    } else {
+
+			throw new ParticipantNotRegisteredException( "Participant not registered" );
+
+		} // if
+
+	} // AddMessageListener
+
+	/***************************************************************************
+	* CONCRETE METHOD:: RemoveMessageListener
+	* Purpose: This method stops push delivery. Messages are left in the
+	*		   participant's queue on the message manager from then on.
+	*
+	* Arguments: None.
+	*
+	* Returns: None.
+	*
+	* Exceptions: ParticipantNotRegisteredException, RegistrationException
+	*
+	****************************************************************************/
+
+	public void RemoveMessageListener() throws ParticipantNotRegisteredException, RegistrationException
+	{
+		if (ParticipantId != -1)
+		{
+		   	try
+		   	{
+				em.RemoveListener( ParticipantId );
+
+		   	} // try
+
+		   	catch (Exception e)
+		   	{
+				throw new RegistrationException( "Error removing message listener" + e );
+
+		    } // catch
+
+			UnexportListener();
+			PushInbox = null;
+
+	    } else {
+
+			throw new ParticipantNotRegisteredException( "Participant not registered" );
+
+		} // if
+
+	} // RemoveMessageListener
+
+	/***************************************************************************
+	* CONCRETE METHOD:: UsePushDelivery
+	* Purpose: This method has the message manager push this participant's
+	*		   messages to a local inbox as they are posted. From then on
+	*		   GetMessageQueue reads the inbox instead of calling the message
+	*		   manager, so participant loops are unchanged but no longer make a
+	*		   remote call to collect their messages.
+	*
+	* Arguments: None.
+	*
+	* Returns: None.
+	*
+	* Exceptions: ParticipantNotRegisteredException, RegistrationException
+	*
+	****************************************************************************/
+
+	public void UsePushDelivery() throws ParticipantNotRegisteredException, RegistrationException
+	{
+		Inbox in = new Inbox( ParticipantId );
+
+		for ( int MsgId : ConflatedIds )
+			in.Queue.Conflate( MsgId );
+
+		AddMessageListener( in );
+		PushInbox = in;
+
+	} // UsePushDelivery
+
+	/***************************************************************************
+	* CONCRETE METHOD:: UnexportListener
+	* Purpose: Stops accepting callbacks on the current listener, if any.
+	*
+	****************************************************************************/
+
+	private void UnexportListener()
+	{
+		if (Listener != null)
+		{
+			try
+			{
+				UnicastRemoteObject.unexportObject( Listener, true );
+
+			} // try
+
+			catch (Exception e)
+			{
+				// The listener was not exported by us
+
+			} // catch
+
+			Listener = null;
+
+		} // if
+
+	} // UnexportListener
+
+	/***************************************************************************
+	* INNER CLASS:: Inbox
+	* Purpose: This is the listener used by UsePushDelivery. It collects pushed
+	*		   messages in a local queue that GetMessageQueue drains.
+	*
+	****************************************************************************/
+
+	private static class Inbox implements MessageListener
+	{
+		MessageQueue Queue;		// Messages pushed by the message manager
+
+		Inbox( long id )
+		{
+			Queue = new MessageQueue( id );
+
+		} // constructor
+
+		public void MessagesReceived( Message[] Messages )
+		{
+			for ( int i = 0; i < Messages.length; i++ )
+				Queue.AddMessage( Messages[i] );
+
+		} // MessagesReceived
+
+		// Waits up to MaxWaitMillis for a message and takes up to MaxBatch messages out of the inbox.
+
+		Message[] Take( int MaxBatch, long MaxWaitMillis )
+		{
+			Queue.WaitForMessage( MaxWaitMillis );
+
+			return Queue.Drain( MaxBatch );
+
+		} // Take
+
+	} // Inbox
+
+	/***************************************************************************
+	* INNER CLASS:: Outbox
+	* Purpose: This daemon thread holds the messages that could not be posted
+	*		   and sends them, oldest first, when the message manager can be
+	*		   reached again. The messages stay in the outbox until the message
+	*		   manager took them, so new messages join them at the back in the
+	*		   meantime and the order is kept. Stale messages (see
+	*		   DropWhenStale) and expired ones (see Message.SetTimeToLive) are
+	*		   dropped before each attempt.
+	*
+	****************************************************************************/
+
+	private class Outbox extends Thread
+	{
+		static final int MAXBATCH = 256;			// Most messages sent in one call
+		static final long MINBACKOFF = 50;			// First delay before sending again (ms)
+		static final long MAXBACKOFF = 2000;		// Longest delay before sending again (ms)
+
+		ArrayDeque<Message> Messages = new ArrayDeque<Message>();	// Messages waiting, oldest first
+		ArrayDeque<Long> Times = new ArrayDeque<Long>();			// When each was added (ms)
+		long Dropped = 0;							// Messages dropped because the outbox was full
+		long Expired = 0;							// Stale messages dropped
+		long Unsent = 0;							// Messages still waiting when the outbox was flushed
+
+		Outbox()
+		{
+			super( "Outbox-" + ParticipantId );
+			setDaemon( true );
+
+		} // constructor
+
+		// Adds messages to the outbox. Unless Always is set, only does so if
+		// messages are waiting already. Returns true if they were added.
+
+		synchronized boolean Add( Message[] evts, boolean Always )
+		{
+			if ( !Always && Messages.isEmpty() )
+			{
+				return false;
+
+			} // if
+
+			long now = System.currentTimeMillis();
+
+			for ( int i = 0; i < evts.length; i++ )
+			{
+				if ( Messages.size() >= OutboxSize )
+				{
+					Messages.removeFirst();
+					Times.removeFirst();
+					Dropped++;
+
+				} // if
+
+				Messages.addLast( evts[i] );
+				Times.addLast( now );
+
+			} // for
+
+			notifyAll();
+
+			return true;
+
+		} // Add
+
+		// Waits for messages and returns the oldest ones (without taking them
+		// out), after dropping the stale ones.
+
+		synchronized Message[] Peek() throws InterruptedException
+		{
+			while ( Messages.isEmpty() )
+			{
+				wait();
+
+			} // while
+
+			long now = System.currentTimeMillis();
+			Iterator<Message> Queued = Messages.iterator();
+			Iterator<Long> Added = Times.iterator();
+
+			while ( Queued.hasNext() )
+			{
+				Message Next = Queued.next();
+				Long MaxAge = StaleAfter.get( Next.GetMessageId() );
+
+				if ( now - Added.next() > ( MaxAge == null ? Long.MAX_VALUE : MaxAge ) || Next.IsExpired( now ) )
+				{
+					Queued.remove();
+					Added.remove();
+					Expired++;
+
+				} // if
+
+			} // while
+
+			if ( Messages.isEmpty() )
+			{
+				notifyAll();
+
+			} // if
+
+			Message[] Batch = new Message[Math.min( Messages.size(), MAXBATCH )];
+			Iterator<Message> m = Messages.iterator();
+
+			for ( int i = 0; i < Batch.length; i++ )
+			{
+				Batch[i] = m.next();
+
+			} // for
+
+			return Batch;
+
+		} // Peek
+
+		// Takes messages that were sent out of the outbox. Any of them the
+		// outbox dropped while they were being sent are gone already.
+
+		synchronized void Remove( Message[] Batch )
+		{
+			for ( int i = 0; i < Batch.length; i++ )
+			{
+				if ( Messages.peekFirst() == Batch[i] )
+				{
+					Messages.removeFirst();
+					Times.removeFirst();
+
+				} // if
+
+			} // for
+
+			notifyAll();
+
+		} // Remove
+
+		// Waits up to MaxWaitMillis for the messages waiting to be sent, then
+		// empties the outbox. Returns the number of messages lost: those not
+		// sent yet, and those dropped when it was full or stale.
+
+		synchronized long Flush( long MaxWaitMillis )
+		{
+			long Deadline = System.currentTimeMillis() + MaxWaitMillis;
+			long Left;
+
+			try
+			{
+				while ( !Messages.isEmpty() && ( Left = Deadline - System.currentTimeMillis() ) > 0 )
+				{
+					wait( Left );
+
+				} // while
+
+			} // try
+
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+
+			} // catch
+
+			Unsent += Messages.size();
+			Messages.clear();
+			Times.clear();
+
+			return Lost();
+
+		} // Flush
+
+		// Returns the number of messages lost: dropped when the outbox was
+		// full or they were stale, and not sent before it was flushed.
+
+		synchronized long Lost()
+		{
+			return Dropped + Expired + Unsent;
+
+		} // Lost
+
+		public void run()
+		{
+			long Backoff = MINBACKOFF;
+			Message[] Batch;
+
+			while ( !isInterrupted() )
+			{
+				try
+				{
+					Batch = Peek();
+
+					if ( Batch.length == 0 )
+					{
+						continue;
+
+					} // if
+
+					try
+					{
+						em.SendMessages( Batch );
+						Remove( Batch );
+						LastCall = System.currentTimeMillis();
+						Backoff = MINBACKOFF;
+
+					} // try
+
+					catch (RemoteException e)
+					{
+						if ( !FailoverMessageManagerClient.Lost( e ) )
+						{
+							// The message manager took them, but a full queue refused
+							// some. Sending them again would not help.
+
+							Remove( Batch );
+							continue;
+
+						} // if
+
+						Thread.sleep( Backoff );
+						Backoff = Math.min( Backoff * 2, MAXBACKOFF );
+
+					} // catch
+
+				} // try
+
+				catch (InterruptedException e)
+				{
+					return;
+
+				} // catch
+
+			} // while
+
+		} // run
+
+	} // Outbox
+
+	/***************************************************************************
+	* INNER CLASS:: LeaseKeeper
+	* Purpose: This daemon thread renews the participant's registration lease
+	*		   when the participant has not called the message manager for a
+	*		   third of the lease time. Busy participants renew their lease with
+	*		   every call, so this thread makes no calls for them. It stops when
+	*		   the participant unregisters, when the message manager does not use
+	*		   leases, or when the participant's lease has already expired.
+	*
+	****************************************************************************/
+
+	private class LeaseKeeper extends Thread
+	{
+		LeaseKeeper()
+		{
+			super( "LeaseKeeper-" + ParticipantId );
+			setDaemon( true );
+
+		} // constructor
+
+		public void run()
+		{
+			long Lease = -1;		// Lease time reported by the message manager (-1 until known)
+			long Idle;				// Time since this participant last called the message manager
+
+			while ( !isInterrupted() )
+			{
+				Idle = System.currentTimeMillis() - LastCall;
+
+				if ( Lease < 0 || Idle >= Lease / 3 )
+				{
+					try
+					{
+						Lease = em.RenewLease( ParticipantId );
+						LastCall = System.currentTimeMillis();
+						Idle = 0;
+
+						if ( Lease <= 0 )
+						{
+							return;
+
+						} // if
+
+					} // try
+
+					catch (Exception e)
+					{
+						// The message manager could not be reached. The participant's
+						// own calls will report this; try again later.
+
+						Idle = 0;
+
+					} // catch
+
+				} // if
+
+				try
+				{
+					Thread.sleep( Math.max( ( Lease > 0 ? Lease / 3 : 5000 ) - Idle, 1 ) );
+
+				} // try
+
+				catch (InterruptedException e)
+				{
+					return;
+
+				} // catch
+
+			} // while
+
+		} // run
+
+	} // LeaseKeeper
+
+	/***************************************************************************
+	* CONCRETE METHOD:: UnRegister
+	* Purpose: This method is called when the object is no longer used. Essentially
+	* this method unregisters participants from the message manager. It is important
+	* that participants actively unregister with the message manager. Failure to do
+	* so will leave unconnected queues filling up with messages until the
+	* participant's lease expires and the message manager reaps them. Messages
+	* waiting in the outbox are given up to FlushMillis to be sent first; those
+	* it lost are counted by GetOutboxLost. Once unregistered, the participant
+	* can no longer make calls.
+	*
+	* Arguments: None.
+	*
+	* Returns: None.
+	*
+	* Exceptions: RegistrationException - the participant could not be
+	*			  unregistered (its message gives the messages the outbox lost)
+	*
+	****************************************************************************/
+
+	public void UnRegister() throws ParticipantNotRegisteredException, RegistrationException
+	{
+		if (ParticipantId != -1)
+		{
+			long Lost = 0;
+
+			if (PendingOutbox != null)
+			{
+				Lost = PendingOutbox.Flush( FlushMillis );
+
+			} // if
+
+		   	try
+		   	{
+				em.UnRegister(ParticipantId);
+				ParticipantId = -1;
+
+		   	} // try
+
+		   	catch (Exception e)
+		   	{
+				throw new RegistrationException( "Error unregistering" + ( Lost > 0 ? " (" + Lost + " messages lost from the outbox) " : "" ) + e );
+
+		    } // catch
+
+			finally
+			{
+				UnexportListener();
+				PushInbox = null;
+
+				if (Keeper != null)
+				{
+					Keeper.interrupt();
+					Keeper = null;
+
+				} // if
+
+				if (PendingOutbox != null)
+				{
+					PendingOutbox.interrupt();
+
+				} // if
+
+				if (em instanceof FailoverMessageManagerClient)
+				{
+					((FailoverMessageManagerClient) em).Close();
+
+				} // if
+
+				if (em instanceof PipelinedMessageManagerClient)
+				{
+					((PipelinedMessageManagerClient) em).Close();
+
+				} // if
+
+			} // finally
+
 	    } else {
 
 			throw new ParticipantNotRegisteredException( "Participant not registered" );
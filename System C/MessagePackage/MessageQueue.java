@@ -10,24 +10,70 @@
 *			   has an message queue assigned to them. As events are sent by registered participants to the MessageManger
 *			   they are posted in each queue. Queues are removed when participants unregister.
 *
+*			   A queue may be given a capacity. When a message arrives at a full queue the overflow policy
+*			   decides what happens: DROP_OLDEST discards the message at the front of the queue to make room,
+*			   DROP_NEWEST discards the arriving message, and REJECT refuses the arriving message so that the
+*			   sender can be told. Each queue counts the messages it dropped and rejected.
+*
+*			   Message ids can be marked as conflated. These are readings where only the newest value matters.
+*			   A conflated message replaces the pending message with the same sender and message id, in that
+*			   message's place in the queue, instead of being appended. A slow consumer then finds at most one
+*			   reading per sensor waiting. Other message ids are always appended.
+*
+*			   Critical messages (see Message.GetPriority) are kept in a lane of their own and are always taken
+*			   off the queue ahead of the normal ones, so an alarm does not wait behind a backlog of readings
+*			   and heartbeats. Each lane keeps its messages in the order they arrived. When a critical message
+*			   arrives at a full queue, the oldest normal message is dropped to make room for it, whatever the
+*			   overflow policy; the policy only applies to a critical message if the queue is full of critical
+*			   messages. A normal message never displaces a critical one: if a normal message arrives when the
+*			   queue is full of critical messages, it is the one dropped.
+*
+*			   Messages with a time to live (see Message.SetTimeToLive) are dropped once it has passed, and
+*			   counted as expired. Expired messages are dropped whenever messages are drained off the queue, so a
+*			   consumer never gets one, and the message manager also calls Expire every so often so that the
+*			   queue of a consumer that is gone does not fill up with stale readings. The queue keeps the
+*			   earliest time one of its messages can expire, so it only looks for expired messages once there
+*			   may be some.
+*
+*			   A queue is sent over the wire as its id, a message count and the messages in the MessageCodec
+*			   encoding. The capacity, overflow policy, conflated ids and counters are kept by the message
+*			   manager and are not sent.
+*
 * Parameters:
 *			   MessageList - This is the list of message objects
+*			   CriticalList - the critical messages, taken off the queue before those in MessageList
 *			   id - this is the participant's registration id
 *			   ListSize - this variable indicates how many events are in the message queue.
+*			   Capacity - the most messages the queue holds (zero or less for no limit)
+*			   Policy - what to do with a message that arrives when the queue is full
+*			   ConflatedIds - the message ids where a newer message replaces the pending one
+*			   NextExpiry - no message in the queue expires before this time
 *
 * Internal Methods: None
 *
 ******************************************************************************************************************/
 package MessagePackage;
 
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
 
-public class MessageQueue implements Serializable
+public class MessageQueue implements Externalizable
 {
 	private Vector<Message> MessageList;// This is the list of events associated with a participant
+	private Vector<Message> CriticalList = new Vector<Message> (4, 4);	// Critical messages, ahead of MessageList
 	private long QueueId;				// This is the participants id
 	private	int ListSize;				// This is the size of the list
+	private int Capacity = 0;			// The most messages the queue holds (zero or less for no limit)
+	private OverflowPolicy Policy = OverflowPolicy.DROP_OLDEST;	// What to do when the queue is full
+	private long Dropped = 0;			// Messages discarded because the queue was full
+	private long Rejected = 0;			// Messages refused because the queue was full
+	private HashSet<Integer> ConflatedIds = null;	// Message ids that are conflated (null if none)
+	private long Conflated = 0;			// Pending messages replaced by newer ones
+	private long Expired = 0;			// Messages dropped because their time to live passed
+	private long NextExpiry = Long.MAX_VALUE;	// No message in the queue expires before this (ms)
+	private transient Runnable ArrivalListener = null;	// Called when messages arrive (see SetArrivalListener)
+
+	public enum OverflowPolicy { DROP_OLDEST, DROP_NEWEST, REJECT }
 
 	public MessageQueue()
 	{
@@ -38,6 +84,39 @@ public class MessageQueue implements Serializable
 
 	} // constructor
 
+	public MessageQueue( long id, int MaxMessages, OverflowPolicy WhenFull )
+	{
+		MessageList = new Vector<Message> (15, 1);
+		QueueId = id;
+		ListSize = 0;
+		Capacity = MaxMessages;
+		Policy = WhenFull;
+
+	} // constructor
+
+	public MessageQueue( long id )
+	{
+		MessageList = new Vector<Message> (15, 1);
+		QueueId = id;
+		ListSize = 0;
+
+	} // constructor
+
+	public MessageQueue( long id, Message[] Messages )
+	{
+		MessageList = new Vector<Message> (Math.max(Messages.length, 15), 1);
+
+		for ( int i = 0; i < Messages.length; i++ )
+		{
+			Append( Messages[i] );
+
+		} // for
+
+		QueueId = id;
+		ListSize = Messages.length;
+
+	} // constructor
+
 	/***************************************************************************
 	* CONCRETE METHOD:: GetId
 	* Purpose: This method returns the message queue id (which is the participants id).
@@ -68,37 +147,561 @@ public class MessageQueue implements Serializable
 	*
 	****************************************************************************/
 
-	public int GetSize()
+	public synchronized int GetSize()
 	{
-		return MessageList.size();
+		return CriticalList.size() + MessageList.size();
 
 	} // AddMessage
 
+	/***************************************************************************
+	* CONCRETE METHOD:: GetCapacity
+	* Purpose: This method returns the most messages the queue holds.
+	*
+	* Arguments: None
+	*
+	* Returns: int - zero or less if the queue has no limit
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public int GetCapacity()
+	{
+		return Capacity;
+
+	} // GetCapacity
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetPolicy
+	* Purpose: This method returns the queue's overflow policy.
+	*
+	* Arguments: None
+	*
+	* Returns: OverflowPolicy
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public OverflowPolicy GetPolicy()
+	{
+		return Policy;
+
+	} // GetPolicy
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetDroppedCount
+	* Purpose: This method returns how many messages the queue has discarded
+	*		   because it was full (DROP_OLDEST and DROP_NEWEST policies).
+	*
+	* Arguments: None
+	*
+	* Returns: long
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized long GetDroppedCount()
+	{
+		return Dropped;
+
+	} // GetDroppedCount
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetRejectedCount
+	* Purpose: This method returns how many messages the queue has refused
+	*		   because it was full (REJECT policy).
+	*
+	* Arguments: None
+	*
+	* Returns: long
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized long GetRejectedCount()
+	{
+		return Rejected;
+
+	} // GetRejectedCount
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetConflatedCount
+	* Purpose: This method returns how many pending messages were replaced by
+	*		   newer messages with the same sender and conflated message id.
+	*
+	* Arguments: None
+	*
+	* Returns: long
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized long GetConflatedCount()
+	{
+		return Conflated;
+
+	} // GetConflatedCount
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetExpiredCount
+	* Purpose: This method returns how many messages were dropped because their
+	*		   time to live had passed.
+	*
+	* Arguments: None
+	*
+	* Returns: long
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized long GetExpiredCount()
+	{
+		return Expired;
+
+	} // GetExpiredCount
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Conflate
+	* Purpose: This method marks a message id as conflated. From then on a new
+	*		   message with this id replaces a pending message from the same
+	*		   sender instead of being appended to the list.
+	*
+	* Arguments: int - the message id
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized void Conflate( int MsgId )
+	{
+		if ( ConflatedIds == null )
+		{
+			ConflatedIds = new HashSet<Integer>();
+
+		} // if
+
+		ConflatedIds.add( MsgId );
+
+	} // Conflate
+
+	/***************************************************************************
+	* CONCRETE METHOD:: GetConflatedIds
+	* Purpose: This method returns the message ids marked as conflated.
+	*
+	* Arguments: None
+	*
+	* Returns: int[] - the message ids (empty if none)
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized int[] GetConflatedIds()
+	{
+		if ( ConflatedIds == null )
+		{
+			return new int[0];
+
+		} // if
+
+		int[] Ids = new int[ConflatedIds.size()];
+		int i = 0;
+
+		for ( int MsgId : ConflatedIds )
+		{
+			Ids[i++] = MsgId;
+
+		} // for
+
+		return Ids;
+
+	} // GetConflatedIds
+
+	/***************************************************************************
+	* CONCRETE METHOD:: SetArrivalListener
+	* Purpose: This method sets a callback that is run whenever messages are
+	*		   added to the queue, in addition to waking threads blocked in
+	*		   WaitForMessage. It lets a caller wait for messages without a
+	*		   thread of its own. The callback runs while the queue is locked, so
+	*		   it must be short and must not call back into the queue.
+	*
+	* Arguments: Runnable - the callback (null for none)
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized void SetArrivalListener( Runnable Listener )
+	{
+		ArrivalListener = Listener;
+
+	} // SetArrivalListener
+
 	/***************************************************************************
 	* CONCRETE METHOD:: AddMessage
 	* Purpose: This method adds an message to the list arriving messages are
-	*		   appended to the end of the list.
+	*		   appended to the end of the list. If the queue is full, the
+	*		   overflow policy decides which message is lost.
 	*
 	* Arguments: Message from a participant
 	*
-	* Returns: None
+	* Returns: boolean - false if the queue was full and a message was dropped
+	*		   or rejected
 	*
 	* Exceptions: None
 	*
 	****************************************************************************/
 
-	public void AddMessage( Message m )
+	public synchronized boolean AddMessage( Message m )
 	{
-		MessageList.add( m );
+		if ( Replace( m ) )
+		{
+			Arrived();
+			return true;
+
+		} // if
+
+		boolean Room = MakeRoom( m );
+
+		if ( Room || GetSize() < Capacity )
+		{
+			Append( m );
+			Arrived();
+
+		} // if
+
+		return Room;
 
 	} // AddMessage
 
+	/***************************************************************************
+	* CONCRETE METHOD:: AddMessages
+	* Purpose: This method appends several messages to the end of the list in
+	*		   one step, in the order given. If the queue fills up, the overflow
+	*		   policy is applied to each message that does not fit.
+	*
+	* Arguments: List of messages from a participant
+	*
+	* Returns: int - the number of messages dropped or rejected
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized int AddMessages( List<Message> Messages )
+	{
+		int Lost = 0;
+
+		for ( Message m : Messages )
+		{
+			if ( Replace( m ) )
+			{
+				continue;
+
+			} // if
+
+			boolean Room = MakeRoom( m );
+
+			if ( Room || GetSize() < Capacity )
+			{
+				Append( m );
+
+			} // if
+
+			if ( !Room )
+			{
+				Lost++;
+
+			} // if
+
+		} // for
+
+		Arrived();
+
+		return Lost;
+
+	} // AddMessages
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Arrived
+	* Purpose: This method wakes threads waiting for messages and runs the
+	*		   arrival listener, if any. The caller must hold the queue's lock.
+	*
+	* Arguments: None
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private void Arrived()
+	{
+		notifyAll();
+
+		if ( ArrivalListener != null )
+		{
+			ArrivalListener.run();
+
+		} // if
+
+	} // Arrived
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Append
+	* Purpose: This method appends a message to its lane and notes when it
+	*		   expires. The caller must hold the queue's lock.
+	*
+	* Arguments: Message
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private void Append( Message m )
+	{
+		Lane( m ).add( m );
+		NextExpiry = Math.min( NextExpiry, m.ExpiresAt() );
+
+	} // Append
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Expire
+	* Purpose: This method drops the messages whose time to live has passed. It
+	*		   returns at once if no message can have expired yet.
+	*
+	* Arguments: long - the time now (ms since the epoch)
+	*
+	* Returns: int - the number of messages dropped
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized int Expire( long Now )
+	{
+		if ( Now < NextExpiry )
+		{
+			return 0;
+
+		} // if
+
+		NextExpiry = Long.MAX_VALUE;
+
+		int Count = Expire( CriticalList, Now ) + Expire( MessageList, Now );
+
+		Expired += Count;
+
+		return Count;
+
+	} // Expire
+
+	// Drops the expired messages of one lane and notes when the next one expires.
+
+	private int Expire( Vector<Message> List, final long Now )
+	{
+		int Before = List.size();
+
+		List.removeIf( m -> m.IsExpired( Now ) );
+
+		for ( Message m : List )
+		{
+			NextExpiry = Math.min( NextExpiry, m.ExpiresAt() );
+
+		} // for
+
+		return Before - List.size();
+
+	} // Expire
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Lane
+	* Purpose: This method returns the list a message belongs in: CriticalList
+	*		   for critical messages, MessageList for the others.
+	*
+	* Arguments: Message
+	*
+	* Returns: Vector<Message>
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private Vector<Message> Lane( Message m )
+	{
+		return ( m.GetPriority() == Message.Priority.CRITICAL ? CriticalList : MessageList );
+
+	} // Lane
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Replace
+	* Purpose: If the message id is conflated, this method looks for a pending
+	*		   message with the same sender and message id and puts the new
+	*		   message in its place. The list is searched from the newest end,
+	*		   and a conflated queue holds at most one message per sender and
+	*		   id, so the search is short. The caller must hold the queue's lock.
+	*
+	* Arguments: Message - the arriving message
+	*
+	* Returns: boolean - true if a pending message was replaced
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private boolean Replace( Message m )
+	{
+		if ( ConflatedIds == null || !ConflatedIds.contains( m.GetMessageId() ) )
+		{
+			return false;
+
+		} // if
+
+		Vector<Message> List = Lane( m );
+
+		for ( int i = List.size() - 1; i >= 0; i-- )
+		{
+			Message pending = List.get( i );
+
+			if ( pending.GetMessageId() == m.GetMessageId() && pending.GetSenderId() == m.GetSenderId() )
+			{
+				List.set( i, m );
+				NextExpiry = Math.min( NextExpiry, m.ExpiresAt() );
+				Conflated++;
+				return true;
+
+			} // if
+
+		} // for
+
+		return false;
+
+	} // Replace
+
+	/***************************************************************************
+	* CONCRETE METHOD:: MakeRoom
+	* Purpose: This method checks whether there is room for one more message. If
+	*		   the queue is full and the arriving message is critical, the oldest
+	*		   normal message is dropped to make room. Otherwise it applies the
+	*		   overflow policy: DROP_OLDEST removes the oldest message in the
+	*		   arriving message's lane, or drops the arriving message if that
+	*		   lane is empty (a normal message never displaces a critical one),
+	*		   DROP_NEWEST and REJECT count the arriving message as dropped or
+	*		   rejected. The caller must hold the queue's lock.
+	*
+	* Arguments: Message - the arriving message
+	*
+	* Returns: boolean - true if the message can be added without the overflow
+	*		   policy. The message is only added if the policy made room for it.
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private boolean MakeRoom( Message m )
+	{
+		if ( Capacity <= 0 || GetSize() < Capacity )
+		{
+			return true;
+
+		} // if
+
+		if ( m.GetPriority() == Message.Priority.CRITICAL && MessageList.size() > 0 )
+		{
+			MessageList.removeElementAt(0);
+			Dropped++;
+			return true;
+
+		} // if
+
+		switch ( Policy )
+		{
+			case DROP_OLDEST:
+				if ( Lane( m ).size() > 0 )
+				{
+					Lane( m ).removeElementAt(0);
+
+				} // if
+
+				Dropped++;
+				break;
+
+			case DROP_NEWEST:
+				Dropped++;
+				break;
+
+			case REJECT:
+				Rejected++;
+				break;
+
+		} // switch
+
+		return false;
+
+	} // MakeRoom
+
+	/***************************************************************************
+	* CONCRETE METHOD:: WaitForMessage
+	* Purpose: This method blocks the caller until there is at least one message
+	*		   in the queue or MaxWaitMillis milliseconds have passed. AddMessage
+	*		   wakes any waiting threads.
+	*
+	* Arguments: long - the maximum time to wait in milliseconds
+	*
+	* Returns: boolean - true if the queue holds at least one message
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized boolean WaitForMessage( long MaxWaitMillis )
+	{
+		long Deadline = System.currentTimeMillis() + MaxWaitMillis;
+		long Remaining = MaxWaitMillis;
+
+		while ( GetSize() == 0 && Remaining > 0 )
+		{
+			try
+			{
+				wait( Remaining );
+
+			} // try
+
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				break;
+
+			} // catch
+
+			Remaining = Deadline - System.currentTimeMillis();
+
+		} // while
+
+		return ( GetSize() > 0 );
+
+	} // WaitForMessage
+
 	/***************************************************************************
 	* CONCRETE METHOD:: GetMessage
 	* Purpose: This method gets the message off of the front of the list. This is
 	*		   the oldest message in the list (arriving messages are appended to the
-	*		   list, hence the newest message is at the end of the list). This
-	*		   method removes messages from the list.
+	*		   list, hence the newest message is at the end of the list), or the
+	*		   oldest critical message if there is one. This method removes
+	*		   messages from the list. It does not drop expired messages, so a
+	*		   caller that first asks GetSize gets that many messages; queues
+	*		   handed to participants were drained, and so expired, just before.
 	*
 	* Arguments: None
 	*
@@ -108,12 +711,17 @@ public class MessageQueue implements Serializable
 	*
 	****************************************************************************/
 
-	public Message GetMessage()
+	public synchronized Message GetMessage()
 	{
 		Message m = null;
 
-		if (MessageList.size() > 0)
+		if (CriticalList.size() > 0)
 		{
+			m = CriticalList.get(0);
+			CriticalList.removeElementAt(0);
+
+		} else if (MessageList.size() > 0) {
+
 			m = MessageList.get(0);
 			MessageList.removeElementAt(0);
 
@@ -123,6 +731,115 @@ public class MessageQueue implements Serializable
 
 	} // GetMessage
 
+	/***************************************************************************
+	* CONCRETE METHOD:: Drain
+	* Purpose: This method atomically takes messages off of the front of the
+	*		   list and returns them, the critical messages first and each lane
+	*		   oldest first. Expired messages are dropped first. If MaxBatch is
+	*		   zero or less, or there are no more than MaxBatch normal messages
+	*		   to take, the whole list is swapped out for an empty one instead of
+	*		   being copied and cleared. A standby message manager repeats a
+	*		   drain with the time the primary made it, so the same messages
+	*		   expire.
+	*
+	* Arguments: int - the most messages to take (zero or less for all of them)
+	*			 long - the time now (ms since the epoch; the clock if not given)
+	*
+	* Returns: Message[] - the messages taken off the list (may be empty)
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized Message[] Drain( int MaxBatch )
+	{
+		return Drain( MaxBatch, System.currentTimeMillis() );
+
+	} // Drain
+
+	public synchronized Message[] Drain( int MaxBatch, long Now )
+	{
+		Expire( Now );
+
+		Message[] Messages;
+		int Critical = CriticalList.size();
+		int n = MessageList.size();
+
+		if ( Critical == 0 && ( MaxBatch <= 0 || n <= MaxBatch ) )
+		{
+			Messages = MessageList.toArray( new Message[n] );
+			MessageList = new Vector<Message> (15, 1);
+
+		} else {
+
+			if ( MaxBatch > 0 )
+			{
+				Critical = Math.min( Critical, MaxBatch );
+				n = Math.min( n, MaxBatch - Critical );
+
+			} // if
+
+			Messages = new Message[Critical + n];
+			List<Message> front = CriticalList.subList( 0, Critical );
+			front.toArray( Messages );
+			front.clear();
+
+			front = MessageList.subList( 0, n );
+			System.arraycopy( front.toArray(), 0, Messages, Critical, n );
+			front.clear();
+
+		} // if
+
+		if ( GetSize() == 0 )
+		{
+			NextExpiry = Long.MAX_VALUE;
+
+		} // if
+
+		return Messages;
+
+	} // Drain
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Requeue
+	* Purpose: This method puts messages back on the front of the list, ahead of
+	*		   any that arrived since they were drained. It is used when drained
+	*		   messages could not be delivered. The messages were already admitted
+	*		   once, so they are put back even if this takes the queue over its
+	*		   capacity.
+	*
+	* Arguments: Message[] - the messages to put back, oldest first
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public synchronized void Requeue( Message[] Messages )
+	{
+		int Critical = 0, n = 0;
+
+		for ( int i = 0; i < Messages.length; i++ )
+		{
+			if ( Lane( Messages[i] ) == CriticalList )
+			{
+				CriticalList.add( Critical++, Messages[i] );
+				NextExpiry = Math.min( NextExpiry, Messages[i].ExpiresAt() );
+
+			} else {
+
+				MessageList.add( n++, Messages[i] );
+				NextExpiry = Math.min( NextExpiry, Messages[i].ExpiresAt() );
+
+			} // if
+
+		} // for
+
+		Arrived();
+
+	} // Requeue
+
 	/***************************************************************************
 	* CONCRETE METHOD:: ClearMessageQueue
 	* Purpose: This method will clears all the messages the message queue.
@@ -135,9 +852,11 @@ public class MessageQueue implements Serializable
 	*
 	****************************************************************************/
 
-	public void ClearMessageQueue()
+	public synchronized void ClearMessageQueue()
 	{
 		MessageList.removeAllElements();
+		CriticalList.removeAllElements();
+		NextExpiry = Long.MAX_VALUE;
 
 	} // ClearMessageQueue
 
@@ -157,14 +876,97 @@ public class MessageQueue implements Serializable
 	****************************************************************************/
    	@SuppressWarnings("unchecked")
 
-	public MessageQueue GetCopy()
+	public synchronized MessageQueue GetCopy()
 	{
 		MessageQueue mq = new MessageQueue();
 		mq.QueueId = QueueId;
+		mq.Capacity = Capacity;
+		mq.Policy = Policy;
+		mq.NextExpiry = NextExpiry;
+
+		if ( ConflatedIds != null )
+		{
+			mq.ConflatedIds = new HashSet<Integer>( ConflatedIds );
+
+		} // if
 		mq.MessageList = (Vector<Message>) MessageList.clone();
+		mq.CriticalList = (Vector<Message>) CriticalList.clone();
 
 		return mq ;
 
 	} // GetCopy
 
+	/***************************************************************************
+	* CONCRETE METHOD:: writeExternal
+	* Purpose: This method writes the queue id and messages for serialization,
+	*		   the critical messages first. Each message's cached encoding is
+	*		   written as is, so a message that is in several queues is only
+	*		   encoded once.
+	*
+	* Arguments: ObjectOutput
+	*
+	* Returns: None
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	public synchronized void writeExternal( ObjectOutput out ) throws IOException
+	{
+		MessageCodec.WriteVarLong( out, QueueId );
+		MessageCodec.WriteVarLong( out, GetSize() );
+
+		for ( Message m : CriticalList )
+		{
+			out.write( m.GetEncoding() );
+
+		} // for
+
+		for ( Message m : MessageList )
+		{
+			out.write( m.GetEncoding() );
+
+		} // for
+
+	} // writeExternal
+
+	/***************************************************************************
+	* CONCRETE METHOD:: readExternal
+	* Purpose: This method reads a queue written by writeExternal.
+	*
+	* Arguments: ObjectInput
+	*
+	* Returns: None
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	public synchronized void readExternal( ObjectInput in ) throws IOException
+	{
+		QueueId = MessageCodec.ReadVarLong( in );
+
+		long n = MessageCodec.ReadVarLong( in );
+
+		if ( n < 0 || n > Integer.MAX_VALUE )
+		{
+			throw new StreamCorruptedException( "Bad message count " + n );
+
+		} // if
+
+		MessageList = new Vector<Message> ( (int) Math.max( Math.min( n, 1024 ), 15 ), 1 );
+		CriticalList = new Vector<Message> (4, 4);
+
+		for ( long i = 0; i < n; i++ )
+		{
+			Message m = MessageCodec.ReadMessage( in );
+
+			Append( m );
+
+		} // for
+
+		ListSize = GetSize();
+
+	} // readExternal
+
 } // MessageQueue class
\ No newline at end of file
@@ -0,0 +1,128 @@
+/******************************************************************************************************************
+* File:NioMessageManagerClient.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class is the client side of the NIO transport. Request frames (see WireProtocol) are written to a
+*			   single TCP connection to the message manager's NIO port, and a reader thread hands each response to
+*			   PipelinedMessageManagerClient, which matches it to the request it answers.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+package MessagePackage;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+public class NioMessageManagerClient extends PipelinedMessageManagerClient
+{
+	private SocketChannel Channel;			// Connection to the message manager
+
+	public NioMessageManagerClient( String Host, int Port ) throws IOException
+	{
+		Channel = SocketChannel.open( new InetSocketAddress( Host, Port ) );
+		Channel.socket().setTcpNoDelay( true );
+
+		Thread reader = new Thread( new Runnable() { public void run() { ReadResponses(); } }, "NioMessageManagerClient" );
+		reader.setDaemon( true );
+		reader.start();
+
+	} // constructor
+
+	protected void Write( ByteBuffer Frame ) throws IOException
+	{
+		while ( Frame.hasRemaining() )
+		{
+			Channel.write( Frame );
+
+		} // while
+
+	} // Write
+
+	public void Close()
+	{
+		try
+		{
+			Channel.close();
+
+		} // try
+
+		catch (IOException e)
+		{
+			// Closing anyway
+
+		} // catch
+
+	} // Close
+
+	/***************************************************************************
+	* CONCRETE METHOD:: ReadResponses
+	* Purpose: Runs on the reader thread. Reads response frames and completes
+	*		   the request each one answers until the connection fails.
+	*
+	* Arguments: None
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private void ReadResponses()
+	{
+		ByteBuffer header = ByteBuffer.allocate( 4 );
+
+		try
+		{
+			while ( true )
+			{
+				header.clear();
+				ReadFully( header );
+
+				int len = header.getInt( 0 );
+
+				if ( len < 9 || len > WireProtocol.MAXFRAME )
+				{
+					throw new StreamCorruptedException( "Bad frame length " + len );
+
+				} // if
+
+				ByteBuffer body = ByteBuffer.allocate( len );
+				ReadFully( body );
+				body.flip();
+
+				Complete( body );
+
+			} // while
+
+		} // try
+
+		catch (IOException e)
+		{
+			Fail( e );
+
+		} // catch
+
+	} // ReadResponses
+
+	private void ReadFully( ByteBuffer b ) throws IOException
+	{
+		while ( b.hasRemaining() )
+		{
+			if ( Channel.read( b ) < 0 )
+			{
+				throw new EOFException( "Message manager closed the connection" );
+
+			} // if
+
+		} // while
+
+	} // ReadFully
+
+} // NioMessageManagerClient
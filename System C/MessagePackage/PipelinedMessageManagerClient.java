@@ -0,0 +1,419 @@
+/******************************************************************************************************************
+* File:PipelinedMessageManagerClient.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class is the client side shared by the transports that frame requests as described in
+*			   WireProtocol (NIO and shared memory). It implements the same interface as the RMI stub of the
+*			   message manager, so MessageManagerInterface uses any of them without participants noticing. Any
+*			   number of threads may call at the same time: each request gets an id and waits for the response
+*			   carrying that id, which the subclass's reader hands to Complete as it arrives. Requests are
+*			   therefore pipelined instead of each call waiting for the one before it.
+*
+*			   A subclass writes frames (Write), reads responses (calling Complete, or Fail when the message
+*			   manager is lost) and closes its connection (Close).
+*
+*			   Push delivery (AddListener) is not available over these transports; a participant that asks for
+*			   it keeps polling, and a long-poll here does not tie up a thread on the message manager.
+*
+* Parameters: MessageManager.CallMillis - ms to wait for a response (beyond any long-poll) before giving up
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+package MessagePackage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.rmi.ConnectException;
+import java.rmi.RemoteException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public abstract class PipelinedMessageManagerClient implements RMIMessageManagerInterface
+{
+	private AtomicLong LastRequestId = new AtomicLong(0);	// Id of the last request sent
+	private ConcurrentHashMap<Long, CompletableFuture<Response>> Outstanding = new ConcurrentHashMap<Long, CompletableFuture<Response>>();
+	private volatile IOException Failure = null;	// Set when the connection is lost
+	private final Object WriteLock = new Object();	// Keeps frames from different threads apart
+	private long CallMillis = Long.getLong( "MessageManager.CallMillis", 10000 );	// Longest wait for a response, past any long-poll
+
+	/***************************************************************************
+	* Remote methods (see RMIMessageManagerInterface)
+	****************************************************************************/
+
+	public long Register() throws RemoteException
+	{
+		return ReadLong( Call( WireProtocol.REGISTER, null ) );
+
+	} // Register
+
+	public void UnRegister( long id ) throws RemoteException
+	{
+		Call( WireProtocol.UNREGISTER, Payload( id ) );
+
+	} // UnRegister
+
+	public void SendMessage( Message m ) throws RemoteException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] Encoding = m.GetEncoding();
+
+		bytes.write( Encoding, 0, Encoding.length );
+		Call( WireProtocol.SEND, bytes );
+
+	} // SendMessage
+
+	public void SendMessages( Message[] Messages ) throws RemoteException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		try
+		{
+			WireProtocol.WriteMessages( new DataOutputStream( bytes ), Messages );
+
+		} // try
+
+		catch (IOException e)
+		{
+			throw new RemoteException( "Error encoding messages", e );
+
+		} // catch
+
+		Call( WireProtocol.SEND_BATCH, bytes );
+
+	} // SendMessages
+
+	public MessageQueue GetMessageQueue( long id ) throws RemoteException
+	{
+		return GetMessageQueue( id, 0 );
+
+	} // GetMessageQueue
+
+	public MessageQueue GetMessageQueue( long id, long MaxWaitMillis ) throws RemoteException
+	{
+		Message[] Messages = DrainMessages( id, 0, MaxWaitMillis );
+
+		return ( Messages == null ) ? null : new MessageQueue( id, Messages );
+
+	} // GetMessageQueue
+
+	public Message[] DrainMessages( long id, int MaxBatch, long MaxWaitMillis ) throws RemoteException
+	{
+		Response r = Call( WireProtocol.DRAIN, Payload( id, MaxBatch, Math.max( MaxWaitMillis, 0 ) ), Math.max( MaxWaitMillis, 0 ) );
+
+		try
+		{
+			return WireProtocol.ReadMessages( r.In() );
+
+		} // try
+
+		catch (IOException e)
+		{
+			throw new RemoteException( "Error decoding messages", e );
+
+		} // catch
+
+	} // DrainMessages
+
+	public void Subscribe( long id, int LowMsgId, int HighMsgId ) throws RemoteException
+	{
+		Call( WireProtocol.SUBSCRIBE, Payload( id, LowMsgId, HighMsgId ) );
+
+	} // Subscribe
+
+	public void Conflate( long id, int MsgId ) throws RemoteException
+	{
+		Call( WireProtocol.CONFLATE, Payload( id, MsgId ) );
+
+	} // Conflate
+
+	public void AddListener( long id, MessageListener Listener ) throws RemoteException
+	{
+		throw new RemoteException( "Push delivery is not available over the NIO transport" );
+
+	} // AddListener
+
+	public void RemoveListener( long id ) throws RemoteException
+	{
+	} // RemoveListener
+
+	public long RenewLease( long id ) throws RemoteException
+	{
+		return ReadLong( Call( WireProtocol.RENEW_LEASE, Payload( id ) ) );
+
+	} // RenewLease
+
+	public boolean Reregister( long id ) throws RemoteException
+	{
+		return ReadLong( Call( WireProtocol.REREGISTER, Payload( id ) ) ) != 0;
+
+	} // Reregister
+
+	/***************************************************************************
+	* INTERFACE:: Write
+	* Purpose: Sends one request frame to the message manager. Called by one
+	*		   thread at a time.
+	*
+	* Arguments: ByteBuffer Frame - the frame (see WireProtocol.Frame)
+	*
+	* Returns: None
+	*
+	* Exceptions: IOException - the frame could not be sent
+	*
+	****************************************************************************/
+
+	protected abstract void Write( ByteBuffer Frame ) throws IOException;
+
+	/***************************************************************************
+	* INTERFACE:: Close
+	* Purpose: Closes the connection. Outstanding requests fail.
+	*
+	* Arguments: None
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public abstract void Close();
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Call
+	* Purpose: Sends a request and waits for its response. The frame is written
+	*		   under a lock so frames from different threads do not interleave,
+	*		   but the response is waited for without the lock, so other threads
+	*		   can send their requests in the meantime. A response that has not
+	*		   arrived CallMillis ms after any long-poll wait would have ended is
+	*		   given up on, as the RMI transport would, so a message manager that
+	*		   hangs without closing the connection does not hang the caller.
+	*
+	* Arguments: byte Op - the operation
+	*			 ByteArrayOutputStream Payload - the request payload (may be null)
+	*			 long WaitMillis - how long the message manager may hold the request
+	*
+	* Returns: Response - the response (status OK)
+	*
+	* Exceptions: RemoteException - the connection failed, the response did not
+	*			  arrive in time (ConnectException), or the message manager returned
+	*			  an error (QueueFullException if a queue was full)
+	*
+	****************************************************************************/
+
+	private Response Call( byte Op, ByteArrayOutputStream Payload ) throws RemoteException
+	{
+		return Call( Op, Payload, 0 );
+
+	} // Call
+
+	private Response Call( byte Op, ByteArrayOutputStream Payload, long WaitMillis ) throws RemoteException
+	{
+		long id = LastRequestId.incrementAndGet();
+		CompletableFuture<Response> f = new CompletableFuture<Response>();
+		ByteBuffer frame = WireProtocol.Frame( id, Op, Payload );
+		Response r;
+
+		Outstanding.put( id, f );
+
+		try
+		{
+			if ( Failure != null )
+			{
+				throw Failure;
+
+			} // if
+
+			synchronized ( WriteLock )
+			{
+				Write( frame );
+
+			} // synchronized
+
+			r = f.get( CallMillis + WaitMillis, TimeUnit.MILLISECONDS );
+
+		} // try
+
+		catch (IOException e)
+		{
+			throw new ConnectException( "Connection to message manager lost", e );
+
+		} // catch
+
+		catch (ExecutionException e)
+		{
+			throw new ConnectException( "Connection to message manager lost", (Exception) e.getCause() );
+
+		} // catch
+
+		catch (TimeoutException e)
+		{
+			throw new ConnectException( "No response from message manager in " + ( CallMillis + WaitMillis ) + " ms" );
+
+		} // catch
+
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RemoteException( "Interrupted waiting for the message manager" );
+
+		} // catch
+
+		finally
+		{
+			Outstanding.remove( id );
+
+		} // finally
+
+		if ( r.Status == WireProtocol.QUEUE_FULL )
+		{
+			throw new QueueFullException( r.Text() );
+
+		} // if
+
+		if ( r.Status != WireProtocol.OK )
+		{
+			throw new RemoteException( r.Text() );
+
+		} // if
+
+		return r;
+
+	} // Call
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Complete
+	* Purpose: Called by the subclass's reader with each response frame (less
+	*		   its length) to complete the request it answers.
+	*
+	* Arguments: ByteBuffer Body - request id, status and payload
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	protected void Complete( ByteBuffer Body )
+	{
+		long id = Body.getLong();
+		byte status = Body.get();
+		CompletableFuture<Response> f = Outstanding.get( id );
+
+		if ( f != null )
+		{
+			f.complete( new Response( status, Body ) );
+
+		} // if
+
+	} // Complete
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Fail
+	* Purpose: Called by the subclass when the message manager is lost. Every
+	*		   outstanding request (and every later one) fails.
+	*
+	* Arguments: IOException e - what went wrong
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	protected void Fail( IOException e )
+	{
+		Failure = e;
+
+		for ( CompletableFuture<Response> f : Outstanding.values() )
+		{
+			f.completeExceptionally( e );
+
+		} // for
+
+	} // Fail
+
+	// Builds a payload of varints.
+
+	private static ByteArrayOutputStream Payload( long... Values )
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( 8 * Values.length );
+		DataOutputStream out = new DataOutputStream( bytes );
+
+		try
+		{
+			for ( long v : Values )
+				MessageCodec.WriteVarLong( out, v );
+
+		} // try
+
+		catch (IOException e)
+		{
+			// Not thrown by a ByteArrayOutputStream
+
+		} // catch
+
+		return bytes;
+
+	} // Payload
+
+	private static long ReadLong( Response r ) throws RemoteException
+	{
+		try
+		{
+			return MessageCodec.ReadVarLong( r.In() );
+
+		} // try
+
+		catch (IOException e)
+		{
+			throw new RemoteException( "Bad response from message manager", e );
+
+		} // catch
+
+	} // ReadLong
+
+	/***************************************************************************
+	* INNER CLASS:: Response
+	* Purpose: A response frame: its status and payload.
+	*
+	****************************************************************************/
+
+	private static class Response
+	{
+		byte Status;
+		ByteBuffer Body;
+
+		Response( byte s, ByteBuffer b )
+		{
+			Status = s;
+			Body = b;
+
+		} // constructor
+
+		DataInput In()
+		{
+			return new DataInputStream( new ByteArrayInputStream( Body.array(), Body.position(), Body.remaining() ) );
+
+		} // In
+
+		String Text()
+		{
+			try
+			{
+				return MessageCodec.ReadString( In() );
+
+			} // try
+
+			catch (IOException e)
+			{
+				return "Error from message manager";
+
+			} // catch
+
+		} // Text
+
+	} // Response
+
+} // PipelinedMessageManagerClient
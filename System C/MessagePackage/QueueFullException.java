@@ -0,0 +1,28 @@
+/******************************************************************************************************************
+* File:QueueFullException.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This exception is thrown to a sender by the message manager when a message could not be placed in
+*			   one or more participants' queues because those queues are full and the message manager's overflow
+*			   policy is Reject. The message is still delivered to every other participant that subscribed to it.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+package MessagePackage;
+
+import java.rmi.RemoteException;
+
+public class QueueFullException extends RemoteException
+{
+	public QueueFullException()
+	{ super(); }
+
+	public QueueFullException(String s)
+	{ super(s); }
+
+} // QueueFullException
@@ -66,6 +66,22 @@ public interface RMIMessageManagerInterface extends Remote
 
 	public void SendMessage(Message m ) throws java.rmi.RemoteException;
 
+	/***************************************************************************
+	* INTERFACE:: SendMessages
+	* Purpose: This interface is used by participant to post several messages to
+	* 		   the MessageManager in one call. The messages are delivered in the
+	*		   order given.
+	*
+	* Arguments: Message[] array of Message objects (see the class: Message.java)
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public void SendMessages(Message[] Messages ) throws java.rmi.RemoteException;
+
 	/***************************************************************************
 	* INTERFACE:: GetMessage
 	* Purpose: This interface is used to allow the participant access the message
@@ -81,4 +97,146 @@ public interface RMIMessageManagerInterface extends Remote
 
 	public MessageQueue GetMessageQueue(long SenderID) throws java.rmi.RemoteException;
 
+	/***************************************************************************
+	* INTERFACE:: GetMessageQueue
+	* Purpose: This interface is used to allow the participant access the message
+	*		   queue on the MessageManager, waiting up to MaxWaitMillis for a
+	*		   message to arrive if the queue is empty. The call returns as soon
+	*		   as there is at least one message in the queue.
+	*
+	* Arguments: long integer registration number
+	*			 long integer maximum time to wait in milliseconds
+	*
+	* Returns: MessageQueue object (see the class: MessageQueue.java)
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public MessageQueue GetMessageQueue(long SenderID, long MaxWaitMillis) throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: DrainMessages
+	* Purpose: This interface is used by a participant to take the messages in its
+	*		   queue on the MessageManager. Only the messages cross the wire, as an
+	*		   array, oldest first. If the queue is empty the MessageManager waits
+	*		   up to MaxWaitMillis for a message to arrive.
+	*
+	* Arguments: long integer registration number
+	*			 int the most messages to return (zero or less for all of them)
+	*			 long integer maximum time to wait in milliseconds
+	*
+	* Returns: Message[] (null if the participant is not registered)
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public Message[] DrainMessages(long SenderID, int MaxBatch, long MaxWaitMillis) throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: Subscribe
+	* Purpose: This interface is used by a participant to tell the MessageManager
+	*		   which message ids it consumes. Once a participant has subscribed,
+	*		   only messages with ids in one of its subscribed ranges (and the halt
+	*		   message, id 99) are placed in its queue. A participant that never
+	*		   subscribes receives every message.
+	*
+	* Arguments: long integer registration number
+	*			 int low message id of the range (inclusive)
+	*			 int high message id of the range (inclusive)
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public void Subscribe(long SenderID, int LowMsgId, int HighMsgId) throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: Conflate
+	* Purpose: This interface is used by a participant to have newer messages
+	*		   with the given id replace the pending message from the same
+	*		   sender in its queue, instead of being appended.
+	*
+	* Arguments: long integer registration number
+	*			 int message id
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public void Conflate(long SenderID, int MsgId) throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: AddListener
+	* Purpose: This interface is used by a participant to have the messages in
+	*		   its queue pushed to a remote callback object as they are posted,
+	*		   instead of polling for them with GetMessageQueue. A participant has
+	*		   at most one listener; adding another replaces the first.
+	*
+	* Arguments: long integer registration number
+	*			 MessageListener remote callback object (see MessageListener.java)
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public void AddListener(long SenderID, MessageListener Listener) throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: RemoveListener
+	* Purpose: This interface is used by a participant to stop push delivery.
+	*		   Messages are left in the participant's queue from then on.
+	*
+	* Arguments: long integer registration number
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public void RemoveListener(long SenderID) throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: RenewLease
+	* Purpose: This interface is used by a participant to renew its registration
+	*		   lease when it has not called the message manager for a while. Any
+	*		   other call with the participant's id renews the lease as well.
+	*
+	* Arguments: long integer registration number
+	*
+	* Returns: long integer - the lease time in milliseconds, zero if leases are
+	*		   not used, or -1 if the participant is no longer registered
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public long RenewLease(long SenderID) throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: Reregister
+	* Purpose: This interface is used by a participant that failed over to
+	*		   another message manager (a standby or another node) to register
+	*		   there under the id it was issued, if it is not registered there
+	*		   already.
+	*
+	* Arguments: long integer registration number
+	*
+	* Returns: boolean - true if the participant was registered now, false if
+	*		   it was registered already
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public boolean Reregister(long SenderID) throws java.rmi.RemoteException;
+
 } // class
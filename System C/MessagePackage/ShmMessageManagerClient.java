@@ -0,0 +1,154 @@
+/******************************************************************************************************************
+* File:ShmMessageManagerClient.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class is the client side of the shared-memory transport, for participants on the same machine as
+*			   the message manager. Requests are written to the message manager's inbound ring and responses are read
+*			   from a ring this client creates for itself (see WireProtocol and ShmRing), so calls cross between the
+*			   processes through mapped memory, without sockets or serialization. A reader thread watches the
+*			   response ring, spinning briefly before it sleeps, and hands each response to
+*			   PipelinedMessageManagerClient. If the message manager stops reading its ring, outstanding and later
+*			   requests fail.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+package MessagePackage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ShmMessageManagerClient extends PipelinedMessageManagerClient
+{
+	private static AtomicLong LastConnection = new AtomicLong(0);	// Connections made by this JVM
+
+	private long ConnectionId;				// Identifies this client's requests
+	private ShmRing Inbound;				// The message manager's inbound ring
+	private ShmRing Responses;				// This client's response ring
+	private volatile boolean Closed = false;
+
+	public ShmMessageManagerClient( File Dir ) throws IOException
+	{
+		ConnectionId = ( ProcessHandle.current().pid() << 20 ) | LastConnection.incrementAndGet();
+		Inbound = ShmRing.Open( new File( Dir, WireProtocol.SHM_INBOUND ) );
+
+		if ( System.currentTimeMillis() - Inbound.LastBeat() > WireProtocol.SHM_STALE )
+		{
+			Inbound.Close();
+			throw new IOException( "No message manager is reading " + Inbound.GetPath() );
+
+		} // if
+
+		Responses = ShmRing.Create( new File( Dir, "c" + ConnectionId + ".ring" ), WireProtocol.SHM_RINGSIZE );
+		Responses.GetPath().deleteOnExit();
+
+		Thread reader = new Thread( new Runnable() { public void run() { ReadResponses(); } }, "ShmMessageManagerClient" );
+		reader.setDaemon( true );
+		reader.start();
+
+	} // constructor
+
+	protected void Write( ByteBuffer Frame ) throws IOException
+	{
+		// The record is the connection id and the frame without its length
+
+		ByteBuffer Record = ByteBuffer.allocate( 8 + Frame.remaining() - 4 );
+
+		Record.putLong( ConnectionId );
+		Frame.position( Frame.position() + 4 );
+		Record.put( Frame );
+		Record.flip();
+
+		Inbound.OfferShared( Record, WireProtocol.SHM_STALE );
+
+	} // Write
+
+	public void Close()
+	{
+		if ( Closed )
+		{
+			return;
+
+		} // if
+
+		Closed = true;
+
+		try
+		{
+			Write( WireProtocol.Frame( 0, WireProtocol.DISCONNECT, null ) );
+
+		} // try
+
+		catch (IOException e)
+		{
+			// The message manager is gone anyway
+
+		} // catch
+
+		Fail( new IOException( "Connection to message manager closed" ) );
+		Inbound.Close();
+		Responses.Close();
+		Responses.GetPath().delete();
+
+	} // Close
+
+	/***************************************************************************
+	* CONCRETE METHOD:: ReadResponses
+	* Purpose: Runs on the reader thread. Reads responses from this client's
+	*		   ring and completes the request each one answers. About once a
+	*		   second while idle it checks that the message manager is still
+	*		   reading its ring.
+	*
+	* Arguments: None
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	private void ReadResponses()
+	{
+		ShmRing.Backoff Idle = new ShmRing.Backoff();
+		long NextCheck = 0;
+		ByteBuffer r;
+
+		while ( !Closed )
+		{
+			r = Responses.Poll();
+
+			if ( r != null )
+			{
+				Complete( r );
+				Idle.Reset();
+				continue;
+
+			} // if
+
+			Idle.Idle();
+
+			long now = System.currentTimeMillis();
+
+			if ( now >= NextCheck )
+			{
+				NextCheck = now + 1000;
+
+				if ( now - Inbound.LastBeat() > WireProtocol.SHM_STALE )
+				{
+					Fail( new EOFException( "Message manager stopped reading " + Inbound.GetPath() ) );
+					return;
+
+				} // if
+
+			} // if
+
+		} // while
+
+	} // ReadResponses
+
+} // ShmMessageManagerClient
@@ -0,0 +1,376 @@
+/******************************************************************************************************************
+* File:ShmRing.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class is a ring buffer of variable-length records in a memory-mapped file, used by the
+*			   shared-memory transport to move frames between processes on the same machine without sockets. The
+*			   process that reads the ring creates the file; the process that writes it opens the file. The file is
+*			   laid out as:
+*
+*					0	int magic, int capacity
+*					64	long head - bytes ever written (updated by the writer)
+*					128	long tail - bytes ever read (updated by the reader)
+*					192	long beat - when the reader last said it was alive (ms)
+*					256	data - capacity bytes, a power of two
+*
+*			   Head, tail and beat each sit on their own cache line. A record is an int length followed by its
+*			   bytes, wrapping around the end of the data. The writer copies a record in, then publishes it by
+*			   advancing head with a release store; the reader sees it with an acquire load of head, copies it out
+*			   and frees the space by advancing tail. With one writer and one reader no lock is needed. A ring
+*			   with several writers (the message manager's inbound ring) is written with OfferShared, which holds
+*			   a lock on the file, so writers in different processes take turns.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+package MessagePackage;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+public class ShmRing
+{
+	private static final int MAGIC = 0x53484d52;		// "SHMR"
+	private static final int CAPACITY = 4;				// Header offsets
+	private static final int HEAD = 64;
+	private static final int TAIL = 128;
+	private static final int BEAT = 192;
+	private static final int DATA = 256;
+
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle( long[].class, ByteOrder.nativeOrder() );
+	private static final Object JvmLock = new Object();	// File locks are per JVM, so writers in this JVM also take turns here
+
+	private File Path;						// The mapped file
+	private FileChannel Channel;			// Open on the file (also used to lock it)
+	private MappedByteBuffer Map;			// The whole file
+	private int Capacity;					// Bytes of data
+	private int Mask;						// Capacity - 1
+
+	private ShmRing( File f, FileChannel ch, int Size ) throws IOException
+	{
+		Path = f;
+		Channel = ch;
+		Map = ch.map( FileChannel.MapMode.READ_WRITE, 0, DATA + Size );
+		Map.order( ByteOrder.nativeOrder() );
+		Capacity = Size;
+		Mask = Size - 1;
+
+	} // constructor
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Create
+	* Purpose: Creates an empty ring, replacing any file already at Path. Called
+	*		   by the ring's reader.
+	*
+	* Arguments: File Path - the file
+	*			 int Size - bytes of data, rounded up to a power of two
+	*
+	* Returns: ShmRing
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	public static ShmRing Create( File Path, int Size ) throws IOException
+	{
+		int Capacity = Integer.highestOneBit( Math.max( Size, 4096 ) - 1 ) << 1;
+
+		Path.delete();
+
+		FileChannel ch = FileChannel.open( Path.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE );
+		ShmRing r = new ShmRing( Path, ch, Capacity );
+
+		r.Map.putInt( CAPACITY, Capacity );
+		r.Beat();
+		LONGS.setRelease( r.Map, HEAD, 0L );
+		LONGS.setRelease( r.Map, TAIL, 0L );
+		r.Map.putInt( 0, MAGIC );
+		r.Map.force();
+
+		return r;
+
+	} // Create
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Open
+	* Purpose: Opens a ring made by Create. Called by the ring's writer.
+	*
+	* Arguments: File Path - the file
+	*
+	* Returns: ShmRing
+	*
+	* Exceptions: IOException - also thrown if the file is not a ring
+	*
+	****************************************************************************/
+
+	public static ShmRing Open( File Path ) throws IOException
+	{
+		FileChannel ch = FileChannel.open( Path.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE );
+		ByteBuffer Header = ByteBuffer.allocate( 8 ).order( ByteOrder.nativeOrder() );
+
+		ch.read( Header, 0 );
+
+		if ( Header.getInt( 0 ) != MAGIC )
+		{
+			ch.close();
+			throw new IOException( Path + " is not a message ring" );
+
+		} // if
+
+		return new ShmRing( Path, ch, Header.getInt( CAPACITY ) );
+
+	} // Open
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Offer
+	* Purpose: Writes a record if there is room for it. Only one thread (in one
+	*		   process) may write a ring this way.
+	*
+	* Arguments: ByteBuffer Record - the bytes between its position and limit
+	*
+	* Returns: boolean - false if the ring has no room for the record now
+	*
+	* Exceptions: IOException - the record is too big to ever fit
+	*
+	****************************************************************************/
+
+	public boolean Offer( ByteBuffer Record ) throws IOException
+	{
+		int len = Record.remaining();
+
+		if ( 4 + len > Capacity )
+		{
+			throw new IOException( "Record of " + len + " bytes does not fit a ring of " + Capacity );
+
+		} // if
+
+		long head = (long) LONGS.getOpaque( Map, HEAD );
+		long tail = (long) LONGS.getAcquire( Map, TAIL );
+
+		if ( Capacity - ( head - tail ) < 4 + len )
+		{
+			return false;
+
+		} // if
+
+		ByteBuffer Length = ByteBuffer.allocate( 4 ).order( ByteOrder.nativeOrder() ).putInt( 0, len );
+
+		Put( head, Length );
+		Put( head + 4, Record );
+		LONGS.setRelease( Map, HEAD, head + 4 + len );
+
+		return true;
+
+	} // Offer
+
+	/***************************************************************************
+	* CONCRETE METHOD:: OfferShared
+	* Purpose: Writes a record to a ring with several writers, waiting up to
+	*		   MaxWaitMillis for room. Writers lock the file while they write.
+	*
+	* Arguments: ByteBuffer Record - the record
+	*			 long MaxWaitMillis - the longest to wait for room
+	*
+	* Returns: None
+	*
+	* Exceptions: IOException - the ring stayed full, or the record is too big
+	*
+	****************************************************************************/
+
+	public void OfferShared( ByteBuffer Record, long MaxWaitMillis ) throws IOException
+	{
+		long Deadline = System.currentTimeMillis() + MaxWaitMillis;
+		Backoff Idle = new Backoff();
+
+		synchronized ( JvmLock )
+		{
+			FileLock Lock = Channel.lock( 0, DATA, false );
+
+			try
+			{
+				while ( !Offer( Record ) )
+				{
+					if ( System.currentTimeMillis() > Deadline )
+					{
+						throw new IOException( "Ring " + Path + " stayed full" );
+
+					} // if
+
+					Idle.Idle();
+
+				} // while
+
+			} // try
+
+			finally
+			{
+				Lock.release();
+
+			} // finally
+
+		} // synchronized
+
+	} // OfferShared
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Poll
+	* Purpose: Reads the next record, if there is one. Only one thread may read
+	*		   a ring.
+	*
+	* Arguments: None
+	*
+	* Returns: ByteBuffer - a copy of the record, or null if the ring is empty
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public ByteBuffer Poll()
+	{
+		long tail = (long) LONGS.getOpaque( Map, TAIL );
+		long head = (long) LONGS.getAcquire( Map, HEAD );
+
+		if ( head == tail )
+		{
+			return null;
+
+		} // if
+
+		ByteBuffer Length = ByteBuffer.allocate( 4 ).order( ByteOrder.nativeOrder() );
+		Get( tail, Length );
+
+		ByteBuffer Record = ByteBuffer.allocate( Length.getInt( 0 ) );
+		Get( tail + 4, Record );
+
+		LONGS.setRelease( Map, TAIL, tail + 4 + Record.remaining() );
+
+		return Record;
+
+	} // Poll
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Beat, LastBeat
+	* Purpose: The reader calls Beat now and then to say it is alive; writers
+	*		   call LastBeat to tell whether anyone is still reading the ring.
+	*
+	****************************************************************************/
+
+	public void Beat()
+	{
+		LONGS.setRelease( Map, BEAT, System.currentTimeMillis() );
+
+	} // Beat
+
+	public long LastBeat()
+	{
+		return (long) LONGS.getAcquire( Map, BEAT );
+
+	} // LastBeat
+
+	public File GetPath()
+	{
+		return Path;
+
+	} // GetPath
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Close
+	* Purpose: Closes the file. The mapping is released when it is collected.
+	*
+	****************************************************************************/
+
+	public void Close()
+	{
+		try
+		{
+			Channel.close();
+
+		} // try
+
+		catch (IOException e)
+		{
+			// Closing anyway
+
+		} // catch
+
+	} // Close
+
+	// Copies b into the data at stream position pos, wrapping around the end.
+
+	private void Put( long pos, ByteBuffer b )
+	{
+		int at = (int) ( pos & Mask );
+		int first = Math.min( b.remaining(), Capacity - at );
+
+		Map.put( DATA + at, b, b.position(), first );
+		Map.put( DATA, b, b.position() + first, b.remaining() - first );
+
+	} // Put
+
+	// Fills b from the data at stream position pos, wrapping around the end.
+
+	private void Get( long pos, ByteBuffer b )
+	{
+		int at = (int) ( pos & Mask );
+		int first = Math.min( b.remaining(), Capacity - at );
+
+		b.put( 0, Map, DATA + at, first );
+		b.put( first, Map, DATA, b.remaining() - first );
+
+	} // Get
+
+	/***************************************************************************
+	* INNER CLASS:: Backoff
+	* Purpose: How a thread waits on a ring: it spins briefly, so a record that
+	*		   arrives soon is seen within microseconds, then yields (so the other
+	*		   end gets the CPU on a busy or small machine), then sleeps for
+	*		   longer and longer (up to a millisecond) so an idle ring costs little
+	*		   CPU. Reset after every record.
+	*
+	****************************************************************************/
+
+	public static class Backoff
+	{
+		private int Misses = 0;
+
+		public void Idle()
+		{
+			Misses++;
+
+			if ( Misses < 100 )
+			{
+				Thread.onSpinWait();
+
+			} else if ( Misses < 2000 ) {
+
+				Thread.yield();
+
+			} else {
+
+				LockSupport.parkNanos( Math.min( 1000L * ( Misses - 1999 ), 1000000L ) );
+
+			} // if
+
+		} // Idle
+
+		public void Reset()
+		{
+			Misses = 0;
+
+		} // Reset
+
+	} // Backoff
+
+} // ShmRing
@@ -0,0 +1,193 @@
+/******************************************************************************************************************
+* File:WireProtocol.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class defines the frames exchanged by the NIO transport between MessageManagerInterface and the
+*			   message manager. Every request and response is one frame:
+*
+*					int length (of the rest of the frame), long request id, byte code, payload
+*
+*			   For a request the code is the operation; for a response it is a status. The response to a request
+*			   carries the request's id, so a client may have many requests outstanding on one connection and
+*			   responses may come back in any order. Numbers in payloads are MessageCodec varints and messages are
+*			   MessageCodec encodings:
+*
+*					REGISTER		-						-> participant id
+*					UNREGISTER		id						-> -
+*					SEND			message					-> -
+*					SEND_BATCH		count, messages			-> -
+*					DRAIN			id, max batch, max wait	-> count (-1 if id is not registered), messages
+*					SUBSCRIBE		id, low, high			-> -
+*					CONFLATE		id, message id			-> -
+*					RENEW_LEASE		id						-> lease time
+*					DISCONNECT		-						(no response)
+*					REREGISTER		id						-> 1 if registered now, 0 if it already was
+*
+*			   A response with status ERROR or QUEUE_FULL carries the error text instead.
+*
+*			   The shared-memory transport carries the same frames in ShmRing records, without the length (the
+*			   record has one). The message manager reads every client's requests from one inbound ring; each
+*			   request record starts with the long connection id of the client that sent it, and the response is
+*			   written to that client's own ring, c<connection id>.ring in the same directory. A client sends
+*			   DISCONNECT when it closes, since there is no socket to close.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+package MessagePackage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+public final class WireProtocol
+{
+	public static final int DEFAULTPORT = 1100;			// NIO port participants use unless MessageManager.NioPort is set
+	public static final int HEADER = 4 + 8 + 1;			// Length, request id and code
+	public static final int MAXFRAME = 16 * 1024 * 1024;	// Largest frame either end accepts
+	public static final String SHM_INBOUND = "inbound.ring";	// Shared-memory ring the message manager reads
+	public static final int SHM_RINGSIZE = 4 * 1024 * 1024;	// Bytes of data in each shared-memory ring
+	public static final long SHM_STALE = 5000;			// A ring reader silent this long (ms) has stopped
+
+	public static final byte REGISTER = 1;				// Request operations
+	public static final byte UNREGISTER = 2;
+	public static final byte SEND = 3;
+	public static final byte SEND_BATCH = 4;
+	public static final byte DRAIN = 5;
+	public static final byte SUBSCRIBE = 6;
+	public static final byte CONFLATE = 7;
+	public static final byte RENEW_LEASE = 8;
+	public static final byte DISCONNECT = 9;
+	public static final byte REREGISTER = 10;
+
+	public static final byte OK = 0;					// Response statuses
+	public static final byte ERROR = 1;
+	public static final byte QUEUE_FULL = 2;
+
+	private WireProtocol()
+	{
+	} // constructor
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Frame
+	* Purpose: Builds a frame ready to be written to a channel.
+	*
+	* Arguments: long RequestId - the request id
+	*			 byte Code - the operation or status
+	*			 ByteArrayOutputStream Payload - the payload (may be null)
+	*
+	* Returns: ByteBuffer - the frame, positioned for writing
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public static ByteBuffer Frame( long RequestId, byte Code, ByteArrayOutputStream Payload )
+	{
+		int n = ( Payload == null ) ? 0 : Payload.size();
+		ByteBuffer b = ByteBuffer.allocate( HEADER + n );
+
+		b.putInt( 8 + 1 + n );
+		b.putLong( RequestId );
+		b.put( Code );
+
+		if ( n > 0 )
+		{
+			b.put( Payload.toByteArray() );
+
+		} // if
+
+		b.flip();
+
+		return b;
+
+	} // Frame
+
+	/***************************************************************************
+	* CONCRETE METHOD:: ShmDirectory
+	* Purpose: Returns the directory of the shared-memory rings, set with the
+	*		   system property MessageManager.ShmDir (on Linux, a directory under
+	*		   /dev/shm such as /dev/shm/MessageManager). If the property is not
+	*		   set or is empty, shared memory is not used.
+	*
+	* Arguments: None
+	*
+	* Returns: File - the directory, or null if shared memory is not used
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public static File ShmDirectory()
+	{
+		String Dir = System.getProperty( "MessageManager.ShmDir", "" ).trim();
+
+		return Dir.isEmpty() ? null : new File( Dir );
+
+	} // ShmDirectory
+
+	/***************************************************************************
+	* CONCRETE METHOD:: WriteMessages
+	* Purpose: Writes a count followed by the encoding of each message.
+	*
+	* Arguments: DataOutput - where to write
+	*			 Message[] - the messages
+	*
+	* Returns: None
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	public static void WriteMessages( DataOutput out, Message[] Messages ) throws IOException
+	{
+		MessageCodec.WriteVarLong( out, Messages.length );
+
+		for ( int i = 0; i < Messages.length; i++ )
+		{
+			out.write( Messages[i].GetEncoding() );
+
+		} // for
+
+	} // WriteMessages
+
+	/***************************************************************************
+	* CONCRETE METHOD:: ReadMessages
+	* Purpose: Reads messages written by WriteMessages.
+	*
+	* Arguments: DataInput - where to read from
+	*
+	* Returns: Message[] - null if a count of -1 was written
+	*
+	* Exceptions: IOException
+	*
+	****************************************************************************/
+
+	public static Message[] ReadMessages( DataInput in ) throws IOException
+	{
+		long n = MessageCodec.ReadVarLong( in );
+
+		if ( n < 0 )
+		{
+			return null;
+
+		} // if
+
+		MessageCodec.CheckLength( in, n, "message count" );
+
+		Message[] Messages = new Message[(int) n];
+
+		for ( int i = 0; i < Messages.length; i++ )
+		{
+			Messages[i] = MessageCodec.ReadMessage( in );
+
+		} // for
+
+		return Messages;
+
+	} // ReadMessages
+
+} // WireProtocol
@@ -0,0 +1,70 @@
+/******************************************************************************************************************
+* File:MessageReplicaInterface.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class is the interface definition of the replication service a primary message manager offers
+*			   its hot standby (see MessageReplication). It is used by the standby only, never by participants.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+import java.rmi.*;
+
+public interface MessageReplicaInterface extends Remote
+{
+	/***************************************************************************
+	* INTERFACE:: Attach
+	* Purpose: This interface is used by the standby to get a snapshot of the
+	*		   primary's participants and queues. From then on the primary keeps
+	*		   the changes to them for the standby to Pull.
+	*
+	* Arguments: None
+	*
+	* Returns: MessageReplication.Op[] - the operations that rebuild the
+	*		   primary's state from nothing
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public MessageReplication.Op[] Attach() throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: Pull
+	* Purpose: This interface is used by the standby to take the changes made
+	*		   on the primary since the last Pull (or Attach), waiting up to
+	*		   MaxWaitMillis for one if there are none.
+	*
+	* Arguments: long MaxWaitMillis - the longest to wait for a change
+	*
+	* Returns: MessageReplication.Op[] - the changes, in the order they were
+	*		   made (empty if there were none); null if the standby fell too far
+	*		   behind and has to Attach again
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public MessageReplication.Op[] Pull( long MaxWaitMillis ) throws java.rmi.RemoteException;
+
+	/***************************************************************************
+	* INTERFACE:: Fence
+	* Purpose: This interface is used by a standby that took over to tell the
+	*		   old primary, should it still be running, to step down.
+	*
+	* Arguments: String NewOwner - host:registryport of the message manager
+	*			 that took over
+	*
+	* Returns: None
+	*
+	* Exceptions: RemoteException
+	*
+	****************************************************************************/
+
+	public void Fence( String NewOwner ) throws java.rmi.RemoteException;
+
+} // MessageReplicaInterface
@@ -0,0 +1,739 @@
+/******************************************************************************************************************
+* File:MessageReplication.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This class keeps a hot standby of the message manager. A primary started with MessageManager.Replicate set offers its
+* state to a standby over RMI (see MessageReplicaInterface), bound as "MessageReplica" in its registry. A standby is a
+* message manager started with MessageManager.StandbyOf set to the primary's host:registryport. It does not serve
+* participants; it attaches to the primary, which sends it a snapshot of every registration and every queue, then
+* keeps pulling the changes the primary makes (registrations, subscriptions, conflation, messages posted and messages
+* taken from queues) and applies them to its own copy.
+*
+* When the primary cannot be reached for StandbyTimeout ms, and at least MINMISSES attempts in a row failed, the
+* standby takes over: it finishes its startup as an ordinary message manager, with the registrations and pending
+* messages it replicated, and binds itself in place of the primary. A standby on the primary's machine, with the same
+* settings, rebinds "MessageManager" in the same registry and takes over the primary's NIO and metrics ports, so
+* participants find it at the address they already use; a standby elsewhere is given to participants in a seed list.
+* Participants re-resolve the message manager when a call fails (see MessagePackage.FailoverMessageManagerClient) and
+* carry on under the same participant id.
+*
+* Every call the standby makes to the primary fails after CALLMILLIS without an answer (see HeartbeatSocketFactory),
+* so a primary that stops answering misses heartbeats rather than holding the standby up. But a primary that is only
+* slow (a long collection pause, an overloaded machine) then looks the same to the standby as one that died, so two
+* message managers may both believe they own the participants. The primary therefore steps down (exits) as soon as it
+* sees a newer owner: it checks every PULLMILLIS that "MessageManager" in its registry is still bound to itself, and
+* the standby, once it took over, fences the old primary (see Fence) for FENCEMILLIS in case it comes back. Whatever
+* the old primary accepted after the standby's last Pull is lost. StandbyTimeout trades the two failures against each
+* other: a shorter timeout fails over sooner when the primary really died, but takes over from more primaries that
+* were only paused, losing their recent changes. The default of ten Pulls rides out a short pause and still leaves
+* participants, which look for the message manager for MessageManager.FailoverMillis (3000 ms by default), time to
+* find the standby; a longer timeout needs a longer FailoverMillis.
+*
+* Changes are recorded on a lock-free queue that the standby drains with a long poll, so it is at most one poll behind
+* the primary; the poll also serves as its heartbeat. A snapshot must not miss or repeat a change, so changes to the
+* state and the snapshot are kept apart with a read-write lock: changes take the read lock (they do not exclude each
+* other) and a snapshot takes the write lock. A primary without MessageManager.Replicate has no lock and records
+* nothing.
+*
+* The standby replays the changes in the order they were recorded, so the changes to a queue have to be recorded in the
+* order they were made. A change to a queue is therefore recorded while the queue's lock is held, and a posted message
+* is recorded for each queue it was placed in (FILL), not once for all of them. A queue taking and posting at the same
+* time then reaches the standby in the same order, so a DRAIN of n messages takes the same n there. A new queue is
+* recorded before it can be found, so nothing is recorded for it ahead of its REGISTER. If the standby falls
+* MAXPENDING changes behind, or stops pulling, the primary drops its changes and the standby attaches again.
+*
+* What a standby does not replicate: listeners (participants add theirs again), leases (every participant gets a
+* fresh lease when the standby takes over) and the statistics. Messages posted while the primary was failing may be
+* lost, or be delivered again when a participant repeats a call whose reply it did not get.
+*
+* Parameters: MessageManager.Replicate - true for a primary to offer replication to a standby (default false)
+*			  MessageManager.StandbyOf - host:registryport of the primary, to start as its standby (default none)
+*			  MessageManager.StandbyTimeout - ms without reaching the primary before the standby takes over
+*											  (default 1000)
+*
+* Internal Methods:
+*	void Changing()
+*	void Record(Op op)
+*	void Changed()
+*	void StepDown(String Why)
+*	static void Follow(String Primary)
+*	static void Fence(String Primary, String Owner)
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.*;
+import java.rmi.server.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class MessageReplication extends UnicastRemoteObject implements MessageReplicaInterface
+{
+	static final int MAXPENDING = 65536;		// Most changes waiting for the standby
+	static final int MAXBATCH = 4096;			// Most changes returned by one Pull
+	static final long PULLMILLIS = 100;			// Longest a Pull waits for a change (ms)
+	static final long RETRYMILLIS = 20;			// ms between attempts to reach the primary
+	static final int CALLMILLIS = 500;			// Longest the standby waits on the primary in one call (ms)
+	static final int MINMISSES = 3;				// Attempts in a row the primary must miss before a takeover
+	static final long FENCEMILLIS = 60000;		// How long a new owner keeps trying to fence the old primary
+	static final long FENCERETRYMILLIS = 1000;	// ms between attempts to fence it
+
+	static final byte REGISTER = 1;				// Operations (see Op)
+	static final byte UNREGISTER = 2;
+	static final byte DRAIN = 4;
+	static final byte REQUEUE = 5;
+	static final byte SUBSCRIBE = 6;
+	static final byte CONFLATE = 7;
+	static final byte FILL = 8;
+	static final byte EXPIRE = 9;
+
+	private ReentrantReadWriteLock Lock = new ReentrantReadWriteLock();	// Read for changes, write for a snapshot
+	private volatile boolean Attached = false;	// Set while a standby takes the changes
+	private ConcurrentLinkedQueue<Op> Pending = new ConcurrentLinkedQueue<Op>();	// Changes not pulled yet
+	private AtomicInteger PendingCount = new AtomicInteger(0);	// Changes in Pending
+	private volatile Thread Puller = null;		// The thread of a Pull waiting for changes, if any
+	private Remote Owner = null;				// The message manager this primary serves
+
+	/***************************************************************************
+	* INNER CLASS:: Op
+	* Purpose: One change to the message manager's state, as sent to the
+	*		   standby:
+	*
+	*			REGISTER	Id						a participant registered
+	*			UNREGISTER	Id						unregistered, or its lease expired
+	*			DRAIN		Id, Low (count), Time	messages taken from the front of a queue, after
+	*												dropping those expired at Time
+	*			REQUEUE		Id, Messages			messages put back at the front of a queue
+	*			SUBSCRIBE	Id, Low, High			a range of message ids subscribed to
+	*			CONFLATE	Id, Low (message id)	a message id conflated
+	*			FILL		Id, Messages			messages posted to one queue, or in a snapshot
+	*			EXPIRE		Id, Time				messages expired at Time dropped from a queue
+	*
+	*		   Times are the primary's. Messages are read on the standby with
+	*		   creation times by its own clock (see Message), so an operation
+	*		   carries their creation times by the primary's clock as well, and
+	*		   the standby expires the same messages the primary did.
+	*
+	****************************************************************************/
+
+	public static class Op implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		byte Code;
+		long Id;
+		int Low, High;
+		Message[] Messages;
+		long[] Created;			// Creation times of the messages, by the primary's clock
+		long Time;
+
+		Op( byte Code, long Id, int Low, int High, Message[] Messages )
+		{
+			this( Code, Id, Low, High, Messages, 0 );
+
+		} // constructor
+
+		Op( byte Code, long Id, int Low, int High, Message[] Messages, long Time )
+		{
+			this.Code = Code;
+			this.Id = Id;
+			this.Low = Low;
+			this.High = High;
+			this.Messages = Messages;
+			this.Time = Time;
+
+			if ( Messages != null )
+			{
+				Created = new long[Messages.length];
+
+				for ( int i = 0; i < Messages.length; i++ )
+				{
+					Created[i] = Messages[i].GetCreationTime();
+
+				} // for
+
+			} // if
+
+		} // constructor
+
+		// The messages, with their creation times set back to the primary's.
+		// Used by the standby.
+
+		Message[] Messages()
+		{
+			for ( int i = 0; i < Messages.length; i++ )
+			{
+				Messages[i].SetCreationTime( Created[i] );
+
+			} // for
+
+			return Messages;
+
+		} // Messages
+
+	} // Op
+
+	public MessageReplication() throws RemoteException
+	{
+		super( 0, new HeartbeatSocketFactory(), null );	// Required by RMI
+
+	} // constructor
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Start
+	* Purpose: Binds the replication service in the registry, for a standby to
+	*		   find, and starts watching that the message manager is still the
+	*		   one bound as "MessageManager".
+	*
+	* Arguments: int RegistryPort - the port of the RMI registry
+	*			 Remote Owner - the message manager, as bound in the registry
+	*
+	* Returns: None
+	*
+	* Exceptions: Exception - the service could not be bound
+	*
+	****************************************************************************/
+
+	void Start( int RegistryPort, Remote Owner ) throws Exception
+	{
+		this.Owner = Owner;
+		Naming.rebind( "//localhost:" + RegistryPort + "/MessageReplica", this );
+		new OwnerWatch( RegistryPort ).start();
+
+	} // Start
+
+	/***************************************************************************
+	* Remote METHOD:: Fence
+	* Purpose: Called by a standby that took over from this primary. The
+	*		   primary steps down.
+	*
+	* Arguments: String NewOwner - host:registryport of the new owner
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public void Fence( String NewOwner ) throws RemoteException
+	{
+		StepDown( "Fenced by the message manager at " + NewOwner + ", which took over from this one." );
+
+	} // Fence
+
+	/***************************************************************************
+	* CONCRETE METHOD:: StepDown
+	* Purpose: Stops a primary that another message manager took over from. It
+	*		   exits rather than serve participants alongside the new owner; its
+	*		   participants fail over to the new owner.
+	*
+	* Arguments: String Why - the new owner that was seen
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	void StepDown( String Why )
+	{
+		System.out.println( Why + " Stepping down." );
+		System.exit( 1 );
+
+	} // StepDown
+
+	/***************************************************************************
+	* INNER CLASS:: OwnerWatch
+	* Purpose: Checks every PULLMILLIS that "MessageManager" is still bound to
+	*		   this primary, and steps down when a standby rebound it. A registry
+	*		   that cannot be reached says nothing about the owner.
+	*
+	****************************************************************************/
+
+	private class OwnerWatch extends Thread
+	{
+		private String Name;
+
+		OwnerWatch( int RegistryPort )
+		{
+			super( "OwnerWatch" );
+			setDaemon( true );
+			Name = "//localhost:" + RegistryPort + "/MessageManager";
+
+		} // constructor
+
+		public void run()
+		{
+			while ( true )
+			{
+				try
+				{
+					Thread.sleep( PULLMILLIS );
+
+					if ( !Owner.equals( Naming.lookup( Name ) ) )
+					{
+						StepDown( Name + " is bound to another message manager." );
+
+					} // if
+
+				} // try
+
+				catch (InterruptedException e)
+				{
+					return;
+
+				} // catch
+
+				catch (Exception e)
+				{
+					// The registry is down, or nothing is bound; look again later
+
+				} // catch
+
+			} // while
+
+		} // run
+
+	} // OwnerWatch
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Changing
+	* Purpose: Called before the message manager changes its state, so no
+	*		   snapshot is taken until the change is recorded and Changed is
+	*		   called. It must not be called while a queue's lock is held: a
+	*		   waiting snapshot would hold it up while the queue's other users
+	*		   wait for the lock.
+	*
+	* Arguments: None
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	void Changing()
+	{
+		Lock.readLock().lock();
+
+	} // Changing
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Record
+	* Purpose: Records a change for the standby, if one is attached. Called
+	*		   between Changing and Changed, and for a change to a queue, while
+	*		   the queue's lock is still held.
+	*
+	* Arguments: Op op - the change
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	void Record( Op op )
+	{
+		if ( !Attached )
+		{
+			return;
+
+		} // if
+
+		int Count = PendingCount.incrementAndGet();
+
+		if ( Count > MAXPENDING )
+		{
+			// The standby stopped pulling or cannot keep up. It will have to
+			// attach again.
+
+			Attached = false;
+			Pending.clear();
+			Wake();
+			System.out.println( "Standby is " + MAXPENDING + " changes behind. Replication stopped until it attaches again." );
+			return;
+
+		} // if
+
+		Pending.add( op );
+
+		if ( Count == 1 )
+		{
+			Wake();
+
+		} // if
+
+	} // Record
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Changed
+	* Purpose: Lets snapshots go ahead. Called after every Changing, whether
+	*		   anything was recorded or not.
+	*
+	* Arguments: None
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	void Changed()
+	{
+		Lock.readLock().unlock();
+
+	} // Changed
+
+	private void Wake()
+	{
+		Thread t = Puller;
+
+		if ( t != null )
+		{
+			LockSupport.unpark( t );
+
+		} // if
+
+	} // Wake
+
+	/***************************************************************************
+	* Remote METHOD:: Attach
+	* Purpose: Takes a snapshot of the message manager's state for the standby
+	*		   and starts recording changes for it. Changes wait until the
+	*		   snapshot is taken.
+	*
+	* Arguments: None
+	*
+	* Returns: Op[] - the snapshot
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public Op[] Attach() throws RemoteException
+	{
+		Lock.writeLock().lock();
+
+		try
+		{
+			Pending.clear();
+			PendingCount.set( 0 );
+			Attached = true;
+
+			List<Op> Snapshot = MessageManager.Snapshot();
+
+			System.out.println( "Standby attached. Snapshot of " + Snapshot.size() + " operations sent." );
+
+			return Snapshot.toArray( new Op[0] );
+
+		} // try
+
+		finally
+		{
+			Lock.writeLock().unlock();
+
+		} // finally
+
+	} // Attach
+
+	/***************************************************************************
+	* Remote METHOD:: Pull
+	* Purpose: Returns the changes recorded since the last Pull, waiting up to
+	*		   MaxWaitMillis (no longer than PULLMILLIS) for one.
+	*
+	* Arguments: long MaxWaitMillis - the longest to wait for a change
+	*
+	* Returns: Op[] - the changes; null if the standby has to attach again
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	public Op[] Pull( long MaxWaitMillis ) throws RemoteException
+	{
+		long Deadline = System.nanoTime() + Math.min( MaxWaitMillis, PULLMILLIS ) * 1000000;
+		long Left;
+
+		Puller = Thread.currentThread();
+
+		while ( Attached && PendingCount.get() == 0 && ( Left = Deadline - System.nanoTime() ) > 0 )
+		{
+			LockSupport.parkNanos( this, Left );
+
+		} // while
+
+		Puller = null;
+
+		if ( !Attached )
+		{
+			return null;
+
+		} // if
+
+		ArrayList<Op> Ops = new ArrayList<Op>();
+		Op op;
+
+		while ( Ops.size() < MAXBATCH && ( op = Pending.poll() ) != null )
+		{
+			Ops.add( op );
+
+		} // while
+
+		PendingCount.addAndGet( -Ops.size() );
+
+		return Ops.toArray( new Op[0] );
+
+	} // Pull
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Follow
+	* Purpose: Runs a standby: attaches to the primary and applies its changes
+	*		   until the primary cannot be reached for StandbyTimeout ms and
+	*		   MINMISSES attempts in a row, then returns so the standby can take
+	*		   over. Before the first snapshot
+	*		   the standby waits for the primary however long it takes, since
+	*		   there is nothing to take over.
+	*
+	* Arguments: String Primary - host:registryport of the primary
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static void Follow( String Primary )
+	{
+		long Timeout = Long.getLong( "MessageManager.StandbyTimeout", 1000 );
+		MessageReplicaInterface Source = null;
+		boolean Synchronized = false;			// Set once a snapshot was applied
+		long FailingSince = 0;					// When the primary was first missed (0 while it answers)
+		int Misses = 0;							// Attempts in a row that failed
+		Op[] Ops;
+
+		while ( true )
+		{
+			try
+			{
+				if ( Source == null )
+				{
+					Source = (MessageReplicaInterface) Naming.lookup( "//" + Primary + "/MessageReplica" );
+
+				} // if
+
+				if ( !Synchronized )
+				{
+					Ops = Source.Attach();
+					MessageManager.Restore( Ops );
+					Synchronized = true;
+					System.out.println( "Standby synchronized with the primary at " + Primary + ": " + Ops.length + " operations." );
+
+				} // if
+
+				Ops = Source.Pull( PULLMILLIS );
+				FailingSince = 0;
+				Misses = 0;
+
+				if ( Ops == null )
+				{
+					Synchronized = false;
+					continue;
+
+				} // if
+
+				for ( int i = 0; i < Ops.length; i++ )
+				{
+					MessageManager.Apply( Ops[i] );
+
+				} // for
+
+			} // try
+
+			catch (Exception e)
+			{
+				// A primary that did not answer in time keeps its reference, since
+				// its registry may be as stuck as it is; one that is gone does not
+
+				if ( e instanceof ConnectException || e instanceof NoSuchObjectException || e instanceof NotBoundException )
+				{
+					Source = null;
+
+				} // if
+
+				Misses++;
+
+				if ( FailingSince == 0 )
+				{
+					FailingSince = System.currentTimeMillis();
+
+				} else if ( Synchronized && Misses >= MINMISSES && System.currentTimeMillis() - FailingSince >= Timeout ) {
+
+					System.out.println( "Primary at " + Primary + " lost (" + e + "). Taking over." );
+					return;
+
+				} // if
+
+				try
+				{
+					Thread.sleep( RETRYMILLIS );
+
+				} // try
+
+				catch (InterruptedException ie)
+				{
+					return;
+
+				} // catch
+
+			} // catch
+
+		} // while
+
+	} // Follow
+
+	/***************************************************************************
+	* INNER CLASS:: HeartbeatSocketFactory
+	* Purpose: Makes the sockets the standby calls the primary on. A call that
+	*		   cannot connect, or gets no answer, within CALLMILLIS fails, so a
+	*		   primary that stopped answering counts as a missed heartbeat rather
+	*		   than holding the standby up. The factory is sent to the standby
+	*		   with the reference to the replication service.
+	*
+	****************************************************************************/
+
+	static class HeartbeatSocketFactory implements RMIClientSocketFactory, Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		public Socket createSocket( String Host, int Port ) throws IOException
+		{
+			Socket s = new TimedSocket();
+
+			s.connect( new InetSocketAddress( Host, Port ), CALLMILLIS );
+
+			return s;
+
+		} // createSocket
+
+		public boolean equals( Object o )
+		{
+			return ( o instanceof HeartbeatSocketFactory );
+
+		} // equals
+
+		public int hashCode()
+		{
+			return HeartbeatSocketFactory.class.hashCode();
+
+		} // hashCode
+
+	} // HeartbeatSocketFactory
+
+	// RMI sets a socket's read timeout itself, to none while it waits for a
+	// reply, so the socket keeps CALLMILLIS whatever it is asked to use.
+
+	static class TimedSocket extends Socket
+	{
+		TimedSocket() throws IOException
+		{
+			super.setSoTimeout( CALLMILLIS );
+
+		} // constructor
+
+		public void setSoTimeout( int Millis )
+		{
+		} // setSoTimeout
+
+	} // TimedSocket
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Fence
+	* Purpose: Called by a standby once it took over. Keeps trying, from the
+	*		   background, to tell the old primary to step down, for FENCEMILLIS
+	*		   or until it is told. A primary that died cannot be told; one that
+	*		   was only paused is told once it can be reached again.
+	*
+	* Arguments: String Primary - host:registryport of the old primary
+	*			 String NewOwner - host:registryport of this message manager
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static void Fence( String Primary, String NewOwner )
+	{
+		Thread Fencer = new Thread( "Fencer" )
+		{
+			public void run()
+			{
+				long Deadline = System.currentTimeMillis() + FENCEMILLIS;
+				Remote Self = MessageManager.Replication;
+
+				while ( System.currentTimeMillis() < Deadline )
+				{
+					try
+					{
+						Remote Old = Naming.lookup( "//" + Primary + "/MessageReplica" );
+
+						// This message manager may have bound its own replication in
+						// the same registry
+
+						if ( Self != null && Old.equals( RemoteObject.toStub( Self ) ) )
+						{
+							return;
+
+						} // if
+
+						( (MessageReplicaInterface) Old ).Fence( NewOwner );
+						return;
+
+					} // try
+
+					catch (UnmarshalException e)
+					{
+						// The old primary exited while answering
+
+						return;
+
+					} // catch
+
+					catch (Exception e)
+					{
+						try
+						{
+							Thread.sleep( FENCERETRYMILLIS );
+
+						} // try
+
+						catch (InterruptedException ie)
+						{
+							return;
+
+						} // catch
+
+					} // catch
+
+				} // while
+
+			} // run
+
+		};
+
+		Fencer.setDaemon( true );
+		Fencer.start();
+
+	} // Fence
+
+} // MessageReplication
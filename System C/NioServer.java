@@ -0,0 +1,295 @@
+/******************************************************************************************************************
+* File:NioServer.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This thread serves every NIO connection with one selector. It reads request frames, has RequestServer
+*			   handle them and writes the responses back.
+*
+*			   A participant that sends requests but does not read the responses would have them pile up in the
+*			   message manager. Once MAXOUT bytes of responses wait to be written to a connection, it is no
+*			   longer read until they have been written, so the participant's own requests wait in its socket.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+
+class NioServer extends RequestServer
+{
+	static final int MAXOUT = 1024 * 1024;		// Response bytes waiting for a connection before it is not read
+
+	Selector Sel;						// Watches the listening socket and every connection
+
+	NioServer( RMIMessageManagerInterface mm, int Port ) throws IOException
+	{
+		super( "NioServer", mm );
+		Sel = Selector.open();
+
+		ServerSocketChannel Listener = ServerSocketChannel.open();
+		Listener.bind( new InetSocketAddress( Port ) );
+		Listener.configureBlocking( false );
+		Listener.register( Sel, SelectionKey.OP_ACCEPT );
+
+	} // constructor
+
+	public void run()
+	{
+		while ( true )
+		{
+			try
+			{
+				Sel.select( NextTimeout() );
+
+				Iterator<SelectionKey> keys = Sel.selectedKeys().iterator();
+
+				while ( keys.hasNext() )
+				{
+					SelectionKey k = keys.next();
+					keys.remove();
+
+					if ( !k.isValid() )
+					{
+						continue;
+
+					} // if
+
+					if ( k.isAcceptable() )
+					{
+						Accept( (ServerSocketChannel) k.channel() );
+
+					} else {
+
+						NioConnection c = (NioConnection) k.attachment();
+
+						try
+						{
+							if ( k.isReadable() )
+							{
+								Read( c );
+
+							} // if
+
+							if ( k.isValid() && k.isWritable() )
+							{
+								c.Flush();
+
+							} // if
+
+						} // try
+
+						catch (IOException e)
+						{
+							Close( c );
+
+						} // catch
+
+					} // if
+
+				} // while
+
+				HandleHeld();
+				CompleteSends();
+				CompletePolls();
+
+			} // try
+
+			catch (Exception e)
+			{
+				MessageManager.l.DisplayStatistics( "NIO server error: " + e );
+
+			} // catch
+
+		} // while
+
+	} // run
+
+	// Accepts a new participant connection.
+
+	void Accept( ServerSocketChannel Listener ) throws IOException
+	{
+		SocketChannel ch = Listener.accept();
+
+		if ( ch != null )
+		{
+			ch.configureBlocking( false );
+			ch.socket().setTcpNoDelay( true );
+
+			SelectionKey k = ch.register( Sel, SelectionKey.OP_READ );
+			k.attach( new NioConnection( ch, k ) );
+
+		} // if
+
+	} // Accept
+
+	// Reads what is available and handles every complete frame.
+
+	void Read( NioConnection c ) throws IOException
+	{
+		int n = c.Channel.read( c.In );
+
+		if ( n < 0 )
+		{
+			Close( c );
+			return;
+
+		} // if
+
+		MessageManager.Metrics.BytesIn.get( "nio" ).add( n );
+
+		c.In.flip();
+
+		while ( c.In.remaining() >= 4 )
+		{
+			int len = c.In.getInt( c.In.position() );
+
+			if ( len < 9 || len > WireProtocol.MAXFRAME )
+			{
+				throw new StreamCorruptedException( "Bad frame length " + len );
+
+			} // if
+
+			if ( c.In.remaining() < 4 + len )
+			{
+				if ( c.In.capacity() < 4 + len )
+				{
+					// Make room for a frame bigger than the buffer
+
+					ByteBuffer bigger = ByteBuffer.allocate( 4 + len );
+					bigger.put( c.In );
+					bigger.flip();
+					c.In = bigger;
+
+				} // if
+
+				break;
+
+			} // if
+
+			c.In.getInt();
+
+			long RequestId = c.In.getLong();
+			byte Op = c.In.get();
+			byte[] body = new byte[len - 9];
+			c.In.get( body );
+
+			Receive( c, RequestId, Op, new DataInputStream( new ByteArrayInputStream( body ) ) );
+
+		} // while
+
+		c.In.compact();
+
+	} // Read
+
+	void Wakeup()
+	{
+		Sel.wakeup();
+
+	} // Wakeup
+
+	// Closes a connection and drops its parked polls. Their messages stay queued.
+
+	void Close( Connection Conn )
+	{
+		NioConnection c = (NioConnection) Conn;
+
+		if ( c.Closed )
+		{
+			return;
+
+		} // if
+
+		c.Closed = true;
+		c.Key.cancel();
+
+		try
+		{
+			c.Channel.close();
+
+		} // try
+
+		catch (IOException e)
+		{
+			// Closing anyway
+
+		} // catch
+
+		Drop( c );
+
+	} // Close
+
+	/***************************************************************************
+	* INNER CLASS:: NioConnection
+	* Purpose: The NIO server's state for one participant connection: the bytes
+	*		   read but not yet handled and the responses not yet written.
+	*
+	****************************************************************************/
+
+	static class NioConnection extends Connection
+	{
+		SocketChannel Channel;
+		SelectionKey Key;
+		ByteBuffer In = ByteBuffer.allocate( 64 * 1024 );		// Partly read frames
+		ArrayDeque<ByteBuffer> Out = new ArrayDeque<ByteBuffer>();	// Responses waiting to be written
+		long OutBytes = 0;										// Bytes left to write in Out
+
+		NioConnection( SocketChannel ch, SelectionKey k )
+		{
+			Channel = ch;
+			Key = k;
+
+		} // constructor
+
+		// Queues a response and writes as much as the socket takes.
+
+		void Send( ByteBuffer b ) throws IOException
+		{
+			if ( !Closed )
+			{
+				Out.add( b );
+				OutBytes += b.remaining();
+				Flush();
+
+			} // if
+
+		} // Send
+
+		// Writes queued responses; asks to be told when the socket can take more.
+		// Stops reading the connection while MAXOUT bytes or more are queued.
+
+		void Flush() throws IOException
+		{
+			while ( !Out.isEmpty() )
+			{
+				ByteBuffer b = Out.peek();
+				int n = Channel.write( b );
+
+				MessageManager.Metrics.BytesOut.get( "nio" ).add( n );
+				OutBytes -= n;
+
+				if ( b.hasRemaining() )
+				{
+					Key.interestOps( ( OutBytes < MAXOUT ? SelectionKey.OP_READ : 0 ) | SelectionKey.OP_WRITE );
+					return;
+
+				} // if
+
+				Out.poll();
+
+			} // while
+
+			Key.interestOps( SelectionKey.OP_READ );
+
+		} // Flush
+
+	} // NioConnection
+
+} // NioServer
@@ -0,0 +1,193 @@
+/******************************************************************************************************************
+* File:QueueCheck.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This program checks what a full message queue (see MessageQueue) does with an arriving message. Each case fills a
+* queue with critical messages (fire alarms), normal ones (readings) or both, posts one more message, and compares
+* the messages left in the queue, in the order they would be taken, and the dropped count with what is expected.
+* A critical message displaces the oldest normal message whatever the overflow policy, and a normal message must
+* never displace a critical one. It also checks that a participant taking as many messages as GetSize counts, the
+* way the consoles and controllers do, gets a message each time even if one of them has expired. The program prints
+* each case and exits with status 1 if any of them fails.
+*
+* Parameters: None
+*
+* Internal Methods:
+*	MessageQueue Queue(OverflowPolicy WhenFull, String... Texts)
+*	boolean Check(String Case, MessageQueue q, boolean Added, boolean Expected, long Dropped, String... Left)
+*	boolean CheckTaken(String Case, MessageQueue q)
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.util.*;
+
+public class QueueCheck
+{
+	static final int READING = 1;				// Id of the normal messages posted
+	static final int ALARM = 22;				// Id of the critical messages posted (fire alarm)
+
+	public static void main(String args[])
+	{
+		boolean Passed = true;
+		MessageQueue q;
+
+		// A reading arriving at a queue full of alarms is the one dropped
+
+		q = Queue( MessageQueue.OverflowPolicy.DROP_OLDEST, "A1", "A2", "A3" );
+		Passed &= Check( "DROP_OLDEST, reading to a queue of alarms", q, q.AddMessage( new Message( READING, "R1" ) ), false, 1, "A1", "A2", "A3" );
+
+		q = Queue( MessageQueue.OverflowPolicy.DROP_OLDEST, "A1", "A2", "A3" );
+		Passed &= Check( "DROP_OLDEST, readings to a queue of alarms in one batch", q,
+						 q.AddMessages( Arrays.asList( new Message( READING, "R1" ), new Message( READING, "R2" ) ) ) == 0, false, 2, "A1", "A2", "A3" );
+
+		q = Queue( MessageQueue.OverflowPolicy.DROP_NEWEST, "A1", "A2", "A3" );
+		Passed &= Check( "DROP_NEWEST, reading to a queue of alarms", q, q.AddMessage( new Message( READING, "R1" ) ), false, 1, "A1", "A2", "A3" );
+
+		q = Queue( MessageQueue.OverflowPolicy.REJECT, "A1", "A2", "A3" );
+		Passed &= Check( "REJECT, reading to a queue of alarms", q, q.AddMessage( new Message( READING, "R1" ) ), false, 0, "A1", "A2", "A3" );
+
+		// A reading displaces the oldest reading, never an alarm
+
+		q = Queue( MessageQueue.OverflowPolicy.DROP_OLDEST, "A1", "R1", "A2" );
+		Passed &= Check( "DROP_OLDEST, reading to a queue of alarms and a reading", q, q.AddMessage( new Message( READING, "R2" ) ), false, 1, "A1", "A2", "R2" );
+
+		q = Queue( MessageQueue.OverflowPolicy.DROP_OLDEST, "R1", "R2", "R3" );
+		Passed &= Check( "DROP_OLDEST, reading to a queue of readings", q, q.AddMessage( new Message( READING, "R4" ) ), false, 1, "R2", "R3", "R4" );
+
+		// An alarm displaces the oldest reading whatever the policy, and only
+		// displaces an alarm under DROP_OLDEST
+
+		q = Queue( MessageQueue.OverflowPolicy.REJECT, "R1", "A1", "R2" );
+		Passed &= Check( "REJECT, alarm to a queue with readings", q, q.AddMessage( new Message( ALARM, "A2" ) ), true, 1, "A1", "A2", "R2" );
+
+		q = Queue( MessageQueue.OverflowPolicy.DROP_OLDEST, "A1", "A2", "A3" );
+		Passed &= Check( "DROP_OLDEST, alarm to a queue of alarms", q, q.AddMessage( new Message( ALARM, "A4" ) ), false, 1, "A2", "A3", "A4" );
+
+		q = Queue( MessageQueue.OverflowPolicy.DROP_NEWEST, "A1", "A2", "A3" );
+		Passed &= Check( "DROP_NEWEST, alarm to a queue of alarms", q, q.AddMessage( new Message( ALARM, "A4" ) ), false, 1, "A1", "A2", "A3" );
+
+		// A participant gets as many messages as GetSize counts, expired or not
+
+		Message Stale = new Message( READING, "R1" );
+
+		Stale.SetTimeToLive( 1 );
+		Stale.SetCreationTime( System.currentTimeMillis() - 1000 );
+
+		q = new MessageQueue( 1 );
+		q.AddMessage( Stale );
+		q.AddMessage( new Message( ALARM, "A1" ) );
+		Passed &= CheckTaken( "GetSize, then GetMessage that many times, with an expired reading", q );
+
+		System.out.println( Passed ? "All cases passed." : "Some cases FAILED." );
+		System.exit( Passed ? 0 : 1 );
+
+	} // main
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Queue
+	* Purpose: Makes a queue with room for the messages given, and fills it.
+	*		   Texts starting with A are alarms, the others readings.
+	*
+	* Arguments: OverflowPolicy WhenFull - the queue's overflow policy
+	*			 String... Texts - the messages, in the order they are posted
+	*
+	* Returns: MessageQueue - the full queue
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static MessageQueue Queue( MessageQueue.OverflowPolicy WhenFull, String... Texts )
+	{
+		MessageQueue q = new MessageQueue( 1, Texts.length, WhenFull );
+
+		for ( String Text : Texts )
+		{
+			q.AddMessage( new Message( Text.startsWith( "A" ) ? ALARM : READING, Text ) );
+
+		} // for
+
+		return q;
+
+	} // Queue
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Check
+	* Purpose: Compares what a case left in the queue with what is expected and
+	*		   prints the result. The queue is drained.
+	*
+	* Arguments: String Case - what the case posted
+	*			 MessageQueue q - the queue
+	*			 boolean Added, Expected - what adding the message returned, and
+	*			 what it should have
+	*			 long Dropped - the dropped count expected
+	*			 String... Left - the texts expected in the queue, in order
+	*
+	* Returns: boolean - true if the case passed
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static boolean Check( String Case, MessageQueue q, boolean Added, boolean Expected, long Dropped, String... Left )
+	{
+		long WasDropped = q.GetDroppedCount();
+		ArrayList<String> Texts = new ArrayList<String>();
+
+		for ( Message m : q.Drain( 0 ) )
+		{
+			Texts.add( m.GetMessage() );
+
+		} // for
+
+		boolean Passed = ( Added == Expected && WasDropped == Dropped && Texts.equals( Arrays.asList( Left ) ) );
+
+		System.out.println( ( Passed ? "ok     " : "FAILED " ) + Case + ": queue " + Texts + ", dropped " + WasDropped
+							+ ( Passed ? "" : " (expected " + Arrays.asList( Left ) + ", dropped " + Dropped + ", added " + Expected + ")" ) );
+
+		return Passed;
+
+	} // Check
+
+	/***************************************************************************
+	* CONCRETE METHOD:: CheckTaken
+	* Purpose: Takes as many messages off the queue as GetSize counts, one at a
+	*		   time, and prints whether each call returned a message.
+	*
+	* Arguments: String Case - what the queue holds
+	*			 MessageQueue q - the queue
+	*
+	* Returns: boolean - true if the case passed
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static boolean CheckTaken( String Case, MessageQueue q )
+	{
+		int Size = q.GetSize();
+		int Taken = 0;
+
+		for ( int i = 0; i < Size; i++ )
+		{
+			if ( q.GetMessage() != null )
+			{
+				Taken++;
+
+			} // if
+
+		} // for
+
+		boolean Passed = ( Taken == Size && q.GetSize() == 0 );
+
+		System.out.println( ( Passed ? "ok     " : "FAILED " ) + Case + ": size " + Size + ", messages taken " + Taken );
+
+		return Passed;
+
+	} // CheckTaken
+
+} // QueueCheck
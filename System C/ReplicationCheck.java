@@ -0,0 +1,423 @@
+/******************************************************************************************************************
+* File:ReplicationCheck.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This program checks that a hot standby (see MessageReplication) ends up with the same queues as its primary while
+* participants post and drain at the same time. It starts an RMI registry in its own JVM, then a primary message
+* manager and its standby as separate processes (the message manager's state is static, so one JVM cannot hold both).
+* Their queues have no limit, so no message is dropped and what each queue holds follows from what was sent and taken.
+* Poster threads send numbered messages, singly and in batches, some of them critical and the others readings with a
+* time to live, while drainer participants that take every message drain their queues concurrently in batches of
+* random sizes. Every message a poster sent and every message a drainer took is remembered.
+*
+* When the load stops, the standby is given SettleMillis to pull the last changes, and the primary is killed. Once the
+* standby has taken over, the drainers fail over to it and drain what is left. For each drainer, what is left must be
+* exactly what was sent and not yet taken; the program prints the messages missing from the standby and those that
+* should not have been there, and exits with status 1 if any drainer does not match.
+*
+* Parameters: ReplicationCheck.Posters - poster threads (default 8)
+*			  ReplicationCheck.Drainers - drainer participants (default 8)
+*			  ReplicationCheck.Seconds - how long to post and drain (default 20)
+*			  ReplicationCheck.SettleMillis - ms the standby is given to catch up before the primary is killed
+*											  (default 5000)
+*
+* Internal Methods:
+*	Process Start(File Log, String... Properties)
+*	void AwaitBound(Registry r)
+*	void AwaitLine(File Log, String Text)
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ReplicationCheck
+{
+	static final int READING = 1;				// Id of the normal messages posted
+	static final int ALARM = 22;				// Id of the critical messages posted (fire alarm)
+	static final long TIMETOLIVE = 600000;		// Time to live of the readings (ms), longer than any run
+	static final long STARTMILLIS = 30000;		// Longest to wait for a message manager to start
+
+	static volatile boolean Posting = true;		// Cleared to stop the posters
+	static volatile boolean Draining = true;	// Cleared to stop the drainers
+	static Set<String> Sent = ConcurrentHashMap.newKeySet();	// Text of every message posted
+
+	public static void main(String args[]) throws Exception
+	{
+		int Posters = Integer.getInteger( "ReplicationCheck.Posters", 8 );
+		int Drainers = Integer.getInteger( "ReplicationCheck.Drainers", 8 );
+		long Seconds = Long.getLong( "ReplicationCheck.Seconds", 20 );
+		File Dir = Files.createTempDirectory( "ReplicationCheck" ).toFile();
+
+		System.setProperty( "MessageManager.Transport", "rmi" );
+		System.setProperty( "MessageManager.FailoverMillis", "30000" );
+		System.setProperty( "MessageManager.OutboxSize", "0" );
+
+		Registry r = LocateRegistry.createRegistry( 1099 );
+
+		File PrimaryLog = new File( Dir, "primary.log" );
+		File StandbyLog = new File( Dir, "standby.log" );
+		Process Primary = Start( PrimaryLog, "-DMessageManager.Replicate=true" );
+		Process Standby = null;
+		boolean Matched = false;
+
+		// The registry keeps this JVM running, so it exits once the message
+		// managers are stopped, whatever happened
+
+		try
+		{
+			AwaitBound( r );
+			Standby = Start( StandbyLog, "-DMessageManager.StandbyOf=localhost:1099" );
+			AwaitLine( StandbyLog, "Standby synchronized" );
+
+			System.out.println( "Primary and standby started (logs in " + Dir + "). Posting and draining for " + Seconds + " s..." );
+
+			// Drainers register first, so they get every message
+
+			ArrayList<Drainer> Takers = new ArrayList<Drainer>();
+			ArrayList<Thread> Threads = new ArrayList<Thread>();
+
+			for ( int i = 0; i < Drainers; i++ )
+			{
+				Drainer d = new Drainer();
+
+				Takers.add( d );
+				Threads.add( new Thread( d, "Drainer-" + i ) );
+
+			} // for
+
+			for ( int i = 0; i < Posters; i++ )
+			{
+				Threads.add( new Thread( new Poster( i ), "Poster-" + i ) );
+
+			} // for
+
+			for ( Thread t : Threads )
+			{
+				t.start();
+
+			} // for
+
+			Thread.sleep( Seconds * 1000 );
+
+			Posting = false;
+			Draining = false;
+
+			for ( Thread t : Threads )
+			{
+				t.join();
+
+			} // for
+
+			// Let the standby pull the last changes, then kill the primary
+
+			Thread.sleep( Long.getLong( "ReplicationCheck.SettleMillis", 5000 ) );
+			Primary.destroyForcibly().waitFor();
+
+			System.out.println( Sent.size() + " messages posted. Primary killed; draining what is left from the standby..." );
+
+			Matched = true;
+
+			for ( int i = 0; i < Takers.size(); i++ )
+			{
+				Matched &= Takers.get( i ).Compare( "Drainer " + i );
+
+			} // for
+
+			System.out.println( Matched ? "Standby matched the primary." : "Standby did NOT match the primary." );
+
+		} // try
+
+		catch (Exception e)
+		{
+			Matched = false;
+			System.out.println( "Check failed: " + e );
+
+		} // catch
+
+		finally
+		{
+			Primary.destroyForcibly();
+
+			if ( Standby != null )
+			{
+				Standby.destroyForcibly();
+
+			} // if
+
+		} // finally
+
+		System.exit( Matched ? 0 : 1 );
+
+	} // main
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Start
+	* Purpose: Starts a message manager in a process of its own, with the
+	*		   classpath of this program, its output going to a log file.
+	*
+	* Arguments: File Log - where the output goes
+	*			 String... Properties - system properties for the message manager
+	*
+	* Returns: Process - the message manager
+	*
+	* Exceptions: IOException - the process could not be started
+	*
+	****************************************************************************/
+
+	static Process Start( File Log, String... Properties ) throws IOException
+	{
+		ArrayList<String> Command = new ArrayList<String>();
+
+		Command.add( ProcessHandle.current().info().command().orElse( "java" ) );
+		Command.add( "-cp" );
+		Command.add( System.getProperty( "java.class.path" ) );
+		Command.add( "-DMessageManager.StatsInterval=0" );
+		Command.add( "-DMessageManager.MetricsPort=0" );
+		Command.add( "-DMessageManager.NioPort=0" );
+		Command.add( "-DMessageManager.ShmDir=" );
+		Command.add( "-DMessageManager.QueueCapacity=0" );
+		Command.addAll( Arrays.asList( Properties ) );
+		Command.add( "MessageManager" );
+
+		return new ProcessBuilder( Command ).redirectErrorStream( true ).redirectOutput( Log ).start();
+
+	} // Start
+
+	/***************************************************************************
+	* CONCRETE METHOD:: AwaitBound
+	* Purpose: Waits for the primary to bind itself in the registry.
+	*
+	* Arguments: Registry r - the registry
+	*
+	* Returns: None
+	*
+	* Exceptions: Exception - it was not bound within STARTMILLIS
+	*
+	****************************************************************************/
+
+	static void AwaitBound( Registry r ) throws Exception
+	{
+		long Deadline = System.currentTimeMillis() + STARTMILLIS;
+
+		while ( !Arrays.asList( r.list() ).contains( "MessageManager" ) )
+		{
+			if ( System.currentTimeMillis() > Deadline )
+			{
+				throw new Exception( "The primary was not bound in " + STARTMILLIS + " ms" );
+
+			} // if
+
+			Thread.sleep( 50 );
+
+		} // while
+
+	} // AwaitBound
+
+	/***************************************************************************
+	* CONCRETE METHOD:: AwaitLine
+	* Purpose: Waits for a message manager to print a line containing Text.
+	*
+	* Arguments: File Log - the message manager's output
+	*			 String Text - what to wait for
+	*
+	* Returns: None
+	*
+	* Exceptions: Exception - it was not printed within STARTMILLIS
+	*
+	****************************************************************************/
+
+	static void AwaitLine( File Log, String Text ) throws Exception
+	{
+		long Deadline = System.currentTimeMillis() + STARTMILLIS;
+
+		while ( !Log.exists() || !new String( Files.readAllBytes( Log.toPath() ) ).contains( Text ) )
+		{
+			if ( System.currentTimeMillis() > Deadline )
+			{
+				throw new Exception( "\"" + Text + "\" not printed to " + Log + " in " + STARTMILLIS + " ms" );
+
+			} // if
+
+			Thread.sleep( 50 );
+
+		} // while
+
+	} // AwaitLine
+
+	/***************************************************************************
+	* INNER CLASS:: Poster
+	* Purpose: Posts numbered messages as fast as the message manager takes
+	*		   them, alternating single messages and batches, with an alarm
+	*		   every so often.
+	*
+	****************************************************************************/
+
+	static class Poster implements Runnable
+	{
+		int Index;
+
+		Poster( int Index )
+		{
+			this.Index = Index;
+
+		} // constructor
+
+		public void run()
+		{
+			Random r = new Random( Index );
+			long Next = 0;
+
+			try
+			{
+				MessageManagerInterface ei = new MessageManagerInterface();
+
+				while ( Posting )
+				{
+					Message[] Batch = new Message[ r.nextBoolean() ? 1 : 1 + r.nextInt( 20 ) ];
+
+					for ( int i = 0; i < Batch.length; i++ )
+					{
+						Batch[i] = new Message( r.nextInt( 10 ) == 0 ? ALARM : READING, "P" + Index + "-" + Next++ );
+
+						if ( Batch[i].GetMessageId() == READING )
+						{
+							Batch[i].SetTimeToLive( TIMETOLIVE );
+
+						} // if
+
+					} // for
+
+					if ( Batch.length == 1 )
+					{
+						ei.SendMessage( Batch[0] );
+
+					} else {
+
+						ei.SendMessages( Batch );
+
+					} // if
+
+					for ( int i = 0; i < Batch.length; i++ )
+					{
+						Sent.add( Batch[i].GetMessage() );
+
+					} // for
+
+				} // while
+
+				ei.UnRegister();
+
+			} // try
+
+			catch (Exception e)
+			{
+				System.out.println( "Poster " + Index + " failed: " + e );
+
+			} // catch
+
+		} // run
+
+	} // Poster
+
+	/***************************************************************************
+	* INNER CLASS:: Drainer
+	* Purpose: A participant that takes every message, draining its queue in
+	*		   batches of random sizes while the posters run, and afterwards
+	*		   compares what is left on the standby with what it should be.
+	*
+	****************************************************************************/
+
+	static class Drainer implements Runnable
+	{
+		MessageManagerInterface ei;
+		Set<String> Taken = new HashSet<String>();	// Text of every message drained under load
+
+		Drainer() throws Exception
+		{
+			ei = new MessageManagerInterface();
+
+		} // constructor
+
+		public void run()
+		{
+			Random r = new Random();
+
+			try
+			{
+				while ( Draining )
+				{
+					for ( Message m : ei.GetMessages( 1 + r.nextInt( 50 ), 0 ) )
+					{
+						Taken.add( m.GetMessage() );
+
+					} // for
+
+					Thread.sleep( r.nextInt( 10 ) );
+
+				} // while
+
+			} // try
+
+			catch (Exception e)
+			{
+				System.out.println( Thread.currentThread().getName() + " failed: " + e );
+
+			} // catch
+
+		} // run
+
+		// Drains what is left (from the standby) and compares it with what was sent and not taken.
+
+		boolean Compare( String Name ) throws Exception
+		{
+			Set<String> Expected = new HashSet<String>( Sent );
+			Set<String> Left = new HashSet<String>();
+			Message[] Messages;
+
+			Expected.removeAll( Taken );
+
+			do
+			{
+				Messages = ei.GetMessages( 0, 0 );
+
+				for ( Message m : Messages )
+				{
+					Left.add( m.GetMessage() );
+
+				} // for
+
+			} while ( Messages.length > 0 );
+
+			Set<String> Missing = new TreeSet<String>( Expected );
+			Set<String> Extra = new TreeSet<String>( Left );
+
+			Missing.removeAll( Left );
+			Extra.removeAll( Expected );
+
+			System.out.println( Name + ": " + Taken.size() + " drained under load, " + Expected.size() + " expected on the standby, "
+				+ Left.size() + " there, " + Missing.size() + " missing " + First( Missing ) + ", " + Extra.size() + " extra " + First( Extra ) );
+
+			return Missing.isEmpty() && Extra.isEmpty();
+
+		} // Compare
+
+		static String First( Set<String> s )
+		{
+			ArrayList<String> l = new ArrayList<String>( s );
+
+			return l.subList( 0, Math.min( 5, l.size() ) ).toString();
+
+		} // First
+
+	} // Drainer
+
+} // ReplicationCheck
@@ -0,0 +1,669 @@
+/******************************************************************************************************************
+* File:RequestServer.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This class is the part of a framed transport's server thread (NIO or shared memory) that handles
+*			   requests for the message manager (see NioServer and ShmServer). Requests are handled with the same
+*			   methods the RMI transport uses and answered in the order they are finished. They are short except for a
+*			   GetMessageQueue that has to wait; that request is parked on the participant and answered when its
+*			   queue's arrival listener reports a message (which wakes the thread), or when its wait runs out.
+*			   Subclasses read the requests, call HandleHeld, CompleteSends and CompletePolls after each pass and
+*			   close connections.
+*
+*			   So that a flood of readings cannot hold up an alarm, requests are taken with Receive: a send posting a
+*			   critical message (see Message.GetPriority) is handled at once, and every other request is held until
+*			   the subclass has read what is waiting (one pass) and calls HandleHeld. An alarm therefore waits for
+*			   the reading of the pass it arrives in, not for the handling of the readings sent ahead of it. The held
+*			   requests are handled in the order they were read, and a held send is posted even if its connection
+*			   closes in the meantime, as it would have been had it been handled at once.
+*
+*			   With JournalWait set, a send is not delivered until its messages are on disk. Waiting for that here
+*			   would hold up every connection of the transport for each force, so the messages are submitted to the
+*			   journal and the request is set aside; the journal's writer hands it back once they are forced, and it
+*			   is delivered and answered then. Sends are forced in the order they were submitted, so they are still
+*			   delivered in the order they were handled.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+abstract class RequestServer extends Thread
+{
+	RMIMessageManagerInterface Manager;	// Handles the requests
+	ConcurrentLinkedQueue<MessageManager.Participant> Arrivals = new ConcurrentLinkedQueue<MessageManager.Participant>();	// Queues that got messages
+	ArrayList<PendingPoll> Polls = new ArrayList<PendingPoll>();	// Parked requests (this thread only)
+	ConcurrentLinkedQueue<JournaledSend> Journaled = new ConcurrentLinkedQueue<JournaledSend>();	// Sends whose messages are on disk
+	ArrayDeque<HeldRequest> Held = new ArrayDeque<HeldRequest>();	// Requests read this pass, after the critical sends
+
+	RequestServer( String Name, RMIMessageManagerInterface mm )
+	{
+		super( Name );
+		setDaemon( true );
+		Manager = mm;
+
+	} // constructor
+
+	// Wakes the thread when a parked poll's queue gets a message.
+
+	abstract void Wakeup();
+
+	// Closes a connection; must call Drop.
+
+	abstract void Close( Connection c );
+
+	// Takes one request: handles a send posting a critical message at once and holds the others for HandleHeld.
+
+	void Receive( Connection c, long RequestId, byte Op, DataInputStream in ) throws IOException
+	{
+		if ( Op == WireProtocol.SEND || Op == WireProtocol.SEND_BATCH )
+		{
+			Message[] Messages;
+
+			try
+			{
+				Messages = ( Op == WireProtocol.SEND ) ? new Message[] { MessageCodec.ReadMessage( in ) } : WireProtocol.ReadMessages( in );
+
+			} // try
+
+			catch (StreamCorruptedException | EOFException e)
+			{
+				c.Send( ErrorFrame( RequestId, WireProtocol.ERROR, e.toString() ) );
+				return;
+
+			} // catch
+
+			if ( Critical( Messages ) )
+			{
+				Send( c, RequestId, Op, Messages );
+
+			} else {
+
+				Held.add( new HeldRequest( c, RequestId, Op, Messages, null ) );
+
+			} // if
+
+		} else {
+
+			Held.add( new HeldRequest( c, RequestId, Op, null, in ) );
+
+		} // if
+
+	} // Receive
+
+	// Handles the requests held during the pass, in the order they were read.
+
+	void HandleHeld()
+	{
+		HeldRequest h;
+
+		while ( ( h = Held.poll() ) != null )
+		{
+			try
+			{
+				if ( h.Messages != null )
+				{
+					Send( h.Conn, h.RequestId, h.Op, h.Messages );
+
+				} else if ( !h.Conn.Closed ) {
+
+					Handle( h.Conn, h.RequestId, h.Op, h.In );
+
+				} // if
+
+			} // try
+
+			catch (IOException e)
+			{
+				Close( h.Conn );
+
+			} // catch
+
+		} // while
+
+	} // HandleHeld
+
+	static boolean Critical( Message[] Messages )
+	{
+		for ( int i = 0; i < Messages.length; i++ )
+		{
+			if ( Messages[i].GetPriority() == Message.Priority.CRITICAL )
+			{
+				return true;
+
+			} // if
+
+		} // for
+
+		return false;
+
+	} // Critical
+
+	// Handles one request and answers it, unless it is a poll that has to wait.
+
+	void Handle( Connection c, long RequestId, byte Op, DataInputStream in ) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( bytes );
+
+		try
+		{
+			switch ( Op )
+			{
+				case WireProtocol.REGISTER:
+					MessageCodec.WriteVarLong( out, Manager.Register() );
+					break;
+
+				case WireProtocol.UNREGISTER:
+					Manager.UnRegister( MessageCodec.ReadVarLong( in ) );
+					break;
+
+				case WireProtocol.SEND:
+					Send( c, RequestId, Op, new Message[] { MessageCodec.ReadMessage( in ) } );
+					return;
+
+				case WireProtocol.SEND_BATCH:
+					Send( c, RequestId, Op, WireProtocol.ReadMessages( in ) );
+					return;
+
+				case WireProtocol.DRAIN:
+					long id = MessageCodec.ReadVarLong( in );
+					int MaxBatch = (int) MessageCodec.ReadVarLong( in );
+					long MaxWait = MessageCodec.ReadVarLong( in );
+					MessageManager.Participant p = MessageManager.MessageQueueList.get( id );
+
+					if ( p != null && MaxWait > 0 && p.Queue.GetSize() == 0 )
+					{
+						Park( c, RequestId, p, MaxBatch, Math.min( MaxWait, MessageManager.MAXWAIT ) );
+						return;
+
+					} // if
+
+					WriteMessages( out, Manager.DrainMessages( id, MaxBatch, 0 ) );
+					break;
+
+				case WireProtocol.SUBSCRIBE:
+					Manager.Subscribe( MessageCodec.ReadVarLong( in ), (int) MessageCodec.ReadVarLong( in ), (int) MessageCodec.ReadVarLong( in ) );
+					break;
+
+				case WireProtocol.CONFLATE:
+					Manager.Conflate( MessageCodec.ReadVarLong( in ), (int) MessageCodec.ReadVarLong( in ) );
+					break;
+
+				case WireProtocol.RENEW_LEASE:
+					MessageCodec.WriteVarLong( out, Manager.RenewLease( MessageCodec.ReadVarLong( in ) ) );
+					break;
+
+				case WireProtocol.REREGISTER:
+					MessageCodec.WriteVarLong( out, Manager.Reregister( MessageCodec.ReadVarLong( in ) ) ? 1 : 0 );
+					break;
+
+				default:
+					throw new RemoteException( "Unknown operation " + Op );
+
+			} // switch
+
+			c.Send( WireProtocol.Frame( RequestId, WireProtocol.OK, bytes ) );
+
+		} // try
+
+		catch (QueueFullException e)
+		{
+			c.Send( ErrorFrame( RequestId, WireProtocol.QUEUE_FULL, e.getMessage() ) );
+
+		} // catch
+
+		catch (RemoteException | StreamCorruptedException | EOFException e)
+		{
+			c.Send( ErrorFrame( RequestId, WireProtocol.ERROR, e.toString() ) );
+
+		} // catch
+
+	} // Handle
+
+	// Posts a send's messages and answers it, once they are on disk if sends wait for the journal.
+
+	void Send( Connection c, long RequestId, byte Op, Message[] Messages ) throws IOException
+	{
+		if ( Journaling() )
+		{
+			Submit( c, RequestId, Op, Messages );
+			return;
+
+		} // if
+
+		try
+		{
+			if ( Op == WireProtocol.SEND )
+			{
+				Manager.SendMessage( Messages[0] );
+
+			} else {
+
+				Manager.SendMessages( Messages );
+
+			} // if
+
+			c.Send( WireProtocol.Frame( RequestId, WireProtocol.OK, null ) );
+
+		} // try
+
+		catch (QueueFullException e)
+		{
+			c.Send( ErrorFrame( RequestId, WireProtocol.QUEUE_FULL, e.getMessage() ) );
+
+		} // catch
+
+		catch (RemoteException e)
+		{
+			c.Send( ErrorFrame( RequestId, WireProtocol.ERROR, e.toString() ) );
+
+		} // catch
+
+	} // Send
+
+	// True if sends have to wait for the journal to force their messages.
+
+	static boolean Journaling()
+	{
+		return ( MessageManager.Journal != null && MessageManager.Journal.SendersWait() );
+
+	} // Journaling
+
+	// Submits a send's messages to the journal; CompleteSends answers it once they are on disk.
+
+	void Submit( Connection c, long RequestId, byte Op, Message[] Messages )
+	{
+		final JournaledSend js = new JournaledSend( c, RequestId, Op, Messages );
+
+		MessageManager.Journal.Submit( Messages ).whenComplete( ( Ignored, Failure ) ->
+		{
+			js.Failure = Failure;
+			Journaled.add( js );
+			Wakeup();
+
+		} );
+
+	} // Submit
+
+	// Delivers and answers the sends whose messages were forced to the journal.
+
+	void CompleteSends()
+	{
+		JournaledSend js;
+
+		while ( ( js = Journaled.poll() ) != null )
+		{
+			try
+			{
+				ByteBuffer Frame;
+
+				try
+				{
+					if ( js.Failure != null )
+					{
+						Frame = ErrorFrame( js.RequestId, WireProtocol.ERROR, js.Failure.toString() );
+
+					} else {
+
+						if ( js.Op == WireProtocol.SEND )
+						{
+							MessageManager.Post( js.Messages[0] );
+
+						} else {
+
+							MessageManager.Post( js.Messages );
+
+						} // if
+
+						Frame = WireProtocol.Frame( js.RequestId, WireProtocol.OK, null );
+
+					} // if
+
+				} // try
+
+				catch (QueueFullException e)
+				{
+					Frame = ErrorFrame( js.RequestId, WireProtocol.QUEUE_FULL, e.getMessage() );
+
+				} // catch
+
+				catch (RemoteException e)
+				{
+					Frame = ErrorFrame( js.RequestId, WireProtocol.ERROR, e.toString() );
+
+				} // catch
+
+				MessageManager.Metrics.CallTime( js.Op == WireProtocol.SEND ? "SendMessage" : "SendMessages" ).Observe( System.nanoTime() - js.Start );
+
+				// The messages are delivered even if the sender has gone, since
+				// the journal has them
+
+				if ( !js.Conn.Closed )
+				{
+					js.Conn.Send( Frame );
+
+				} // if
+
+			} // try
+
+			catch (IOException e)
+			{
+				Close( js.Conn );
+
+			} // catch
+
+		} // while
+
+	} // CompleteSends
+
+	// Parks a poll until the participant's queue gets a message or the wait runs out.
+
+	void Park( Connection c, long RequestId, final MessageManager.Participant p, int MaxBatch, long MaxWait ) throws IOException
+	{
+		PendingPoll old = p.Poll;
+
+		if ( old != null )
+		{
+			Finish( old );
+
+		} // if
+
+		PendingPoll pp = new PendingPoll( c, RequestId, p, MaxBatch, System.currentTimeMillis() + MaxWait );
+
+		p.Waiting.incrementAndGet();
+		p.Touch();
+		p.Poll = pp;
+		Polls.add( pp );
+
+		p.Queue.SetArrivalListener( new Runnable()
+		{
+			public void run()
+			{
+				if ( p.Poll != null )
+				{
+					Arrivals.add( p );
+					Wakeup();
+
+				} // if
+
+			} // run
+
+		} );
+
+		// A message may have arrived before the listener was set
+
+		if ( p.Queue.GetSize() > 0 )
+		{
+			Arrivals.add( p );
+
+		} // if
+
+	} // Park
+
+	// Answers parked polls whose queue got messages or whose wait ran out.
+
+	void CompletePolls() throws IOException
+	{
+		MessageManager.Participant p;
+
+		while ( ( p = Arrivals.poll() ) != null )
+		{
+			PendingPoll pp = p.Poll;
+
+			if ( pp != null && p.Queue.GetSize() > 0 )
+			{
+				Finish( pp );
+
+			} // if
+
+		} // while
+
+		long now = System.currentTimeMillis();
+		Iterator<PendingPoll> it = Polls.iterator();
+
+		while ( it.hasNext() )
+		{
+			PendingPoll pp = it.next();
+
+			if ( !pp.Done && now >= pp.Deadline )
+			{
+				Finish( pp );
+
+			} // if
+
+			if ( pp.Done )
+			{
+				it.remove();
+
+			} // if
+
+		} // while
+
+	} // CompletePolls
+
+	// Drains the participant's queue and answers a parked poll.
+
+	void Finish( PendingPoll pp ) throws IOException
+	{
+		if ( pp.Done )
+		{
+			return;
+
+		} // if
+
+		Abandon( pp );
+
+		if ( !pp.Conn.Closed )
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+			WriteMessages( new DataOutputStream( bytes ), Manager.DrainMessages( pp.Owner.Queue.GetId(), pp.MaxBatch, 0 ) );
+
+			try
+			{
+				pp.Conn.Send( WireProtocol.Frame( pp.RequestId, WireProtocol.OK, bytes ) );
+
+			} // try
+
+			catch (IOException e)
+			{
+				Close( pp.Conn );
+
+			} // catch
+
+		} // if
+
+	} // Finish
+
+	// Marks a parked poll as no longer waiting.
+
+	void Abandon( PendingPoll pp )
+	{
+		pp.Done = true;
+		pp.Owner.Waiting.decrementAndGet();
+		pp.Owner.Touch();
+
+		if ( pp.Owner.Poll == pp )
+		{
+			pp.Owner.Poll = null;
+
+		} // if
+
+	} // Abandon
+
+	// Drops a closed connection's parked polls. Their messages stay queued.
+
+	void Drop( Connection c )
+	{
+		for ( PendingPoll pp : Polls )
+		{
+			if ( pp.Conn == c && !pp.Done )
+			{
+				Abandon( pp );
+
+			} // if
+
+		} // for
+
+	} // Drop
+
+	// How long to wait for requests: until the next parked poll is due (0 = no limit).
+
+	long NextTimeout()
+	{
+		long next = Long.MAX_VALUE;
+
+		for ( PendingPoll pp : Polls )
+		{
+			if ( !pp.Done && pp.Deadline < next )
+			{
+				next = pp.Deadline;
+
+			} // if
+
+		} // for
+
+		if ( next == Long.MAX_VALUE )
+		{
+			return 0;
+
+		} // if
+
+		return Math.max( next - System.currentTimeMillis(), 1 );
+
+	} // NextTimeout
+
+	static void WriteMessages( DataOutputStream out, Message[] Messages ) throws IOException
+	{
+		if ( Messages == null )
+		{
+			MessageCodec.WriteVarLong( out, -1 );
+
+		} else {
+
+			WireProtocol.WriteMessages( out, Messages );
+
+		} // if
+
+	} // WriteMessages
+
+	static ByteBuffer ErrorFrame( long RequestId, byte Status, String Text ) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		MessageCodec.WriteString( new DataOutputStream( bytes ), Text );
+
+		return WireProtocol.Frame( RequestId, Status, bytes );
+
+	} // ErrorFrame
+
+	/***************************************************************************
+	* INNER CLASS:: PendingPoll
+	* Purpose: A GetMessageQueue request (NIO or shared memory) that is waiting
+	*		   for messages.
+	*
+	****************************************************************************/
+
+	static class PendingPoll
+	{
+		Connection Conn;					// Where to send the response
+		long RequestId;						// The request being answered
+		MessageManager.Participant Owner;					// Whose queue to drain
+		int MaxBatch;						// Most messages to return
+		long Deadline;						// When to answer even if no message arrived
+		boolean Done = false;				// Set once answered (or abandoned)
+
+		PendingPoll( Connection c, long id, MessageManager.Participant p, int batch, long deadline )
+		{
+			Conn = c;
+			RequestId = id;
+			Owner = p;
+			MaxBatch = batch;
+			Deadline = deadline;
+
+		} // constructor
+
+	} // PendingPoll
+
+	/***************************************************************************
+	* INNER CLASS:: HeldRequest
+	* Purpose: A request read during a pass and held until the critical sends
+	*		   read with it are handled (see Receive). A send is held decoded.
+	*
+	****************************************************************************/
+
+	static class HeldRequest
+	{
+		Connection Conn;					// Where to send the response
+		long RequestId;						// The request being answered
+		byte Op;							// The operation
+		Message[] Messages;					// The messages of a send (null for other requests)
+		DataInputStream In;					// The rest of the request (null for a send)
+
+		HeldRequest( Connection c, long id, byte op, Message[] m, DataInputStream in )
+		{
+			Conn = c;
+			RequestId = id;
+			Op = op;
+			Messages = m;
+			In = in;
+
+		} // constructor
+
+	} // HeldRequest
+
+	/***************************************************************************
+	* INNER CLASS:: JournaledSend
+	* Purpose: A send (NIO or shared memory) whose messages were submitted to
+	*		   the journal and that is answered once they are on disk.
+	*
+	****************************************************************************/
+
+	static class JournaledSend
+	{
+		Connection Conn;					// Where to send the response
+		long RequestId;						// The request being answered
+		byte Op;							// SEND or SEND_BATCH
+		Message[] Messages;					// The messages sent
+		long Start = System.nanoTime();		// When the request was handled (for its call time)
+		volatile Throwable Failure = null;	// Set if the journal could not be written
+
+		JournaledSend( Connection c, long id, byte op, Message[] m )
+		{
+			Conn = c;
+			RequestId = id;
+			Op = op;
+			Messages = m;
+
+		} // constructor
+
+	} // JournaledSend
+
+	/***************************************************************************
+	* INNER CLASS:: Connection
+	* Purpose: A participant connection on a framed transport (NIO or shared
+	*		   memory), as seen by the thread that serves it.
+	*
+	****************************************************************************/
+
+	static abstract class Connection
+	{
+		boolean Closed = false;
+
+		// Sends a response frame (see WireProtocol.Frame).
+
+		abstract void Send( ByteBuffer Frame ) throws IOException;
+
+	} // Connection
+
+} // RequestServer
@@ -193,7 +193,8 @@ class SCSMonitor extends Thread {
         MessageQueue eq = null;			// Message Queue
         int MsgId = 0;					// User specified message ID
 
-        int Delay = 1000;				// The loop delay (1 second)
+        int Delay = 1000;				// The heartbeat interval (1 second)
+        long NextHeartBeat = 0;          // When the next heartbeat is due
         boolean Done = false;			// Loop termination flag
         boolean ON = true;				// Used to turn on heaters, chillers, humidifiers, and dehumidifiers
         boolean OFF = false;			// Used to turn off heaters, chillers, humidifiers, and dehumidifiers
@@ -220,23 +221,68 @@ class SCSMonitor extends Thread {
 
             } // catch
 
+            // Subscribe to the security (3) and fire (22) readings. The halt message (99)
+            // is always delivered.
+            try {
+                em.Subscribe(3);
+                em.Subscribe(22);
+
+                // Only the latest reading from each sensor matters, so have newer
+                // readings replace any that are still waiting in the queue.
+                em.Conflate(3);
+                em.Conflate(22);
+
+            } // try
+            catch (Exception e) {
+                mw.WriteMessage("Error subscribing:: " + e);
+
+            } // catch
+
+            // This participant is on the fire alarm path, so have the message
+            // manager push its messages instead of waiting to be polled. If that
+            // fails, GetMessageQueue keeps polling the message manager.
+            try {
+                em.UsePushDelivery();
+
+            } // try
+            catch (Exception e) {
+                mw.WriteMessage("Push delivery not available, polling:: " + e);
+
+            } // catch
+
             /**
              * ******************************************************************
              ** Here we start the main simulation loop
              * *******************************************************************
              */
             while (!Done) {
-                // Here we get our message queue from the message manager
-                HeartBeat.SendHeartBeat(em, "SCSConsole-" + String.valueOf(ID) + "#SCSConsole allows a guard to arm and disarm the system");
+                // Send a heartbeat once every Delay milliseconds
+                if (System.currentTimeMillis() >= NextHeartBeat) {
+                    HeartBeat.SendHeartBeat(em, "SCSConsole-" + String.valueOf(ID) + "#SCSConsole allows a guard to arm and disarm the system");
+                    NextHeartBeat = System.currentTimeMillis() + Delay;
 
+                } // if
+
+                // Wait for messages until the next heartbeat is due. The message
+                // manager returns as soon as a message arrives.
                 try {
 
-                    eq = em.GetMessageQueue();
+                    eq = em.GetMessageQueue(NextHeartBeat - System.currentTimeMillis());
 
                 } // try
                 catch (Exception e) {
                     mw.WriteMessage("Error getting message queue::" + e);
 
+                    // Don't spin while the message manager can't be reached
+                    try {
+                        Thread.sleep(Delay);
+
+                    } // try
+                    catch (Exception se) {
+                        System.out.println("Sleep error:: " + se);
+
+                    } // catch
+
                 } // catch
 
                 // If there are messages in the queue, we read through them.
@@ -255,7 +301,7 @@ class SCSMonitor extends Thread {
                     if (arm == 1 && Msg.GetMessageId() == 3) // Security (arm disarm) reading
                     {
                         try {
-                            int temp = Integer.valueOf(Msg.GetMessage());
+                            int temp = Msg.GetInt();
                             switch (temp) {
                                 case 1:
 //                                    doorOpen = 1;
@@ -284,11 +330,11 @@ class SCSMonitor extends Thread {
 
                     } // if
 
-                    if(Msg.GetMessageId() == 22 && Msg.GetMessage().equalsIgnoreCase("ON")){
+                    if(Msg.GetMessageId() == 22 && Msg.GetBoolean()){
                         mw.WriteMessage("Fire Trigger from sensor ");
                     }
 
-                    if(Msg.GetMessageId() == 22 && Msg.GetMessage().equalsIgnoreCase("OFF")){
+                    if(Msg.GetMessageId() == 22 && !Msg.GetBoolean()){
                         //fireAlarm = false;
                         //Fire(fireAlarm);
                         //mw.WriteMessage("No Fire from sensor ");
@@ -328,16 +374,6 @@ class SCSMonitor extends Thread {
                     SprinklerControl(sprinkler);
                 }
 
-                // This delay slows down the sample rate to Delay milliseconds
-                try {
-                    Thread.sleep(Delay);
-
-                } // try
-                catch (Exception e) {
-                    System.out.println("Sleep error:: " + e);
-
-                } // catch
-
             } // while
 
         } else {
@@ -457,14 +493,7 @@ class SCSMonitor extends Thread {
 
         Message msg;
 
-        if (ON) {
-            msg = new Message((int) 6, "D1");
-
-        } else {
-
-            msg = new Message((int) 6, "D0");
-
-        } // if
+        msg = new Message((int) 6, Command.DOOR, ON);
 
         // Here we send the message to the message manager.
         try {
@@ -497,14 +526,7 @@ class SCSMonitor extends Thread {
 
         Message msg;
 
-        if (ON) {
-            msg = new Message((int) 6, "W1");
-
-        } else {
-
-            msg = new Message((int) 6, "W0");
-
-        } // if
+        msg = new Message((int) 6, Command.WINDOW, ON);
 
         // Here we send the message to the message manager.
         try {
@@ -537,14 +559,7 @@ class SCSMonitor extends Thread {
 
         Message msg;
 
-        if (ON) {
-            msg = new Message((int) 6, "M1");
-
-        } else {
-
-            msg = new Message((int) 6, "M0");
-
-        } // if
+        msg = new Message((int) 6, Command.MOTION, ON);
 
         // Here we send the message to the message manager.
         try {
@@ -564,14 +579,7 @@ class SCSMonitor extends Thread {
 
         Message msg;
 
-        if (status) {
-            msg = new Message((int) 12, "ON");
-
-        } else {
-
-            msg = new Message((int) 12, "OFF");
-
-        } // if
+        msg = new Message((int) 12, Command.FIRE_ALARM, status);
 
         // Here we send the message to the message manager.
         try {
@@ -590,14 +598,7 @@ class SCSMonitor extends Thread {
 
         Message msg;
 
-        if (status) {
-            msg = new Message((int) 13, "ON");
-
-        } else {
-
-            msg = new Message((int) 13, "OFF");
-
-        } // if
+        msg = new Message((int) 13, Command.SPRINKLER, status);
 
         // Here we send the message to the message manager.
         try {
@@ -20,7 +20,7 @@
 * on the local machine.
 *
 * Internal Methods:
-*	static private void ConfirmMessage(MessageManagerInterface ei, String m )
+*	static private void ConfirmMessage(MessageManagerInterface ei, Command Cmd, boolean On )
 *
 ******************************************************************************************************************/
 import InstrumentationPackage.*;
@@ -39,7 +39,8 @@ class SecurityController
 		boolean WindowState = false;		// Window state: false == off, true == on
 		boolean DoorState = false;		// Door state: false == off, true == on
 		boolean MSensorState = false;		// Motion Sensor state: false == off, true == on
-		int	Delay = 2500;					// The loop delay (2.5 seconds)
+		int	Delay = 2500;					// The heartbeat interval (2.5 seconds)
+		long NextHeartBeat = 0;				// When the next heartbeat is due
 		boolean Done = false;				// Loop termination flag
 		Random random = new Random();
         int ID = random.nextInt(20)%(20+1);
@@ -132,16 +133,42 @@ class SecurityController
 
 			} // catch
 
+			// Subscribe to the door, window and motion commands (6). The halt message (99)
+			// is always delivered.
+
+			try
+			{
+				em.Subscribe( 6 );
+
+			} // try
+
+			catch (Exception e)
+			{
+				mw.WriteMessage("Error subscribing:: " + e);
+
+			} // catch
+
 			/********************************************************************
 			** Here we start the main simulation loop
 			*********************************************************************/
 
 			while ( !Done )
 			{
-				HeartBeat.SendHeartBeat(em, "Security Controller-" + String.valueOf(ID) + "#This is a process that controls the Security Alarm.");
+				// Send a heartbeat once every Delay milliseconds
+
+				if ( System.currentTimeMillis() >= NextHeartBeat )
+				{
+					HeartBeat.SendHeartBeat(em, "Security Controller-" + String.valueOf(ID) + "#This is a process that controls the Security Alarm.");
+					NextHeartBeat = System.currentTimeMillis() + Delay;
+
+				} // if
+
+				// Wait for messages until the next heartbeat is due. The message
+				// manager returns as soon as a message arrives.
+
 				try
 				{
-					eq = em.GetMessageQueue();
+					eq = em.GetMessageQueue( NextHeartBeat - System.currentTimeMillis() );
 
 				} // try
 
@@ -149,6 +176,20 @@ class SecurityController
 				{
 					mw.WriteMessage("Error getting message queue::" + e );
 
+					// Don't spin while the message manager can't be reached
+
+					try
+					{
+						Thread.sleep( Delay );
+
+					} // try
+
+					catch( Exception se )
+					{
+						System.out.println( "Sleep error:: " + se );
+
+					} // catch
+
 				} // catch
 
 				// If there are messages in the queue, we read through them.
@@ -167,69 +208,69 @@ class SecurityController
 
 					if ( Msg.GetMessageId() == 6 )
 					{
-						if (Msg.GetMessage().equalsIgnoreCase("D1")) // Door on
+						if (Msg.GetCommand() == Command.DOOR && Msg.GetBoolean()) // Door on
 						{
 							DoorState = true;
 							mw.WriteMessage("Received Door on message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "D1" );
+							ConfirmMessage( em, Command.DOOR, true );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("D0")) // Door off
+						if (Msg.GetCommand() == Command.DOOR && !Msg.GetBoolean()) // Door off
 						{
 							DoorState = false;
 							mw.WriteMessage("Received Door off message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "D0" );
+							ConfirmMessage( em, Command.DOOR, false );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("W1")) // Window on
+						if (Msg.GetCommand() == Command.WINDOW && Msg.GetBoolean()) // Window on
 						{
 							WindowState = true;
 							mw.WriteMessage("Received Window on message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "W1" );
+							ConfirmMessage( em, Command.WINDOW, true );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("W0")) // Window off
+						if (Msg.GetCommand() == Command.WINDOW && !Msg.GetBoolean()) // Window off
 						{
 							WindowState = false;
 							mw.WriteMessage("Received Window off message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "W0" );
+							ConfirmMessage( em, Command.WINDOW, false );
 
 						} // if
                                                 
-                                                if (Msg.GetMessage().equalsIgnoreCase("M1")) // Motion Sensor on
+                                                if (Msg.GetCommand() == Command.MOTION && Msg.GetBoolean()) // Motion Sensor on
 						{
 							MSensorState = true;
 							mw.WriteMessage("Received Motion Sensor on message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "M1" );
+							ConfirmMessage( em, Command.MOTION, true );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("M0")) // Motion Sensor off
+						if (Msg.GetCommand() == Command.MOTION && !Msg.GetBoolean()) // Motion Sensor off
 						{
 							MSensorState = false;
 							mw.WriteMessage("Received Motion Sensor off message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "M0" );
+							ConfirmMessage( em, Command.MOTION, false );
 
 						} // if
 
@@ -310,18 +351,6 @@ class SecurityController
 
 				} // if
 
-				try
-				{
-					Thread.sleep( Delay );
-
-				} // try
-
-				catch( Exception e )
-				{
-					System.out.println( "Sleep error:: " + e );
-
-				} // catch
-
 			} // while
 
 		} else {
@@ -341,7 +370,7 @@ class SecurityController
 	* Arguments: MessageManagerInterface ei - this is the messagemanger interface
 	*			 where the message will be posted.
 	*
-	*			 string m - this is the received command.
+	*			 Command Cmd, boolean On - this is the received command.
 	*
 	* Returns: none
 	*
@@ -349,11 +378,11 @@ class SecurityController
 	*
 	***************************************************************************/
 
-	static private void ConfirmMessage(MessageManagerInterface ei, String m )
+	static private void ConfirmMessage(MessageManagerInterface ei, Command Cmd, boolean On )
 	{
 		// Here we create the message.
 
-		Message msg = new Message( (int) -6, m );
+		Message msg = new Message( (int) -6, Cmd, On );
 
 		// Here we send the message to the message manager.
 
@@ -12,7 +12,8 @@
  * Internal Methods:
  *	float GetRandomNumber()
  *	boolean CoinToss()
- *   void PostTemperature(MessageManagerInterface ei, float temperature )
+ *   Message SecurityReading(int sensor)
+ *   void PostMessages(MessageManagerInterface ei, Vector<Message> batch)
  *
  *****************************************************************************************************************
  */
@@ -32,7 +33,8 @@ class SecuritySensor {
         boolean WindowTriggered = false;	// Window state: false == off, true == on
         boolean MSensorTriggered = false;	// Motion Sensor state: false == off, true == on
         int sensor = 0;
-        int Delay = 2500;				// The loop delay (5 seconds)
+        int Delay = 2500;				// The heartbeat interval (5 seconds)
+        long NextHeartBeat = 0;          // When the next heartbeat is due
         boolean Done = false;			// Loop termination flag
         Random random = new Random();
         int ID = random.nextInt(20)%(20+1);
@@ -99,17 +101,37 @@ class SecuritySensor {
 
             } // catch
 
+            // Subscribe to the door, window and motion confirmations (-6). The halt message (99)
+            // is always delivered.
+            try {
+                em.Subscribe(-6);
+
+            } // try
+            catch (Exception e) {
+                mw.WriteMessage("Error subscribing:: " + e);
+
+            } // catch
+
             while (!Done) {
-                // Post the current temperature
-                HeartBeat.SendHeartBeat(em, "Security Sensor-" + String.valueOf(ID) + "#Security Sensor detects window break, door break, and motion detection.");
-                // Get the message queue
+                // Wait for messages until the next heartbeat is due. The message
+                // manager returns as soon as a message arrives.
                 try {
-                    eq = em.GetMessageQueue();
+                    eq = em.GetMessageQueue(NextHeartBeat - System.currentTimeMillis());
 
                 } // try
                 catch (Exception e) {
                     mw.WriteMessage("Error getting message queue::" + e);
 
+                    // Don't spin while the message manager can't be reached
+                    try {
+                        Thread.sleep(Delay);
+
+                    } // try
+                    catch (Exception se) {
+                        mw.WriteMessage("Sleep error:: " + se);
+
+                    } // catch
+
                 } // catch
 
                 // If there are messages in the queue, we read through them.
@@ -125,37 +147,37 @@ class SecuritySensor {
                     Msg = eq.GetMessage();
 
                     if (Msg.GetMessageId() == -6) {
-                        if (Msg.GetMessage().equalsIgnoreCase("D1")) // Door Triggered
+                        if (Msg.GetCommand() == Command.DOOR && Msg.GetBoolean()) // Door Triggered
                         {
                             DoorTriggered = true;
 
                         } // if
 
-                        if (Msg.GetMessage().equalsIgnoreCase("D0")) // Door Intact
+                        if (Msg.GetCommand() == Command.DOOR && !Msg.GetBoolean()) // Door Intact
                         {
                             DoorTriggered = false;
 
                         } // if
 
-                        if (Msg.GetMessage().equalsIgnoreCase("W1")) // window Triggered
+                        if (Msg.GetCommand() == Command.WINDOW && Msg.GetBoolean()) // window Triggered
                         {
                             WindowTriggered = true;
 
                         } // if
 
-                        if (Msg.GetMessage().equalsIgnoreCase("W0")) // window Intact
+                        if (Msg.GetCommand() == Command.WINDOW && !Msg.GetBoolean()) // window Intact
                         {
                             WindowTriggered = false;
 
                         }// if
 
-                        if (Msg.GetMessage().equalsIgnoreCase("M1")) // Motion Sensor Triggered
+                        if (Msg.GetCommand() == Command.MOTION && Msg.GetBoolean()) // Motion Sensor Triggered
                         {
                             MSensorTriggered = true;
 
                         } // if
 
-                        if (Msg.GetMessage().equalsIgnoreCase("M0l")) // Motion Sensor Intact
+                        if (Msg.GetCommand() == Command.MOTION && !Msg.GetBoolean()) // Motion Sensor Intact
                         {
                             MSensorTriggered = false;
 
@@ -183,31 +205,34 @@ class SecuritySensor {
                     } // if
 
                 } // for
+                // The readings and the heartbeat are posted in a single call
+                Vector<Message> Batch = new Vector<Message>();
+
                 if (DoorTriggered) {
-                        PostSecurity(em, 1);
+                        Batch.add(SecurityReading(1));
                         mw.WriteMessage("Door Triggerred:: ");
                     }
                     if (WindowTriggered) {
-                        PostSecurity(em, 2);
+                        Batch.add(SecurityReading(2));
                         mw.WriteMessage("Window Triggerred:: ");
                     }
                     if (MSensorTriggered) {
-                        PostSecurity(em, 3);
+                        Batch.add(SecurityReading(3));
                         mw.WriteMessage("Motion Triggerred:: ");
                     }
                     if (!DoorTriggered && !MSensorTriggered && !WindowTriggered) {
-                        PostSecurity(em, 0);
+                        Batch.add(SecurityReading(0));
                         mw.WriteMessage("Current Sensor set (0 for off)::  ");
                     }
-                // Here we wait for a 2.5 seconds before we start the next sample
-                try {
-                    Thread.sleep(Delay);
 
-                } // try
-                catch (Exception e) {
-                    mw.WriteMessage("Sleep error:: " + e);
+                // Send a heartbeat once every Delay milliseconds
+                if (System.currentTimeMillis() >= NextHeartBeat) {
+                    Batch.add(HeartBeat.CreateHeartBeat("Security Sensor-" + String.valueOf(ID) + "#Security Sensor detects window break, door break, and motion detection."));
+                    NextHeartBeat = System.currentTimeMillis() + Delay;
 
-                } // catch
+                } // if
+
+                PostMessages(em, Batch);
 
             } // while
 
@@ -263,15 +288,34 @@ class SecuritySensor {
 
     /**
      * *************************************************************************
-     * CONCRETE METHOD:: PostTemperature Purpose: This method posts the
-     * specified temperature value to the specified message manager. This method
-     * assumes an message ID of 1.
+     * CONCRETE METHOD:: SecurityReading Purpose: This method creates the
+     * security reading message for the specified sensor. This method assumes
+     * an message ID of 3.
+     *
+     * Arguments: 0,1,2,3 : 0 for no sensor on, 1 for door, 2 for window and 3
+     * for motion sensor
+     *
+     * Returns: Message
+     *
+     * Exceptions: None
+     *
+     **************************************************************************
+     */
+    static private Message SecurityReading(int sensor) {
+        return new Message((int) 3, sensor);
+
+    } // SecurityReading
+
+    /**
+     * *************************************************************************
+     * CONCRETE METHOD:: PostMessages Purpose: This method posts the readings
+     * and heartbeat collected during a cycle to the specified message manager
+     * in a single call.
      *
      * Arguments: MessageManagerInterface ei - this is the messagemanger
-     * interface where the message will be posted.
+     * interface where the messages will be posted.
      *
-     * 0,1,2,3 : 0 for no sensor on, 1 for door, 2 for window and 3 for motion
-     * sensor
+     * Vector<Message> batch - the messages to post.
      *
      * Returns: none
      *
@@ -279,15 +323,14 @@ class SecuritySensor {
      *
      **************************************************************************
      */
-    static private void PostSecurity(MessageManagerInterface ei, int sensor) {
-        // Here we create the message.
-
-        Message msg = new Message((int) 3, String.valueOf(sensor));
+    static private void PostMessages(MessageManagerInterface ei, Vector<Message> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
 
-        // Here we send the message to the message manager.
+        // Here we send the messages to the message manager.
         try {
-            ei.SendMessage(msg);
-            //System.out.println( "Sent Temp Message" );
+            ei.SendMessages(batch.toArray(new Message[batch.size()]));
 
         } // try
         catch (Exception e) {
@@ -295,6 +338,6 @@ class SecuritySensor {
 
         } // catch
 
-    } // PostTemperature
+    } // PostMessages
 
 } // TemperatureSensor
@@ -0,0 +1,288 @@
+/******************************************************************************************************************
+* File:ShmServer.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description: This thread reads requests from the shared-memory inbound ring, has RequestServer handle them and
+*			   writes each response to the response ring of the client that sent the request. The ring is polled,
+*			   spinning briefly before sleeping (see ShmRing.Backoff), so a busy ring is answered within microseconds.
+*			   The thread beats on the inbound ring about once a second so clients can tell it is alive, and closes
+*			   connections whose response ring was deleted or stopped being read.
+*
+* Parameters: None
+*
+* Internal Methods: None
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+class ShmServer extends RequestServer
+{
+	static final int MAXBACKLOG = 1000;	// Most responses left waiting for a client before it is dropped
+	static final int MAXPASS = 256;		// Most requests read before the held ones are handled
+
+	File Dir;							// Where the rings are
+	ShmRing Inbound;					// Requests from every client
+	HashMap<Long, ShmConnection> Connections = new HashMap<Long, ShmConnection>();
+	Set<ShmConnection> Backlog = new HashSet<ShmConnection>();	// Connections with responses waiting
+
+	ShmServer( RMIMessageManagerInterface mm, File d ) throws IOException
+	{
+		super( "ShmServer", mm );
+		Dir = d;
+		Dir.mkdirs();
+		Inbound = ShmRing.Create( new File( Dir, WireProtocol.SHM_INBOUND ), WireProtocol.SHM_RINGSIZE );
+
+	} // constructor
+
+	public void run()
+	{
+		ShmRing.Backoff Idle = new ShmRing.Backoff();
+		long NextBeat = 0;
+		long now;
+		ByteBuffer r;
+		int n;
+
+		while ( true )
+		{
+			try
+			{
+				n = 0;
+
+				while ( n < MAXPASS && ( r = Inbound.Poll() ) != null )
+				{
+					n++;
+					MessageManager.Metrics.BytesIn.get( "shm" ).add( 4 + r.remaining() );
+					Request( r );
+
+				} // while
+
+				HandleHeld();
+				FlushBacklog();
+				CompleteSends();
+				CompletePolls();
+
+				now = System.currentTimeMillis();
+
+				if ( now >= NextBeat )
+				{
+					Inbound.Beat();
+					Sweep();
+					NextBeat = now + 1000;
+
+				} // if
+
+				if ( n > 0 )
+				{
+					Idle.Reset();
+
+				} else {
+
+					Idle.Idle();
+
+				} // if
+
+			} // try
+
+			catch (Exception e)
+			{
+				MessageManager.l.DisplayStatistics( "Shared memory server error: " + e );
+
+			} // catch
+
+		} // while
+
+	} // run
+
+	void Wakeup()
+	{
+		LockSupport.unpark( this );
+
+	} // Wakeup
+
+	// Handles one request record: connection id, then the frame without its length.
+
+	void Request( ByteBuffer r ) throws IOException
+	{
+		long ConnectionId = r.getLong();
+		long RequestId = r.getLong();
+		byte Op = r.get();
+		ShmConnection c = Connections.get( ConnectionId );
+
+		if ( Op == WireProtocol.DISCONNECT )
+		{
+			if ( c != null )
+			{
+				// What the client sent before it disconnected is handled first
+
+				HandleHeld();
+				Close( c );
+
+			} // if
+
+			return;
+
+		} // if
+
+		if ( c == null )
+		{
+			c = new ShmConnection( ConnectionId, ShmRing.Open( new File( Dir, "c" + ConnectionId + ".ring" ) ), Backlog );
+			Connections.put( ConnectionId, c );
+
+		} // if
+
+		try
+		{
+			Receive( c, RequestId, Op, new DataInputStream( new ByteArrayInputStream( r.array(), r.position(), r.remaining() ) ) );
+
+		} // try
+
+		catch (IOException e)
+		{
+			Close( c );
+
+		} // catch
+
+	} // Request
+
+	// Writes responses that were waiting for room in their client's ring.
+
+	void FlushBacklog()
+	{
+		if ( Backlog.isEmpty() )
+		{
+			return;
+
+		} // if
+
+		Iterator<ShmConnection> it = Backlog.iterator();
+
+		while ( it.hasNext() )
+		{
+			ShmConnection c = it.next();
+
+			try
+			{
+				if ( c.Closed || c.Flush() )
+				{
+					it.remove();
+
+				} // if
+
+			} // try
+
+			catch (IOException e)
+			{
+				it.remove();
+				Close( c );
+
+			} // catch
+
+		} // while
+
+	} // FlushBacklog
+
+	// Closes connections whose client deleted its ring or stopped reading it.
+
+	void Sweep()
+	{
+		for ( ShmConnection c : new ArrayList<ShmConnection>( Connections.values() ) )
+		{
+			if ( !c.Ring.GetPath().exists() || c.Out.size() > MAXBACKLOG )
+			{
+				Close( c );
+
+			} // if
+
+		} // for
+
+	} // Sweep
+
+	void Close( Connection Conn )
+	{
+		ShmConnection c = (ShmConnection) Conn;
+
+		if ( c.Closed )
+		{
+			return;
+
+		} // if
+
+		c.Closed = true;
+		c.Out.clear();
+		c.Ring.Close();
+		Connections.remove( c.ConnectionId );
+		Backlog.remove( c );
+		Drop( c );
+
+	} // Close
+
+	/***************************************************************************
+	* INNER CLASS:: ShmConnection
+	* Purpose: The shared-memory server's state for one client: its response
+	*		   ring and the responses waiting for room in it.
+	*
+	****************************************************************************/
+
+	static class ShmConnection extends Connection
+	{
+		long ConnectionId;					// The id the client puts on its requests
+		ShmRing Ring;						// The client's response ring
+		ArrayDeque<ByteBuffer> Out = new ArrayDeque<ByteBuffer>();	// Responses waiting for room in the ring
+		Set<ShmConnection> Backlog;			// Where to list this connection while responses wait
+
+		ShmConnection( long id, ShmRing r, Set<ShmConnection> b )
+		{
+			ConnectionId = id;
+			Ring = r;
+			Backlog = b;
+
+		} // constructor
+
+		// The record is the frame without its length.
+
+		void Send( ByteBuffer Frame ) throws IOException
+		{
+			if ( !Closed )
+			{
+				Frame.position( Frame.position() + 4 );
+				Out.add( Frame );
+
+				if ( !Flush() )
+				{
+					Backlog.add( this );
+
+				} // if
+
+			} // if
+
+		} // Send
+
+		// Writes waiting responses while the ring has room; false if some are left.
+
+		boolean Flush() throws IOException
+		{
+			while ( !Out.isEmpty() )
+			{
+				if ( !Ring.Offer( Out.peek() ) )
+				{
+					return false;
+
+				} // if
+
+				MessageManager.Metrics.BytesOut.get( "shm" ).add( 4 + Out.poll().limit() );
+
+			} // while
+
+			return true;
+
+		} // Flush
+
+	} // ShmConnection
+
+} // ShmServer
@@ -21,7 +21,8 @@ class SprinklerController
 		int MsgId = 0;						// User specified message ID
 		MessageManagerInterface em = null;	// Interface object to the message manager
 		boolean state = false;
-		int	Delay = 2500;					// The loop delay (2.5 seconds)
+		int	Delay = 2500;					// The heartbeat interval (2.5 seconds)
+		long NextHeartBeat = 0;				// When the next heartbeat is due
 		boolean Done = false;				// Loop termination flag
 		Random random = new Random();
         int ID = random.nextInt(20)%(20+1);
@@ -112,17 +113,58 @@ class SprinklerController
 
 			} // catch
 
+			// Subscribe to the sprinkler commands (13). The halt message (99)
+			// is always delivered.
+
+			try
+			{
+				em.Subscribe( 13 );
+
+			} // try
+
+			catch (Exception e)
+			{
+				mw.WriteMessage("Error subscribing:: " + e);
+
+			} // catch
+
+			// This participant is on the fire alarm path, so have the message
+			// manager push its messages instead of waiting to be polled. If that
+			// fails, GetMessageQueue keeps polling the message manager.
+
+			try
+			{
+				em.UsePushDelivery();
+
+			} // try
+
+			catch (Exception e)
+			{
+				mw.WriteMessage("Push delivery not available, polling:: " + e);
+
+			} // catch
+
 			/********************************************************************
 			** Here we start the main simulation loop
 			*********************************************************************/
 
 			while ( !Done )
 			{
-				HeartBeat.SendHeartBeat(em, "Sprinkler Controller-" + String.valueOf(ID) + "#Sprinkler Controller controls sprinkler.");
+				// Send a heartbeat once every Delay milliseconds
+
+				if ( System.currentTimeMillis() >= NextHeartBeat )
+				{
+					HeartBeat.SendHeartBeat(em, "Sprinkler Controller-" + String.valueOf(ID) + "#Sprinkler Controller controls sprinkler.");
+					NextHeartBeat = System.currentTimeMillis() + Delay;
+
+				} // if
+
+				// Wait for messages until the next heartbeat is due. The message
+				// manager returns as soon as a message arrives.
 
 				try
 				{
-					eq = em.GetMessageQueue();
+					eq = em.GetMessageQueue( NextHeartBeat - System.currentTimeMillis() );
 
 				} // try
 
@@ -130,6 +172,20 @@ class SprinklerController
 				{
 					mw.WriteMessage("Error getting message queue::" + e );
 
+					// Don't spin while the message manager can't be reached
+
+					try
+					{
+						Thread.sleep( Delay );
+
+					} // try
+
+					catch( Exception se )
+					{
+						System.out.println( "Sleep error:: " + se );
+
+					} // catch
+
 				} // catch
 
 				// If there are messages in the queue, we read through them.
@@ -149,27 +205,27 @@ class SprinklerController
 
 					if ( Msg.GetMessageId() == 13 )
 					{
-						if (Msg.GetMessage().equalsIgnoreCase("ON")) // turn on
+						if (Msg.GetCommand() == Command.SPRINKLER && Msg.GetBoolean()) // turn on
 						{
 							state = true;
 							mw.WriteMessage("Received turn on message" );
 
 							// Confirm that the message was recieved and acted on
 
-							// ConfirmMessage( em, "ON" );
+							// ConfirmMessage( em, Command.SPRINKLER, true );
 
-							FireOff(em, "ON");
+							FireOff(em);
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("OFF")) // turn off
+						if (Msg.GetCommand() == Command.SPRINKLER && !Msg.GetBoolean()) // turn off
 						{
 							state = false;
 							mw.WriteMessage("Received turn off message" );
 
 							// Confirm that the message was recieved and acted on
 
-							// ConfirmMessage( em, "OFF" );
+							// ConfirmMessage( em, Command.SPRINKLER, false );
 
 						} // if
 
@@ -221,18 +277,6 @@ class SprinklerController
 
 				} // if
 
-				try
-				{
-					Thread.sleep( Delay );
-
-				} // try
-
-				catch( Exception e )
-				{
-					System.out.println( "Sleep error:: " + e );
-
-				} // catch
-
 			} // while
 
 		} else {
@@ -252,7 +296,7 @@ class SprinklerController
 	* Arguments: MessageManagerInterface ei - this is the messagemanger interface
 	*			 where the message will be posted.
 	*
-	*			 string m - this is the received command.
+	*			 Command Cmd, boolean On - this is the received command.
 	*
 	* Returns: none
 	*
@@ -260,11 +304,11 @@ class SprinklerController
 	*
 	***************************************************************************/
 
-	static private void ConfirmMessage(MessageManagerInterface ei, String m )
+	static private void ConfirmMessage(MessageManagerInterface ei, Command Cmd, boolean On )
 	{
 		// Here we create the message.
 
-		Message msg = new Message( (int) -13, m );
+		Message msg = new Message( (int) -13, Cmd, On );
 
 		// Here we send the message to the message manager.
 
@@ -282,11 +326,11 @@ class SprinklerController
 
 	} // PostMessage
 
-	static private void FireOff(MessageManagerInterface ei, String m )
+	static private void FireOff(MessageManagerInterface ei )
 	{
 		// Here we create the message.
 
-		Message msg = new Message( (int) 44, m );
+		Message msg = new Message( (int) 44, Command.SPRINKLER, true );
 
 		// Here we send the message to the message manager.
 
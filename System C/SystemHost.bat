@@ -0,0 +1,6 @@
+%ECHO OFF
+%ECHO Starting the message manager, ECS and SCS in one JVM
+PAUSE
+START "SYSTEM HOST" /NORMAL java SystemHost ALL ECSConsole
+%ECHO SCS Monitoring Console
+START "MUSEUM SECURITY CONTROL SYSTEM CONSOLE" /NORMAL java SCSConsole %1
@@ -0,0 +1,190 @@
+/******************************************************************************************************************
+* File:SystemHost.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This program runs the message manager and a chosen set of participants in one JVM, instead of one JVM per
+* component as SystemC.bat does. It starts an RMI registry and the message manager, then runs the main method of each
+* chosen participant on its own thread. The participants use the local transport (MessageManager.Transport=local), so
+* they call the message manager directly and the messages they exchange are passed by reference, never serialized.
+*
+* The message manager is still bound in the registry, so participants in other JVMs (started with their own java
+* command) can join the same system over RMI or NIO.
+*
+* Components are named on the command line, either one by one or as groups:
+*	ECS		- TemperatureController, HumidityController, TemperatureSensor, HumiditySensor
+*	SCS		- SecurityController, SecuritySensor, SprinklerController, FireAlarmController, FireSensor
+*	ALL		- ECS, SCS and MaintenanceConsole
+*
+* The consoles (ECSConsole, SCSConsole) read the keyboard, so at most one of them may be hosted; run the other in its
+* own JVM. The host exits when every hosted participant has stopped (after the halt message, for example).
+*
+* Parameters: Components to host (on command line). If blank, ALL is used.
+*
+* Internal Methods:
+*	void Host(String Name)
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.lang.reflect.*;
+import java.rmi.registry.LocateRegistry;
+import java.util.*;
+
+public class SystemHost
+{
+	static final String[] ECS = { "TemperatureController", "HumidityController", "TemperatureSensor", "HumiditySensor" };
+	static final String[] SCS = { "SecurityController", "SecuritySensor", "SprinklerController", "FireAlarmController", "FireSensor" };
+	static final String[] CONSOLES = { "ECSConsole", "SCSConsole" };
+
+	static Vector<Thread> Hosted = new Vector<Thread>();	// One thread per hosted participant
+
+	public static void main(String args[]) throws Exception
+	{
+		LinkedHashSet<String> Names = new LinkedHashSet<String>();	// Components to host, in order
+		int Consoles = 0;								// Hosted components that read the keyboard
+		long Start = System.currentTimeMillis();
+
+		if ( args.length == 0 )
+		{
+			args = new String[] { "ALL" };
+
+		} // if
+
+		for ( int i = 0; i < args.length; i++ )
+		{
+			if ( args[i].equalsIgnoreCase( "ECS" ) || args[i].equalsIgnoreCase( "ALL" ) )
+			{
+				Names.addAll( Arrays.asList( ECS ) );
+
+			} // if
+
+			if ( args[i].equalsIgnoreCase( "SCS" ) || args[i].equalsIgnoreCase( "ALL" ) )
+			{
+				Names.addAll( Arrays.asList( SCS ) );
+
+			} // if
+
+			if ( args[i].equalsIgnoreCase( "ALL" ) )
+			{
+				Names.add( "MaintenanceConsole" );
+
+			} else if ( !args[i].equalsIgnoreCase( "ECS" ) && !args[i].equalsIgnoreCase( "SCS" ) ) {
+
+				Names.add( args[i] );
+
+			} // if
+
+		} // for
+
+		for ( String Name : Names )
+		{
+			if ( Arrays.asList( CONSOLES ).contains( Name ) )
+			{
+				Consoles++;
+
+			} // if
+
+		} // for
+
+		if ( Consoles > 1 )
+		{
+			System.out.println( "Only one console can read the keyboard. Host one and start the other with its own java command." );
+			return;
+
+		} // if
+
+		// Start the registry and the message manager, then have every participant
+		// in this JVM call the message manager directly.
+
+		LocateRegistry.createRegistry( 1099 );
+		MessageManager.main( new String[0] );
+		System.setProperty( "MessageManager.Transport", "local" );
+
+		for ( String Name : Names )
+		{
+			Host( Name );
+
+		} // for
+
+		System.out.println( "\n\nHosting " + Hosted.size() + " participants in one JVM. Started in "
+			+ ( System.currentTimeMillis() - Start ) + " ms." );
+
+		// Wait for every hosted participant to stop. The registry and the message
+		// manager would otherwise keep the JVM running.
+
+		for ( Thread t : Hosted )
+		{
+			t.join();
+
+		} // for
+
+		System.exit( 0 );
+
+	} // main
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Host
+	* Purpose: Runs a participant's main method (with no arguments, so it uses
+	*		   the message manager on this machine) on a new thread.
+	*
+	* Arguments: String Name - the participant's class name
+	*
+	* Returns: None
+	*
+	* Exceptions: None
+	*
+	****************************************************************************/
+
+	static void Host( final String Name )
+	{
+		final Method Main;
+
+		try
+		{
+			Main = Class.forName( Name ).getMethod( "main", String[].class );
+
+		} // try
+
+		catch (Exception e)
+		{
+			System.out.println( "Unknown component " + Name + ": " + e );
+			return;
+
+		} // catch
+
+		Thread t = new Thread( new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					Main.setAccessible( true );
+					Main.invoke( null, (Object) new String[0] );
+
+				} // try
+
+				catch (InvocationTargetException e)
+				{
+					System.out.println( Name + " stopped: " + e.getCause() );
+
+				} // catch
+
+				catch (Exception e)
+				{
+					System.out.println( "Error starting " + Name + ": " + e );
+
+				} // catch
+
+			} // run
+
+		}, Name );
+
+		Hosted.add( t );
+		t.start();
+
+	} // Host
+
+} // SystemHost
@@ -25,7 +25,7 @@
 * on the local machine.
 *
 * Internal Methods:
-*	static private void ConfirmMessage(MessageManagerInterface ei, String m )
+*	static private void ConfirmMessage(MessageManagerInterface ei, Command Cmd, boolean On )
 *
 ******************************************************************************************************************/
 import InstrumentationPackage.*;
@@ -43,7 +43,8 @@ class TemperatureController
 		MessageManagerInterface em = null;	// Interface object to the message manager
 		boolean HeaterState = false;		// Heater state: false == off, true == on
 		boolean ChillerState = false;		// Chiller state: false == off, true == on
-		int	Delay = 2500;					// The loop delay (2.5 seconds)
+		int	Delay = 2500;					// The heartbeat interval (2.5 seconds)
+		long NextHeartBeat = 0;				// When the next heartbeat is due
 		boolean Done = false;				// Loop termination flag
 		Random random = new Random();
         int ID = random.nextInt(20)%(20+1);
@@ -136,16 +137,42 @@ class TemperatureController
 
 			} // catch
 
+			// Subscribe to the heater and chiller commands (5). The halt message (99)
+			// is always delivered.
+
+			try
+			{
+				em.Subscribe( 5 );
+
+			} // try
+
+			catch (Exception e)
+			{
+				mw.WriteMessage("Error subscribing:: " + e);
+
+			} // catch
+
 			/********************************************************************
 			** Here we start the main simulation loop
 			*********************************************************************/
 
 			while ( !Done )
 			{
-				HeartBeat.SendHeartBeat(em, "Temperature Controller-" + String.valueOf(ID) + "#The temperature Controller is used to control temperature. ");
+				// Send a heartbeat once every Delay milliseconds
+
+				if ( System.currentTimeMillis() >= NextHeartBeat )
+				{
+					HeartBeat.SendHeartBeat(em, "Temperature Controller-" + String.valueOf(ID) + "#The temperature Controller is used to control temperature. ");
+					NextHeartBeat = System.currentTimeMillis() + Delay;
+
+				} // if
+
+				// Wait for messages until the next heartbeat is due. The message
+				// manager returns as soon as a message arrives.
+
 				try
 				{
-					eq = em.GetMessageQueue();
+					eq = em.GetMessageQueue( NextHeartBeat - System.currentTimeMillis() );
 
 				} // try
 
@@ -153,6 +180,20 @@ class TemperatureController
 				{
 					mw.WriteMessage("Error getting message queue::" + e );
 
+					// Don't spin while the message manager can't be reached
+
+					try
+					{
+						Thread.sleep( Delay );
+
+					} // try
+
+					catch( Exception se )
+					{
+						System.out.println( "Sleep error:: " + se );
+
+					} // catch
+
 				} // catch
 
 				// If there are messages in the queue, we read through them.
@@ -171,47 +212,47 @@ class TemperatureController
 
 					if ( Msg.GetMessageId() == 5 )
 					{
-						if (Msg.GetMessage().equalsIgnoreCase("H1")) // heater on
+						if (Msg.GetCommand() == Command.HEATER && Msg.GetBoolean()) // heater on
 						{
 							HeaterState = true;
 							mw.WriteMessage("Received heater on message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "H1" );
+							ConfirmMessage( em, Command.HEATER, true );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("H0")) // heater off
+						if (Msg.GetCommand() == Command.HEATER && !Msg.GetBoolean()) // heater off
 						{
 							HeaterState = false;
 							mw.WriteMessage("Received heater off message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "H0" );
+							ConfirmMessage( em, Command.HEATER, false );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("C1")) // chiller on
+						if (Msg.GetCommand() == Command.CHILLER && Msg.GetBoolean()) // chiller on
 						{
 							ChillerState = true;
 							mw.WriteMessage("Received chiller on message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "C1" );
+							ConfirmMessage( em, Command.CHILLER, true );
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("C0")) // chiller off
+						if (Msg.GetCommand() == Command.CHILLER && !Msg.GetBoolean()) // chiller off
 						{
 							ChillerState = false;
 							mw.WriteMessage("Received chiller off message" );
 
 							// Confirm that the message was recieved and acted on
 
-							ConfirmMessage( em, "C0" );
+							ConfirmMessage( em, Command.CHILLER, false );
 
 						} // if
 
@@ -278,18 +319,6 @@ class TemperatureController
 
 				} // if
 
-				try
-				{
-					Thread.sleep( Delay );
-
-				} // try
-
-				catch( Exception e )
-				{
-					System.out.println( "Sleep error:: " + e );
-
-				} // catch
-
 			} // while
 
 		} else {
@@ -309,7 +338,7 @@ class TemperatureController
 	* Arguments: MessageManagerInterface ei - this is the messagemanger interface
 	*			 where the message will be posted.
 	*
-	*			 string m - this is the received command.
+	*			 Command Cmd, boolean On - this is the received command.
 	*
 	* Returns: none
 	*
@@ -318,11 +347,11 @@ class TemperatureController
 	***************************************************************************/
 
 	
-        static private void ConfirmMessage(MessageManagerInterface ei, String m )
+        static private void ConfirmMessage(MessageManagerInterface ei, Command Cmd, boolean On )
 	{
 		// Here we create the message.
 
-		Message msg = new Message( (int) -5, m );
+		Message msg = new Message( (int) -5, Cmd, On );
 
 		// Here we send the message to the message manager.
 
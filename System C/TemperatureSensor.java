@@ -16,9 +16,7 @@
 * on the local machine.
 *
 * Internal Methods:
-*	float GetRandomNumber()
-*	boolean CoinToss()
-*   void PostTemperature(MessageManagerInterface ei, float temperature )
+*   void PostTemperature(MessageManagerInterface ei, float temperature, Message hb )
 *
 ******************************************************************************************************************/
 import InstrumentationPackage.*;
@@ -27,6 +25,8 @@ import java.util.*;
 
 class TemperatureSensor
 {
+	static final long TIMETOLIVE = 10000;	// ms a reading stays of use (four sample intervals)
+
 	public static void main(String args[])
 	{
 		String MsgMgrIP;				// Message Manager IP address
@@ -36,9 +36,9 @@ class TemperatureSensor
 		MessageManagerInterface em = null;// Interface object to the message manager
 		boolean HeaterState = false;	// Heater state: false == off, true == on
 		boolean ChillerState = false;	// Chiller state: false == off, true == on
-		float CurrentTemperature;		// Current simulated ambient room temperature
-		float DriftValue;				// The amount of temperature gained or lost
-		int	Delay = 2500;				// The loop delay (2.5 seconds)
+		DriftModel Temperature;			// Current simulated ambient room temperature (see DriftModel)
+		int	Delay = 2500;				// The sample interval (2.5 seconds)
+		long NextSample = 0;			// When the next sample is due
 		boolean Done = false;			// Loop termination flag
 		Random random = new Random();
         int ID = random.nextInt(20)%(20+1);
@@ -123,22 +123,33 @@ class TemperatureSensor
 
 			} // catch
 
-			mw.WriteMessage("\nInitializing Temperature Simulation::" );
+			// Subscribe to the heater and chiller confirmations (-5). The halt message (99)
+			// is always delivered.
 
-			CurrentTemperature = (float)50.00;
+			try
+			{
+				em.Subscribe( -5 );
 
-			if ( CoinToss() )
+			} // try
+
+			catch (Exception e)
 			{
-				DriftValue = GetRandomNumber() * (float) -1.0;
+				mw.WriteMessage("Error subscribing:: " + e);
 
-			} else {
+			} // catch
 
-				DriftValue = GetRandomNumber();
+			// Readings and heartbeats held back while the message manager cannot be
+			// reached are of no use once a newer reading is due, so they are dropped.
 
-			} // if
+			em.DropWhenStale( 1, Delay * 2 );
+			em.DropWhenStale( -100, Delay * 2 );
 
-			mw.WriteMessage("   Initial Temperature Set:: " + CurrentTemperature );
-			// mw.WriteMessage("   Drift Value Set:: " + DriftValue ); // used to debug random temperature drift
+			mw.WriteMessage("\nInitializing Temperature Simulation::" );
+
+			Temperature = new DriftModel( (float)50.00 );
+
+			mw.WriteMessage("   Initial Temperature Set:: " + Temperature.Value );
+			// mw.WriteMessage("   Drift Value Set:: " + Temperature.DriftValue ); // used to debug random temperature drift
 
 			/********************************************************************
 			** Here we start the main simulation loop
@@ -150,16 +161,21 @@ class TemperatureSensor
 			while ( !Done )
 			{
 				// Post the current temperature
-				HeartBeat.SendHeartBeat(em, "Temperature Sensor-" + String.valueOf(ID) + "#This is a process that simulates the action of a temperature sensor. ");
-				PostTemperature( em, CurrentTemperature );
+				if ( System.currentTimeMillis() >= NextSample )
+				{
+					PostTemperature( em, Temperature.Value, HeartBeat.CreateHeartBeat("Temperature Sensor-" + String.valueOf(ID) + "#This is a process that simulates the action of a temperature sensor. ") );
+
+					mw.WriteMessage("Current Temperature::  " + Temperature.Value + " F");
+					NextSample = System.currentTimeMillis() + Delay;
 
-				mw.WriteMessage("Current Temperature::  " + CurrentTemperature + " F");
+				} // if
 
-				// Get the message queue
+				// Wait for messages until the next sample is due. The message
+				// manager returns as soon as a message arrives.
 
 				try
 				{
-					eq = em.GetMessageQueue();
+					eq = em.GetMessageQueue( NextSample - System.currentTimeMillis() );
 
 				} // try
 
@@ -167,6 +183,20 @@ class TemperatureSensor
 				{
 					mw.WriteMessage("Error getting message queue::" + e );
 
+					// Don't spin while the message manager can't be reached
+
+					try
+					{
+						Thread.sleep( Delay );
+
+					} // try
+
+					catch( Exception se )
+					{
+						mw.WriteMessage("Sleep error:: " + se );
+
+					} // catch
+
 				} // catch
 
 				// If there are messages in the queue, we read through them.
@@ -185,25 +215,25 @@ class TemperatureSensor
 
 					if ( Msg.GetMessageId() == -5 )
 					{
-						if (Msg.GetMessage().equalsIgnoreCase("H1")) // heater on
+						if (Msg.GetCommand() == Command.HEATER && Msg.GetBoolean()) // heater on
 						{
 							HeaterState = true;
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("H0")) // heater off
+						if (Msg.GetCommand() == Command.HEATER && !Msg.GetBoolean()) // heater off
 						{
 							HeaterState = false;
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("C1")) // chiller on
+						if (Msg.GetCommand() == Command.CHILLER && Msg.GetBoolean()) // chiller on
 						{
 							ChillerState = true;
 
 						} // if
 
-						if (Msg.GetMessage().equalsIgnoreCase("C0")) // chiller off
+						if (Msg.GetCommand() == Command.CHILLER && !Msg.GetBoolean()) // chiller off
 						{
 							ChillerState = false;
 
@@ -239,38 +269,13 @@ class TemperatureSensor
 
 				// Now we trend the temperature according to the status of the
 				// heater/chiller controller.
+				// This is done once per sample, just before the next reading is posted.
 
-				if (HeaterState)
-				{
-					CurrentTemperature += GetRandomNumber();
-
-				} // if heater is on
-
-				if (!HeaterState && !ChillerState)
-				{
-					CurrentTemperature += DriftValue;
-
-				} // if both the heater and chiller are off
-
-				if (ChillerState)
+				if ( System.currentTimeMillis() >= NextSample )
 				{
-					CurrentTemperature -= GetRandomNumber();
+					Temperature.Trend( HeaterState, ChillerState );
 
-				} // if chiller is on
-
-				// Here we wait for a 2.5 seconds before we start the next sample
-
-				try
-				{
-					Thread.sleep( Delay );
-
-				} // try
-
-				catch( Exception e )
-				{
-					mw.WriteMessage("Sleep error:: " + e );
-
-				} // catch
+				} // if
 
 			} // while
 
@@ -282,83 +287,42 @@ class TemperatureSensor
 
 	} // main
 
-	/***************************************************************************
-	* CONCRETE METHOD:: GetRandomNumber
-	* Purpose: This method provides the simulation with random floating point
-	*		   temperature values between 0.1 and 0.9.
-	*
-	* Arguments: None.
-	*
-	* Returns: float
-	*
-	* Exceptions: None
-	*
-	***************************************************************************/
-
-	static private float GetRandomNumber()
-	{
-		Random r = new Random();
-		Float Val;
-
-		Val = Float.valueOf((float)-1.0);
-
-		while( Val < 0.1 )
-		{
-			Val = r.nextFloat();
-	 	}
-
-		return( Val.floatValue() );
-
-	} // GetRandomNumber
-
-	/***************************************************************************
-	* CONCRETE METHOD:: CoinToss
-	* Purpose: This method provides a random true or false value used for
-	* determining the positiveness or negativeness of the drift value.
-	*
-	* Arguments: None.
-	*
-	* Returns: boolean
-	*
-	* Exceptions: None
-	*
-	***************************************************************************/
-
-	static private boolean CoinToss()
-	{
-		Random r = new Random();
-
-		return(r.nextBoolean());
-
-	} // CoinToss
-
 	/***************************************************************************
 	* CONCRETE METHOD:: PostTemperature
 	* Purpose: This method posts the specified temperature value to the
 	* specified message manager. This method assumes an message ID of 1.
+	* The heartbeat is posted in the same call so each sample costs one
+	* round trip to the message manager.
 	*
 	* Arguments: MessageManagerInterface ei - this is the messagemanger interface
 	*			 where the message will be posted.
 	*
 	*			 float temperature - this is the temp value.
 	*
+	*			 Message hb - this is the heartbeat posted with the value.
+	*
 	* Returns: none
 	*
 	* Exceptions: None
 	*
 	***************************************************************************/
 
-	static private void PostTemperature(MessageManagerInterface ei, float temperature )
+	static private void PostTemperature(MessageManagerInterface ei, float temperature, Message hb )
 	{
 		// Here we create the message.
 
-		Message msg = new Message( (int) 1, String.valueOf(temperature) );
+		Message msg = new Message( (int) 1, temperature );
+
+		// A reading that waited in a queue longer than this is stale, so
+		// the message manager drops it rather than hand it out.
+
+		msg.SetTimeToLive( TIMETOLIVE );
 
-		// Here we send the message to the message manager.
+		// Here we send the message and the heartbeat to the message manager.
 
 		try
 		{
-			ei.SendMessage( msg );
+			ei.SendMessages( new Message[] { msg, hb } );
 			//System.out.println( "Sent Temp Message" );
 
 		} // try
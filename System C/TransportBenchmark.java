@@ -0,0 +1,179 @@
+/******************************************************************************************************************
+* File:TransportBenchmark.java
+* Course: 17655
+* Project: Assignment 3
+* Copyright: Copyright (c) 2009 Carnegie Mellon University
+*
+* Description:
+*
+* This program compares the RMI, NIO and shared-memory transports of the message manager on one machine (the
+* shared-memory cases run only where the rings are available: in /dev/shm/MessageManager unless MessageManager.ShmDir
+* is set, see WireProtocol.ShmDirectory). It starts an RMI registry and a message manager in this process, then runs
+* each case once per transport through MessageManagerInterface, exactly as a participant would. The message manager's
+* console output is discarded while the cases run.
+*
+* The cases are:
+*	round trip	- one thread sends a message to itself and gets the queue, one call after the other
+*	pipelined	- THREADS threads share one connection, each doing round trips; over NIO and shared memory their
+*				  requests are pipelined, over RMI each call takes its own connection from RMI's pool
+*
+* For each case the program prints the time per round trip and the round trips per second.
+*
+* Parameters: Number of round trips per case (on command line). If blank, 20000 is used.
+*			  Transports to compare (on command line, after the round trips). If blank, rmi, nio and shm.
+*
+* Internal Methods:
+*	void Run(String Name, String Transport, int Iterations, int Threads, boolean Report)
+*
+******************************************************************************************************************/
+import MessagePackage.*;
+import java.io.*;
+import java.rmi.registry.LocateRegistry;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+public class TransportBenchmark
+{
+	static final int THREADS = 8;				// Threads in the pipelined case
+
+	public static void main(String args[]) throws Exception
+	{
+		int Iterations = 20000;					// Round trips per case
+		String[] Transports = { "rmi", "nio", "shm" };	// Transports to compare
+
+		if ( args.length > 0 )
+		{
+			Iterations = Integer.parseInt( args[0] );
+
+		} // if
+
+		if ( args.length > 1 )
+		{
+			Transports = Arrays.copyOfRange( args, 1, args.length );
+
+		} // if
+
+		// The message manager only serves NIO when given a port, and shared
+		// memory when given a directory
+
+		if ( System.getProperty( "MessageManager.NioPort" ) == null )
+		{
+			System.setProperty( "MessageManager.NioPort", String.valueOf( WireProtocol.DEFAULTPORT ) );
+
+		} // if
+
+		if ( System.getProperty( "MessageManager.ShmDir" ) == null && new File( "/dev/shm" ).isDirectory() )
+		{
+			System.setProperty( "MessageManager.ShmDir", "/dev/shm/MessageManager" );
+
+		} // if
+
+		if ( WireProtocol.ShmDirectory() == null )
+		{
+			Transports = Arrays.stream( Transports ).filter( t -> !t.equals( "shm" ) ).toArray( String[]::new );
+
+		} // if
+
+		PrintStream Console = System.out;
+
+		System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+
+		LocateRegistry.createRegistry( 1099 );
+		MessageManager.main( new String[0] );
+
+		Console.println( "Round trips per case: " + Iterations );
+		Console.println( String.format( "%-22s %12s %14s", "Case", "us/trip", "trips/s" ) );
+
+		for ( int pass = 0; pass < 2; pass++ )
+		{
+			// The first pass warms up the JIT and is not reported.
+
+			boolean Report = ( pass == 1 );
+
+			for ( String Transport : Transports )
+			{
+				Run( Console, "round trip (" + Transport + ")", Transport, Iterations, 1, Report );
+				Run( Console, "pipelined (" + Transport + ")", Transport, Iterations, THREADS, Report );
+
+			} // for
+
+		} // for
+
+		System.exit( 0 );
+
+	} // main
+
+	/***************************************************************************
+	* CONCRETE METHOD:: Run
+	* Purpose: Registers one participant over the given transport and times
+	*		   Iterations round trips (send then get the queue), split between
+	*		   Threads threads sharing the participant's connection.
+	*
+	* Arguments: PrintStream Console - where to print the results
+	*			 String Name - the case name
+	*			 String Transport - "rmi", "nio" or "shm"
+	*			 int Iterations - the number of round trips
+	*			 int Threads - the number of threads
+	*			 boolean Report - print the results
+	*
+	* Returns: None
+	*
+	* Exceptions: Exception
+	*
+	****************************************************************************/
+
+	static void Run( PrintStream Console, String Name, String Transport, int Iterations, int Threads, boolean Report ) throws Exception
+	{
+		System.setProperty( "MessageManager.Transport", Transport );
+
+		final MessageManagerInterface ei = new MessageManagerInterface();
+		final int PerThread = Iterations / Threads;
+		ExecutorService Pool = Executors.newFixedThreadPool( Threads );
+		Future<?>[] Done = new Future<?>[Threads];
+
+		long Start = System.nanoTime();
+
+		for ( int t = 0; t < Threads; t++ )
+		{
+			Done[t] = Pool.submit( new Callable<Object>()
+			{
+				public Object call() throws Exception
+				{
+					for ( int i = 0; i < PerThread; i++ )
+					{
+						ei.SendMessage( new Message( 1, 72.5f ) );
+						ei.GetMessageQueue();
+
+					} // for
+
+					return null;
+
+				} // call
+
+			} );
+
+		} // for
+
+		for ( int t = 0; t < Threads; t++ )
+		{
+			Done[t].get();
+
+		} // for
+
+		long Elapsed = System.nanoTime() - Start;
+
+		Pool.shutdown();
+		ei.UnRegister();
+
+		if ( Report )
+		{
+			long Trips = (long) PerThread * Threads;
+
+			Console.println( String.format( "%-22s %12.1f %14.0f", Name, Elapsed / 1000.0 / Trips,
+				Trips * 1e9 / Elapsed ) );
+
+		} // if
+
+	} // Run
+
+} // TransportBenchmark